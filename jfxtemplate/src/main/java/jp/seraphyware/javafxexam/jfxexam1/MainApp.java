@@ -22,6 +22,7 @@ import javafx.application.Platform;
 import javafx.stage.Stage;
 import jp.seraphyware.javafxexam.jfxexam1.ui.MainFrameController;
 import jp.seraphyware.javafxexam.jfxexam1.util.concurrent.BackgroundTaskService;
+import jp.seraphyware.javafxexam.jfxexam1.util.concurrent.TaskDurationHistoryStore;
 import jp.seraphyware.javafxexam.jfxexam1.util.log.LogConfigurator;
 
 /**
@@ -51,6 +52,12 @@ public class MainApp extends Application {
 	@Inject
 	private BackgroundTaskService bgTaskService;
 
+	/**
+	 * 子タスクの所要時間の履歴の保存・復元.
+	 */
+	@Inject
+	private TaskDurationHistoryStore taskDurationHistoryStore;
+
 	/**
 	 * シングルトンを取得する.
 	 *
@@ -101,6 +108,9 @@ public class MainApp extends Application {
 			// このインスタンスにInjectする.
 			BeanProvider.injectFields(this);
 
+			// 前回までの子タスクの所要時間の履歴を復元する
+			taskDurationHistoryStore.load();
+
 		} catch (Exception ex) {
 			ex.printStackTrace(); // ログの設定に失敗している可能性があるためコンソールへ
 			throw ex;
@@ -168,6 +178,9 @@ public class MainApp extends Application {
 		logger.info("★bgJob shutdown");
 		bgTaskService.shutdown();
 
+		// 子タスクの所要時間の履歴を保存する
+		taskDurationHistoryStore.store();
+
 		// Taskの完了ハンドラでJavaFXの画面更新などを行う場合に
 		// 先にCDIがシャットダウンしないように後回しにする.
 		CompletableFuture<Void> waitForCDIShutdownTask = new CompletableFuture<>();
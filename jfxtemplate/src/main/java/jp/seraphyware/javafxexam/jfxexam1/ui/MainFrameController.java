@@ -36,6 +36,8 @@ import jp.seraphyware.javafxexam.jfxexam1.ui.common.MainMenuCustomizer;
 import jp.seraphyware.javafxexam.jfxexam1.ui.inner.Page1Controller;
 import jp.seraphyware.javafxexam.jfxexam1.ui.inner.Page2Controller;
 import jp.seraphyware.javafxexam.jfxexam1.ui.util.ErrorDialogUtils;
+import jp.seraphyware.javafxexam.jfxexam1.ui.util.JobTrayService;
+import jp.seraphyware.javafxexam.jfxexam1.ui.util.LogConsoleController;
 import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PreferencesService;
 import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PreferencesServiceParameter;
 import jp.seraphyware.javafxexam.jfxexam1.util.prefs.WindowSizePersistent;
@@ -142,8 +144,7 @@ public class MainFrameController extends AbstractWindowController {
 				if (oldController instanceof MainMenuCustomizer) {
 					((MainMenuCustomizer) oldController).removeCustomizeMenu(menuBar);
 				}
-				windowSizePref.saveSplitPaneDividerPositions(old);
-				windowSizePref.saveTableColumnWidths(old);
+				windowSizePref.saveLayout(old);
 			}
 			if (value != null) {
 				Object newController = value.getUserData();
@@ -153,8 +154,7 @@ public class MainFrameController extends AbstractWindowController {
 				Platform.runLater(() -> {
 					// シーングラフのgetUnmodifiableChildren()の子要素を正しく
 					// 取るためには、一旦キューに入れて後回しにする必要があるようだ。
-					windowSizePref.loadSplitPaneDividerPositions(value);
-					windowSizePref.loadTableColumnWidths(value);
+					windowSizePref.loadLayout(value);
 				});
 			}
 		});
@@ -213,9 +213,12 @@ public class MainFrameController extends AbstractWindowController {
 		String title = resources.getString("application.title"); //$NON-NLS-1$
 		Stage stg = getStage();
 		stg.setTitle(title);
+
+		// 最初のフレームから前回の位置に表示するため、表示前に復元する
+		windowSizePref.loadWindowSize(stg);
 		super.openWindow();
 
-		windowSizePref.loadWindowSize(getStage());
+		windowSizePref.startTracking(stg); // 以降のレイアウトの変更を随時保存する
 	}
 
 	/**
@@ -225,6 +228,7 @@ public class MainFrameController extends AbstractWindowController {
 	public boolean performClose() {
 		// 現在のウィンドウサイズの保存
 		windowSizePref.saveWindowSize(getStage());
+		windowSizePref.stopTracking();
 
 		destroy();
 
@@ -263,6 +267,10 @@ public class MainFrameController extends AbstractWindowController {
 	 */
 	protected void destroy() {
 		disposeCenterPane();
+		if (logConsoleCtrl != null) {
+			logConsoleCtrlHolder.destroy(logConsoleCtrl);
+			logConsoleCtrl = null;
+		}
 		logger.info("☆destroy"); //$NON-NLS-1$
 	}
 
@@ -327,6 +335,38 @@ public class MainFrameController extends AbstractWindowController {
 		}
 	}
 
+	/**
+	 * ジョブトレイ
+	 */
+	@Inject
+	private JobTrayService jobTrayService;
+
+	@FXML
+	protected void onJobTray() {
+		jobTrayService.showTray(getStage());
+	}
+
+	/**
+	 * ログコンソール
+	 */
+	@Inject
+	private Instance<LogConsoleController> logConsoleCtrlHolder;
+
+	/**
+	 * 表示中のログコンソール(最初に開いたものを使い回す)
+	 */
+	private LogConsoleController logConsoleCtrl;
+
+	@FXML
+	protected void onLogConsole() {
+		if (logConsoleCtrl == null) {
+			LogConsoleController ctrl = logConsoleCtrlHolder.get();
+			ctrl.setOwner(getStage());
+			logConsoleCtrl = ctrl;
+		}
+		logConsoleCtrl.openWindow();
+	}
+
 	/**
 	 * 子画面1
 	 */
@@ -0,0 +1,245 @@
+package jp.seraphyware.javafxexam.jfxexam1.ui.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.apache.logging.log4j.Level;
+
+import javafx.collections.ObservableListBase;
+import jp.seraphyware.javafxexam.jfxexam1.util.log.LogRingBuffer;
+
+/**
+ * {@link LogRingBuffer}の行のうち、レベルとロガーのフィルタに一致する行のシーケンスのリスト.<br>
+ * 一致する行のシーケンスだけをlongの配列に保持し、{@link #update()}では前回から追加された行だけを調べて
+ * 末尾に追加し、リングバッファで上書きされた行を先頭から取り除く.
+ * そのため、行数が多くてもバッファ全体を走査しなおすことはない.<br>
+ * フィルタを変更した場合は作り直すが、その場合も調べるのは行のレベルとロガーのIDだけで、行の文字列は読まない.<br>
+ * FXスレッドでのみ使用すること.<br>
+ */
+public final class LogLineIndex extends ObservableListBase<Long> {
+
+	/**
+	 * 一度にリングバッファからコピーする行数
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * 対象のリングバッファ
+	 */
+	private final LogRingBuffer buffer;
+
+	/**
+	 * 一致した行のシーケンス(headからsize個が有効)
+	 */
+	private long[] seqs = new long[CHUNK_SIZE];
+
+	/**
+	 * 有効な範囲の開始位置
+	 */
+	private int head;
+
+	/**
+	 * 有効な行数
+	 */
+	private int size;
+
+	/**
+	 * 次に調べる行のシーケンス
+	 */
+	private long indexedSeq;
+
+	/**
+	 * 表示する最も詳細なレベル({@link Level#intLevel()}、これ以下の値の行が一致する)
+	 */
+	private int minLevel = Level.ALL.intLevel();
+
+	/**
+	 * ロガー名に含まれる文字列(小文字)、空ならば全て一致する
+	 */
+	private String loggerText = "";
+
+	/**
+	 * ロガーのIDごとの一致の有無
+	 */
+	private boolean[] loggerMatches = new boolean[64];
+
+	/**
+	 * 一致の有無を判定済みのロガーの数
+	 */
+	private int loggerMatchesCount;
+
+	/**
+	 * コピー用のレベルの配列
+	 */
+	private final int[] chunkLevels = new int[CHUNK_SIZE];
+
+	/**
+	 * コピー用のロガーのIDの配列
+	 */
+	private final int[] chunkLoggerIds = new int[CHUNK_SIZE];
+
+	/**
+	 * リングバッファを指定して構築する.<br>
+	 * 行は{@link #update()}を呼び出すまで追加されない.
+	 * @param buffer リングバッファ
+	 */
+	public LogLineIndex(LogRingBuffer buffer) {
+		this.buffer = Objects.requireNonNull(buffer);
+		this.indexedSeq = buffer.getFirstSeq();
+	}
+
+	public LogRingBuffer getBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public Long get(int index) {
+		return getSeq(index);
+	}
+
+	/**
+	 * 行のシーケンスを取得する.
+	 * @param index インデックス
+	 * @return シーケンス
+	 */
+	public long getSeq(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index=" + index + ", size=" + size);
+		}
+		return seqs[head + index];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * フィルタを設定し、一覧を作り直す.
+	 * @param minLevel 表示する最も詳細なレベル、nullならば全て
+	 * @param loggerText ロガー名に含まれる文字列(大文字小文字は区別しない)、nullまたは空ならば全て
+	 */
+	public void setFilter(Level minLevel, String loggerText) {
+		this.minLevel = (minLevel != null) ? minLevel.intLevel() : Level.ALL.intLevel();
+		this.loggerText = (loggerText != null) ? loggerText.trim().toLowerCase(Locale.ROOT) : "";
+		loggerMatchesCount = 0;
+
+		beginChange();
+		try {
+			if (size > 0) {
+				nextRemove(0, copyOf(head, size));
+			}
+			head = 0;
+			size = 0;
+			indexedSeq = buffer.getFirstSeq();
+			update();
+
+		} finally {
+			endChange();
+		}
+	}
+
+	/**
+	 * リングバッファの変化を反映する.<br>
+	 * 上書きされた行を取り除き、前回から追加された行のうちフィルタに一致するものを追加する.
+	 */
+	public void update() {
+		long firstSeq = buffer.getFirstSeq();
+		long nextSeq = buffer.getNextSeq();
+
+		beginChange();
+		try {
+			// 上書きされた行を取り除く
+			int pos = Arrays.binarySearch(seqs, head, head + size, firstSeq);
+			int removeCount = ((pos >= 0) ? pos : -(pos + 1)) - head;
+			if (removeCount > 0) {
+				nextRemove(0, copyOf(head, removeCount));
+				head += removeCount;
+				size -= removeCount;
+			}
+			if (indexedSeq < firstSeq) {
+				indexedSeq = firstSeq;
+			}
+
+			// 追加された行を調べる
+			int oldSize = size;
+			while (indexedSeq < nextSeq) {
+				long toSeq = Math.min(nextSeq, indexedSeq + CHUNK_SIZE);
+				long st = buffer.copyAttributes(indexedSeq, toSeq, chunkLevels, chunkLoggerIds);
+				updateLoggerMatches();
+				for (long seq = st; seq < toSeq; seq++) {
+					int idx = (int) (seq - st);
+					if (chunkLevels[idx] <= minLevel && loggerMatches[chunkLoggerIds[idx]]) {
+						append(seq);
+					}
+				}
+				indexedSeq = toSeq;
+			}
+			if (size > oldSize) {
+				nextAdd(oldSize, size);
+			}
+
+		} finally {
+			endChange();
+		}
+	}
+
+	/**
+	 * 新しく現れたロガーについて、フィルタに一致するか判定する.
+	 */
+	private void updateLoggerMatches() {
+		int loggerCount = buffer.getLoggerCount();
+		if (loggerCount > loggerMatches.length) {
+			loggerMatches = Arrays.copyOf(loggerMatches,
+					Math.max(loggerCount, loggerMatches.length * 2));
+		}
+		for (int id = loggerMatchesCount; id < loggerCount; id++) {
+			loggerMatches[id] = loggerText.isEmpty() || buffer.getLoggerName(id)
+					.toLowerCase(Locale.ROOT).contains(loggerText);
+		}
+		loggerMatchesCount = loggerCount;
+	}
+
+	/**
+	 * 末尾にシーケンスを追加する.<br>
+	 * 配列の末尾に空きがなければ、先頭の空きを詰めるか、配列を拡張する.
+	 * @param seq シーケンス
+	 */
+	private void append(long seq) {
+		if (head + size == seqs.length) {
+			if (head > 0 && size < seqs.length / 2) {
+				System.arraycopy(seqs, head, seqs, 0, size);
+			} else {
+				long[] newSeqs = new long[seqs.length * 2];
+				System.arraycopy(seqs, head, newSeqs, 0, size);
+				seqs = newSeqs;
+			}
+			head = 0;
+		}
+		seqs[head + size++] = seq;
+	}
+
+	/**
+	 * 取り除く行の通知用に、シーケンスをコピーしたリストを作成する.
+	 * @param from 配列上の開始位置
+	 * @param count 行数
+	 * @return リスト
+	 */
+	private List<Long> copyOf(int from, int count) {
+		long[] values = Arrays.copyOfRange(seqs, from, from + count);
+		return new AbstractList<Long>() {
+			@Override
+			public Long get(int index) {
+				return values[index];
+			}
+
+			@Override
+			public int size() {
+				return values.length;
+			}
+		};
+	}
+}
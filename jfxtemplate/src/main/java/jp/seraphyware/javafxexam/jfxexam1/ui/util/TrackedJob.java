@@ -0,0 +1,213 @@
+package jp.seraphyware.javafxexam.jfxexam1.ui.util;
+
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.value.ChangeListener;
+import javafx.util.Duration;
+
+/**
+ * {@link JobTrayService}で追跡しているジョブ.<br>
+ * ジョブのタイトル、メッセージ、プログレスを{@link ProgressInfo}から取り込み、
+ * 開始からの経過時間と進捗からスループットと残り時間を求める.<br>
+ * プロパティはFXスレッドでのみ更新される.<br>
+ */
+public class TrackedJob {
+
+	/**
+	 * ジョブの状態
+	 */
+	public enum JobState {
+
+		/**
+		 * 開始待ち
+		 */
+		WAITING,
+
+		/**
+		 * 実行中
+		 */
+		RUNNING,
+
+		/**
+		 * 正常終了
+		 */
+		SUCCEEDED,
+
+		/**
+		 * 失敗
+		 */
+		FAILED,
+
+		/**
+		 * キャンセル
+		 */
+		CANCELLED;
+
+		/**
+		 * 終了状態か?
+		 * @return 終了していればtrue
+		 */
+		public boolean isFinished() {
+			return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	private final ProgressInfo progressInfo;
+
+	private final ReadOnlyStringWrapper title = new ReadOnlyStringWrapper(this, "title");
+
+	private final ReadOnlyStringWrapper message = new ReadOnlyStringWrapper(this, "message");
+
+	private final ReadOnlyDoubleWrapper progress = new ReadOnlyDoubleWrapper(this, "progress", -1);
+
+	private final ReadOnlyObjectWrapper<JobState> state = new ReadOnlyObjectWrapper<>(
+			this, "state", JobState.WAITING);
+
+	/**
+	 * スループット(1秒あたりの進捗)、不明ならば負
+	 */
+	private final ReadOnlyDoubleWrapper throughput = new ReadOnlyDoubleWrapper(this, "throughput", -1);
+
+	/**
+	 * 残り時間、不明ならばDuration.UNKNOWN
+	 */
+	private final ReadOnlyObjectWrapper<Duration> remainingTime = new ReadOnlyObjectWrapper<>(
+			this, "remainingTime", Duration.UNKNOWN);
+
+	/**
+	 * 失敗した場合の例外
+	 */
+	private Throwable exception;
+
+	/**
+	 * 開始時刻(System.nanoTime)
+	 */
+	private long startedAt;
+
+	/**
+	 * 進捗が変化したらスループットを再計算するリスナ
+	 */
+	private final ChangeListener<Number> progressListener = (self, old, value) -> {
+		updateThroughput(value.doubleValue());
+	};
+
+	/**
+	 * コンストラクタ
+	 * @param progressInfo ジョブのUI情報
+	 */
+	TrackedJob(ProgressInfo progressInfo) {
+		this.progressInfo = Objects.requireNonNull(progressInfo);
+		title.bind(progressInfo.titleProperty());
+		message.bind(progressInfo.messageProperty());
+	}
+
+	/**
+	 * ジョブの開始時に呼び出される.
+	 */
+	void started() {
+		assert Platform.isFxApplicationThread();
+		if (state.get() != JobState.WAITING) {
+			return;
+		}
+		startedAt = System.nanoTime();
+		state.set(JobState.RUNNING);
+		progress.bind(progressInfo.progressProperty());
+		progress.addListener(progressListener);
+	}
+
+	/**
+	 * ジョブの終了時に呼び出される.<br>
+	 * プロパティの監視を解除し、終了時点の値を保持する.
+	 * @param ex 例外で終了した場合は例外、正常終了ならばnull
+	 */
+	void finished(Throwable ex) {
+		assert Platform.isFxApplicationThread();
+		title.unbind();
+		message.unbind();
+		progress.unbind();
+		progress.removeListener(progressListener);
+
+		Throwable cause = ex;
+		if (cause instanceof CompletionException && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		if (cause == null) {
+			progress.set(1);
+			state.set(JobState.SUCCEEDED);
+		} else if (cause instanceof CancellationException) {
+			state.set(JobState.CANCELLED);
+		} else {
+			exception = cause;
+			state.set(JobState.FAILED);
+		}
+		remainingTime.set(Duration.ZERO);
+	}
+
+	private void updateThroughput(double value) {
+		double elapsedSeconds = (System.nanoTime() - startedAt) / 1e9;
+		if (value > 0 && elapsedSeconds > 0) {
+			double rate = value / elapsedSeconds;
+			throughput.set(rate);
+			remainingTime.set(Duration.seconds(Math.max(0, 1d - value) / rate));
+		} else {
+			throughput.set(-1);
+			remainingTime.set(Duration.UNKNOWN);
+		}
+	}
+
+	/**
+	 * ジョブをキャンセルする.
+	 * @return キャンセルを受け付けた場合はtrue
+	 */
+	public boolean cancel() {
+		if (state.get().isFinished()) {
+			return false;
+		}
+		return progressInfo.cancel();
+	}
+
+	public ReadOnlyStringProperty titleProperty() {
+		return title.getReadOnlyProperty();
+	}
+
+	public ReadOnlyStringProperty messageProperty() {
+		return message.getReadOnlyProperty();
+	}
+
+	public ReadOnlyDoubleProperty progressProperty() {
+		return progress.getReadOnlyProperty();
+	}
+
+	public ReadOnlyObjectProperty<JobState> stateProperty() {
+		return state.getReadOnlyProperty();
+	}
+
+	public JobState getState() {
+		return state.get();
+	}
+
+	public ReadOnlyDoubleProperty throughputProperty() {
+		return throughput.getReadOnlyProperty();
+	}
+
+	public ReadOnlyObjectProperty<Duration> remainingTimeProperty() {
+		return remainingTime.getReadOnlyProperty();
+	}
+
+	/**
+	 * 失敗した場合の例外
+	 * @return 例外、失敗していなければnull
+	 */
+	public Throwable getException() {
+		return exception;
+	}
+}
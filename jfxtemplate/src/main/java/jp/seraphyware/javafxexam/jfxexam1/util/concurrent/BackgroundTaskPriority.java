@@ -0,0 +1,21 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * タスクのクラスに付与して、{@link BackgroundTaskService}で実行される優先レーンを指定する.<br>
+ * サブクラスにも継承される.<br>
+ */
+@Documented
+@Inherited
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface BackgroundTaskPriority {
+	TaskPriority value();
+}
@@ -1,23 +1,56 @@
 package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyDoubleWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.value.ChangeListener;
 import javafx.concurrent.Task;
+import javafx.util.Duration;
 
 /**
- * 複数のjavafx.concurrent.Taskを順番に実行するjavafx.concurrent.Task。<br>
- * タスクは追加した順番で実行される.<br>
- * 各子タスクのUIへの通知は、すべて、このTaskのUI通知として転送される.<br>
- * このタスクの戻り値は最後の子タスクの結果である.<br>
- * 実行中のタスクがキャンセルまたは失敗した場合は、以降のタスクは処理されない.<br>
+ * 複数のjavafx.concurrent.Taskを依存関係にしたがって実行するjavafx.concurrent.Task。<br>
+ * {@link #addTask(FutureTask)}で追加したタスクは、直前に追加したタスクの完了後に実行される.
+ * (すべてaddTaskで追加した場合は、追加した順番で実行される.)<br>
+ * {@link #addTaskAfter(FutureTask, FutureTask...)}で追加したタスクは、
+ * 指定したタスクの完了後に実行される. 依存関係のないタスクどうしは、
+ * コンストラクタでExecutorを指定した場合は並列に実行される.<br>
+ * 各子タスクのタイトル、メッセージは、このTaskのUI通知として転送され、
+ * プログレスは子タスクごとの重みで加重した全体の完了の割合として集計される.<br>
+ * 子タスクの重みは{@link #setWeight(FutureTask, double)}で明示できる.
+ * 明示されていなければ、{@link TaskDurationHistory}に記録された
+ * 過去の所要時間を重みとして用いる.<br>
+ * 経過時間と進捗から求めたスループットと残り時間の見積もりは
+ * {@link #throughputProperty()}, {@link #remainingTimeProperty()}で取得できる.<br>
+ * このタスクの戻り値は最後に追加した子タスクの結果である.<br>
+ * 実行中のタスクがキャンセルまたは失敗した場合は、実行中の他のタスクもキャンセルし、
+ * 以降のタスクは処理されない.<br>
  * 実行中にタスクが増減することは想定されていない.<Br>
  */
 public class ChainedJavaFXTask extends TaskWithCompletableFuture<Object> {
@@ -25,32 +58,301 @@ public class ChainedJavaFXTask extends TaskWithCompletableFuture<Object> {
 	private static final Logger logger = LoggerFactory
 			.getLogger(ChainedJavaFXTask.class);
 
-	private LinkedList<FutureTask<?>> tasks = new LinkedList<>();
+	/**
+	 * 子タスクと、その依存関係
+	 */
+	private final class Node {
+
+		final FutureTask<?> task;
+
+		final List<FutureTask<?>> dependencies;
+
+		/**
+		 * 明示された重み、0ならば未指定
+		 */
+		double declaredWeight;
+
+		/**
+		 * 明示された所要時間の履歴のキー
+		 */
+		String historyKey;
+
+		/**
+		 * 履歴のキーが明示されたか?(falseならばチェインのキーと追加順から決める)
+		 */
+		boolean historyKeyDeclared;
+
+		/**
+		 * 実行時に用いる所要時間の履歴のキー(実行時に決定する)
+		 */
+		volatile String resolvedHistoryKey;
+
+		/**
+		 * 全体に対する重みの割合(実行時に決定する)
+		 */
+		volatile double weight;
+
+		/**
+		 * 実行を開始したか?
+		 */
+		final AtomicBoolean started = new AtomicBoolean();
+
+		/**
+		 * このタスクの完了を待っているタスク(実行時に構築する)
+		 */
+		final List<Node> dependents = new ArrayList<>();
+
+		/**
+		 * 未完了の依存タスク数(実行時に構築する)
+		 */
+		int remaining;
+
+		/**
+		 * 子タスクの進捗(0～1)
+		 */
+		volatile double progress;
+
+		final ChangeListener<String> messageListener = (self, old, value) -> {
+			updateMessage(value);
+		};
+
+		final ChangeListener<String> titleListener = (self, old, value) -> {
+			updateTitle(value);
+		};
+
+		final ChangeListener<Number> progressListener = (self, old, value) -> {
+			progress = Math.max(0d, value.doubleValue());
+			updateAggregatedProgress();
+		};
+
+		Node(FutureTask<?> task, List<FutureTask<?>> dependencies) {
+			this.task = task;
+			this.dependencies = dependencies;
+		}
+	}
+
+	/**
+	 * 並列実行に用いるエグゼキュータ、nullならば呼び出しスレッドで順番に実行する
+	 */
+	private final Executor executor;
+
+	/**
+	 * 子タスク(追加順)
+	 */
+	private final Map<FutureTask<?>, Node> nodes = new LinkedHashMap<>();
+
+	/**
+	 * 最後に追加したタスク
+	 */
+	private FutureTask<?> lastTask;
+
+	/**
+	 * エグゼキュータで実行したタスクの完了通知
+	 */
+	private final BlockingQueue<FutureTask<?>> completions = new LinkedBlockingQueue<>();
+
+	/**
+	 * 子タスクの所要時間の履歴
+	 */
+	private TaskDurationHistory durationHistory = TaskDurationHistory.getDefault();
+
+	/**
+	 * 子タスクの既定の履歴のキーの接頭語、nullならばこのクラスのクラス名
+	 */
+	private String chainKey;
+
+	/**
+	 * 実行開始時刻(System.nanoTime)
+	 */
+	private volatile long startedAt;
+
+	/**
+	 * 過去の所要時間から見積もった全体の所要時間(ミリ秒)、見積もれなければ負
+	 */
+	private volatile double expectedMillis = -1;
+
+	/**
+	 * スループット(1秒あたりの進捗)、不明ならば負
+	 */
+	private final ReadOnlyDoubleWrapper throughput = new ReadOnlyDoubleWrapper(this,
+			"throughput", -1);
+
+	/**
+	 * 残り時間の見積もり、不明ならばDuration.UNKNOWN
+	 */
+	private final ReadOnlyObjectWrapper<Duration> remainingTime = new ReadOnlyObjectWrapper<>(
+			this, "remainingTime", Duration.UNKNOWN);
 
-	private ChangeListener<String> messageListener = (self, old, value) -> {
-		updateMessage(value);
-	};
+	/**
+	 * FXスレッドへの反映待ちの見積もり値(スループット, 残りミリ秒)
+	 */
+	private final AtomicReference<double[]> pendingEstimate = new AtomicReference<>();
 
-	private ChangeListener<String> titleListener = (self, old, value) -> {
-		updateTitle(value);
-	};
+	/**
+	 * すべての子タスクを呼び出しスレッドで実行するコンストラクタ
+	 */
+	public ChainedJavaFXTask() {
+		this(null);
+	}
 
-	private ChangeListener<Number> progressListener = (self, old, value) -> {
-		updateProgress(value.doubleValue());
-	};
+	/**
+	 * 依存関係のないタスクを指定したエグゼキュータで並列に実行するコンストラクタ.<br>
+	 * エグゼキュータが受け付けなかったタスクや、空きスレッドがなく開始されていないタスクは
+	 * 呼び出しスレッドで実行するため、
+	 * このタスク自身と同じスレッドプールを指定してもデッドロックしない.<br>
+	 * @param executor エグゼキュータ(BackgroundTaskServiceなど)、nullの場合は順番に実行する
+	 */
+	public ChainedJavaFXTask(Executor executor) {
+		this.executor = executor;
+	}
 
+	/**
+	 * タスクを追加する.<br>
+	 * 直前に追加したタスクの完了後に実行される.
+	 * @param task タスク
+	 */
 	public void addTask(FutureTask<?> task) {
+		if (lastTask == null) {
+			addTaskAfter(task);
+		} else {
+			addTaskAfter(task, lastTask);
+		}
+	}
+
+	/**
+	 * 依存するタスクを指定してタスクを追加する.<br>
+	 * 依存するタスクがすべて正常に完了した後に実行される.
+	 * 依存するタスクを指定しなければ最初に実行できる.<br>
+	 * @param task タスク
+	 * @param dependencies 依存するタスク、すでに追加済みであること
+	 * @throws IllegalArgumentException 依存するタスクが追加されていないか、タスクが追加済みの場合
+	 */
+	public void addTaskAfter(FutureTask<?> task, FutureTask<?>... dependencies) {
 		Objects.requireNonNull(task);
+		if (nodes.containsKey(task)) {
+			throw new IllegalArgumentException("task is already added: " + task);
+		}
+		for (FutureTask<?> dependency : dependencies) {
+			if (!nodes.containsKey(dependency)) {
+				throw new IllegalArgumentException("dependency is not added: " + dependency);
+			}
+		}
+		Node node = new Node(task, Arrays.asList(dependencies.clone()));
 		if (task instanceof Task) {
-			bind((Task<?>) task);
+			bind(node);
 		}
-		this.tasks.add(task);
+		nodes.put(task, node);
+		lastTask = task;
+	}
+
+	/**
+	 * 子タスクの重みを明示する.<br>
+	 * 重みは子タスクどうしの相対的な大きさであり、全体の進捗の集計に用いられる.<br>
+	 * いずれかの子タスクに重みを明示した場合、明示していない子タスクの重みは1とする.<br>
+	 * @param task 追加済みのタスク
+	 * @param weight 重み、0以下ならば未指定に戻す
+	 */
+	public void setWeight(FutureTask<?> task, double weight) {
+		getNode(task).declaredWeight = Math.max(0d, weight);
+	}
+
+	/**
+	 * 子タスクの所要時間を履歴に記録する際のキーを設定する.<br>
+	 * 既定は、チェインのキー({@link #setChainKey(String)})と、追加順、タスクのクラス名から作られる.
+	 * @param task 追加済みのタスク
+	 * @param historyKey キー、nullの場合は履歴を使わない
+	 */
+	public void setHistoryKey(FutureTask<?> task, String historyKey) {
+		Node node = getNode(task);
+		node.historyKey = historyKey;
+		node.historyKeyDeclared = true;
+	}
+
+	/**
+	 * 子タスクの既定の履歴のキーの接頭語となる、チェインのキーを設定する.<br>
+	 * 同じクラスで構成の異なるチェインを作る場合は、チェインごとに異なるキーを設定すること.
+	 * (既定はこのクラスのクラス名である.)
+	 * @param chainKey キー、nullの場合は既定に戻す
+	 */
+	public void setChainKey(String chainKey) {
+		this.chainKey = chainKey;
+	}
+
+	/**
+	 * チェインのキーを取得する.
+	 * @return チェインのキー
+	 */
+	public String getChainKey() {
+		return (chainKey != null) ? chainKey : getClass().getName();
+	}
+
+	/**
+	 * 子タスクの履歴のキーを決める.<br>
+	 * 明示されていなければ、チェインのキーと追加順、タスクのクラス名から作る.
+	 * (同じクラスの子タスクどうしでも、チェイン内の位置ごとに所要時間を学習するため.)
+	 * @param node 子タスク
+	 * @param index 追加順
+	 * @return キー、履歴を使わない場合はnull
+	 */
+	private String resolveHistoryKey(Node node, int index) {
+		if (node.historyKeyDeclared) {
+			return node.historyKey;
+		}
+		return getChainKey() + "#" + index + ":" + node.task.getClass().getName();
+	}
+
+	/**
+	 * 子タスクの所要時間の履歴を設定する.<br>
+	 * 既定は{@link TaskDurationHistory#getDefault()}である.
+	 * @param durationHistory 履歴、nullの場合は履歴を使わない
+	 */
+	public void setDurationHistory(TaskDurationHistory durationHistory) {
+		this.durationHistory = durationHistory;
+	}
+
+	private Node getNode(FutureTask<?> task) {
+		Node node = nodes.get(task);
+		if (node == null) {
+			throw new IllegalArgumentException("task is not added: " + task);
+		}
+		return node;
+	}
+
+	/**
+	 * スループット(1秒あたりに進む全体の進捗の割合)
+	 * @return 不明の場合は負
+	 */
+	public final ReadOnlyDoubleProperty throughputProperty() {
+		return throughput.getReadOnlyProperty();
+	}
+
+	public final double getThroughput() {
+		return throughput.get();
+	}
+
+	/**
+	 * 残り時間の見積もり
+	 * @return 不明の場合はDuration.UNKNOWN
+	 */
+	public final ReadOnlyObjectProperty<Duration> remainingTimeProperty() {
+		return remainingTime.getReadOnlyProperty();
+	}
+
+	public final Duration getRemainingTime() {
+		return remainingTime.get();
 	}
 
 	public void removeTask(FutureTask<?> task) {
-		if (this.tasks.remove(task)) {
+		Node node = nodes.remove(task);
+		if (node != null) {
 			if (task instanceof Task) {
-				unbind((Task<?>) task);
+				unbind(node);
+			}
+			if (lastTask == task) {
+				lastTask = null;
+				for (FutureTask<?> remain : nodes.keySet()) {
+					lastTask = remain;
+				}
 			}
 		}
 	}
@@ -63,67 +365,267 @@ public class ChainedJavaFXTask extends TaskWithCompletableFuture<Object> {
 		}
 	}
 
+	/**
+	 * 子タスクの重みを決定する.<br>
+	 * いずれかの子タスクに重みが明示されていれば明示された重み(未指定は1)を用い、
+	 * そうでなければ過去の所要時間(記録のないものは記録のあるものの平均)を用いる.
+	 * いずれもなければ均等とする.<br>
+	 * 過去の所要時間から全体の所要時間も見積もる.
+	 */
+	private void resolveWeights() {
+		boolean declared = false;
+		int learnedCount = 0;
+		double learnedSum = 0;
+		double[] learned = new double[nodes.size()];
+		int idx = 0;
+		for (Node node : nodes.values()) {
+			declared |= node.declaredWeight > 0;
+			node.resolvedHistoryKey = resolveHistoryKey(node, idx);
+			learned[idx] = -1;
+			if (durationHistory != null) {
+				learned[idx] = durationHistory.getAverageMillis(node.resolvedHistoryKey)
+						.orElse(-1);
+				if (learned[idx] >= 0) {
+					learnedSum += learned[idx];
+					learnedCount++;
+				}
+			}
+			idx++;
+		}
+		double learnedAverage = (learnedCount > 0) ? learnedSum / learnedCount : 0;
+		expectedMillis = (learnedCount == learned.length && learnedCount > 0)
+				? learnedSum
+				: -1;
+
+		double[] weights = new double[learned.length];
+		double total = 0;
+		idx = 0;
+		for (Node node : nodes.values()) {
+			double weight;
+			if (declared) {
+				weight = (node.declaredWeight > 0) ? node.declaredWeight : 1d;
+			} else if (learnedCount > 0) {
+				weight = (learned[idx] >= 0) ? learned[idx] : learnedAverage;
+			} else {
+				weight = 1d;
+			}
+			weights[idx++] = weight;
+			total += weight;
+		}
+
+		idx = 0;
+		for (Node node : nodes.values()) {
+			node.weight = (total > 0) ? weights[idx] / total : 1d / weights.length;
+			idx++;
+		}
+	}
+
+	/**
+	 * 子タスクの進捗から全体の進捗を求めて更新する.<br>
+	 * 完了したタスクは1、実行中のjavafx.concurrent.Taskはそのプログレス、
+	 * それ以外は0として、重みつきの合計とする.
+	 */
+	private void updateAggregatedProgress() {
+		if (nodes.isEmpty() || startedAt == 0) {
+			return;
+		}
+		double progress = 0;
+		for (Node node : nodes.values()) {
+			progress += node.weight * (node.task.isDone() ? 1d : node.progress);
+		}
+		progress = Math.min(1d, progress);
+		updateProgress(progress);
+		updateEstimate(progress);
+	}
+
+	/**
+	 * 進捗と経過時間からスループットと残り時間を見積もる.<br>
+	 * 進捗が少ないうちは過去の所要時間による見積もりがあれば、それを用いる.
+	 * @param progress 全体の進捗
+	 */
+	private void updateEstimate(double progress) {
+		double elapsedSeconds = (System.nanoTime() - startedAt) / 1e9;
+		double rate = -1;
+		double remainMillis = -1;
+		if (elapsedSeconds > 0 && progress > 0) {
+			rate = progress / elapsedSeconds;
+			remainMillis = (1d - progress) / rate * 1000d;
+		}
+		double expected = expectedMillis;
+		if (expected >= 0 && progress < 0.05) {
+			remainMillis = Math.max(0, expected * (1d - progress));
+		}
+
+		// FXスレッドへの反映は、まとめて行う.
+		if (pendingEstimate.getAndSet(new double[] { rate, remainMillis }) == null) {
+			runOnFxThread(() -> {
+				double[] estimate = pendingEstimate.getAndSet(null);
+				throughput.set(estimate[0]);
+				remainingTime.set((estimate[1] >= 0)
+						? Duration.millis(estimate[1])
+						: Duration.UNKNOWN);
+			});
+		}
+	}
+
+	private static void runOnFxThread(Runnable r) {
+		if (Platform.isFxApplicationThread()) {
+			r.run();
+		} else {
+			Platform.runLater(r);
+		}
+	}
+
 	/**
 	 * javafx.concurrent.Taskのタイトル、メッセージ、プログレスのプロパティを監視し、
 	 * それを
-	 * @param task
+	 * @param node
 	 */
-	private void bind(Task<?> task) {
-		task.messageProperty().addListener(messageListener);
-		task.titleProperty().addListener(titleListener);
-		task.progressProperty().addListener(progressListener);
+	private void bind(Node node) {
+		Task<?> task = (Task<?>) node.task;
+		task.messageProperty().addListener(node.messageListener);
+		task.titleProperty().addListener(node.titleListener);
+		task.progressProperty().addListener(node.progressListener);
 	}
 
-	private void unbind(Task<?> task) {
-		task.messageProperty().removeListener(messageListener);
-		task.titleProperty().removeListener(titleListener);
-		task.progressProperty().removeListener(progressListener);
+	private void unbind(Node node) {
+		Task<?> task = (Task<?>) node.task;
+		task.messageProperty().removeListener(node.messageListener);
+		task.titleProperty().removeListener(node.titleListener);
+		task.progressProperty().removeListener(node.progressListener);
 	}
 
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
-		tasks.forEach(task -> task.cancel(mayInterruptIfRunning));
+		nodes.keySet().forEach(task -> task.cancel(mayInterruptIfRunning));
 		return super.cancel(mayInterruptIfRunning);
 	}
 
 	@Override
 	protected Object call() throws Exception {
+		resolveWeights();
+		startedAt = System.nanoTime();
+
+		// 依存関係を構築し、最初に実行できるタスクを求める
+		Deque<Node> ready = new ArrayDeque<>();
+		for (Node node : nodes.values()) {
+			node.remaining = 0;
+			node.dependents.clear();
+			node.started.set(false);
+		}
+		for (Node node : nodes.values()) {
+			for (FutureTask<?> dependency : node.dependencies) {
+				Node dependencyNode = nodes.get(dependency);
+				if (dependencyNode != null) {
+					node.remaining++;
+					dependencyNode.dependents.add(node);
+				}
+			}
+		}
+		for (Node node : nodes.values()) {
+			if (node.remaining == 0) {
+				ready.add(node);
+			}
+		}
+
+		Set<Node> running = new LinkedHashSet<>();
 		Object result = null;
 		boolean cancelled = false;
 		Exception occurredException = null;
-		for (FutureTask<?> task : tasks) {
-			if (occurredException != null || cancelled || isCancelled()) {
-				// 先行するタスクが例外またはキャンセルされている場合は
-				// 後続のタスクはすべてキャンセルとする.
-				task.cancel(true);
-				result = null;
+		try {
+			while (!isCancelled()) {
+				// 完了したタスクを確認し、後続のタスクを実行可能にする.
+				Iterator<Node> ite = running.iterator();
+				while (ite.hasNext()) {
+					Node node = ite.next();
+					if (!node.task.isDone()) {
+						continue;
+					}
+					ite.remove();
+					try {
+						Object ret = node.task.get();
+						if (node.task == lastTask) {
+							result = ret;
+						}
+						for (Node dependent : node.dependents) {
+							if (--dependent.remaining == 0) {
+								ready.add(dependent);
+							}
+						}
 
-			} else {
-				try {
-					// JavaFXTaskであれば初期プロパティの取り込み
-					if (task instanceof Task) {
-						updateTitle(((Task<?>) task).getTitle());
-						updateMessage(((Task<?>) task).getMessage());
-						updateProgress(((Task<?>) task).getProgress());
+					} catch (CancellationException ex) {
+						logger.warn("bgTask cancelled. task={}", node.task, ex);
+						cancelled = true;
+
+					} catch (ExecutionException ex) {
+						logger.error("bgTask execution failed. task={}", node.task, ex);
+						if (occurredException == null) {
+							occurredException = ex;
+						}
 					}
+				}
+				updateAggregatedProgress();
+
+				if (cancelled || occurredException != null) {
+					// いずれかのタスクが例外またはキャンセルされた場合は
+					// 他のタスクはすべてキャンセルとする.
+					break;
+				}
+				if (ready.isEmpty() && running.isEmpty()) {
+					// すべて完了
+					break;
+				}
 
-					// タスクを実行する.
-					task.run();
+				if (!ready.isEmpty()) {
+					// 実行可能なタスクが複数あれば、1つを残してエグゼキュータで実行する.
+					if (executor != null) {
+						while (ready.size() > 1) {
+							Node node = ready.poll();
+							running.add(node);
+							submit(node);
+						}
+					}
+					// 残りの1つは、このスレッドで実行する.
+					Node node = ready.poll();
+					running.add(node);
+					importProperties(node);
+					runTask(node);
+					continue;
+				}
+
+				// エグゼキュータで、まだ開始されていないタスクがあれば、このスレッドで実行する.
+				// (すでに開始・完了しているタスクのrunは何もしない.)
+				boolean progressed = false;
+				for (Node node : running) {
+					if (runTask(node)) {
+						progressed = true;
+						break;
+					}
+				}
+				if (!progressed) {
+					// 他のスレッドで実行中のタスクの完了を待つ
+					completions.take();
+				}
+			}
 
-					// 実行結果を取得する.
-					result = task.get();
+		} catch (InterruptedException ex) {
+			logger.warn("bgTask interrupted.", ex);
+			cancelled = true;
 
-				} catch (InterruptedException | CancellationException ex) {
-					logger.warn("bgTask cancelled. task={}", task, ex);
-					cancelled = true;
+		} catch (Exception ex) {
+			logger.error("bgTask execution failed.", ex);
+			occurredException = ex;
 
-				} catch (Exception ex) {
-					logger.error("bgTask execution failed. task={}", task, ex);
-					occurredException = ex;
+		} catch (Throwable ex) {
+			logger.error("bgTask unknown error.", ex);
+			occurredException = new Exception(ex);
+		}
 
-				} catch (Throwable ex) {
-					logger.error("bgTask unknown error. task={}", task, ex);
-					occurredException = new Exception(ex);
+		if (cancelled || occurredException != null || isCancelled()) {
+			// 未完了のタスクはすべてキャンセルする.
+			for (Node node : nodes.values()) {
+				if (!node.task.isDone()) {
+					node.task.cancel(true);
 				}
 			}
 		}
@@ -147,4 +649,64 @@ public class ChainedJavaFXTask extends TaskWithCompletableFuture<Object> {
 
 		return result;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * タスクをエグゼキュータで実行する.<br>
+	 * 受け付けられなかった場合は、後で呼び出しスレッドで実行される.
+	 * @param node
+	 */
+	private void submit(Node node) {
+		try {
+			executor.execute(() -> {
+				try {
+					runTask(node);
+				} finally {
+					completions.offer(node.task);
+				}
+			});
+
+		} catch (RejectedExecutionException ex) {
+			logger.info("bgTask rejected. run in the caller thread. task={}", node.task);
+		}
+	}
+
+	/**
+	 * まだ開始されていなければ、このスレッドでタスクを実行する.<br>
+	 * 正常に完了した場合は所要時間を履歴に記録する.
+	 * @param node
+	 * @return このスレッドで実行した場合はtrue
+	 */
+	private boolean runTask(Node node) {
+		if (!node.started.compareAndSet(false, true)) {
+			return false;
+		}
+		long st = System.nanoTime();
+		node.task.run();
+		long elapsed = System.nanoTime() - st;
+
+		TaskDurationHistory history = durationHistory;
+		String historyKey = node.resolvedHistoryKey;
+		if (history != null && historyKey != null && node.task.isDone()
+				&& !node.task.isCancelled()) {
+			try {
+				node.task.get();
+				history.record(historyKey, elapsed, TimeUnit.NANOSECONDS);
+
+			} catch (InterruptedException | ExecutionException ex) {
+				// 失敗したタスクの所要時間は記録しない
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * JavaFXTaskであれば初期プロパティの取り込み
+	 * @param node
+	 */
+	private void importProperties(Node node) {
+		if (node.task instanceof Task) {
+			updateTitle(((Task<?>) node.task).getTitle());
+			updateMessage(((Task<?>) node.task).getMessage());
+		}
+	}
+}
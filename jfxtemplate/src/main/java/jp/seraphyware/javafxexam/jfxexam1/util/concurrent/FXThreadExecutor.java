@@ -1,22 +1,328 @@
 package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
 
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import jp.seraphyware.javafxexam.jfxexam1.util.sys.ApplicationSettings;
 
+/**
+ * JavaFXのアプリケーションスレッドでタスクを実行するエグゼキュータ.<br>
+ * 合体モード(coalescing)が有効な場合は、タスクを{@link Platform#runLater(Runnable)}で
+ * 1つずつ投入するかわりに、ロックフリーなキューに溜めておき、
+ * パルスごとに1回だけまとめて実行する.<br>
+ * バックグラウンドから大量のUI更新が送られてきても、FXのイベントキューがあふれることがない.<br>
+ * 合体モードは、app.propertiesまたはシステムプロパティのfxThreadExecutor.coalescingで有効にする.
+ * (既定は無効)<br>
+ * キーつきの{@link #execute(Object, Runnable)}は合体モードにかかわらずキューを経由し、
+ * 同じキーに対する更新は最後のものだけが実行される.<br>
+ * <br>
+ * {@link #runAndWait(Runnable)}などの待機中は、一定間隔でFXスレッドの状態を調べ、
+ * FXスレッドが待機中のスレッドの保持するロック、
+ * もしくは待機中のスレッドが実行しているバックグラウンドタスクの完了を待っている場合は、
+ * デッドロックとして待機を中止する.
+ * (間隔はfxThreadExecutor.deadlockCheckMillisで設定する. 既定は100ms)<br>
+ */
 @ApplicationScoped
 public class FXThreadExecutor implements Executor {
 
+	/**
+	 * キーつきタスクのキュー上のプレースホルダ.<br>
+	 * 実行時には、そのキーに対する最新のタスクを実行する.
+	 */
+	private final class KeyedSlot implements Runnable {
+
+		private final Object key;
+
+		KeyedSlot(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			Runnable command = keyedCommands.remove(key);
+			if (command != null) {
+				command.run();
+			}
+		}
+	}
+
+	/**
+	 * パルスごとにキューを処理するタイマー
+	 */
+	private final class DrainTimer extends AnimationTimer {
+
+		@Override
+		public void handle(long now) {
+			drain();
+		}
+	}
+
+	/**
+	 * ロガー.
+	 */
+	private final Logger log = LoggerFactory.getLogger(getClass());
+
+	/**
+	 * 合体モードが有効か?
+	 */
+	private final boolean coalescing = ApplicationSettings.getBoolean(
+			"fxThreadExecutor.coalescing", false);
+
+	/**
+	 * 実行待ちのタスク(複数の生産者、FXスレッドのみが消費する)
+	 */
+	private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * キーごとの最新のタスク
+	 */
+	private final ConcurrentHashMap<Object, Runnable> keyedCommands = new ConcurrentHashMap<>();
+
+	/**
+	 * キューの深さ
+	 */
+	private final AtomicInteger queueDepth = new AtomicInteger();
+
+	/**
+	 * タイマーが動作中(もしくは開始予定)か?
+	 */
+	private final AtomicBoolean draining = new AtomicBoolean();
+
+	/**
+	 * パルスごとにキューを処理するタイマー(FXスレッドでのみ使用する)
+	 */
+	private DrainTimer drainTimer;
+
+	/**
+	 * 合体により実行されなかったタスク数
+	 */
+	private final LongAdder coalescedCount = new LongAdder();
+
+	// 以下はFXスレッドでのみ更新される統計情報
+
+	private volatile long drainCount;
+
+	private volatile long executedCount;
+
+	private volatile int lastQueueDepth;
+
+	private volatile int maxQueueDepth;
+
+	private volatile long lastDrainNanos;
+
+	private volatile long maxDrainNanos;
+
+	private volatile long totalDrainNanos;
+
+	/**
+	 * デッドロックを調べる間隔(ナノ秒)
+	 */
+	private final long deadlockCheckNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1,
+			ApplicationSettings.getLong("fxThreadExecutor.deadlockCheckMillis", 100)));
+
+	/**
+	 * FXスレッド、まだ判明していなければnull
+	 */
+	private volatile Thread fxThread;
+
+	/**
+	 * FXスレッドでの実行を待機した回数
+	 */
+	private final LongAdder waitCount = new LongAdder();
+
+	/**
+	 * FXスレッドでの実行を待機した時間の合計(ナノ秒)
+	 */
+	private final LongAdder totalWaitNanos = new LongAdder();
+
+	/**
+	 * FXスレッドでの実行を待機した時間の最大(ナノ秒)
+	 */
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * タイムアウトした回数
+	 */
+	private final LongAdder timeoutCount = new LongAdder();
+
+	/**
+	 * デッドロックを検出した回数
+	 */
+	private final LongAdder deadlockCount = new LongAdder();
+
+	/**
+	 * 初期化.<br>
+	 * デッドロックの検査に使うFXスレッドを、最初の待機より前に取得しておく.
+	 */
+	@PostConstruct
+	public void init() {
+		if (Platform.isFxApplicationThread()) {
+			fxThread = Thread.currentThread();
+			return;
+		}
+		try {
+			Platform.runLater(() -> fxThread = Thread.currentThread());
+
+		} catch (IllegalStateException ex) {
+			// FXが未初期化の場合は、FXスレッドで最初にタスクを実行したときに取得する
+			log.debug("FX toolkit is not initialized yet.");
+		}
+	}
+
+	/**
+	 * 合体モードが有効か?
+	 * @return 有効であればtrue
+	 */
+	public boolean isCoalescing() {
+		return coalescing;
+	}
+
 	@Override
 	public void execute(Runnable command) {
 		Objects.requireNonNull(command);
-		Platform.runLater(command);
+		if (coalescing) {
+			enqueue(command);
+		} else {
+			Platform.runLater(command);
+		}
+	}
+
+	/**
+	 * キーを指定してタスクを実行する.<br>
+	 * 実行されるまでの間に同じキーで投入されたタスクは、最後に投入されたものだけが実行される.
+	 * (進捗表示の更新など、最新の状態だけを反映すればよい場合に用いる.)<br>
+	 * 実行順序は、そのキーで最初に投入された時点のキュー上の位置となる.<br>
+	 * @param key キー
+	 * @param command タスク
+	 */
+	public void execute(Object key, Runnable command) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(command);
+		if (keyedCommands.put(key, command) == null) {
+			enqueue(new KeyedSlot(key));
+		} else {
+			coalescedCount.increment();
+		}
 	}
 
+	private void enqueue(Runnable command) {
+		queue.offer(command);
+		queueDepth.incrementAndGet();
+		scheduleDrain();
+	}
+
+	/**
+	 * タイマーが停止していれば開始する.
+	 */
+	private void scheduleDrain() {
+		if (draining.compareAndSet(false, true)) {
+			Platform.runLater(() -> {
+				if (drainTimer == null) {
+					drainTimer = new DrainTimer();
+				}
+				drainTimer.start();
+			});
+		}
+	}
+
+	/**
+	 * キューに溜まっているタスクを実行する.(FXスレッドから呼び出される)<br>
+	 * 実行中に追加されたタスクは次のパルスで実行する.
+	 */
+	private void drain() {
+		int depth = queueDepth.get();
+		if (depth == 0) {
+			// キューが空ならタイマーを停止する.
+			drainTimer.stop();
+			draining.set(false);
+			if (queueDepth.get() > 0) {
+				// 停止の間に投入されたものがあれば再開する.
+				scheduleDrain();
+			}
+			return;
+		}
+
+		long st = System.nanoTime();
+		int cnt = 0;
+		Runnable command;
+		while (cnt < depth && (command = queue.poll()) != null) {
+			queueDepth.decrementAndGet();
+			cnt++;
+			try {
+				command.run();
+
+			} catch (Throwable ex) {
+				// Platform.runLaterと同様にスレッドの例外ハンドラに委ねる
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+			}
+		}
+		long elapsed = System.nanoTime() - st;
+
+		drainCount++;
+		executedCount += cnt;
+		lastQueueDepth = depth;
+		maxQueueDepth = Math.max(maxQueueDepth, depth);
+		lastDrainNanos = elapsed;
+		maxDrainNanos = Math.max(maxDrainNanos, elapsed);
+		totalDrainNanos += elapsed;
+	}
+
+	/**
+	 * 合体モードのキューの現在の深さ
+	 * @return キューに入っているタスク数
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * 合体モードの現時点の統計情報を取得する.
+	 * @return 統計情報
+	 */
+	public FXThreadExecutorStatistics getStatistics() {
+		return new FXThreadExecutorStatistics(queueDepth.get(), drainCount,
+				executedCount, coalescedCount.sum(), lastQueueDepth,
+				maxQueueDepth, lastDrainNanos, maxDrainNanos, totalDrainNanos,
+				waitCount.sum(), totalWaitNanos.sum(), maxWaitNanos.get(),
+				timeoutCount.sum(), deadlockCount.sum());
+	}
+
+	/**
+	 * FXスレッドでタスクを実行し、完了するまで待機する.<br>
+	 * FXスレッドから呼び出された場合は、そのまま実行する.<br>
+	 * 待機中に割り込まれた場合は、まだ開始されていなければタスクを取り消し、
+	 * 割り込み状態を戻したうえでCancellationExceptionを送出する.<br>
+	 * @param command タスク
+	 * @throws CompletionException タスクが例外で終了した場合
+	 * @throws CancellationException 待機中に割り込まれた場合
+	 * @throws IllegalStateException デッドロックを検出した場合
+	 */
 	public void runAndWait(Runnable command) {
 		Objects.requireNonNull(command);
 		if (Platform.isFxApplicationThread()) {
@@ -25,18 +331,200 @@ public class FXThreadExecutor implements Executor {
 
 		} else {
 			// そうでなければJavaFXのスレッドキューに入れて実行を待機する.
-			CompletableFuture<Void> cf = new CompletableFuture<>();
-			Runnable r = () -> {
+			try {
+				await(submit(command, null), -1);
+
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				CancellationException cex = new CancellationException("interrupted");
+				cex.initCause(ex);
+				throw cex;
+
+			} catch (ExecutionException ex) {
+				throw new CompletionException(ex.getCause());
+
+			} catch (TimeoutException ex) {
+				// 時間制限なしのためタイムアウトはしない
+				throw new IllegalStateException(ex);
+			}
+		}
+	}
+
+	/**
+	 * FXスレッドでタスクを実行し、指定時間まで完了を待機する.<br>
+	 * タイムアウトもしくは割り込みにより待機を中止した場合、
+	 * タスクがまだ開始されていなければ実行されない.<br>
+	 * @param command タスク
+	 * @param timeout 待機時間
+	 * @param unit 待機時間の単位
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 * @throws TimeoutException 指定時間内に完了しなかった場合
+	 * @throws CompletionException タスクが例外で終了した場合
+	 * @throws IllegalStateException デッドロックを検出した場合
+	 */
+	public void runAndWait(Runnable command, long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		Objects.requireNonNull(command);
+		try {
+			callAndWait(() -> {
+				command.run();
+				return null;
+			}, timeout, unit);
+
+		} catch (ExecutionException ex) {
+			throw new CompletionException(ex.getCause());
+		}
+	}
+
+	/**
+	 * FXスレッドで値を返すタスクを実行し、指定時間まで完了を待機する.<br>
+	 * タイムアウトもしくは割り込みにより待機を中止した場合、
+	 * タスクがまだ開始されていなければ実行されない.<br>
+	 * @param callable タスク
+	 * @param timeout 待機時間
+	 * @param unit 待機時間の単位
+	 * @return タスクの結果
+	 * @throws InterruptedException 待機中に割り込まれた場合
+	 * @throws TimeoutException 指定時間内に完了しなかった場合
+	 * @throws ExecutionException タスクが例外で終了した場合
+	 * @throws IllegalStateException デッドロックを検出した場合
+	 */
+	public <V> V callAndWait(Callable<V> callable, long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException, ExecutionException {
+		Objects.requireNonNull(callable);
+		Objects.requireNonNull(unit);
+		if (Platform.isFxApplicationThread()) {
+			try {
+				return callable.call();
+
+			} catch (Exception ex) {
+				throw new ExecutionException(ex);
+			}
+		}
+		return await(submit(callable), Math.max(0, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * FXスレッドで実行するタスクを投入し、Futureを返す.<br>
+	 * 開始前であればFutureをキャンセルすることで実行を取り消すことができる.<br>
+	 * @param callable タスク
+	 * @return Future
+	 */
+	public <V> FutureTask<V> submit(Callable<V> callable) {
+		Objects.requireNonNull(callable);
+		FutureTask<V> task = new FutureTask<>(() -> {
+			fxThread = Thread.currentThread();
+			return callable.call();
+		});
+		Platform.runLater(task);
+		return task;
+	}
+
+	/**
+	 * FXスレッドで実行するタスクを投入し、Futureを返す.<br>
+	 * 開始前であればFutureをキャンセルすることで実行を取り消すことができる.<br>
+	 * @param command タスク
+	 * @param result 完了時にFutureが返す値
+	 * @return Future
+	 */
+	public <V> FutureTask<V> submit(Runnable command, V result) {
+		Objects.requireNonNull(command);
+		return submit(() -> {
+			command.run();
+			return result;
+		});
+	}
+
+	/**
+	 * FXスレッドで実行されるタスクの完了を待機する.<br>
+	 * 待機中は一定間隔でデッドロックを調べる.<br>
+	 * 待機を中止する場合はタスクを取り消す.<br>
+	 * @param task タスク
+	 * @param timeoutNanos 待機時間、負ならば無制限
+	 * @return タスクの結果
+	 */
+	private <V> V await(FutureTask<V> task, long timeoutNanos)
+			throws InterruptedException, TimeoutException, ExecutionException {
+		long st = System.nanoTime();
+		boolean completed = false;
+		try {
+			for (;;) {
+				long slice = deadlockCheckNanos;
+				if (timeoutNanos >= 0) {
+					long remain = timeoutNanos - (System.nanoTime() - st);
+					if (remain <= 0) {
+						timeoutCount.increment();
+						throw new TimeoutException("FX thread did not run the task in time");
+					}
+					slice = Math.min(slice, remain);
+				}
 				try {
-					command.run();
-					cf.complete(null);
+					V result = task.get(slice, TimeUnit.NANOSECONDS);
+					completed = true;
+					return result;
 
-				} catch (Throwable ex) {
-					cf.completeExceptionally(ex);
+				} catch (TimeoutException ex) {
+					checkDeadlock();
 				}
-			};
-			Platform.runLater(r);
-			cf.join();
+			}
+
+		} finally {
+			if (!completed) {
+				// まだ開始されていなければ実行されない
+				task.cancel(false);
+			}
+			long elapsed = System.nanoTime() - st;
+			waitCount.increment();
+			totalWaitNanos.add(elapsed);
+			maxWaitNanos.accumulate(elapsed);
+		}
+	}
+
+	/**
+	 * FXスレッドが現在のスレッドを待っているか調べる.<br>
+	 * FXスレッドが、現在のスレッドの保持しているロックを待っているか、
+	 * 現在のスレッドがバックグラウンドで実行中のタスクのFuture(javafxのTaskを含む)を
+	 * 待っている場合はデッドロックとみなす.<br>
+	 * @throws IllegalStateException デッドロックしている場合
+	 */
+	private void checkDeadlock() {
+		Thread fx = fxThread;
+		if (fx == null) {
+			return; // FXスレッドがまだ判明していなければ調べない
+		}
+		Thread current = Thread.currentThread();
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		// ロックとその所有者だけを調べるため、スタックトレースは取得しない
+		ThreadInfo info = threadMXBean.getThreadInfo(fx.getId());
+		if (info == null) {
+			return;
+		}
+
+		boolean deadlock = false;
+		if (info.getLockOwnerId() == current.getId()) {
+			// 現在のスレッドが保持しているロックを待っている
+			deadlock = true;
+
+		} else {
+			// 現在のスレッドが実行しているタスクの完了を待っている
+			LockInfo lockInfo = info.getLockInfo();
+			Runnable task = InstrumentedThreadPoolExecutor.getCurrentTask();
+			if (lockInfo != null && task != null
+					&& lockInfo.getIdentityHashCode() == System.identityHashCode(task)
+					&& lockInfo.getClassName().equals(task.getClass().getName())) {
+				deadlock = true;
+			}
+		}
+
+		if (deadlock) {
+			deadlockCount.increment();
+			// ログにはFXスレッドのスタックトレースを含める
+			ThreadInfo detail = threadMXBean.getThreadInfo(fx.getId(), Integer.MAX_VALUE);
+			log.error("deadlock detected. thread={} is waiting for FX thread, "
+					+ "while FX thread is waiting for it.\n{}", current.getName(),
+					(detail != null) ? detail : info);
+			throw new IllegalStateException("deadlock detected: "
+					+ "FX thread is waiting for " + current.getName());
 		}
 	}
 }
@@ -0,0 +1,16 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+/**
+ * 優先レーンを自身で指定するタスク.<br>
+ * {@link BackgroundTaskService}に投入されるRunnable, Callable, Taskが
+ * このインターフェイスを実装していれば、その優先レーンで実行される.<br>
+ */
+@FunctionalInterface
+public interface PrioritizedTask {
+
+	/**
+	 * 優先レーンを取得する.
+	 * @return 優先レーン、nullの場合はNORMAL
+	 */
+	TaskPriority getTaskPriority();
+}
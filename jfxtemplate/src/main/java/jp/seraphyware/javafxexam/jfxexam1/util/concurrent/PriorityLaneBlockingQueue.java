@@ -0,0 +1,484 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 優先レーンごとの待ち行列をもつ、容量制限つきのブロッキングキュー.<br>
+ * 取り出しは優先度の高いレーンから行われるが、以下の2つの制御を行う.<br>
+ * <ul>
+ * <li>BULKレーンのタスクの同時実行数を制限し、
+ * 他のレーンのタスクのためのスレッドを空けておく.</li>
+ * <li>一定時間以上待たされたレーンの先頭は優先して取り出す.(飢餓の防止)</li>
+ * </ul>
+ * 同時実行数を管理するため、スレッドプールは実行の前後で
+ * {@link #beforeExecute(Runnable)}, {@link #afterExecute(Runnable)}を呼び出す必要がある.<br>
+ */
+public class PriorityLaneBlockingQueue extends AbstractQueue<Runnable>
+		implements BlockingQueue<Runnable> {
+
+	/**
+	 * 待ち行列の要素
+	 */
+	private static final class Entry {
+
+		final Runnable task;
+
+		final long enqueuedAt = System.nanoTime();
+
+		Entry(Runnable task) {
+			this.task = task;
+		}
+	}
+
+	private static final TaskPriority[] LANES = TaskPriority.values();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * レーンごとの待ち行列
+	 */
+	private final List<ArrayDeque<Entry>> lanes = new ArrayList<>();
+
+	/**
+	 * 全レーンの合計の容量
+	 */
+	private final int capacity;
+
+	/**
+	 * BULKレーンの最大同時実行数
+	 */
+	private final int bulkMaxConcurrency;
+
+	/**
+	 * この時間以上待たされたタスクは優先度にかかわらず先に取り出す(ナノ秒)
+	 */
+	private final long agingNanos;
+
+	/**
+	 * 全レーンの合計の要素数
+	 */
+	private int count;
+
+	/**
+	 * 実行中のBULKタスク
+	 */
+	private final Set<Runnable> runningBulkTasks = Collections
+			.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * コンストラクタ
+	 * @param capacity 容量、Integer.MAX_VALUEならば無制限
+	 * @param bulkMaxConcurrency BULKレーンの最大同時実行数
+	 * @param agingMillis 優先度にかかわらず取り出されるまでの待ち時間(ミリ秒)、0以下ならば無効
+	 */
+	public PriorityLaneBlockingQueue(int capacity, int bulkMaxConcurrency,
+			long agingMillis) {
+		if (capacity <= 0 || bulkMaxConcurrency <= 0) {
+			throw new IllegalArgumentException();
+		}
+		this.capacity = capacity;
+		this.bulkMaxConcurrency = bulkMaxConcurrency;
+		this.agingNanos = (agingMillis > 0)
+				? TimeUnit.MILLISECONDS.toNanos(agingMillis)
+				: Long.MAX_VALUE;
+		for (int idx = 0; idx < LANES.length; idx++) {
+			lanes.add(new ArrayDeque<>());
+		}
+	}
+
+	/**
+	 * タスクの実行直前に呼び出される.<br>
+	 * キューを経由せずに開始されたBULKタスクも同時実行数に数える.
+	 * @param task
+	 */
+	public void beforeExecute(Runnable task) {
+		if (TaskPriority.of(task) == TaskPriority.BULK) {
+			lock.lock();
+			try {
+				runningBulkTasks.add(task);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * タスクの実行完了後に呼び出される.<br>
+	 * BULKタスクの実行枠を解放する.
+	 * @param task
+	 */
+	public void afterExecute(Runnable task) {
+		if (TaskPriority.of(task) == TaskPriority.BULK) {
+			lock.lock();
+			try {
+				if (runningBulkTasks.remove(task)
+						&& !lanes.get(TaskPriority.BULK.ordinal()).isEmpty()) {
+					notEmpty.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * 指定したレーンの待ち行列の長さを取得する.
+	 * @param priority レーン
+	 * @return 待ち行列の長さ
+	 */
+	public int size(TaskPriority priority) {
+		lock.lock();
+		try {
+			return lanes.get(priority.ordinal()).size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(Runnable task) {
+		lanes.get(TaskPriority.of(task).ordinal()).addLast(new Entry(task));
+		count++;
+		notEmpty.signal();
+	}
+
+	/**
+	 * 次に実行するタスクを選んで取り出す.<br>
+	 * 実行できるタスクがなければnull
+	 * @param forExecution 実行のために取り出す場合、BULKの実行枠を確保する
+	 * @return タスク、なければnull
+	 */
+	private Runnable dequeue(boolean forExecution) {
+		if (count == 0) {
+			return null;
+		}
+
+		boolean bulkAvailable = !forExecution
+				|| runningBulkTasks.size() < bulkMaxConcurrency;
+
+		// 一定時間以上待たされているものがあれば、もっとも古いものを選ぶ.
+		long now = System.nanoTime();
+		ArrayDeque<Entry> selected = null;
+		long oldest = 0;
+		for (TaskPriority lane : LANES) {
+			if (lane == TaskPriority.BULK && !bulkAvailable) {
+				continue;
+			}
+			Entry head = lanes.get(lane.ordinal()).peekFirst();
+			if (head != null) {
+				long wait = now - head.enqueuedAt;
+				if (wait >= agingNanos && wait > oldest) {
+					oldest = wait;
+					selected = lanes.get(lane.ordinal());
+				}
+			}
+		}
+
+		// なければ優先度の高いレーンから選ぶ.
+		if (selected == null) {
+			for (TaskPriority lane : LANES) {
+				if (lane == TaskPriority.BULK && !bulkAvailable) {
+					continue;
+				}
+				if (!lanes.get(lane.ordinal()).isEmpty()) {
+					selected = lanes.get(lane.ordinal());
+					break;
+				}
+			}
+		}
+		if (selected == null) {
+			// BULKのみが実行枠の空き待ち
+			return null;
+		}
+
+		Runnable task = selected.pollFirst().task;
+		count--;
+		if (forExecution && TaskPriority.of(task) == TaskPriority.BULK) {
+			runningBulkTasks.add(task);
+		}
+		notFull.signal();
+		return task;
+	}
+
+	@Override
+	public boolean offer(Runnable e) {
+		Objects.requireNonNull(e);
+		lock.lock();
+		try {
+			if (count >= capacity) {
+				return false;
+			}
+			enqueue(e);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void put(Runnable e) throws InterruptedException {
+		Objects.requireNonNull(e);
+		lock.lockInterruptibly();
+		try {
+			while (count >= capacity) {
+				notFull.await();
+			}
+			enqueue(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(Runnable e, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		Objects.requireNonNull(e);
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (count >= capacity) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			enqueue(e);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			Runnable task;
+			while ((task = dequeue(true)) == null) {
+				awaitForTask(-1);
+			}
+			return task;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable poll(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			Runnable task;
+			while ((task = dequeue(true)) == null) {
+				if (nanos <= 0) {
+					return null;
+				}
+				nanos = awaitForTask(nanos);
+			}
+			return task;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * タスクが投入されるか、BULKの実行枠が空くのを待つ.
+	 * @param nanos 待ち時間、負ならば無制限
+	 * @return 残りの待ち時間
+	 * @throws InterruptedException
+	 */
+	private long awaitForTask(long nanos) throws InterruptedException {
+		if (nanos < 0) {
+			notEmpty.await();
+			return -1;
+		}
+		return notEmpty.awaitNanos(nanos);
+	}
+
+	@Override
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return dequeue(false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 待ち行列があふれた場合に破棄するタスクを選んで取り出す.<br>
+	 * 投入しようとしたタスク以下の優先度のレーンのうち、もっとも優先度の低いレーンの、もっとも古いタスクを選ぶ.
+	 * ({@link #poll()}は実行順に取り出すため、優先度の高いタスクが破棄されてしまう.)<br>
+	 * 待っているタスクがすべて投入しようとしたタスクより優先度が高ければ、投入しようとしたタスクを返す.
+	 * @param incoming 投入しようとしたタスク
+	 * @return 取り出したタスク、または投入しようとしたタスク、待ち行列が空ならばnull
+	 */
+	public Runnable pollDiscardVictim(Runnable incoming) {
+		lock.lock();
+		try {
+			if (count == 0) {
+				return null;
+			}
+			int incomingLane = TaskPriority.of(incoming).ordinal();
+			for (int idx = LANES.length - 1; idx >= incomingLane; idx--) {
+				Entry entry = lanes.get(idx).pollFirst();
+				if (entry != null) {
+					count--;
+					notFull.signal();
+					return entry.task;
+				}
+			}
+			return incoming;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			for (ArrayDeque<Entry> lane : lanes) {
+				Entry entry = lane.peekFirst();
+				if (entry != null) {
+					return entry.task;
+				}
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return (capacity == Integer.MAX_VALUE)
+					? Integer.MAX_VALUE
+					: capacity - count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (o == null) {
+			return false;
+		}
+		lock.lock();
+		try {
+			for (ArrayDeque<Entry> lane : lanes) {
+				Iterator<Entry> ite = lane.iterator();
+				while (ite.hasNext()) {
+					if (o.equals(ite.next().task)) {
+						ite.remove();
+						count--;
+						notFull.signal();
+						return true;
+					}
+				}
+			}
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		Objects.requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		lock.lock();
+		try {
+			int n = 0;
+			Runnable task;
+			while (n < maxElements && (task = dequeue(false)) != null) {
+				c.add(task);
+				n++;
+			}
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 現時点のスナップショットに対するイテレータを返す.<br>
+	 * イテレータからの削除はキューに反映される.
+	 */
+	@Override
+	public Iterator<Runnable> iterator() {
+		List<Runnable> snapshot = new ArrayList<>();
+		lock.lock();
+		try {
+			for (ArrayDeque<Entry> lane : lanes) {
+				for (Entry entry : lane) {
+					snapshot.add(entry.task);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		Iterator<Runnable> ite = snapshot.iterator();
+		return new Iterator<Runnable>() {
+
+			private Runnable last;
+
+			@Override
+			public boolean hasNext() {
+				return ite.hasNext();
+			}
+
+			@Override
+			public Runnable next() {
+				last = ite.next();
+				return last;
+			}
+
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				PriorityLaneBlockingQueue.this.remove(last);
+				last = null;
+			}
+		};
+	}
+}
@@ -0,0 +1,100 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * タスクの種類ごとの過去の所要時間の履歴.<br>
+ * {@link ChainedJavaFXTask}で子タスクの重みを明示しない場合に、
+ * 過去の所要時間を重みとして用いるために使用する.<br>
+ * 所要時間は指数移動平均で保持する.<br>
+ * アプリケーションの再起動をまたいで学習結果を引き継ぐ場合は、
+ * {@link #store(Properties)}, {@link #load(Properties)}で保存・復元する.
+ * (共有のインスタンスは{@link TaskDurationHistoryStore}により起動時に復元され、終了時に保存される.)<br>
+ */
+public class TaskDurationHistory {
+
+	/**
+	 * 共有のインスタンス
+	 */
+	private static final TaskDurationHistory defaultHistory = new TaskDurationHistory();
+
+	/**
+	 * 指数移動平均の係数(最新の値の比重)
+	 */
+	private static final double SMOOTHING = 0.3;
+
+	/**
+	 * キーごとの平均所要時間(ミリ秒)
+	 */
+	private final Map<String, Double> averageMillis = new ConcurrentHashMap<>();
+
+	/**
+	 * 共有のインスタンスを取得する.
+	 * @return 共有のインスタンス
+	 */
+	public static TaskDurationHistory getDefault() {
+		return defaultHistory;
+	}
+
+	/**
+	 * 所要時間を記録する.
+	 * @param key タスクの種類を表すキー
+	 * @param elapsed 所要時間
+	 * @param unit 所要時間の単位
+	 */
+	public void record(String key, long elapsed, TimeUnit unit) {
+		Objects.requireNonNull(key);
+		double millis = unit.toNanos(elapsed) / 1e6;
+		averageMillis.merge(key, millis,
+				(prev, cur) -> prev + SMOOTHING * (cur - prev));
+	}
+
+	/**
+	 * 平均所要時間を取得する.
+	 * @param key タスクの種類を表すキー
+	 * @return 平均所要時間(ミリ秒)、記録がなければ空
+	 */
+	public OptionalDouble getAverageMillis(String key) {
+		Double millis = (key != null) ? averageMillis.get(key) : null;
+		return (millis != null) ? OptionalDouble.of(millis) : OptionalDouble.empty();
+	}
+
+	/**
+	 * 履歴を消去する.
+	 */
+	public void clear() {
+		averageMillis.clear();
+	}
+
+	/**
+	 * 履歴をプロパティに書き出す.
+	 * @param props 書き込み先
+	 */
+	public void store(Properties props) {
+		averageMillis.forEach((key, millis) -> props.setProperty(key,
+				Long.toString(Math.round(millis))));
+	}
+
+	/**
+	 * プロパティから履歴を読み込む.<br>
+	 * 解釈できない値は無視する.
+	 * @param props 読み込み元
+	 */
+	public void load(Properties props) {
+		for (String key : props.stringPropertyNames()) {
+			try {
+				double millis = Double.parseDouble(props.getProperty(key));
+				if (millis >= 0) {
+					averageMillis.put(key, millis);
+				}
+			} catch (NumberFormatException ex) {
+				// 無視する
+			}
+		}
+	}
+}
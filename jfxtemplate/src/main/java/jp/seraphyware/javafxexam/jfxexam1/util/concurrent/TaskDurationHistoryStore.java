@@ -0,0 +1,61 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+import java.util.Properties;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PreferencesService;
+import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PreferencesServiceParameter;
+
+/**
+ * {@link TaskDurationHistory#getDefault()}の学習結果を、
+ * アプリケーションの再起動をまたいで引き継ぐために保存・復元する.<br>
+ * 起動時に{@link #load()}、終了時に{@link #store()}を呼び出す.<br>
+ */
+@ApplicationScoped
+public class TaskDurationHistoryStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaskDurationHistoryStore.class);
+
+	@Inject
+	@PreferencesServiceParameter(fileName = "TaskDurationHistory.xml")
+	private PreferencesService preferencesService;
+
+	/**
+	 * 保存された履歴を共有の履歴に読み込む.
+	 */
+	public void load() {
+		try {
+			Properties props = new Properties();
+			for (String key : preferencesService.getPropertyNames()) {
+				props.setProperty(key, preferencesService.getProperty(key));
+			}
+			TaskDurationHistory.getDefault().load(props);
+			logger.info("task duration history loaded. entries={}", props.size());
+
+		} catch (RuntimeException ex) {
+			// 履歴がなくても動作に支障はない
+			logger.warn("failed to load task duration history. " + ex, ex);
+		}
+	}
+
+	/**
+	 * 共有の履歴を保存する.
+	 */
+	public void store() {
+		try {
+			Properties props = new Properties();
+			TaskDurationHistory.getDefault().store(props);
+			preferencesService.setProperties(props);
+			preferencesService.flush();
+			logger.info("task duration history stored. entries={}", props.size());
+
+		} catch (RuntimeException ex) {
+			logger.warn("failed to store task duration history. " + ex, ex);
+		}
+	}
+}
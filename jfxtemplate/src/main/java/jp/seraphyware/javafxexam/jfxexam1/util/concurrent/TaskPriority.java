@@ -0,0 +1,52 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+/**
+ * バックグラウンドジョブの優先レーン.<br>
+ * 宣言順に優先度が高い.<br>
+ */
+public enum TaskPriority {
+
+	/**
+	 * ユーザーが結果を待っている短いジョブ
+	 */
+	INTERACTIVE,
+
+	/**
+	 * 通常のジョブ
+	 */
+	NORMAL,
+
+	/**
+	 * エクスポートなどの長時間かかる一括処理
+	 */
+	BULK;
+
+	/**
+	 * クラスごとのアノテーションの解決結果のキャッシュ
+	 */
+	private static final ClassValue<TaskPriority> annotatedPriorities = new ClassValue<TaskPriority>() {
+		@Override
+		protected TaskPriority computeValue(Class<?> type) {
+			BackgroundTaskPriority annt = type.getAnnotation(BackgroundTaskPriority.class);
+			return (annt != null) ? annt.value() : null;
+		}
+	};
+
+	/**
+	 * タスクの優先レーンを判定する.<br>
+	 * タスクが{@link PrioritizedTask}であれば、その値を用い、
+	 * そうでなければタスクのクラスの{@link BackgroundTaskPriority}アノテーションを用いる.<br>
+	 * いずれもなければNORMALとする.<br>
+	 * @param task タスク(Runnable, Callable, Taskなど)
+	 * @return 優先レーン
+	 */
+	public static TaskPriority of(Object task) {
+		TaskPriority priority = null;
+		if (task instanceof PrioritizedTask) {
+			priority = ((PrioritizedTask) task).getTaskPriority();
+		} else if (task != null) {
+			priority = annotatedPriorities.get(task.getClass());
+		}
+		return (priority != null) ? priority : NORMAL;
+	}
+}
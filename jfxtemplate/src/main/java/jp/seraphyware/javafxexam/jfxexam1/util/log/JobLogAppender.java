@@ -0,0 +1,297 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.log;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+
+/**
+ * ジョブごとのログファイルにログイベントを振り分けるアペンダ.<br>
+ * ルートロガーに1つだけ接続しておき、スレッドコンテキストのジョブID({@link #JOB_ID_KEY})を
+ * もつイベントだけを、そのジョブのログファイルに書き込む.
+ * ジョブIDのないイベントは何もせずに捨てるため、ジョブごとにロガーの設定を変更する必要はない.<br>
+ * ジョブのログファイルは最初のイベントで開き、開いているファイル数が上限を超えた場合は
+ * 最も長く使われていないものから閉じる.
+ * 閉じたジョブに再びイベントがあれば、追記モードで開き直す.<br>
+ * ジョブIDは{@link #begin(String)}で設定し、ジョブが終わったら{@link #close(String)}でファイルを閉じる.
+ * 非同期のログ出力の場合は、書き込み待ちのイベントより先に閉じないように、
+ * {@link #END_MARKER}をもつイベントをジョブのスレッドコンテキストで出力して閉じることもできる.<br>
+ */
+public final class JobLogAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * ジョブIDを設定するスレッドコンテキストのキー
+	 */
+	public static final String JOB_ID_KEY = "jobId";
+
+	/**
+	 * このマーカーをもつイベントを受け取ると、ジョブのログファイルを閉じる.(イベントは書き込まない)
+	 */
+	public static final Marker END_MARKER = MarkerManager.getMarker("JOB_LOG_END");
+
+	/**
+	 * ジョブのログファイルとアペンダ
+	 */
+	private static final class Route {
+
+		final Appender appender;
+
+		/**
+		 * 書き込み中のスレッド数
+		 */
+		int users;
+
+		/**
+		 * プールから外されたか?(書き込み中のスレッドがなくなったら停止する)
+		 */
+		boolean evicted;
+
+		Route(Appender appender) {
+			this.appender = appender;
+		}
+	}
+
+	/**
+	 * ジョブのスレッドコンテキストの範囲.<br>
+	 * 閉じると、開始前のジョブIDに戻し、終了時の処理があれば実行する.
+	 */
+	public static final class Scope implements AutoCloseable {
+
+		private final String previousJobId;
+
+		/**
+		 * 終了時の処理、なければnull
+		 */
+		private final Runnable onClose;
+
+		private Scope(String previousJobId, Runnable onClose) {
+			this.previousJobId = previousJobId;
+			this.onClose = onClose;
+		}
+
+		@Override
+		public void close() {
+			try {
+				if (previousJobId != null) {
+					ThreadContext.put(JOB_ID_KEY, previousJobId);
+				} else {
+					ThreadContext.remove(JOB_ID_KEY);
+				}
+
+			} finally {
+				if (onClose != null) {
+					onClose.run();
+				}
+			}
+		}
+	}
+
+	/**
+	 * ジョブのログファイルを作成するログディレクトリ
+	 */
+	private final Path logDir;
+
+	/**
+	 * 同時に開いておくファイル数の上限
+	 */
+	private final int maxOpenFiles;
+
+	/**
+	 * ジョブのログファイルのローリングサイズ(メガ単位)
+	 */
+	private final int maxLogRollingSizeMega;
+
+	/**
+	 * ジョブのログファイルの最大ローリング数
+	 */
+	private final int maxLogRollover;
+
+	/**
+	 * ジョブIDごとの開いているファイル(アクセス順).<br>
+	 * 上限を超えたら、最も長く使われていないものをプールから外す.
+	 */
+	private final LinkedHashMap<String, Route> routes;
+
+	/**
+	 * ログディレクトリとファイルのプールの上限を指定して作成する.
+	 * @param name アペンダ名
+	 * @param layout ジョブのログファイルのレイアウト
+	 * @param logDir ログディレクトリ
+	 * @param maxOpenFiles 同時に開いておくファイル数の上限
+	 * @param maxLogRollingSizeMega ジョブのログファイルのローリングサイズ(メガ単位)
+	 * @param maxLogRollover ジョブのログファイルの最大ローリング数
+	 */
+	public JobLogAppender(String name, Layout<? extends Serializable> layout,
+			Path logDir, int maxOpenFiles, int maxLogRollingSizeMega,
+			int maxLogRollover) {
+		super(name, null, Objects.requireNonNull(layout), true);
+		this.logDir = Objects.requireNonNull(logDir);
+		this.maxOpenFiles = Math.max(maxOpenFiles, 1);
+		this.maxLogRollingSizeMega = maxLogRollingSizeMega;
+		this.maxLogRollover = maxLogRollover;
+		this.routes = new LinkedHashMap<String, Route>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+				if (size() > JobLogAppender.this.maxOpenFiles) {
+					evict(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * 現在のスレッドのジョブIDを設定する.<br>
+	 * 返されたスコープを閉じると、以前のジョブIDに戻る.
+	 * @param jobId ジョブID
+	 * @return スコープ
+	 */
+	public static Scope begin(String jobId) {
+		return begin(jobId, null);
+	}
+
+	/**
+	 * 現在のスレッドのジョブIDを設定する.<br>
+	 * 返されたスコープを閉じると、以前のジョブIDに戻してから終了時の処理を実行する.
+	 * @param jobId ジョブID
+	 * @param onClose 終了時の処理、なければnull
+	 * @return スコープ
+	 */
+	static Scope begin(String jobId, Runnable onClose) {
+		Objects.requireNonNull(jobId);
+		String previousJobId = ThreadContext.get(JOB_ID_KEY);
+		ThreadContext.put(JOB_ID_KEY, jobId);
+		return new Scope(previousJobId, onClose);
+	}
+
+	@Override
+	public void append(LogEvent event) {
+		Map<String, String> contextMap = event.getContextMap();
+		String jobId = (contextMap != null) ? contextMap.get(JOB_ID_KEY) : null;
+		if (jobId == null || !isStarted()) {
+			return;
+		}
+		Marker marker = event.getMarker();
+		if (marker != null && marker.isInstanceOf(END_MARKER)) {
+			close(jobId);
+			return;
+		}
+
+		Route route;
+		synchronized (routes) {
+			route = routes.get(jobId);
+			if (route == null) {
+				route = open(jobId);
+				routes.put(jobId, route);
+			}
+			route.users++;
+		}
+		try {
+			route.appender.append(event);
+
+		} finally {
+			synchronized (routes) {
+				if (--route.users == 0 && route.evicted) {
+					route.appender.stop();
+				}
+			}
+		}
+	}
+
+	/**
+	 * ジョブのログファイルを開く.
+	 * @param jobId ジョブID
+	 * @return 開いたファイル
+	 */
+	private Route open(String jobId) {
+		String logName = toLogName(jobId);
+		Appender appender = LogConfigurator.createRollingFileAppender(
+				getName() + "-" + logName, logName, logDir,
+				maxLogRollingSizeMega, maxLogRollover, getLayout(), true);
+		appender.start();
+		return new Route(appender);
+	}
+
+	/**
+	 * プールから外す.<br>
+	 * 書き込み中のスレッドがなければ、すぐに停止する.
+	 * @param route ファイル
+	 */
+	private void evict(Route route) {
+		route.evicted = true;
+		if (route.users == 0) {
+			route.appender.stop();
+		}
+	}
+
+	/**
+	 * ジョブIDをファイル名に使える文字列にする.
+	 * @param jobId ジョブID
+	 * @return ファイル名(拡張子は除く)
+	 */
+	static String toLogName(String jobId) {
+		StringBuilder buf = new StringBuilder("job-");
+		for (int idx = 0; idx < jobId.length(); idx++) {
+			char c = jobId.charAt(idx);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+					|| (c >= '0' && c <= '9') || c == '_' || c == '.') {
+				buf.append(c);
+			} else {
+				buf.append('_');
+			}
+		}
+		return buf.toString();
+	}
+
+	/**
+	 * ジョブのログファイルを閉じる.<br>
+	 * 閉じた後にイベントがあれば開き直す.
+	 * @param jobId ジョブID
+	 */
+	public void close(String jobId) {
+		synchronized (routes) {
+			Route route = routes.remove(jobId);
+			if (route != null) {
+				evict(route);
+			}
+		}
+	}
+
+	/**
+	 * 開いているジョブのログファイルのジョブIDを取得する.
+	 * @return ジョブIDのリスト(最も長く使われていないものから順)
+	 */
+	public List<String> getOpenJobIds() {
+		synchronized (routes) {
+			return new ArrayList<>(routes.keySet());
+		}
+	}
+
+	/**
+	 * すべてのジョブのログファイルを閉じて停止する.
+	 */
+	@Override
+	public void stop() {
+		super.stop();
+		synchronized (routes) {
+			routes.values().forEach(this::evict);
+			routes.clear();
+		}
+	}
+}
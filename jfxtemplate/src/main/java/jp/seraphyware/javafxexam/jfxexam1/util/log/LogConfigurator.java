@@ -1,20 +1,22 @@
 package jp.seraphyware.javafxexam.jfxexam1.util.log;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -30,14 +32,20 @@ import org.apache.logging.log4j.core.appender.rolling.DefaultRolloverStrategy;
 import org.apache.logging.log4j.core.appender.rolling.RolloverStrategy;
 import org.apache.logging.log4j.core.appender.rolling.SizeBasedTriggeringPolicy;
 import org.apache.logging.log4j.core.appender.rolling.TriggeringPolicy;
+import org.apache.logging.log4j.core.config.AppenderRef;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.ConfigurationSource;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.bridge.SLF4JBridgeHandler;
 
+import jp.seraphyware.javafxexam.jfxexam1.util.log.AsyncLogAppender.OverflowPolicy;
+import jp.seraphyware.javafxexam.jfxexam1.util.sys.ApplicationSettings;
 import jp.seraphyware.javafxexam.jfxexam1.util.sys.DataFolderService;
 
 
@@ -84,11 +92,50 @@ public final class LogConfigurator {
 	 */
 	private static final int DEFAULT_MAX_LOG_ROLLOVER = 10;
 
+	/**
+	 * ログフォルダの整理
+	 */
+	private static LogRetentionService logRetentionService;
+
+	/**
+	 * ジョブごとのログファイルに振り分けるアペンダの名前
+	 */
+	private static final String JOB_LOG_APPENDER = "JobLog";
+
+	/**
+	 * ジョブごとのログファイルに振り分けるアペンダ、未使用ならばnull
+	 */
+	private static JobLogAppender jobLogAppender;
+
+	/**
+	 * ルートロガーに接続したジョブログのアペンダ(非同期の場合は包んだもの)
+	 */
+	private static Appender attachedJobLogAppender;
 
 	/**
-	 * ログファイルの有効期限切れとなるミリ秒,(8日)
+	 * 非同期のログ出力を行うか?(app.propertiesの設定名)
 	 */
-	private static final long EXPIRE_MILLIES = 8 * 24 * 60 * 60 * 1000L;
+	private static final String ASYNC = "log.async";
+
+	/**
+	 * 標準出力・標準エラー出力の行を専用のスレッドからログに渡すか?(app.propertiesの設定名)
+	 */
+	private static final String REDIRECT_ASYNC = "log.redirect.async";
+
+	/**
+	 * 標準出力・標準エラー出力の行を専用のスレッドから渡す場合のキューのサイズの既定値
+	 */
+	private static final int DEFAULT_REDIRECT_QUEUE_SIZE = 1024;
+
+	/**
+	 * 非同期のログ出力のバッファサイズの既定値
+	 */
+	private static final int DEFAULT_ASYNC_BUFFER_SIZE = 8192;
+
+	/**
+	 * SAMPLEの場合に残す間隔の既定値
+	 */
+	private static final int DEFAULT_ASYNC_SAMPLE_RATE = 10;
 
 	/**
 	 * ログ設定
@@ -107,14 +154,19 @@ public final class LogConfigurator {
 	 * (1) システムプロパティ"AppLogFilePath"が未設定であれば、
 	 * ローカルアプリケーションフォルダ上の"logs"をログ出力先として
 	 * システムプロパティに設定したのちに、<br>
-	 * (2) ログフォルダ上にある古いlogファイル(8日前)を消去し、<br>
+	 * (2) ログフォルダを準備し、<br>
 	 * (3) システムプロパティenableCustomLog4j2がtrueであり、且つ、
 	 * "log4j2.xml"が、ローカルアプリケーションフォルダにあれば、これをロードする。
-	 * なければリソース上のclientLog4j2.xmlをロードする.<br>
+	 * なければリソース上のclientLog4j2.xmlをロードする.
+	 * 設定"log.async"がtrueであれば、ロガーに接続されているアペンダを
+	 * {@link AsyncLogAppender}で包み、非同期に書き込むようにする.<br>
 	 * (4) Weld-Seのログをslf4jにする.<br>
 	 * (5) java.util.Loggingへのログ出力をslf4jにブリッジさせる.
 	 * ただし、RMIコール時の例外ログはINFOレベルで出力するようにレベルを調整する.<br>
-	 * (6) 標準出力・標準エラー出力のログへの転送を行う.<br>
+	 * (6) 標準出力・標準エラー出力のログへの転送を行う.
+	 * 設定"log.redirect.async"がtrueであれば、専用のスレッドからログに渡す.<br>
+	 * (7) ログフォルダにある古いログファイルの削除と圧縮を、
+	 * バックグラウンドで定期的に行う.({@link LogRetentionService})<br>
 	 */
 	public static void initialize() {
 		// ローカルアプリ設定保存場所
@@ -146,9 +198,6 @@ public final class LogConfigurator {
 				Files.createDirectories(logDir);
 			}
 
-			purgeExpiredLogs(logDir,
-					System.currentTimeMillis() - EXPIRE_MILLIES);
-
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		}
@@ -168,6 +217,9 @@ public final class LogConfigurator {
 						LogConfigurator.class.getResourceAsStream(LOG4J2_XML));
 			}
 			Configurator.initialize(null, source);
+			if (isAsync()) {
+				wrapAsyncAppenders();
+			}
 
 		} catch (IOException e) {
 			// log4j2の構成に失敗した場合は標準エラー出力のみ
@@ -221,8 +273,33 @@ public final class LogConfigurator {
 		// 標準出力・標準エラー出力のログへの転送
 		Logger stdoutLog = LoggerFactory.getLogger("console.out");
 		Logger stderrLog = LoggerFactory.getLogger("console.err");
-		System.setOut(createLogStream(stdoutLog::info));
-		System.setErr(createLogStream(stderrLog::info));
+		Consumer<String> stdoutReceiver = stdoutLog::info;
+		Consumer<String> stderrReceiver = stderrLog::info;
+		if (ApplicationSettings.getBoolean(REDIRECT_ASYNC, false)) {
+			int queueSize = ApplicationSettings.getInt(REDIRECT_ASYNC + ".queueSize",
+					DEFAULT_REDIRECT_QUEUE_SIZE);
+			stdoutReceiver = LogRedirectStream.async(stdoutReceiver, "consoleOut", queueSize);
+			stderrReceiver = LogRedirectStream.async(stderrReceiver, "consoleErr", queueSize);
+		}
+		System.setOut(createLogStream(stdoutReceiver));
+		System.setErr(createLogStream(stderrReceiver));
+
+		// 古いログファイルの整理を開始する.
+		synchronized (LogConfigurator.class) {
+			if (logRetentionService == null) {
+				logRetentionService = LogRetentionService.fromSettings(
+						Paths.get(System.getProperty(AppLogFilePath)));
+				logRetentionService.start();
+			}
+		}
+	}
+
+	/**
+	 * ログフォルダを整理するサービスを取得する.
+	 * @return サービス、初期化前であればnull
+	 */
+	public static synchronized LogRetentionService getLogRetentionService() {
+		return logRetentionService;
 	}
 
 	/**
@@ -242,6 +319,18 @@ public final class LogConfigurator {
 					// 設定を再ロードする.
 					System.out.println("reconfiguration: log4j2.xml=" + uri);
 					ctx.setConfigLocation(uri); // 暗黙でreconfigureされる.
+					if (isAsync()) {
+						wrapAsyncAppenders();
+					}
+
+					// ジョブログのアペンダは古い設定とともに停止されているため、
+					// 新しい設定のルートロガーに作り直す.
+					synchronized (LogConfigurator.class) {
+						if (jobLogAppender != null) {
+							discardJobLogAppender();
+							getJobLogAppender();
+						}
+					}
 
 					// 実行時に変更したログレベルがあれば、それを再設定する.
 					Map<String, org.apache.logging.log4j.Level> prevLevels = new HashMap<>(
@@ -261,6 +350,100 @@ public final class LogConfigurator {
 		return false;
 	}
 
+	/**
+	 * 非同期のログ出力が有効であるか?<br>
+	 * 設定"log.async"がtrueの場合に有効となる.(既定はfalse)
+	 * @return 有効であればtrue
+	 */
+	public static boolean isAsync() {
+		return ApplicationSettings.getBoolean(ASYNC, false);
+	}
+
+	/**
+	 * 書き込み先のアペンダを非同期に書き込むアペンダで包んで返す.<br>
+	 * バッファサイズ、満杯の場合の動作などは設定"log.async.*"から取得する.<br>
+	 * 返されるアペンダは開始していない.
+	 * @param target 書き込み先のアペンダ
+	 * @return 同名の非同期アペンダ
+	 */
+	public static AsyncLogAppender createAsyncAppender(Appender target) {
+		Objects.requireNonNull(target);
+		int bufferSize = ApplicationSettings.getInt(ASYNC + ".bufferSize",
+				DEFAULT_ASYNC_BUFFER_SIZE);
+		OverflowPolicy overflowPolicy = ApplicationSettings.getEnum(
+				ASYNC + ".overflowPolicy", OverflowPolicy.BLOCK);
+		org.apache.logging.log4j.Level overflowLevel = org.apache.logging.log4j.Level
+				.toLevel(ApplicationSettings.getString(ASYNC + ".overflowLevel", "INFO"),
+						org.apache.logging.log4j.Level.INFO);
+		int sampleRate = ApplicationSettings.getInt(ASYNC + ".sampleRate",
+				DEFAULT_ASYNC_SAMPLE_RATE);
+		boolean includeLocation = ApplicationSettings.getBoolean(
+				ASYNC + ".includeLocation", false);
+		return new AsyncLogAppender(target.getName(), target, bufferSize,
+				overflowPolicy, overflowLevel, sampleRate, includeLocation);
+	}
+
+	/**
+	 * 現在の設定で、ロガーに接続されているアペンダを同名の非同期アペンダに置き換える.<br>
+	 * 設定が保持するアペンダも置き換えるため、設定の停止時には
+	 * 非同期アペンダがバッファを書き終えてから書き込み先のアペンダを停止する.
+	 */
+	private static void wrapAsyncAppenders() {
+		final LoggerContext ctx = (LoggerContext) org.apache.logging.log4j.LogManager
+				.getContext(false);
+		final Configuration config = ctx.getConfiguration();
+		Map<String, Appender> appenders = config.getAppenders(); // 設定が保持するマップ
+
+		for (LoggerConfig loggerConfig : config.getLoggers().values()) {
+			for (AppenderRef ref : new ArrayList<>(loggerConfig.getAppenderRefs())) {
+				Appender appender = appenders.get(ref.getRef());
+				if (appender == null) {
+					continue;
+				}
+				if (!(appender instanceof AsyncLogAppender)) {
+					AsyncLogAppender asyncAppender = createAsyncAppender(appender);
+					asyncAppender.start();
+					appenders.put(appender.getName(), asyncAppender);
+					appender = asyncAppender;
+				}
+				if (loggerConfig.getAppenders().get(ref.getRef()) != appender) {
+					loggerConfig.removeAppender(ref.getRef());
+					loggerConfig.addAppender(appender, ref.getLevel(), ref.getFilter());
+				}
+			}
+		}
+
+		ctx.updateLoggers();
+	}
+
+	/**
+	 * 非同期アペンダの統計情報を取得する.<br>
+	 * 非同期のログ出力が有効でなければ空となる.
+	 * @return 統計情報のリスト
+	 */
+	public static List<AsyncLogStatistics> getAsyncLogStatistics() {
+		final LoggerContext ctx = (LoggerContext) org.apache.logging.log4j.LogManager
+				.getContext(false);
+		final Configuration config = ctx.getConfiguration();
+
+		List<AsyncLogStatistics> result = new ArrayList<>();
+		for (Appender appender : config.getAppenders().values()) {
+			if (appender instanceof AsyncLogAppender) {
+				result.add(((AsyncLogAppender) appender).getStatistics());
+			}
+		}
+		// 設定には登録されずに、ルートロガーに接続されたもの
+		org.apache.logging.log4j.core.Logger rootLogger = (org.apache.logging.log4j.core.Logger) org.apache.logging.log4j.LogManager
+				.getRootLogger();
+		for (Appender appender : rootLogger.getAppenders().values()) {
+			if (appender instanceof AsyncLogAppender
+					&& config.getAppenders().get(appender.getName()) != appender) {
+				result.add(((AsyncLogAppender) appender).getStatistics());
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * log4j2.xmlのリソース上の設定ファイルを指定したファイルにコピーする.
 	 * @param configXmlTmpl
@@ -331,83 +514,29 @@ public final class LogConfigurator {
 		return loggerConfig.getLevel();
 	}
 
-	/**
-	 * ログ出力先フォルダにある古いログファイルは削除する.
-	 * @param logDir ログディレクトリ
-	 * @param expired 期限切れとなる日時(エポックタイムからのミリ秒)
-	 */
-	private static void purgeExpiredLogs(Path logDir, long expired) {
-		File[] files = logDir.toFile().listFiles();
-		if (files != null) {
-			for (File file : files) {
-				if (file.isFile() && file.getName().endsWith(".log")
-						&& file.lastModified() < expired) {
-					// 期限切れの拡張子logのファイルを削除する.
-					file.delete();
-				}
-			}
-		}
-	}
-
 	/**
 	 * 標準出力に差し替え可能なプリントストリームを作成します.<br>
 	 * プリントストリームへの出力は文字列として引数のコンシューマに渡されます.<br>
-	 * スレッドごとに独立したバッファをもっています.
+	 * スレッドごとに独立したバッファをもっています.<br>
+	 * 文字コードはUTF-8とし、改行ごとに、またはフラッシュしたときに1行として渡されます.
 	 * @return プリントストリーム
+	 * @see LogRedirectStream
 	 */
 	public static PrintStream createLogStream(Consumer<String> logReceiver) {
-		return new PrintStream(new OutputStream() {
-
-			private ThreadLocal<ByteArrayOutputStream> bosTls = new ThreadLocal<ByteArrayOutputStream>() {
-				@Override
-				protected ByteArrayOutputStream initialValue() {
-					return new ByteArrayOutputStream();
-				}
-			};
-
-			@Override
-			public void write(int b) throws IOException {
-				if (b == 0x0a || b == 0x0d) {
-					flush();
-				} else {
-					bosTls.get().write(b);
-				}
-			}
-
-			@Override
-			public void write(byte[] b, int off, int len) throws IOException {
-				ByteArrayOutputStream bos = bosTls.get();
-				for (int idx = 0; idx < len; idx++) {
-					byte c = b[off + idx];
-					if (c == 0x0a || c == 0x0d) {
-						flush();
-					} else {
-						bos.write(c);
-					}
-				}
-			}
-
-			@Override
-			public void close() throws IOException {
-				flush();
-			}
-
-			@Override
-			public void flush() throws IOException {
-				ByteArrayOutputStream bos = bosTls.get();
-				if (bos.size() > 0) {
-					String msg = new String(bos.toByteArray());
-					bos.reset();
+		try {
+			return new PrintStream(new LogRedirectStream(logReceiver,
+					StandardCharsets.UTF_8), false, StandardCharsets.UTF_8.name());
 
-					logReceiver.accept(msg);
-				}
-			}
-		});
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex); // UTF-8は必ずサポートされている
+		}
 	}
 
 	/**
 	 * ローリングファイルアペンダを作成して返す.<br.
 	 * 返されるアペンダは開始しておらず、ロガーにも接続されていない.<br>
+	 * 非同期のログ出力が有効な場合は、書き込みスレッドがバッチの終わりでフラッシュするため、
+	 * イベントごとのフラッシュは行わない.<br>
 	 * @param appenderName アペンダ名
 	 * @param logDir ログディレクトリ
 	 * @param logName ログファイルのベース名(拡張子は除く)
@@ -418,9 +547,41 @@ public final class LogConfigurator {
 	public static Appender createRollingFileAppender(String appenderName,
 			String logName, Path logDir, int maxLogRollingSizeMega,
 			int maxLogRollover) {
+		// ロートロガー
+		org.apache.logging.log4j.core.Logger rootLogger = (org.apache.logging.log4j.core.Logger) org.apache.logging.log4j.LogManager
+				.getRootLogger();
+
+		// SnifferAppenderで設定されているフォーマットを流用する.
+		Appender snifferAppender = rootLogger.getAppenders().get("Sniffer");
+		if (snifferAppender == null) {
+			throw new RuntimeException("log4j2.xmlにSnifferアペンダがありません.");
+		}
+		Layout<? extends Serializable> layout = snifferAppender.getLayout();
+
+		return createRollingFileAppender(appenderName, logName, logDir,
+				maxLogRollingSizeMega, maxLogRollover, layout, !isAsync());
+	}
+
+	/**
+	 * レイアウトとフラッシュの有無を指定してローリングファイルアペンダを作成して返す.<br.
+	 * 返されるアペンダは開始しておらず、ロガーにも接続されていない.<br>
+	 * @param appenderName アペンダ名
+	 * @param logDir ログディレクトリ
+	 * @param logName ログファイルのベース名(拡張子は除く)
+	 * @param maxLogRollingSizeMega ログファイルのローリングサイズ(メガ単位)
+	 * @param maxLogRollover 最大ローリング数
+	 * @param layout レイアウト
+	 * @param immediateFlush イベントごとにフラッシュするか?
+	 * @return アペンダ
+	 */
+	static Appender createRollingFileAppender(String appenderName,
+			String logName, Path logDir, int maxLogRollingSizeMega,
+			int maxLogRollover, Layout<? extends Serializable> layout,
+			boolean immediateFlush) {
 		Objects.requireNonNull(appenderName);
 		Objects.requireNonNull(logDir);
 		Objects.requireNonNull(logName);
+		Objects.requireNonNull(layout);
 
 		String maxLogRollingSize;
 		if (maxLogRollingSizeMega > 0) {
@@ -447,17 +608,6 @@ public final class LogConfigurator {
 				.getContext(false);
 		final Configuration config = ctx.getConfiguration();
 
-		// ロートロガー
-		org.apache.logging.log4j.core.Logger rootLogger = (org.apache.logging.log4j.core.Logger) org.apache.logging.log4j.LogManager
-				.getRootLogger();
-
-		// SnifferAppenderで設定されているフォーマットを流用する.
-		Appender snifferAppender = rootLogger.getAppenders().get("Sniffer");
-		if (snifferAppender == null) {
-			throw new RuntimeException("log4j2.xmlにSnifferアペンダがありません.");
-		}
-		Layout<? extends Serializable> layout = snifferAppender.getLayout();
-
 		// ローリングサイズ
 		TriggeringPolicy sizebase = SizeBasedTriggeringPolicy
 				.createPolicy(maxLogRollingSize); // size (default 10MBytes)
@@ -478,7 +628,7 @@ public final class LogConfigurator {
 				appenderName, // name
 				"true", // bufferedIo
 				"8192", // bufferSizeStr
-				"true", // immediateFlush
+				Boolean.toString(immediateFlush), // immediateFlush
 				sizebase,
 				rollover,
 				layout,
@@ -489,9 +639,123 @@ public final class LogConfigurator {
 				config); // config);
 	}
 
+	/**
+	 * ジョブごとのログファイルに振り分けるアペンダを取得する.<br>
+	 * 初回に作成してルートロガーに接続する.
+	 * 以降はジョブが増えてもロガーの設定は変更しない.
+	 * (設定のリロードなどで停止されていた場合は作り直す.)<br>
+	 * ジョブのログファイルはログディレクトリ下の"jobs"に作成され、
+	 * 開いておくファイル数などは設定"log.jobLog.*"から取得する.
+	 * @return アペンダ
+	 */
+	public static synchronized JobLogAppender getJobLogAppender() {
+		if (jobLogAppender != null && !attachedJobLogAppender.isStarted()) {
+			discardJobLogAppender();
+		}
+		if (jobLogAppender == null) {
+			// ルートロガーのFileアペンダのフォーマットを流用する.
+			org.apache.logging.log4j.core.Logger rootLogger = (org.apache.logging.log4j.core.Logger) org.apache.logging.log4j.LogManager
+					.getRootLogger();
+			Appender fileAppender = rootLogger.getAppenders().get("File");
+			Layout<? extends Serializable> layout = (fileAppender != null
+					&& fileAppender.getLayout() != null) ? fileAppender.getLayout()
+							: PatternLayout.createDefaultLayout();
+
+			Path logDir = Paths.get(System.getProperty(AppLogFilePath)).resolve(LogRetentionService.JOBS_DIR);
+			jobLogAppender = new JobLogAppender(JOB_LOG_APPENDER, layout, logDir,
+					ApplicationSettings.getInt("log.jobLog.maxOpenFiles", 16),
+					ApplicationSettings.getInt("log.jobLog.maxFileSizeMB", 10),
+					ApplicationSettings.getInt("log.jobLog.maxRollover", 3));
+
+			attachAppender(jobLogAppender);
+			attachedJobLogAppender = rootLogger.getAppenders().get(JOB_LOG_APPENDER);
+		}
+		return jobLogAppender;
+	}
+
+	/**
+	 * ジョブログのアペンダを停止して破棄する.<br>
+	 * 開いていたジョブのログファイルは、次に作成したアペンダが追記モードで開き直す.
+	 */
+	private static synchronized void discardJobLogAppender() {
+		if (attachedJobLogAppender.isStarted()) {
+			attachedJobLogAppender.stop();
+		}
+		if (jobLogAppender.isStarted()) {
+			jobLogAppender.stop();
+		}
+		jobLogAppender = null;
+		attachedJobLogAppender = null;
+	}
+
+	/**
+	 * 開いているジョブのログファイルの名前(拡張子は除く)を取得する.<br>
+	 * ログフォルダの整理で、書き込み中のジョブのログファイルを削除しないために使う.
+	 * @return ファイル名のセット、アペンダが作成されていなければ空
+	 */
+	static Set<String> getOpenJobLogNames() {
+		JobLogAppender appender;
+		synchronized (LogConfigurator.class) {
+			appender = jobLogAppender;
+		}
+		if (appender == null) {
+			return Collections.emptySet();
+		}
+		return appender.getOpenJobIds().stream()
+				.map(JobLogAppender::toLogName)
+				.collect(Collectors.toSet());
+	}
+
+	/**
+	 * 現在のスレッドのログを、ジョブのログファイルにも出力するようにする.<br>
+	 * 返されたスコープを閉じると元に戻り、{@link #endJobLog(String)}でジョブのログファイルを閉じる.
+	 * <pre>
+	 * try (JobLogAppender.Scope scope = LogConfigurator.beginJobLog(jobId)) {
+	 *     ...
+	 * }
+	 * </pre>
+	 * @param jobId ジョブID
+	 * @return スコープ
+	 */
+	public static JobLogAppender.Scope beginJobLog(String jobId) {
+		getJobLogAppender();
+		return JobLogAppender.begin(jobId, () -> endJobLog(jobId));
+	}
+
+	/**
+	 * ジョブのログファイルを閉じる.<br>
+	 * 非同期のログ出力の場合でも、それまでに出力したイベントを書き込んでから閉じるように、
+	 * 終了のマーカーをもつイベントを、ロガーを経由せずにルートロガーに接続したアペンダ(非同期アペンダ)に直接渡す.
+	 * そのため、ロガーのレベルにかかわらず、書き込み待ちのイベントの後で閉じられる.
+	 * @param jobId ジョブID
+	 */
+	public static void endJobLog(String jobId) {
+		Objects.requireNonNull(jobId);
+		Appender appender;
+		synchronized (LogConfigurator.class) {
+			appender = attachedJobLogAppender;
+		}
+		if (appender == null) {
+			return;
+		}
+		appender.append(Log4jLogEvent.newBuilder()
+				.setLoggerName(JobLogAppender.class.getName())
+				.setLoggerFqcn(LogConfigurator.class.getName())
+				.setMarker(JobLogAppender.END_MARKER)
+				.setLevel(org.apache.logging.log4j.Level.DEBUG)
+				.setMessage(new SimpleMessage("job log is closed. jobId=" + jobId))
+				.setContextMap(Collections.singletonMap(JobLogAppender.JOB_ID_KEY, jobId))
+				.setThreadName(Thread.currentThread().getName())
+				.setTimeMillis(System.currentTimeMillis())
+				.build());
+	}
+
 	/**
 	 * アペンダをロートロガーに接続する.<br>
-	 * 同名の古いロガーがある場合は解除される.
+	 * ジョブごとにログファイルを分ける場合は、ジョブごとにロガーの設定を変更しないように
+	 * {@link #beginJobLog(String)}を使うこと.<br>
+	 * 同名の古いロガーがある場合は解除される.<br>
+	 * 非同期のログ出力が有効な場合は、非同期アペンダで包んでから接続する.
 	 * @param appender
 	 */
 	public static void attachAppender(Appender appender) {
@@ -508,6 +772,10 @@ public final class LogConfigurator {
 		// 古いアペンダがあれば、それを停止してデタッチする.
 		detachAppender(appender.getName());
 
+		if (isAsync() && !(appender instanceof AsyncLogAppender)) {
+			appender = createAsyncAppender(appender);
+		}
+
 		// アペンダを開始しルートロガーに接続する.
 		appender.start();
 		rootLogger.addAppender(appender);
@@ -0,0 +1,431 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.seraphyware.javafxexam.jfxexam1.util.sys.ApplicationSettings;
+
+/**
+ * ログフォルダの古いログファイルを整理する.<br>
+ * 起動処理を遅らせないように、専用のデーモンスレッドから遅延して実行し、以降は定期的に実行する.<br>
+ * ジョブごとのログファイルを作成するサブフォルダ"jobs"も同様に整理する.<br>
+ * 1回の整理では以下を行う.<br>
+ * <br>
+ * (1) 有効期限を過ぎたログファイル(*.log, *.gz)を削除する.<br>
+ * (2) ローリングされたログファイル(名前-番号.log)のうち、一定時間更新されていないものを
+ * gzipで圧縮する.
+ * 圧縮したファイルはローリングの対象外とするため、名前に更新日時を付与する.(名前-番号-更新日時.log.gz)<br>
+ * (3) 合計サイズが上限を超えている場合は、書き込み中のログファイル以外を古いものから削除する.
+ * 合計サイズはサブフォルダを含めたものとする.<br>
+ * ジョブのログファイルは名前から書き込み中か判定できないため(ジョブIDが数字ならば"job-42.log"のように
+ * ローリングされたファイルと同じ形になる)、開いているジョブのログファイルを書き込み中とみなし、
+ * (1)から(3)のいずれの対象にもしない.<br>
+ * <br>
+ * 整理の方針は設定"log.retention.*"から取得する.<br>
+ */
+public final class LogRetentionService {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogRetentionService.class);
+
+	/**
+	 * 設定名の接頭辞
+	 */
+	private static final String SETTINGS_PREFIX = "log.retention.";
+
+	/**
+	 * ローリングされたログファイル名のパターン
+	 */
+	private static final Pattern ROLLED_LOG = Pattern.compile("(.+-\\d+)\\.log");
+
+	/**
+	 * 圧縮中の一時ファイルの拡張子
+	 */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * ジョブごとのログファイルを作成するサブフォルダ名
+	 */
+	static final String JOBS_DIR = "jobs";
+
+	/**
+	 * ログフォルダ内のファイル情報
+	 */
+	private static final class LogFile {
+
+		final Path path;
+
+		final BasicFileAttributes attrs;
+
+		/**
+		 * ジョブのログファイルか?
+		 */
+		final boolean jobLog;
+
+		/**
+		 * 書き込み中のログファイルか?
+		 */
+		final boolean active;
+
+		LogFile(Path path, BasicFileAttributes attrs, boolean jobLog, boolean active) {
+			this.path = path;
+			this.attrs = attrs;
+			this.jobLog = jobLog;
+			this.active = active;
+		}
+
+		long lastModified() {
+			return attrs.lastModifiedTime().toMillis();
+		}
+
+		boolean isRolled() {
+			return ROLLED_LOG.matcher(path.getFileName().toString()).matches();
+		}
+
+	}
+
+	/**
+	 * ログフォルダ
+	 */
+	private final Path logDir;
+
+	/**
+	 * ログファイルの有効期間(ミリ秒)、0以下ならば期限なし
+	 */
+	private final long maxAgeMillis;
+
+	/**
+	 * ログファイルの合計サイズの上限(バイト)、0以下ならば上限なし
+	 */
+	private final long maxTotalBytes;
+
+	/**
+	 * ローリングされたファイルを圧縮するまでの経過時間(ミリ秒)、0以下ならば圧縮しない
+	 */
+	private final long compressAfterMillis;
+
+	/**
+	 * 開いているジョブのログファイルの名前(拡張子は除く)を取得する
+	 */
+	private final Supplier<Set<String>> openJobLogNames;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * 整理の方針を指定して構築する.
+	 * @param logDir ログフォルダ
+	 * @param maxAgeMillis ログファイルの有効期間(ミリ秒)、0以下ならば期限なし
+	 * @param maxTotalBytes ログファイルの合計サイズの上限(バイト)、0以下ならば上限なし
+	 * @param compressAfterMillis ローリングされたファイルを圧縮するまでの経過時間(ミリ秒)、0以下ならば圧縮しない
+	 */
+	public LogRetentionService(Path logDir, long maxAgeMillis,
+			long maxTotalBytes, long compressAfterMillis) {
+		this(logDir, maxAgeMillis, maxTotalBytes, compressAfterMillis,
+				LogConfigurator::getOpenJobLogNames);
+	}
+
+	/**
+	 * 整理の方針と、開いているジョブのログファイルの取得方法を指定して構築する.
+	 * @param logDir ログフォルダ
+	 * @param maxAgeMillis ログファイルの有効期間(ミリ秒)、0以下ならば期限なし
+	 * @param maxTotalBytes ログファイルの合計サイズの上限(バイト)、0以下ならば上限なし
+	 * @param compressAfterMillis ローリングされたファイルを圧縮するまでの経過時間(ミリ秒)、0以下ならば圧縮しない
+	 * @param openJobLogNames 開いているジョブのログファイルの名前(拡張子は除く)を取得する
+	 */
+	public LogRetentionService(Path logDir, long maxAgeMillis,
+			long maxTotalBytes, long compressAfterMillis,
+			Supplier<Set<String>> openJobLogNames) {
+		this.logDir = Objects.requireNonNull(logDir);
+		this.maxAgeMillis = maxAgeMillis;
+		this.maxTotalBytes = maxTotalBytes;
+		this.compressAfterMillis = compressAfterMillis;
+		this.openJobLogNames = Objects.requireNonNull(openJobLogNames);
+	}
+
+	/**
+	 * 設定"log.retention.*"から整理の方針を取得して構築する.<br>
+	 * <ul>
+	 * <li>maxAgeDays ログファイルの有効日数(既定は8日)</li>
+	 * <li>maxTotalSizeMB ログファイルの合計サイズの上限(既定は256MB)</li>
+	 * <li>compressAfterHours ローリングされたファイルを圧縮するまでの時間(既定は24時間)</li>
+	 * </ul>
+	 * @param logDir ログフォルダ
+	 * @return 整理するサービス
+	 */
+	public static LogRetentionService fromSettings(Path logDir) {
+		long maxAgeDays = ApplicationSettings.getLong(SETTINGS_PREFIX + "maxAgeDays", 8);
+		long maxTotalSizeMB = ApplicationSettings.getLong(SETTINGS_PREFIX + "maxTotalSizeMB", 256);
+		long compressAfterHours = ApplicationSettings.getLong(SETTINGS_PREFIX + "compressAfterHours", 24);
+		return new LogRetentionService(logDir,
+				TimeUnit.DAYS.toMillis(maxAgeDays),
+				maxTotalSizeMB * 1024 * 1024,
+				TimeUnit.HOURS.toMillis(compressAfterHours));
+	}
+
+	/**
+	 * 専用のデーモンスレッドで整理を開始する.<br>
+	 * 遅延時間と実行間隔は設定"log.retention.initialDelaySeconds"(既定は30秒)と、
+	 * "log.retention.intervalHours"(既定は24時間、0以下ならば1回のみ)から取得する.<br>
+	 * 開始済みであれば何もしない.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		long initialDelaySeconds = ApplicationSettings.getLong(
+				SETTINGS_PREFIX + "initialDelaySeconds", 30);
+		long intervalHours = ApplicationSettings.getLong(
+				SETTINGS_PREFIX + "intervalHours", 24);
+
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "logRetention");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		if (intervalHours > 0) {
+			executor.scheduleWithFixedDelay(this::runSafely,
+					TimeUnit.SECONDS.toMillis(initialDelaySeconds),
+					TimeUnit.HOURS.toMillis(intervalHours), TimeUnit.MILLISECONDS);
+		} else {
+			executor.schedule(this::runSafely, initialDelaySeconds, TimeUnit.SECONDS);
+		}
+		logger.debug("log retention is scheduled. logDir={}, initialDelay={}s, interval={}h",
+				logDir, initialDelaySeconds, intervalHours);
+	}
+
+	/**
+	 * 整理を停止する.<br>
+	 * 圧縮中であれば中断し、一時ファイルは次回の整理で削除される.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private void runSafely() {
+		try {
+			run();
+
+		} catch (IOException | RuntimeException ex) {
+			logger.warn("failed to clean up log files. logDir={}", logDir, ex);
+		}
+	}
+
+	/**
+	 * 呼び出したスレッドで整理を1回行う.
+	 * @throws IOException ログフォルダを列挙できない場合
+	 */
+	public synchronized void run() throws IOException {
+		if (!Files.isDirectory(logDir)) {
+			return;
+		}
+		long st = System.nanoTime();
+		long now = System.currentTimeMillis();
+		int deleted = 0;
+		int compressed = 0;
+
+		List<LogFile> files = new ArrayList<>();
+		for (LogFile file : list()) {
+			if (file.path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+				// 中断された圧縮の一時ファイル
+				delete(file);
+				continue;
+			}
+			if (file.active && file.jobLog) {
+				files.add(file); // 開いているジョブのログファイル
+				continue;
+			}
+			if (maxAgeMillis > 0 && file.lastModified() < now - maxAgeMillis) {
+				// (1) 有効期限切れ
+				if (delete(file)) {
+					deleted++;
+				}
+				continue;
+			}
+			if (compressAfterMillis > 0 && file.isRolled()
+					&& file.lastModified() < now - compressAfterMillis) {
+				// (2) 圧縮
+				LogFile gz = compress(file);
+				if (gz != null) {
+					file = gz;
+					compressed++;
+				}
+			}
+			files.add(file);
+		}
+
+		if (maxTotalBytes > 0) {
+			// (3) 合計サイズの上限
+			long total = files.stream().mapToLong(file -> file.attrs.size()).sum();
+			files.sort(Comparator.comparingLong(LogFile::lastModified));
+			for (LogFile file : files) {
+				if (total <= maxTotalBytes) {
+					break;
+				}
+				if (file.active) {
+					continue; // 書き込み中のログファイル
+				}
+				if (delete(file)) {
+					total -= file.attrs.size();
+					deleted++;
+				}
+			}
+		}
+
+		logger.info("log files are cleaned up. logDir={}, deleted={}, compressed={}, elapsed={}ms",
+				logDir, deleted, compressed,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - st));
+	}
+
+	/**
+	 * ログフォルダとサブフォルダ"jobs"にあるログファイル(*.log, *.gz)と、圧縮中の一時ファイルを列挙する.
+	 * @return ファイルのリスト
+	 * @throws IOException
+	 */
+	private List<LogFile> list() throws IOException {
+		List<LogFile> files = new ArrayList<>();
+		list(logDir, null, files);
+		Path jobsDir = logDir.resolve(JOBS_DIR);
+		if (Files.isDirectory(jobsDir)) {
+			list(jobsDir, openJobLogNames.get(), files);
+		}
+		return files;
+	}
+
+	/**
+	 * フォルダにあるログファイル(*.log, *.gz)と、圧縮中の一時ファイルを列挙する.
+	 * @param dir フォルダ
+	 * 書き込み中のログファイルは、ログフォルダではローリングも圧縮もされていないもの、
+	 * ジョブのログファイルのフォルダでは開いているものとする.
+	 * @param dir フォルダ
+	 * @param openJobLogNames 開いているジョブのログファイルの名前、ジョブのログファイルのフォルダでなければnull
+	 * @param files 列挙したファイルを追加するリスト
+	 * @throws IOException
+	 */
+	private void list(Path dir, Set<String> openJobLogNames, List<LogFile> files)
+			throws IOException {
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir,
+				"*.{log,gz,gz" + TEMP_SUFFIX + "}")) {
+			for (Path path : ds) {
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(path,
+							BasicFileAttributes.class);
+					if (attrs.isRegularFile()) {
+						files.add(createLogFile(path, attrs, openJobLogNames));
+					}
+
+				} catch (IOException ex) {
+					// 列挙後にローリングなどで消えたものは無視する
+				}
+			}
+		}
+	}
+
+	private static LogFile createLogFile(Path path, BasicFileAttributes attrs,
+			Set<String> openJobLogNames) {
+		String name = path.getFileName().toString();
+		boolean active;
+		if (openJobLogNames != null) {
+			active = name.endsWith(".log")
+					&& openJobLogNames.contains(name.substring(0, name.length() - 4));
+		} else {
+			active = name.endsWith(".log") && !ROLLED_LOG.matcher(name).matches();
+		}
+		return new LogFile(path, attrs, openJobLogNames != null, active);
+	}
+
+	private boolean delete(LogFile file) {
+		try {
+			return Files.deleteIfExists(file.path);
+
+		} catch (IOException ex) {
+			// 使用中などで削除できないものは次回に持ち越す
+			logger.debug("can't delete log file. file={}", file.path, ex);
+			return false;
+		}
+	}
+
+	/**
+	 * ローリングされたログファイルをgzipで圧縮し、元のファイルを削除する.<br>
+	 * 圧縮中にローリングによって差し替えられた場合は、圧縮したファイルを破棄する.
+	 * @param file ログファイル
+	 * @return 圧縮したファイル、圧縮できなかった場合はnull
+	 */
+	private LogFile compress(LogFile file) {
+		Matcher m = ROLLED_LOG.matcher(file.path.getFileName().toString());
+		if (!m.matches()) {
+			return null;
+		}
+		String stamp = new SimpleDateFormat("yyyyMMddHHmmss").format(new Date(file.lastModified()));
+		Path gzPath = file.path.resolveSibling(m.group(1) + "-" + stamp + ".log.gz");
+		for (int idx = 1; Files.exists(gzPath); idx++) {
+			gzPath = file.path.resolveSibling(m.group(1) + "-" + stamp + "-" + idx + ".log.gz");
+		}
+		Path tmpPath = file.path.resolveSibling(gzPath.getFileName() + TEMP_SUFFIX);
+
+		try {
+			try (InputStream is = Files.newInputStream(file.path);
+					OutputStream os = new GZIPOutputStream(Files.newOutputStream(tmpPath))) {
+				byte[] buf = new byte[8192];
+				int rd;
+				while ((rd = is.read(buf)) >= 0) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new IOException("interrupted");
+					}
+					os.write(buf, 0, rd);
+				}
+			}
+
+			// 圧縮中にローリングされていなければ、元のファイルと置き換える
+			BasicFileAttributes current = Files.readAttributes(file.path, BasicFileAttributes.class);
+			if (current.size() != file.attrs.size()
+					|| !current.lastModifiedTime().equals(file.attrs.lastModifiedTime())
+					|| !Objects.equals(current.fileKey(), file.attrs.fileKey())) {
+				Files.deleteIfExists(tmpPath);
+				return null;
+			}
+			Files.setLastModifiedTime(tmpPath, FileTime.fromMillis(file.lastModified()));
+			Files.move(tmpPath, gzPath, StandardCopyOption.ATOMIC_MOVE);
+			Files.delete(file.path);
+			logger.debug("log file is compressed. file={}, gz={}", file.path, gzPath);
+			return new LogFile(gzPath, Files.readAttributes(gzPath, BasicFileAttributes.class),
+					file.jobLog, false);
+
+		} catch (IOException ex) {
+			logger.debug("can't compress log file. file={}", file.path, ex);
+			try {
+				Files.deleteIfExists(tmpPath);
+
+			} catch (IOException ex2) {
+				// 次回の整理で削除する
+			}
+			return null;
+		}
+	}
+}
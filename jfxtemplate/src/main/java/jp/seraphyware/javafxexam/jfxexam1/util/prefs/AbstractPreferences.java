@@ -2,17 +2,44 @@ package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import jp.seraphyware.javafxexam.jfxexam1.util.sys.ApplicationSettings;
+
+/**
+ * 設定の読み書きの基本実装.<br>
+ * 値の変更は即座には保存せず、変更フラグを立てるのみとする.<br>
+ * 遅延書き込みが有効な場合(既定)、変更からの一定時間、
+ * 続く変更がなくなるのを待ってからバックグラウンドのスレッドで保存する.
+ * 読み込みはメモリ上の値を返すのみで、ディスクへのアクセスで待たされることはない.
+ * 変更が続く場合でも、最初の変更から最大待機時間を過ぎれば保存する.<br>
+ * 未保存の変更は{@link #flush()}で即座に保存でき、JVMの終了時にも保存される.<br>
+ * 遅延時間と最大待機時間はapp.propertiesまたはシステムプロパティの
+ * preferences.writeBehindMillis(既定は500), preferences.writeBehindMaxMillis(既定は5000)
+ * で設定する.
+ * 遅延時間を0以下とした場合は遅延書き込みを行わず、変更後の最初の読み込み時に保存する.<br>
+ */
 public abstract class AbstractPreferences implements Preferences {
 
 	private static final Logger logger = LoggerFactory
@@ -20,35 +47,215 @@ public abstract class AbstractPreferences implements Preferences {
 
 	private final AtomicBoolean modified = new AtomicBoolean();
 
+	/**
+	 * 保存処理の排他制御
+	 */
+	private final Object saveLock = new Object();
+
+	/**
+	 * 遅延書き込みの遅延時間(ナノ秒)、0以下ならば遅延書き込みしない
+	 */
+	private volatile long writeBehindNanos = TimeUnit.MILLISECONDS.toNanos(
+			ApplicationSettings.getLong("preferences.writeBehindMillis", 500));
+
+	/**
+	 * 遅延書き込みの最初の変更からの最大待機時間(ナノ秒)
+	 */
+	private volatile long writeBehindMaxNanos = TimeUnit.MILLISECONDS.toNanos(
+			ApplicationSettings.getLong("preferences.writeBehindMaxMillis", 5000));
+
+	/**
+	 * 遅延書き込みを予約済みであるか?
+	 */
+	private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+	/**
+	 * 予約後の最初の変更時刻(System.nanoTime)
+	 */
+	private volatile long firstModifiedAt;
+
+	/**
+	 * 最後の変更時刻(System.nanoTime)
+	 */
+	private volatile long lastModifiedAt;
+
+	private final LongAdder modifiedCount = new LongAdder();
+
+	private final AtomicLong saveCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong lastSaveNanos = new AtomicLong();
+
+	private final AtomicLong maxSaveNanos = new AtomicLong();
+
+	private final AtomicLong totalSaveNanos = new AtomicLong();
+
+	/**
+	 * 型付きのキーごとの解析済みの値
+	 */
+	private final Map<PreferenceKey<?>, CachedValue> typedCache = new ConcurrentHashMap<>();
+
+	/**
+	 * 値の変更を受け取るリスナ
+	 */
+	private final List<PreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * 解析済みの値と、解析した文字列
+	 */
+	private static final class CachedValue {
+
+		final String raw;
+
+		final Object value;
+
+		CachedValue(String raw, Object value) {
+			this.raw = raw;
+			this.value = value;
+		}
+	}
+
 	public abstract Properties getProperties();
 
 	public boolean isModified() {
 		return modified.get();
 	}
 
-	public void flush() {
-		if (modified.getAndSet(false)) {
-			try {
-				save();
+	/**
+	 * 遅延書き込みの遅延時間を設定する.
+	 * @param delay 遅延時間、0以下ならば遅延書き込みしない
+	 * @param maxDelay 最初の変更からの最大待機時間
+	 * @param unit 単位
+	 */
+	public void setWriteBehind(long delay, long maxDelay, TimeUnit unit) {
+		writeBehindNanos = unit.toNanos(delay);
+		writeBehindMaxNanos = unit.toNanos(maxDelay);
+	}
+
+	/**
+	 * 遅延書き込みが有効であるか?
+	 * @return
+	 */
+	public boolean isWriteBehind() {
+		return writeBehindNanos > 0;
+	}
 
-			} catch (IOException ex) {
-				logger.error("failed to save properties", ex);
-				throw new UncheckedIOException(ex);
+	/**
+	 * 未保存の変更があれば、呼び出したスレッドで即座に保存する.
+	 */
+	public void flush() {
+		synchronized (saveLock) {
+			if (modified.getAndSet(false)) {
+				long st = System.nanoTime();
+				try {
+					save();
+
+				} catch (IOException ex) {
+					failedCount.incrementAndGet();
+					modified.set(true); // 次回の保存で再試行する
+					logger.error("failed to save properties", ex);
+					throw new UncheckedIOException(ex);
+
+				} finally {
+					recordSaveTime(System.nanoTime() - st);
+				}
+			}
+			if (!modified.get()) {
+				PreferencesWriteBehind.done(this);
+				if (modified.get()) {
+					// 解除と同時に変更された場合
+					PreferencesWriteBehind.pending(this);
+				}
 			}
 		}
 	}
 
-	public String getProperty(String key) {
-		flush();
-		return getProperties().getProperty(key);
+	private void recordSaveTime(long elapsed) {
+		saveCount.incrementAndGet();
+		lastSaveNanos.set(elapsed);
+		totalSaveNanos.addAndGet(elapsed);
+		maxSaveNanos.accumulateAndGet(elapsed, Math::max);
 	}
 
-	public Set<String> getPropertyNames() {
-		return getPropertyNamesStartsWith(null);
+	/**
+	 * 遅延書き込みが無効であれば、未保存の変更を保存する.<br>
+	 * 遅延書き込みが有効であれば何もしない.
+	 */
+	protected void flushIfSynchronous() {
+		if (!isWriteBehind()) {
+			flush();
+		}
 	}
 
-	public Set<String> getPropertyNamesStartsWith(String prefix) {
-		flush();
+	/**
+	 * 遅延書き込みを予約する.<br>
+	 * すでに予約済みであれば、最後の変更時刻を更新するのみ.
+	 */
+	private void scheduleWriteBehind() {
+		long delay = writeBehindNanos;
+		if (delay <= 0) {
+			return;
+		}
+		PreferencesWriteBehind.pending(this);
+		long now = System.nanoTime();
+		lastModifiedAt = now;
+		if (saveScheduled.compareAndSet(false, true)) {
+			firstModifiedAt = now;
+			PreferencesWriteBehind.schedule(this::writeBehind, delay);
+		}
+	}
+
+	/**
+	 * 遅延書き込みを行う.(書き込みスレッドから呼び出される)<br>
+	 * 最後の変更から遅延時間が経過していなければ、最大待機時間を超えない範囲で再予約する.
+	 */
+	private void writeBehind() {
+		long now = System.nanoTime();
+		long remain = writeBehindNanos - (now - lastModifiedAt);
+		long maxRemain = writeBehindMaxNanos - (now - firstModifiedAt);
+		if (remain > 0 && maxRemain > 0) {
+			PreferencesWriteBehind.schedule(this::writeBehind, Math.min(remain, maxRemain));
+			return;
+		}
+
+		// 保存前に予約を解除し、保存中の変更は次の予約で保存されるようにする
+		saveScheduled.set(false);
+		try {
+			flush();
+
+		} catch (RuntimeException ex) {
+			// ログ出力済み、次の変更かJVMの終了時に再試行する
+		}
+	}
+
+	/**
+	 * 保存の統計情報を取得する.
+	 * @return 統計情報のスナップショット
+	 */
+	public PreferencesSaveStatistics getSaveStatistics() {
+		return new PreferencesSaveStatistics(modifiedCount.sum(),
+				saveCount.get(), failedCount.get(), lastSaveNanos.get(),
+				maxSaveNanos.get(), totalSaveNanos.get(), modified.get());
+	}
+
+	/**
+	 * 値を取得する.<br>
+	 * サブクラスでより効率のよい方法があればオーバーライドする.
+	 * @param key キー
+	 * @return 値、なければnull
+	 */
+	protected String lookupProperty(String key) {
+		return getProperties().getProperty(key);
+	}
+
+	/**
+	 * 指定した接頭語で始まるキーを昇順で取得する.<br>
+	 * サブクラスでより効率のよい方法があればオーバーライドする.
+	 * @param prefix 接頭語、nullまたは空ならばすべて
+	 * @return キーの集合
+	 */
+	protected Set<String> lookupPropertyNames(String prefix) {
 		Set<String> names = new TreeSet<>();
 		names.addAll(getProperties().stringPropertyNames());
 
@@ -59,8 +266,40 @@ public abstract class AbstractPreferences implements Preferences {
 		return names;
 	}
 
+	/**
+	 * 値を設定する.<br>
+	 * サブクラスでより効率のよい方法があればオーバーライドする.
+	 * @param key キー
+	 * @param value 値
+	 * @return 値が変更された場合はtrue
+	 */
+	protected boolean storeProperty(String key, String value) {
+		Properties props = getProperties();
+		String oldValue = props.getProperty(key);
+		if (Objects.equals(oldValue, value)) {
+			return false;
+		}
+		props.setProperty(key, value);
+		firePreferenceChange(key, oldValue, value);
+		return true;
+	}
+
+	public String getProperty(String key) {
+		flushIfSynchronous();
+		return lookupProperty(key);
+	}
+
+	public Set<String> getPropertyNames() {
+		return getPropertyNamesStartsWith(null);
+	}
+
+	public Set<String> getPropertyNamesStartsWith(String prefix) {
+		flushIfSynchronous();
+		return lookupPropertyNames(prefix);
+	}
+
 	public String getProperty(String key, String defaultValue) {
-		flush();
+		flushIfSynchronous();
 		String val = this.getProperty(key);
 		if (val == null) {
 			val = defaultValue;
@@ -69,67 +308,71 @@ public abstract class AbstractPreferences implements Preferences {
 	}
 
 	public int getPropertyInt(String key, int defaultValue) {
-		flush();
-		try {
-			return Integer.parseInt(getProperty(key,
-					Integer.toString(defaultValue)));
+		String val = getProperty(key);
+		if (val != null) {
+			try {
+				return Integer.parseInt(val);
 
-		} catch (RuntimeException ex) {
-			return defaultValue;
+			} catch (RuntimeException ex) {
+				// 既定値とする
+			}
 		}
+		return defaultValue;
 	}
 
 	@Override
 	public long getPropertyLong(String key, int defaultValue) {
-		flush();
-		try {
-			return Long.parseLong(getProperty(key,
-					Long.toString(defaultValue)));
+		String val = getProperty(key);
+		if (val != null) {
+			try {
+				return Long.parseLong(val);
 
-		} catch (RuntimeException ex) {
-			return defaultValue;
+			} catch (RuntimeException ex) {
+				// 既定値とする
+			}
 		}
+		return defaultValue;
 	}
 
 	@Override
 	public float getPropertyFloat(String key, float defaultValue) {
-		flush();
-		try {
-			return Float.parseFloat(getProperty(key,
-					Float.toString(defaultValue)));
+		String val = getProperty(key);
+		if (val != null) {
+			try {
+				return Float.parseFloat(val);
 
-		} catch (RuntimeException ex) {
-			return defaultValue;
+			} catch (RuntimeException ex) {
+				// 既定値とする
+			}
 		}
+		return defaultValue;
 	}
 
 	public double getPropertyDouble(String key, double defaultValue) {
-		flush();
-		try {
-			return Double.parseDouble(getProperty(key,
-					Double.toString(defaultValue)));
+		String val = getProperty(key);
+		if (val != null) {
+			try {
+				return Double.parseDouble(val);
 
-		} catch (RuntimeException ex) {
-			return defaultValue;
+			} catch (RuntimeException ex) {
+				// 既定値とする
+			}
 		}
+		return defaultValue;
 	}
 
 	public boolean getPropertyBoolean(String key, boolean defaultValue) {
-		flush();
-		try {
-			return Boolean.parseBoolean(getProperty(key,
-					Boolean.toString(defaultValue)));
-
-		} catch (RuntimeException ex) {
-			return defaultValue;
+		String val = getProperty(key);
+		if (val != null) {
+			return Boolean.parseBoolean(val);
 		}
+		return defaultValue;
 	}
 
 	@Override
 	public Path getPropertyPath(String key, Path defaultValue) {
-		flush();
 		try {
-			String strPath = getProperty(key, null);
+			String strPath = getProperty(key);
 			if (strPath != null && strPath.trim().length() > 0) {
 				return Paths.get(strPath.trim());
 			}
@@ -143,12 +386,11 @@ public abstract class AbstractPreferences implements Preferences {
 	@Override
 	public <E extends Enum<E>> Enum<E> getPropertyEnum(String key,
 			Enum<E> defaultValue) {
-		flush();
 		Objects.requireNonNull(defaultValue);
 		try {
-			String name = getProperty(key, null);
+			String name = getProperty(key);
 			if (name != null && name.trim().length() > 0) {
-				Enum.valueOf(defaultValue.getDeclaringClass(), name);
+				return Enum.valueOf(defaultValue.getDeclaringClass(), name.trim());
 			}
 
 		} catch (RuntimeException ex) {
@@ -157,6 +399,149 @@ public abstract class AbstractPreferences implements Preferences {
 		return defaultValue;
 	}
 
+	/**
+	 * 型付きのキーで値を取得する.<br>
+	 * 解析済みの値はキャッシュされ、設定の文字列が変わらない限り再解析しない.
+	 * @param key キー
+	 * @return 値、設定がないか解釈できない場合はキーの既定値
+	 */
+	@Override
+	public <T> T get(PreferenceKey<T> key) {
+		String raw = getProperty(key.getName());
+		CachedValue cached = typedCache.get(key);
+		if (cached != null && Objects.equals(cached.raw, raw)) {
+			return key.getType().cast(cached.value);
+		}
+		T value = key.parse(raw);
+		typedCache.put(key, new CachedValue(raw, value));
+		return value;
+	}
+
+	/**
+	 * 型付きのキーで値を設定する.
+	 * @param key キー
+	 * @param value 値、nullの場合は空文字として保存される
+	 */
+	@Override
+	public <T> void set(PreferenceKey<T> key, T value) {
+		String raw = key.format(value);
+		setProperty(key.getName(), raw);
+		typedCache.put(key, new CachedValue(raw, key.parse(raw)));
+	}
+
+	/**
+	 * 値の変更を受け取るリスナを登録する.
+	 * @param listener リスナ
+	 */
+	public void addPreferenceChangeListener(PreferenceChangeListener listener) {
+		listeners.add(Objects.requireNonNull(listener));
+	}
+
+	/**
+	 * 値の変更を受け取るリスナを解除する.
+	 * @param listener リスナ
+	 */
+	public void removePreferenceChangeListener(PreferenceChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * 登録されているリスナに値の変更を通知する.
+	 * @param key キー
+	 * @param oldValue 変更前の値
+	 * @param newValue 変更後の値
+	 */
+	protected void firePreferenceChange(String key, String oldValue, String newValue) {
+		for (PreferenceChangeListener listener : listeners) {
+			try {
+				listener.preferenceChanged(key, oldValue, newValue);
+
+			} catch (RuntimeException ex) {
+				logger.error("failed to notify preference change. key=" + key, ex);
+			}
+		}
+	}
+
+	/**
+	 * 型付きのキーの値の変更を受け取るリスナを登録する.
+	 * @param key キー
+	 * @param listener 変更前と変更後の値を受け取るリスナ
+	 * @return 登録したリスナ、解除する場合は{@link #removePreferenceChangeListener(PreferenceChangeListener)}に渡す
+	 */
+	public <T> PreferenceChangeListener addPreferenceChangeListener(PreferenceKey<T> key,
+			BiConsumer<? super T, ? super T> listener) {
+		Objects.requireNonNull(listener);
+		String name = key.getName();
+		PreferenceChangeListener l = (changedKey, oldValue, newValue) -> {
+			if (name.equals(changedKey)) {
+				listener.accept(key.parse(oldValue), key.parse(newValue));
+			}
+		};
+		addPreferenceChangeListener(l);
+		return l;
+	}
+
+	/**
+	 * 型付きのキーの値を監視するプロパティを取得する.<br>
+	 * UIからバインドすることで、ポーリングせずに設定の変更を反映できる.
+	 * プロパティの値はFXスレッドで更新される.<br>
+	 * プロパティが参照されなくなれば、リスナは自動的に解除される.
+	 * @param key キー
+	 * @return 値を監視するプロパティ
+	 */
+	public <T> ReadOnlyObjectProperty<T> observe(PreferenceKey<T> key) {
+		// 変更されることの少ないキーでは通知時の解除が行われないため、登録時にも解除する
+		listeners.removeIf(l -> l instanceof PropertyObserver
+				&& ((PropertyObserver<?>) l).isCleared());
+
+		ReadOnlyObjectWrapper<T> wrapper = new ReadOnlyObjectWrapper<>(this, key.getName(), get(key));
+		addPreferenceChangeListener(new PropertyObserver<>(key, wrapper));
+		return wrapper.getReadOnlyProperty();
+	}
+
+	/**
+	 * 型付きのキーの値の変更をプロパティに反映するリスナ.<br>
+	 * プロパティは弱参照で保持し、参照されなくなれば解除される.
+	 * @param <T> 値の型
+	 */
+	private final class PropertyObserver<T> implements PreferenceChangeListener {
+
+		private final PreferenceKey<T> key;
+
+		private final WeakReference<ReadOnlyObjectWrapper<T>> ref;
+
+		PropertyObserver(PreferenceKey<T> key, ReadOnlyObjectWrapper<T> wrapper) {
+			this.key = key;
+			this.ref = new WeakReference<>(wrapper);
+		}
+
+		/**
+		 * プロパティが参照されなくなったか?
+		 * @return 回収済みであればtrue
+		 */
+		boolean isCleared() {
+			return ref.get() == null;
+		}
+
+		@Override
+		public void preferenceChanged(String changedKey, String oldValue, String newValue) {
+			if (!key.getName().equals(changedKey)) {
+				return;
+			}
+			ReadOnlyObjectWrapper<T> target = ref.get();
+			if (target == null) {
+				removePreferenceChangeListener(this);
+				return;
+			}
+			T value = key.parse(newValue);
+			if (Platform.isFxApplicationThread()) {
+				target.set(value);
+			} else {
+				Platform.runLater(() -> target.set(value));
+			}
+		}
+	}
+
 	public void setProperties(Properties inputProps) {
 		if (inputProps == null) {
 			return;
@@ -168,7 +553,7 @@ public abstract class AbstractPreferences implements Preferences {
 			}
 			setProperty(key, value);
 		}
-		flush();
+		flushIfSynchronous();
 	}
 
 	public void setProperty(String key, String value) {
@@ -176,13 +561,11 @@ public abstract class AbstractPreferences implements Preferences {
 			value = "";
 		}
 
-		Properties props = getProperties();
-		String oldValue = props.getProperty(key);
-
-		if (!Objects.equals(oldValue, value)) {
+		if (storeProperty(key, value)) {
 			logger.info("set preferences key=" + key + "/value=" + value);
-			props.setProperty(key, value);
 			modified.set(true); // 連続して更新することを想定し、フラグを立てるのみ
+			modifiedCount.increment();
+			scheduleWriteBehind();
 		}
 	}
 
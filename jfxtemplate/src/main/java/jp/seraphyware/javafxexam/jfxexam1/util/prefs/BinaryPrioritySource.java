@@ -0,0 +1,240 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PriorityPropertiesManager.SimplePrioritySource;
+
+/**
+ * ユーザーごとのファイルを、XMLではなく独自のバイナリ形式で読み書きするソース.<br>
+ * キーの多い設定ファイルで、XMLの解析と生成にかかる時間を避けるために用いる.<br>
+ * バイナリのファイル名は、XMLのファイル名の拡張子を.binに置き換えたものとする.
+ * バイナリのファイルがなく、従来のXMLのファイルがある場合はXMLから読み込み、
+ * 次回の保存でバイナリのファイルに移行する.(XMLのファイルはそのまま残す.)<br>
+ * 共通のリソースは従来どおりXMLとして読み込む.<br>
+ * <pre>
+ * 形式:
+ *   int マジックナンバー, int バージョン, int エントリ数,
+ *   (int キーのバイト数, キー(UTF-8), int 値のバイト数, 値(UTF-8)) * エントリ数,
+ *   long 以上のCRC32
+ * </pre>
+ */
+public class BinaryPrioritySource extends SimplePrioritySource {
+
+	private static final Logger logger = LoggerFactory.getLogger(BinaryPrioritySource.class);
+
+	/**
+	 * マジックナンバー("PRFS")
+	 */
+	private static final int MAGIC = 0x50524653;
+
+	/**
+	 * 形式のバージョン
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * ヘッダ(マジックナンバー、バージョン、エントリ数)とCRCのバイト数
+	 */
+	private static final int OVERHEAD = 4 + 4 + 4 + 8;
+
+	/**
+	 * バイナリのファイル名、ファイルを使わない場合はnull
+	 */
+	private final Path binaryFileName;
+
+	public BinaryPrioritySource(String resourceName, Path fileName) {
+		super(resourceName, fileName);
+		this.binaryFileName = toBinaryFileName(fileName);
+	}
+
+	private static Path toBinaryFileName(Path fileName) {
+		if (fileName == null) {
+			return null;
+		}
+		String name = fileName.getFileName().toString();
+		if (name.toLowerCase().endsWith(".xml")) {
+			name = name.substring(0, name.length() - 4);
+		}
+		return fileName.resolveSibling(name + ".bin");
+	}
+
+	/**
+	 * バイナリのファイル名
+	 * @return ファイル名、ファイルを使わない場合はnull
+	 */
+	public Path getBinaryFileName() {
+		return binaryFileName;
+	}
+
+	/**
+	 * ユーザーごとのファイルのレベルであるか?
+	 * @param level レベル
+	 * @return ファイルのレベルであればtrue
+	 */
+	private boolean isFileLevel(int level) {
+		// ファイルは常に最後のレベルである
+		return binaryFileName != null && level == getNumOfLevels() - 1;
+	}
+
+	@Override
+	public boolean load(int level, Properties props) throws IOException {
+		if (isFileLevel(level) && Files.isReadable(binaryFileName)) {
+			decode(Files.readAllBytes(binaryFileName), props);
+			return true;
+		}
+		boolean loaded = super.load(level, props);
+		if (loaded && isFileLevel(level)) {
+			logger.info("migrate from xml to binary. source={}", this);
+		}
+		return loaded;
+	}
+
+	@Override
+	public boolean loadBackup(int level, Properties props) throws IOException {
+		if (isFileLevel(level)) {
+			Path backupFile = getBackupFileName(binaryFileName);
+			if (Files.isReadable(backupFile)) {
+				decode(Files.readAllBytes(backupFile), props);
+				return true;
+			}
+		}
+		return super.loadBackup(level, props);
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if (binaryFileName != null) {
+			Files.createDirectories(binaryFileName.toAbsolutePath().getParent());
+			return Files.newOutputStream(binaryFileName);
+		}
+		return null;
+	}
+
+	@Override
+	public boolean write(byte[] data) throws IOException {
+		if (binaryFileName == null) {
+			return false;
+		}
+		writeAtomically(binaryFileName, data);
+		return true;
+	}
+
+	/**
+	 * プロパティをバイナリに変換する.<br>
+	 * 同じ内容であれば同じバイト列となるように、キーの順に並べる.
+	 * (既定値として連結されたプロパティは含まない.)
+	 */
+	@Override
+	public byte[] encode(Properties props) throws IOException {
+		Map<String, String> entries = new TreeMap<>();
+		props.forEach((key, value) -> entries.put((String) key, (String) value));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(entries.size() * 64 + OVERHEAD);
+		DataOutputStream dos = new DataOutputStream(bos);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(entries.size());
+		for (Map.Entry<String, String> entry : entries.entrySet()) {
+			writeString(dos, entry.getKey());
+			writeString(dos, entry.getValue());
+		}
+		dos.flush();
+
+		CRC32 crc = new CRC32();
+		byte[] body = bos.toByteArray();
+		crc.update(body, 0, body.length);
+		dos.writeLong(crc.getValue());
+		dos.flush();
+		return bos.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream dos, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	/**
+	 * バイナリを読み込む.
+	 * @param data バイナリ
+	 * @param props 読み込み先
+	 * @throws StreamCorruptedException 形式が正しくない場合
+	 */
+	static void decode(byte[] data, Properties props) throws StreamCorruptedException {
+		if (data.length < OVERHEAD) {
+			throw new StreamCorruptedException("too short: " + data.length);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(data);
+		int bodyLength = data.length - 8;
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, bodyLength);
+		if (crc.getValue() != buf.getLong(bodyLength)) {
+			throw new StreamCorruptedException("crc mismatch");
+		}
+		if (buf.getInt() != MAGIC) {
+			throw new StreamCorruptedException("invalid magic number");
+		}
+		int version = buf.getInt();
+		if (version != VERSION) {
+			throw new StreamCorruptedException("unsupported version: " + version);
+		}
+
+		buf.limit(bodyLength);
+		try {
+			int count = buf.getInt();
+			for (int idx = 0; idx < count; idx++) {
+				String key = readString(buf);
+				String value = readString(buf);
+				props.put(key, value);
+			}
+
+		} catch (BufferUnderflowException | IllegalArgumentException ex) {
+			StreamCorruptedException ex2 = new StreamCorruptedException("truncated");
+			ex2.initCause(ex);
+			throw ex2;
+		}
+		if (buf.hasRemaining()) {
+			throw new StreamCorruptedException("trailing garbage");
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		int len = buf.getInt();
+		if (len < 0 || len > buf.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		int pos = buf.position();
+		buf.position(pos + len);
+		return new String(buf.array(), pos, len, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * バイナリ形式のファイルに保存する.
+	 */
+	@Override
+	protected Path getStoreFileName() {
+		return binaryFileName;
+	}
+
+	@Override
+	public String toString() {
+		return super.toString() + ", binaryFileName=" + binaryFileName;
+	}
+}
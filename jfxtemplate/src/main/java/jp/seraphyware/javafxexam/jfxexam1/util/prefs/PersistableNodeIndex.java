@@ -0,0 +1,234 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.beans.InvalidationListener;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Accordion;
+import javafx.scene.control.Control;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TitledPane;
+import javafx.scene.control.TreeTableView;
+
+/**
+ * ノードツリー内にある、レイアウトを保存・復元するノード(SplitPane, TableView, TreeTableView)の索引.<br>
+ * 索引は1回のトラバースで作成され、ルートノードのプロパティに保持される.
+ * 探索した各Parentの子リストを監視し、子が追加・削除されるまでは作成済みの索引を再利用する.
+ * (スキンが作成されて子ノードが現れた場合も、子リストの変更として検知される.)<br>
+ * 探索するのはレイアウト用のコンテナ(Pane, Groupなど)と、
+ * 子ノードを内容としてもつコントロール(SplitPane, TabPane, ScrollPane, TitledPane, Accordion)だけとする.
+ * それ以外のコントロール(TableViewやTreeTableView、セルなど)の内部は探索せず、子リストも監視しない.
+ * (スクロールのたびにセルが作り直されるTableViewなどの内部を監視すると、そのたびに索引が無効になるため.)<br>
+ * 各ノードの位置を表すID文字列は、索引の作成時に一度だけ作成する.<br>
+ * 索引が無効になったときに通知を受け取ることができる.<br>
+ * JavaFXアプリケーションスレッドからのみ利用すること.<br>
+ */
+final class PersistableNodeIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(PersistableNodeIndex.class);
+
+	/**
+	 * ルートノードのプロパティに索引を保持するキー
+	 */
+	private static final Object INDEX_KEY = PersistableNodeIndex.class;
+
+	/**
+	 * 索引のエントリ
+	 * @param <N> ノードの型
+	 */
+	static final class Entry<N extends Node> {
+
+		/**
+		 * ノードの位置を表すID文字列(親のID文字列 + "." + ノードのid)
+		 */
+		final String path;
+
+		final N node;
+
+		Entry(String path, N node) {
+			this.path = path;
+			this.node = node;
+		}
+	}
+
+	private final Node root;
+
+	/**
+	 * 子リストの変更を検知して索引を無効にするリスナ
+	 */
+	private final InvalidationListener invalidator = obs -> invalidate();
+
+	/**
+	 * 索引が無効になったときに呼び出される
+	 */
+	private final List<Runnable> invalidationListeners = new ArrayList<>();
+
+	/**
+	 * 子リストを監視しているParent
+	 */
+	private final List<Parent> observed = new ArrayList<>();
+
+	private final List<Entry<SplitPane>> splitPanes = new ArrayList<>();
+
+	private final List<Entry<TableView<?>>> tableViews = new ArrayList<>();
+
+	private final List<Entry<TreeTableView<?>>> treeTableViews = new ArrayList<>();
+
+	/**
+	 * 索引を作り直す必要があるか?
+	 */
+	private boolean dirty = true;
+
+	private PersistableNodeIndex(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * ルートノードの索引を取得する.<br>
+	 * 作成済みで、その後に子リストの変更がなければ再利用する.
+	 * @param root ルートノード
+	 * @return 索引
+	 */
+	static PersistableNodeIndex of(Node root) {
+		Objects.requireNonNull(root);
+		Object cached = root.getProperties().get(INDEX_KEY);
+		PersistableNodeIndex index;
+		if (cached instanceof PersistableNodeIndex) {
+			index = (PersistableNodeIndex) cached;
+		} else {
+			index = new PersistableNodeIndex(root);
+			root.getProperties().put(INDEX_KEY, index);
+		}
+		if (index.dirty) {
+			index.rebuild();
+		}
+		return index;
+	}
+
+	/**
+	 * 索引が無効になったときに呼び出されるリスナを登録する.<br>
+	 * 索引が作り直されるまでは、再度変更があっても呼び出されない.
+	 * @param listener リスナ
+	 */
+	void addInvalidationListener(Runnable listener) {
+		invalidationListeners.add(Objects.requireNonNull(listener));
+	}
+
+	void removeInvalidationListener(Runnable listener) {
+		invalidationListeners.remove(listener);
+	}
+
+	private void invalidate() {
+		if (!dirty) {
+			dirty = true;
+			new ArrayList<>(invalidationListeners).forEach(Runnable::run);
+		}
+	}
+
+	List<Entry<SplitPane>> getSplitPanes() {
+		return Collections.unmodifiableList(splitPanes);
+	}
+
+	List<Entry<TableView<?>>> getTableViews() {
+		return Collections.unmodifiableList(tableViews);
+	}
+
+	List<Entry<TreeTableView<?>>> getTreeTableViews() {
+		return Collections.unmodifiableList(treeTableViews);
+	}
+
+	/**
+	 * シーングラフを幅優先でトラバースして索引を作り直す.<br>
+	 * ParentまたはNodeにidがある場合は、先行するidに.を付与して連結されたものがIDとなる.<br>
+	 * Parentの子ノードはシーングラフに追加されていない場合は探索できない.<br>
+	 */
+	private void rebuild() {
+		for (Parent parent : observed) {
+			parent.getChildrenUnmodifiable().removeListener(invalidator);
+		}
+		observed.clear();
+		splitPanes.clear();
+		tableViews.clear();
+		treeTableViews.clear();
+		dirty = false;
+
+		// 自分自身を検査する.
+		String rootId = StringUtils.isBlank(root.getId()) ? "" : root.getId();
+		add(rootId, root);
+
+		// 検出された親と、そのID文字列
+		ArrayDeque<Parent> parents = new ArrayDeque<>();
+		ArrayDeque<String> prefixes = new ArrayDeque<>();
+		if (root instanceof Parent) {
+			parents.add((Parent) root);
+			prefixes.add(rootId);
+		}
+
+		while (!parents.isEmpty()) {
+			Parent parent = parents.poll();
+			String prefix = prefixes.poll();
+
+			parent.getChildrenUnmodifiable().addListener(invalidator);
+			observed.add(parent);
+
+			for (Node child : parent.getChildrenUnmodifiable()) {
+				// 親のキーと自分のNodeを検査する.
+				add(prefix, child);
+
+				if (child instanceof Parent && isStructural((Parent) child)) {
+					// idをもつ場合は親のidの末尾に追加する.
+					String id = child.getId();
+					parents.add((Parent) child);
+					prefixes.add(StringUtils.isNotBlank(id) ? prefix + "." + id : prefix);
+				}
+			}
+		}
+
+		logger.debug("indexed persistable nodes. parents={}, splitPanes={}, tableViews={}, treeTableViews={}",
+				observed.size(), splitPanes.size(), tableViews.size(), treeTableViews.size());
+	}
+
+	/**
+	 * 子ノードを探索し、子リストを監視する対象か?<br>
+	 * コントロール以外のParent(レイアウト用のコンテナ)と、
+	 * 子ノードを内容としてもつコントロールが対象となる.
+	 * @param parent 親
+	 * @return 対象であればtrue
+	 */
+	private static boolean isStructural(Parent parent) {
+		if (!(parent instanceof Control)) {
+			return true;
+		}
+		return parent instanceof SplitPane || parent instanceof TabPane
+				|| parent instanceof ScrollPane || parent instanceof TitledPane
+				|| parent instanceof Accordion;
+	}
+
+	private void add(String prefix, Node node) {
+		String styleId = node.getId();
+		if (StringUtils.isBlank(styleId)) {
+			return;
+		}
+		if (node instanceof SplitPane) {
+			splitPanes.add(new Entry<>(prefix + "." + styleId, (SplitPane) node));
+
+		} else if (node instanceof TreeTableView) {
+			treeTableViews.add(new Entry<>(prefix + "." + styleId, (TreeTableView<?>) node));
+
+		} else if (node instanceof TableView) {
+			tableViews.add(new Entry<>(prefix + "." + styleId, (TableView<?>) node));
+		}
+	}
+}
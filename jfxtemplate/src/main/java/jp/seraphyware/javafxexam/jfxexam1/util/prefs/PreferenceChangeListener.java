@@ -0,0 +1,18 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
+
+/**
+ * 設定の値の変更を受け取るリスナ.<br>
+ * 変更を行ったスレッドから呼び出される.<br>
+ * 他のプロセスによるファイルの変更を読み直した場合は、ファイルを監視するスレッドから呼び出される.<br>
+ */
+@FunctionalInterface
+public interface PreferenceChangeListener {
+
+	/**
+	 * 値が変更された.
+	 * @param key キー
+	 * @param oldValue 変更前の値、なければnull
+	 * @param newValue 変更後の値、削除された場合はnull
+	 */
+	void preferenceChanged(String key, String oldValue, String newValue);
+}
@@ -24,6 +24,8 @@ public interface Preferences {
 
 	<E extends Enum<E>> Enum<E> getPropertyEnum(String key, Enum<E> defaultValue);
 
+	<T> T get(PreferenceKey<T> key);
+
 	void setProperties(Properties inputProps);
 
 	void setProperty(String key, String value);
@@ -42,5 +44,7 @@ public interface Preferences {
 
 	<E extends Enum<E>> void setPropertyEnum(String key, Enum<E> value);
 
+	<T> void set(PreferenceKey<T> key, T value);
+
 	void save() throws IOException;
 }
@@ -0,0 +1,174 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 設定ファイルが他のプロセスによって変更されたことを検知して、
+ * {@link PriorityPropertiesManager}に読み直させる.<br>
+ * ファイルのあるディレクトリを{@link WatchService}で監視し、
+ * すべてのマネージャで1つのデーモンスレッドを共有する.<br>
+ * 置き換えの途中で複数のイベントが続くため、最後のイベントから一定時間待ってから読み直す.
+ * 読み直しと変更の通知は、監視スレッドから行われる.<br>
+ */
+final class PreferencesFileWatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(PreferencesFileWatcher.class);
+
+	/**
+	 * 最後のイベントから読み直すまでの待ち時間(ミリ秒)
+	 */
+	private static final long DEBOUNCE_MILLIS = 200;
+
+	/**
+	 * 監視するファイルごとのマネージャ
+	 */
+	private static final Map<Path, Set<PriorityPropertiesManager>> watchers = new ConcurrentHashMap<>();
+
+	/**
+	 * 監視しているディレクトリ
+	 */
+	private static final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+	/**
+	 * 監視サービス、利用できない場合はnull
+	 */
+	private static WatchService watchService;
+
+	/**
+	 * プライベートコンストラクタ
+	 */
+	private PreferencesFileWatcher() {
+		super();
+	}
+
+	/**
+	 * マネージャの読み込み元のファイルの監視を開始する.<br>
+	 * 監視するファイルがない場合は何もしない.
+	 * @param mgr マネージャ
+	 */
+	static void watch(PriorityPropertiesManager mgr) {
+		for (Path file : mgr.getSource().getWatchFiles()) {
+			Path absFile = file.toAbsolutePath().normalize();
+			try {
+				register(absFile.getParent());
+
+			} catch (IOException ex) {
+				logger.warn("can't watch preferences file. file={}", absFile, ex);
+				continue;
+			}
+			watchers.computeIfAbsent(absFile, k -> ConcurrentHashMap.newKeySet()).add(mgr);
+			logger.debug("watching preferences file. file={}", absFile);
+		}
+	}
+
+	/**
+	 * マネージャの読み込み元のファイルの監視を終了する.<br>
+	 * ディレクトリの監視は継続する.
+	 * @param mgr マネージャ
+	 */
+	static void unwatch(PriorityPropertiesManager mgr) {
+		watchers.values().forEach(mgrs -> mgrs.remove(mgr));
+	}
+
+	/**
+	 * ディレクトリを監視対象とする.<br>
+	 * 初回に監視スレッドを開始する.
+	 * @param dir ディレクトリ
+	 * @throws IOException
+	 */
+	private static synchronized void register(Path dir) throws IOException {
+		if (directories.containsValue(dir)) {
+			return;
+		}
+		if (watchService == null) {
+			watchService = FileSystems.getDefault().newWatchService();
+			Thread thread = new Thread(PreferencesFileWatcher::run, "prefsWatcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+		Files.createDirectories(dir);
+		WatchKey key = dir.register(watchService,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		directories.put(key, dir);
+	}
+
+	/**
+	 * 監視スレッドの処理.<br>
+	 * イベントのあったファイルのマネージャを読み直し待ちとし、
+	 * 待ち時間が過ぎたものを読み直す.
+	 */
+	private static void run() {
+		// 読み直し待ちのマネージャと、読み直す時刻
+		Map<PriorityPropertiesManager, Long> pendings = new HashMap<>();
+		try {
+			for (;;) {
+				WatchKey key;
+				if (pendings.isEmpty()) {
+					key = watchService.take();
+				} else {
+					long wait = pendings.values().stream().mapToLong(Long::longValue).min()
+							.getAsLong() - System.nanoTime();
+					key = watchService.poll(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+				}
+
+				if (key != null) {
+					Path dir = directories.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							continue;
+						}
+						Path file = dir.resolve((Path) event.context());
+						Set<PriorityPropertiesManager> mgrs = watchers.get(file);
+						if (mgrs != null) {
+							long due = System.nanoTime()
+									+ TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+							mgrs.forEach(mgr -> pendings.put(mgr, due));
+						}
+					}
+					key.reset();
+				}
+
+				long now = System.nanoTime();
+				Iterator<Map.Entry<PriorityPropertiesManager, Long>> ite = pendings.entrySet()
+						.iterator();
+				while (ite.hasNext()) {
+					Map.Entry<PriorityPropertiesManager, Long> entry = ite.next();
+					if (entry.getValue() - now <= 0) {
+						ite.remove();
+						reload(entry.getKey());
+					}
+				}
+			}
+
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			logger.info("preferences watcher is stopped.");
+		}
+	}
+
+	private static void reload(PriorityPropertiesManager mgr) {
+		try {
+			mgr.reloadIfModified();
+
+		} catch (IOException | RuntimeException ex) {
+			logger.warn("failed to reload preferences. source={}", mgr.getSource(), ex);
+		}
+	}
+}
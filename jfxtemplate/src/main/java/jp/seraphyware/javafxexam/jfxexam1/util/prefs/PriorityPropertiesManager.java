@@ -1,15 +1,35 @@
 package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -26,6 +46,115 @@ public class PriorityPropertiesManager {
 		InputStream getInputStream(int level) throws IOException;
 
 		OutputStream getOutputStream() throws IOException;
+
+		/**
+		 * 指定したレベルが破損していて読み込めない場合に代わりに読み込む、
+		 * 前回の世代のストリームを取得する.
+		 * @param level レベル
+		 * @return 前回の世代がなければnull
+		 * @throws IOException
+		 */
+		default InputStream getBackupInputStream(int level) throws IOException {
+			return null;
+		}
+
+		/**
+		 * 指定したレベルを読み込む.<br>
+		 * デフォルトの実装では{@link #getInputStream(int)}をXMLとして読み込む.
+		 * @param level レベル
+		 * @param props 読み込み先
+		 * @return 読み込むものがなければfalse
+		 * @throws IOException 読み込みに失敗した場合
+		 */
+		default boolean load(int level, Properties props) throws IOException {
+			try (InputStream is = getInputStream(level)) {
+				if (is == null) {
+					return false;
+				}
+				props.loadFromXML(is);
+				return true;
+			}
+		}
+
+		/**
+		 * 指定したレベルを前回の世代から読み込む.<br>
+		 * デフォルトの実装では{@link #getBackupInputStream(int)}をXMLとして読み込む.
+		 * @param level レベル
+		 * @param props 読み込み先
+		 * @return 前回の世代がなければfalse
+		 * @throws IOException 読み込みに失敗した場合
+		 */
+		default boolean loadBackup(int level, Properties props) throws IOException {
+			try (InputStream is = getBackupInputStream(level)) {
+				if (is == null) {
+					return false;
+				}
+				props.loadFromXML(is);
+				return true;
+			}
+		}
+
+		/**
+		 * 保存する内容に変換する.<br>
+		 * デフォルトの実装ではXMLとする.
+		 * @param props プロパティ
+		 * @return 保存する内容
+		 * @throws IOException
+		 */
+		default byte[] encode(Properties props) throws IOException {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			props.storeToXML(bos, PriorityPropertiesManager.class.toString());
+			return bos.toByteArray();
+		}
+
+		/**
+		 * 保存する内容を書き込む.<br>
+		 * デフォルトの実装では{@link #getOutputStream()}に書き込む.
+		 * @param data 保存する内容
+		 * @return 書き込み先がない場合はfalse
+		 * @throws IOException
+		 */
+		default boolean write(byte[] data) throws IOException {
+			try (OutputStream os = getOutputStream()) {
+				if (os == null) {
+					return false;
+				}
+				os.write(data);
+				return true;
+			}
+		}
+
+		/**
+		 * 他のプロセスによる変更を監視するファイル.<br>
+		 * デフォルトの実装では監視しない.
+		 * @return ファイルのリスト
+		 */
+		default List<Path> getWatchFiles() {
+			return Collections.emptyList();
+		}
+
+		/**
+		 * 読み込み元の現在の状態を表す値を取得する.<br>
+		 * 内容が変更されると異なる値となる.
+		 * デフォルトの実装では判定できないためnullとする.
+		 * @return 状態、判定できない場合はnull
+		 * @throws IOException
+		 */
+		default Object getStamp() throws IOException {
+			return null;
+		}
+
+		/**
+		 * 他のプロセスとの間で、読み込みから書き込みまでを排他するロックを取得する.<br>
+		 * デフォルトの実装では何もしない.
+		 * @return 閉じるとロックを解放する
+		 * @throws IOException
+		 */
+		default Closeable lock() throws IOException {
+			return () -> {
+				// 何もしない
+			};
+		}
 	}
 
 	public static class SimplePrioritySource implements PrioritySource {
@@ -70,12 +199,12 @@ public class PriorityPropertiesManager {
 
 		@Override
 		public int hashCode() {
-			return Objects.hash(resourceName, fileName);
+			return Objects.hash(getClass(), resourceName, fileName);
 		}
 
 		@Override
 		public boolean equals(Object obj) {
-			if (obj instanceof SimplePrioritySource) {
+			if (obj != null && obj.getClass() == getClass()) {
 				SimplePrioritySource o = (SimplePrioritySource) obj;
 				return Objects.equals(resourceName, o.resourceName)
 						&& Objects.equals(fileName, o.fileName);
@@ -113,6 +242,224 @@ public class PriorityPropertiesManager {
 			return null;
 		}
 
+		/**
+		 * 前回の世代のファイル名
+		 * @return ファイル名、ファイルを使わない場合はnull
+		 */
+		public Path getBackupFileName() {
+			return getBackupFileName(fileName);
+		}
+
+		/**
+		 * 指定したファイルの前回の世代のファイル名
+		 * @param file ファイル、null可
+		 * @return ファイル名、ファイルがnullならばnull
+		 */
+		protected static Path getBackupFileName(Path file) {
+			if (file == null) {
+				return null;
+			}
+			return file.resolveSibling(file.getFileName() + ".bak");
+		}
+
+		@Override
+		public InputStream getBackupInputStream(int level) throws IOException {
+			if (fileName != null && level == sups.size() - 1) {
+				// ファイルは常に最後のレベルである
+				Path backupFile = getBackupFileName();
+				if (Files.isReadable(backupFile)) {
+					return Files.newInputStream(backupFile);
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * 保存する内容を一時ファイルに書き込んでディスクに同期したのち、
+		 * アトミックに本来のファイルと置き換える.<br>
+		 * 書き込みの途中で異常終了しても、本来のファイルは壊れない.<br>
+		 * 置き換える前のファイルは前回の世代として残す.
+		 */
+		@Override
+		public boolean write(byte[] data) throws IOException {
+			if (fileName == null) {
+				return false;
+			}
+			writeAtomically(fileName, data);
+			return true;
+		}
+
+		/**
+		 * 一時ファイルを経由して、アトミックにファイルを置き換える.<br>
+		 * 置き換える前のファイルは前回の世代として残す.
+		 * @param file 書き込み先
+		 * @param data 書き込む内容
+		 * @throws IOException
+		 */
+		protected static void writeAtomically(Path file, byte[] data) throws IOException {
+			Path parent = file.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+
+			Path tempFile = Files.createTempFile(parent,
+					file.getFileName().toString() + ".", ".tmp");
+			try {
+				try (FileChannel ch = FileChannel.open(tempFile,
+						StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					ByteBuffer buf = ByteBuffer.wrap(data);
+					while (buf.hasRemaining()) {
+						ch.write(buf);
+					}
+					ch.force(true);
+				}
+
+				if (Files.exists(file)) {
+					backup(file);
+				}
+
+				try {
+					Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+				} catch (AtomicMoveNotSupportedException ex) {
+					Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+
+			} finally {
+				Files.deleteIfExists(tempFile);
+			}
+
+			syncDirectory(parent);
+		}
+
+		/**
+		 * 現在のファイルを前回の世代として残す.<br>
+		 * 可能であればハードリンクとし、ファイルのコピーは行わない.
+		 * (本来のファイルは置き換えられるため、リンクは前回の内容を指したままとなる.)
+		 * @param file ファイル
+		 * @throws IOException
+		 */
+		private static void backup(Path file) throws IOException {
+			Path backupFile = getBackupFileName(file);
+			Files.deleteIfExists(backupFile);
+			try {
+				Files.createLink(backupFile, file);
+
+			} catch (UnsupportedOperationException | IOException ex) {
+				Files.copy(file, backupFile, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+
+		/**
+		 * ファイルの置き換えをディスクに同期するため、ディレクトリを同期する.<br>
+		 * ディレクトリを開けないプラットフォーム(Windowsなど)では何もしない.
+		 * @param dir ディレクトリ
+		 */
+		private static void syncDirectory(Path dir) {
+			try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+				ch.force(true);
+
+			} catch (IOException ex) {
+				// 何もしない
+			}
+		}
+
+		/**
+		 * 保存先のファイル
+		 * @return ファイル、ファイルを使わない場合はnull
+		 */
+		protected Path getStoreFileName() {
+			return fileName;
+		}
+
+		/**
+		 * 全ユーザー向けのリソースがファイルとして配置されている場合は、そのファイル.
+		 * @return ファイル、jarに含まれているなどファイルでない場合はnull
+		 */
+		protected Path getResourceFile() {
+			if (StringUtils.isBlank(resourceName)) {
+				return null;
+			}
+			URL url = getClass().getResource(resourceName);
+			if (url != null && "file".equals(url.getProtocol())) {
+				try {
+					return Paths.get(url.toURI());
+
+				} catch (URISyntaxException | IllegalArgumentException ex) {
+					// 監視しない
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * 全ユーザー向けのリソース(ファイルの場合のみ)と保存先のファイルを監視する.
+		 */
+		@Override
+		public List<Path> getWatchFiles() {
+			List<Path> files = new ArrayList<>();
+			Path resourceFile = getResourceFile();
+			if (resourceFile != null) {
+				files.add(resourceFile);
+			}
+			Path storeFile = getStoreFileName();
+			if (storeFile != null) {
+				files.add(storeFile.toAbsolutePath());
+			}
+			return files;
+		}
+
+		/**
+		 * 監視するファイルの更新日時、サイズ、ファイルキーを状態とする.<br>
+		 * アトミックに置き換えられたファイルはファイルキーが変わる.
+		 */
+		@Override
+		public Object getStamp() throws IOException {
+			List<Object> stamp = new ArrayList<>();
+			for (Path file : getWatchFiles()) {
+				try {
+					BasicFileAttributes attrs = Files.readAttributes(file,
+							BasicFileAttributes.class);
+					stamp.add(attrs.lastModifiedTime());
+					stamp.add(attrs.size());
+					stamp.add(attrs.fileKey());
+
+				} catch (NoSuchFileException ex) {
+					stamp.add(null);
+				}
+			}
+			return stamp;
+		}
+
+		/**
+		 * 保存先のファイルと同じ場所にあるロックファイルをロックする.<br>
+		 * ロックは他のプロセスとの排他であり、同一プロセス内では排他しない.
+		 */
+		@Override
+		public Closeable lock() throws IOException {
+			Path storeFile = getStoreFileName();
+			if (storeFile == null) {
+				return PrioritySource.super.lock();
+			}
+			Path lockFile = storeFile.toAbsolutePath()
+					.resolveSibling(storeFile.getFileName() + ".lock");
+			Files.createDirectories(lockFile.getParent());
+			FileChannel ch = FileChannel.open(lockFile,
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			try {
+				FileLock lock = ch.lock();
+				return () -> {
+					try {
+						lock.release();
+					} finally {
+						ch.close();
+					}
+				};
+
+			} catch (IOException | RuntimeException ex) {
+				ch.close();
+				throw ex;
+			}
+		}
+
 		@Override
 		public String toString() {
 			return "resourceName=" + resourceName + ", fileName=" + fileName;
@@ -123,6 +470,37 @@ public class PriorityPropertiesManager {
 
 	private Properties properties;
 
+	/**
+	 * 読み込み用のスナップショット、未作成ならばnull
+	 */
+	private volatile PropertiesSnapshot snapshot;
+
+	/**
+	 * 保存処理の排他制御
+	 */
+	private final Object saveLock = new Object();
+
+	/**
+	 * 値の変更を受け取るリスナ
+	 */
+	private final List<PreferenceChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	/**
+	 * 最後に保存した内容のハッシュ、未保存ならばnull
+	 */
+	private byte[] lastSavedDigest;
+
+	/**
+	 * 読み込みまたは保存した時点の読み込み元の状態、不明ならばnull
+	 */
+	private volatile Object lastKnownStamp;
+
+	/**
+	 * 最後に読み込みまたは保存してから、このプロセスで変更した値.<br>
+	 * 他のプロセスによる変更を取り込むときに、こちらの変更を優先する.
+	 */
+	private final Map<String, String> localChanges = new HashMap<>();
+
 	public PriorityPropertiesManager(PrioritySource source) {
 		Objects.requireNonNull(source);
 		this.source = source;
@@ -138,18 +516,18 @@ public class PriorityPropertiesManager {
 			Properties prop = new Properties(last);
 			last = prop;
 
-			try (InputStream is = source.getInputStream(level)) {
-				if (is != null) {
-					prop.loadFromXML(is);
-				} else {
+			try {
+				if (!source.load(level, prop)) {
 					logger.warn("properties not found.: level={}, source={}",
 							level, source);
 				}
 
 			} catch (IOException ex) {
-				logger.error("failed to load properties: level={}, source={}",
-						level, source, ex);
-				throw new UncheckedIOException(ex);
+				if (!loadBackup(prop, level, ex)) {
+					logger.error("failed to load properties: level={}, source={}",
+							level, source, ex);
+					throw new UncheckedIOException(ex);
+				}
 			}
 		}
 		if (last == null) {
@@ -158,22 +536,251 @@ public class PriorityPropertiesManager {
 		return last;
 	}
 
+	/**
+	 * 読み込みに失敗したレベルを、前回の世代から読み込む.
+	 * @param prop 読み込み先
+	 * @param level レベル
+	 * @param cause 読み込みに失敗した原因
+	 * @return 前回の世代から読み込めた場合はtrue
+	 */
+	private boolean loadBackup(Properties prop, int level, IOException cause) {
+		try {
+			prop.clear(); // 途中まで読み込まれた内容を捨てる
+			if (!source.loadBackup(level, prop)) {
+				return false;
+			}
+			logger.warn("properties is corrupted. loaded from backup.: level={}, source={}",
+					level, source, cause);
+			return true;
+
+		} catch (IOException ex) {
+			cause.addSuppressed(ex);
+			return false;
+		}
+	}
+
+	/**
+	 * プロパティを保存する.<br>
+	 * 他のプロセスとの間でロックを取り、読み込んだ後にファイルが変更されていれば、
+	 * その内容にこちらで変更した値を重ねてから書き込む.
+	 * (異なるキーを変更した複数のプロセスが、互いの変更を上書きしない.)<br>
+	 * 前回保存した内容から変化がなければ書き込まない.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("try")
 	public void save() throws IOException {
-		try (OutputStream os = source.getOutputStream()) {
-			if (os != null) {
-				getProperties().storeToXML(os, getClass().toString());
-				logger.info("saved");
-			} else {
-				logger.warn("can't save properties. source={}", source);
+		synchronized (saveLock) {
+			try (Closeable lock = source.lock()) {
+				reloadIfModified();
+
+				// 変換中のみ変更を止め、書き込み中は変更できるようにする
+				byte[] data;
+				Map<String, String> written;
+				synchronized (this) {
+					data = source.encode(getLoadedProperties());
+					written = new HashMap<>(localChanges);
+				}
+
+				byte[] digest = digest(data);
+				if (Arrays.equals(digest, lastSavedDigest)) {
+					logger.debug("unchanged. skip saving. source={}", source);
+					return;
+				}
+
+				if (source.write(data)) {
+					lastSavedDigest = digest;
+					lastKnownStamp = source.getStamp();
+					synchronized (this) {
+						// 書き込み中に再度変更されたものは残す
+						written.forEach(localChanges::remove);
+					}
+					logger.info("saved");
+				} else {
+					logger.warn("can't save properties. source={}", source);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 読み込んだ後に読み込み元が変更されていれば、読み直す.<br>
+	 * まだ読み込んでいない場合や、変更を判定できない場合は何もしない.
+	 * @return 読み直した場合はtrue
+	 * @throws IOException
+	 */
+	public boolean reloadIfModified() throws IOException {
+		synchronized (saveLock) {
+			if (properties == null) {
+				return false;
+			}
+			Object stamp = source.getStamp();
+			if (stamp == null || stamp.equals(lastKnownStamp)) {
+				return false;
+			}
+			reload(stamp);
+			return true;
+		}
+	}
+
+	/**
+	 * 読み込み元から読み直す.<br>
+	 * このプロセスで変更して未保存の値は、読み直した内容よりも優先される.
+	 * 値が変わったキーについてリスナに通知する.
+	 * (削除されたキーは変更後の値をnullとして通知する.)
+	 * @throws IOException
+	 */
+	public void reload() throws IOException {
+		synchronized (saveLock) {
+			reload(source.getStamp());
+		}
+	}
+
+	private void reload(Object stamp) {
+		Properties loaded = loadProperties(); // 読み込み中は変更を止めない
+
+		List<String[]> changes = new ArrayList<>();
+		synchronized (this) {
+			localChanges.forEach(loaded::setProperty);
+
+			PropertiesSnapshot oldSnapshot = (properties != null)
+					? getSnapshot() : PropertiesSnapshot.of(new Properties());
+			PropertiesSnapshot newSnapshot = PropertiesSnapshot.of(loaded);
+			for (String key : newSnapshot.getPropertyNamesStartsWith(null)) {
+				String oldValue = oldSnapshot.getProperty(key);
+				String newValue = newSnapshot.getProperty(key);
+				if (!newValue.equals(oldValue)) {
+					changes.add(new String[] {key, oldValue, newValue});
+				}
+			}
+			for (String key : oldSnapshot.getPropertyNamesStartsWith(null)) {
+				if (newSnapshot.getProperty(key) == null) {
+					changes.add(new String[] {key, oldSnapshot.getProperty(key), null});
+				}
 			}
+
+			properties = loaded;
+			snapshot = newSnapshot;
+			lastKnownStamp = stamp;
+			lastSavedDigest = null;
+		}
+		logger.info("reloaded. changes={}, source={}", changes.size(), source);
+
+		// リスナはロックの外で呼び出す
+		for (String[] change : changes) {
+			firePreferenceChange(change[0], change[1], change[2]);
 		}
 	}
 
+	private static byte[] digest(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+
+		} catch (NoSuchAlgorithmException ex) {
+			// SHA-256はすべてのJava実装で利用可能である
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * 変更可能なプロパティを取得する.<br>
+	 * 呼び出し元で直接変更される可能性があるため、スナップショットは破棄される.
+	 * 値の読み書きには{@link #getSnapshot()}, {@link #setProperty(String, String)}を用いること.
+	 * (直接変更した値は、他のプロセスによる変更を取り込むときに優先されない.)
+	 * @return プロパティ
+	 */
 	public synchronized Properties getProperties() {
+		Properties props = getLoadedProperties();
+		snapshot = null;
+		return props;
+	}
+
+	private synchronized Properties getLoadedProperties() {
 		if (properties == null) {
+			try {
+				lastKnownStamp = source.getStamp();
+
+			} catch (IOException ex) {
+				logger.warn("can't get stamp. source={}", source, ex);
+			}
 			properties = loadProperties();
 			assert properties != null;
 		}
 		return properties;
 	}
+
+	/**
+	 * 平坦化された読み込み用のスナップショットを取得する.<br>
+	 * 作成済みであればロックを取らずに返す.
+	 * @return スナップショット
+	 */
+	public PropertiesSnapshot getSnapshot() {
+		PropertiesSnapshot current = snapshot;
+		if (current == null) {
+			synchronized (this) {
+				current = snapshot;
+				if (current == null) {
+					current = PropertiesSnapshot.of(getLoadedProperties());
+					snapshot = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * 値を設定する.<br>
+	 * スナップショットは、値を反映した新しいスナップショットに置き換えられる.
+	 * @param key キー
+	 * @param value 値
+	 * @return 値が変更された場合はtrue
+	 */
+	public boolean setProperty(String key, String value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		String oldValue;
+		synchronized (this) {
+			Properties props = getLoadedProperties();
+			oldValue = props.getProperty(key);
+			if (Objects.equals(oldValue, value)) {
+				return false;
+			}
+			props.setProperty(key, value);
+			localChanges.put(key, value);
+			PropertiesSnapshot current = snapshot;
+			if (current != null) {
+				snapshot = current.with(key, value);
+			}
+		}
+		// リスナはロックの外で呼び出す
+		firePreferenceChange(key, oldValue, value);
+		return true;
+	}
+
+	/**
+	 * 値の変更を受け取るリスナを登録する.<br>
+	 * このマネージャを共有するすべての設定からの変更が通知される.
+	 * @param listener リスナ
+	 */
+	public void addPreferenceChangeListener(PreferenceChangeListener listener) {
+		listeners.add(Objects.requireNonNull(listener));
+	}
+
+	/**
+	 * 値の変更を受け取るリスナを解除する.
+	 * @param listener リスナ
+	 */
+	public void removePreferenceChangeListener(PreferenceChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	private void firePreferenceChange(String key, String oldValue, String newValue) {
+		for (PreferenceChangeListener listener : listeners) {
+			try {
+				listener.preferenceChanged(key, oldValue, newValue);
+
+			} catch (RuntimeException ex) {
+				logger.error("failed to notify preference change. key=" + key, ex);
+			}
+		}
+	}
 }
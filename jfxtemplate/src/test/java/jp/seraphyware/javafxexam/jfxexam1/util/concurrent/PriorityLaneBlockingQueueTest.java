@@ -0,0 +1,312 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.concurrent;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PriorityLaneBlockingQueueTest {
+
+	/**
+	 * 優先レーンを指定したテスト用のタスク
+	 */
+	private static final class LaneTask implements Runnable, PrioritizedTask {
+
+		private final String name;
+
+		private final TaskPriority priority;
+
+		LaneTask(String name, TaskPriority priority) {
+			this.name = name;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			// 何もしない
+		}
+
+		@Override
+		public TaskPriority getTaskPriority() {
+			return priority;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static LaneTask interactive(String name) {
+		return new LaneTask(name, TaskPriority.INTERACTIVE);
+	}
+
+	private static LaneTask normal(String name) {
+		return new LaneTask(name, TaskPriority.NORMAL);
+	}
+
+	private static LaneTask bulk(String name) {
+		return new LaneTask(name, TaskPriority.BULK);
+	}
+
+	@Test
+	public void testLaneOrder() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 10, 0);
+		LaneTask b1 = bulk("b1");
+		LaneTask n1 = normal("n1");
+		LaneTask i1 = interactive("i1");
+		LaneTask n2 = normal("n2");
+		LaneTask i2 = interactive("i2");
+		for (Runnable task : Arrays.asList(b1, n1, i1, n2, i2)) {
+			assertTrue(queue.offer(task));
+		}
+		assertEquals(5, queue.size());
+		assertEquals(2, queue.size(TaskPriority.INTERACTIVE));
+		assertEquals(2, queue.size(TaskPriority.NORMAL));
+		assertEquals(1, queue.size(TaskPriority.BULK));
+		assertSame(i1, queue.peek());
+
+		// 優先度の高いレーンから、レーン内は投入順に取り出される
+		assertSame(i1, queue.poll());
+		assertSame(i2, queue.poll());
+		assertSame(n1, queue.poll());
+		assertSame(n2, queue.poll());
+		assertSame(b1, queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void testAging() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 10, 50);
+		LaneTask b1 = bulk("b1");
+		queue.offer(b1);
+		Thread.sleep(100);
+		LaneTask i1 = interactive("i1");
+		queue.offer(i1);
+
+		// 一定時間以上待たされたBULKが先に取り出される
+		assertSame(b1, queue.poll(1, TimeUnit.SECONDS));
+		assertSame(i1, queue.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testAgingDisabled() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 10, 0);
+		LaneTask b1 = bulk("b1");
+		queue.offer(b1);
+		Thread.sleep(50);
+		LaneTask i1 = interactive("i1");
+		queue.offer(i1);
+
+		assertSame(i1, queue.poll(1, TimeUnit.SECONDS));
+		assertSame(b1, queue.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testBulkConcurrencyCap() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 1, 0);
+		LaneTask b1 = bulk("b1");
+		LaneTask b2 = bulk("b2");
+		queue.offer(b1);
+		queue.offer(b2);
+
+		// 実行のために取り出すとBULKの実行枠を使う
+		assertSame(b1, queue.take());
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+		assertEquals(1, queue.size(TaskPriority.BULK));
+
+		// BULKの実行枠が埋まっていても他のレーンは取り出せる
+		LaneTask n1 = normal("n1");
+		queue.offer(n1);
+		assertSame(n1, queue.poll(50, TimeUnit.MILLISECONDS));
+
+		// 実行が終われば次のBULKが取り出せる
+		queue.afterExecute(b1);
+		assertSame(b2, queue.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testBulkConcurrencyCapReleaseWakesTaker() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 1, 0);
+		LaneTask b1 = bulk("b1");
+		LaneTask b2 = bulk("b2");
+		queue.offer(b1);
+		queue.offer(b2);
+		assertSame(b1, queue.take());
+
+		List<Runnable> taken = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(1);
+		Thread taker = new Thread(() -> {
+			try {
+				taken.add(queue.take());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		});
+		taker.start();
+		assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+		queue.afterExecute(b1);
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(b2), taken);
+	}
+
+	@Test
+	public void testBulkStartedWithoutQueue() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 1, 0);
+
+		// キューを経由せずに開始されたBULKも実行枠に数える
+		LaneTask b0 = bulk("b0");
+		queue.beforeExecute(b0);
+		LaneTask b1 = bulk("b1");
+		queue.offer(b1);
+		assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+
+		queue.afterExecute(b0);
+		assertSame(b1, queue.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testCapacity() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(2, 10, 0);
+		assertEquals(2, queue.remainingCapacity());
+		assertTrue(queue.offer(normal("n1")));
+		assertTrue(queue.offer(bulk("b1")));
+		assertEquals(0, queue.remainingCapacity());
+
+		// 容量はレーンの合計で制限される
+		assertFalse(queue.offer(interactive("i1")));
+		assertFalse(queue.offer(interactive("i2"), 10, TimeUnit.MILLISECONDS));
+
+		assertNotNull(queue.poll());
+		assertEquals(1, queue.remainingCapacity());
+		assertTrue(queue.offer(interactive("i3")));
+	}
+
+	@Test
+	public void testPutBlocksUntilSpace() throws Exception {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(1, 10, 0);
+		LaneTask n1 = normal("n1");
+		LaneTask n2 = normal("n2");
+		queue.put(n1);
+
+		CountDownLatch done = new CountDownLatch(1);
+		Thread producer = new Thread(() -> {
+			try {
+				queue.put(n2);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				done.countDown();
+			}
+		});
+		producer.start();
+		assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+		assertSame(n1, queue.poll());
+		assertTrue(done.await(1, TimeUnit.SECONDS));
+		assertSame(n2, queue.poll());
+	}
+
+	@Test
+	public void testUnboundedCapacity() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(Integer.MAX_VALUE, 10, 0);
+		for (int idx = 0; idx < 1000; idx++) {
+			assertTrue(queue.offer(normal("n" + idx)));
+		}
+		assertEquals(Integer.MAX_VALUE, queue.remainingCapacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidCapacity() {
+		new PriorityLaneBlockingQueue(0, 1, 0);
+	}
+
+	@Test
+	public void testDrainTo() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 1, 0);
+		LaneTask b1 = bulk("b1");
+		LaneTask b2 = bulk("b2");
+		LaneTask n1 = normal("n1");
+		LaneTask i1 = interactive("i1");
+		for (Runnable task : Arrays.asList(b1, b2, n1, i1)) {
+			queue.offer(task);
+		}
+
+		List<Runnable> drained = new ArrayList<>();
+		assertEquals(2, queue.drainTo(drained, 2));
+		assertEquals(Arrays.asList(i1, n1), drained);
+
+		// 実行のための取り出しではないため、BULKの同時実行数の制限を受けない
+		drained.clear();
+		assertEquals(2, queue.drainTo(drained));
+		assertEquals(Arrays.asList(b1, b2), drained);
+		assertTrue(queue.isEmpty());
+		assertEquals(100, queue.remainingCapacity());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDrainToSelf() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 1, 0);
+		queue.drainTo(queue);
+	}
+
+	@Test
+	public void testRemoveAndIterator() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 10, 0);
+		LaneTask n1 = normal("n1");
+		LaneTask b1 = bulk("b1");
+		LaneTask i1 = interactive("i1");
+		queue.offer(n1);
+		queue.offer(b1);
+		queue.offer(i1);
+
+		assertTrue(queue.remove(n1));
+		assertFalse(queue.remove(n1));
+		assertEquals(2, queue.size());
+
+		List<Runnable> items = new ArrayList<>();
+		queue.iterator().forEachRemaining(items::add);
+		assertEquals(Arrays.asList(i1, b1), items);
+	}
+
+	@Test
+	public void testPollDiscardVictim() {
+		PriorityLaneBlockingQueue queue = new PriorityLaneBlockingQueue(100, 10, 0);
+		assertNull(queue.pollDiscardVictim(normal("x")));
+
+		LaneTask i1 = interactive("i1");
+		LaneTask n1 = normal("n1");
+		LaneTask n2 = normal("n2");
+		LaneTask b1 = bulk("b1");
+		LaneTask b2 = bulk("b2");
+		for (Runnable task : Arrays.asList(i1, n1, b1, n2, b2)) {
+			queue.offer(task);
+		}
+
+		// もっとも優先度の低いレーンの、もっとも古いタスクから破棄される
+		LaneTask incoming = interactive("incoming");
+		assertSame(b1, queue.pollDiscardVictim(incoming));
+		assertSame(b2, queue.pollDiscardVictim(incoming));
+		assertSame(n1, queue.pollDiscardVictim(incoming));
+		assertEquals(2, queue.size());
+
+		// 待っているタスクがすべて優先度が高ければ、投入しようとしたタスクを破棄する
+		LaneTask incomingBulk = bulk("incomingBulk");
+		assertSame(incomingBulk, queue.pollDiscardVictim(incomingBulk));
+		assertEquals(2, queue.size());
+
+		// 同じレーンならば古いものを破棄する
+		assertSame(n2, queue.pollDiscardVictim(normal("incomingNormal")));
+		assertSame(i1, queue.pollDiscardVictim(incoming));
+		assertTrue(queue.isEmpty());
+	}
+}
@@ -0,0 +1,146 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.log;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.RollingFileAppender;
+import org.apache.logging.log4j.core.appender.rolling.DefaultRolloverStrategy;
+import org.apache.logging.log4j.core.appender.rolling.SizeBasedTriggeringPolicy;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.message.SimpleMessage;
+
+import jp.seraphyware.javafxexam.jfxexam1.util.log.AsyncLogAppender.OverflowPolicy;
+
+/**
+ * ログを出力するスレッドから見た、1イベントあたりの書き込みの待ち時間を
+ * 同期のローリングファイルアペンダと、AsyncLogAppenderの各モードとで比較するベンチマーク.<br>
+ * 単体テストとしては実行されない. mainメソッドから起動すること.<br>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=jp.seraphyware.javafxexam.jfxexam1.util.log.AsyncLogLatencyBenchmark
+ * </pre>
+ */
+public class AsyncLogLatencyBenchmark {
+
+	/**
+	 * 計測するイベント数
+	 */
+	private static final int ITERATIONS = 200000;
+
+	/**
+	 * 計測前のウォームアップのイベント数
+	 */
+	private static final int WARMUP = 50000;
+
+	/**
+	 * 非同期アペンダのバッファサイズ
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final String PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} [%t] %-5level %logger{36} - %msg%n";
+
+	public static void main(String[] args) throws Exception {
+		Path logDir = Files.createTempDirectory("asyncLogBenchmark");
+		System.out.println("logDir=" + logDir);
+
+		for (int round = 0; round < 3; round++) {
+			run(logDir, "sync", null);
+			for (OverflowPolicy policy : OverflowPolicy.values()) {
+				run(logDir, "async-" + policy, policy);
+			}
+		}
+	}
+
+	/**
+	 * アペンダを作成してイベントを1つずつ書き込み、呼び出し側の待ち時間を計測する.
+	 * @param logDir ログディレクトリ
+	 * @param name 計測名(ログファイル名)
+	 * @param policy 非同期の場合の満杯の場合の動作、同期の場合はnull
+	 */
+	private static void run(Path logDir, String name, OverflowPolicy policy) {
+		Appender appender = createFileAppender(logDir, name, policy == null);
+		AsyncLogAppender asyncAppender = null;
+		if (policy != null) {
+			asyncAppender = new AsyncLogAppender(name, appender, BUFFER_SIZE,
+					policy, Level.INFO, 10, false);
+			appender = asyncAppender;
+		}
+		appender.start();
+		try {
+			write(appender, WARMUP);
+			long[] latencies = write(appender, ITERATIONS);
+			report(name, latencies);
+
+		} finally {
+			appender.stop();
+		}
+		if (asyncAppender != null) {
+			System.out.println("    " + asyncAppender.getStatistics());
+		}
+	}
+
+	private static long[] write(Appender appender, int iterations) {
+		long[] latencies = new long[iterations];
+		for (int idx = 0; idx < iterations; idx++) {
+			LogEvent event = Log4jLogEvent.newBuilder()
+					.setLoggerName("benchmark")
+					.setLoggerFqcn(AsyncLogLatencyBenchmark.class.getName())
+					.setLevel(Level.INFO)
+					.setMessage(new SimpleMessage("benchmark message " + idx))
+					.setThreadName("main")
+					.setTimeMillis(System.currentTimeMillis())
+					.build();
+			long st = System.nanoTime();
+			appender.append(event);
+			latencies[idx] = System.nanoTime() - st;
+		}
+		return latencies;
+	}
+
+	private static Appender createFileAppender(Path logDir, String name,
+			boolean immediateFlush) {
+		Configuration config = ((LoggerContext) org.apache.logging.log4j.LogManager
+				.getContext(false)).getConfiguration();
+		PatternLayout layout = PatternLayout.newBuilder()
+				.withPattern(PATTERN)
+				.withConfiguration(config)
+				.build();
+		return RollingFileAppender.createAppender(
+				logDir.resolve(name + ".log").toString(),
+				logDir.resolve(name + "-%i.log").toString(),
+				"true", // append
+				name, // name
+				"true", // bufferedIo
+				"8192", // bufferSizeStr
+				Boolean.toString(immediateFlush), // immediateFlush
+				SizeBasedTriggeringPolicy.createPolicy("10m"),
+				DefaultRolloverStrategy.createStrategy("3", null, null, null, config),
+				layout,
+				null, // filter,
+				"true", // ignoreException
+				"false", // advertise,
+				null, // advertiseUri,
+				config); // config
+	}
+
+	private static void report(String name, long[] latencies) {
+		Arrays.sort(latencies);
+		double sum = 0;
+		for (long latency : latencies) {
+			sum += latency;
+		}
+		System.out.printf("%-14s avg=%8.2fus p50=%8.2fus p99=%8.2fus p99.9=%8.2fus max=%9.1fus%n",
+				name, sum / latencies.length / 1e3,
+				latencies[latencies.length / 2] / 1e3,
+				latencies[(int) (latencies.length * 0.99)] / 1e3,
+				latencies[(int) (latencies.length * 0.999)] / 1e3,
+				latencies[latencies.length - 1] / 1e3);
+	}
+}
@@ -0,0 +1,132 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.log;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogRetentionServiceTest {
+
+	private static final long MAX_AGE = TimeUnit.DAYS.toMillis(8);
+
+	private static final long COMPRESS_AFTER = TimeUnit.HOURS.toMillis(1);
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Path logDir;
+
+	private Path jobsDir;
+
+	@Before
+	public void setUp() throws IOException {
+		logDir = tempFolder.getRoot().toPath();
+		jobsDir = Files.createDirectory(logDir.resolve(LogRetentionService.JOBS_DIR));
+	}
+
+	/**
+	 * 指定したサイズと経過時間のファイルを作成する.
+	 */
+	private static Path createFile(Path file, int size, long ageMillis) throws IOException {
+		Files.write(file, new byte[size]);
+		Files.setLastModifiedTime(file,
+				FileTime.fromMillis(System.currentTimeMillis() - ageMillis));
+		return file;
+	}
+
+	private static Set<String> listNames(Path dir) throws IOException {
+		Set<String> names = new TreeSet<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for (Path path : ds) {
+				if (Files.isRegularFile(path)) {
+					names.add(path.getFileName().toString());
+				}
+			}
+		}
+		return names;
+	}
+
+	private static boolean hasCompressed(Set<String> names, String prefix) {
+		return names.stream().anyMatch(name -> name.startsWith(prefix) && name.endsWith(".log.gz"));
+	}
+
+	@Test
+	public void testOpenNumericJobLogSurvives() throws IOException {
+		// ジョブIDが数字の場合、ローリングされたファイルと同じ形の名前になる
+		Path open = createFile(jobsDir.resolve("job-42.log"), 4096, TimeUnit.DAYS.toMillis(10));
+		createFile(jobsDir.resolve("job-42-1.log"), 4096, TimeUnit.DAYS.toMillis(1));
+
+		new LogRetentionService(logDir, MAX_AGE, 1024, COMPRESS_AFTER,
+				() -> Collections.singleton("job-42")).run();
+
+		// 開いているジョブのログファイルは、期限切れ、圧縮、サイズの上限のいずれでも消されない
+		assertTrue(Files.exists(open));
+		assertEquals(4096, Files.size(open));
+		assertEquals(Collections.singleton("job-42.log"), listNames(jobsDir));
+	}
+
+	@Test
+	public void testClosedJobLogIsCompressed() throws IOException {
+		createFile(jobsDir.resolve("job-42.log"), 4096, TimeUnit.DAYS.toMillis(1));
+		createFile(jobsDir.resolve("job-open.log"), 4096, TimeUnit.DAYS.toMillis(1));
+
+		new LogRetentionService(logDir, MAX_AGE, 0, COMPRESS_AFTER,
+				() -> Collections.singleton("job-open")).run();
+
+		// 閉じたジョブのログファイルは、ジョブのフォルダの中で圧縮される
+		Set<String> names = listNames(jobsDir);
+		assertFalse(names.contains("job-42.log"));
+		assertTrue(names.toString(), hasCompressed(names, "job-42-"));
+		assertTrue(names.contains("job-open.log"));
+		assertTrue(listNames(logDir).isEmpty());
+	}
+
+	@Test
+	public void testSizeCapIncludesClosedJobLogs() throws IOException {
+		createFile(logDir.resolve("app.log"), 4096, TimeUnit.MINUTES.toMillis(1));
+		createFile(jobsDir.resolve("job-done.log"), 4096, TimeUnit.MINUTES.toMillis(3));
+		createFile(jobsDir.resolve("job-open.log"), 4096, TimeUnit.MINUTES.toMillis(2));
+
+		new LogRetentionService(logDir, MAX_AGE, 8192, 0,
+				() -> Collections.singleton("job-open")).run();
+
+		// 書き込み中のログファイルは残し、閉じたジョブのログファイルから削除する
+		assertEquals(Collections.singleton("app.log"), listNames(logDir));
+		assertEquals(Collections.singleton("job-open.log"), listNames(jobsDir));
+	}
+
+	@Test
+	public void testTopLevelLogs() throws IOException {
+		createFile(logDir.resolve("app.log"), 4096, TimeUnit.DAYS.toMillis(1));
+		createFile(logDir.resolve("app-1.log"), 4096, TimeUnit.DAYS.toMillis(1));
+		createFile(logDir.resolve("app-2.log"), 4096, TimeUnit.DAYS.toMillis(10));
+		createFile(logDir.resolve("app-3.log.gz.tmp"), 10, 0);
+
+		new LogRetentionService(logDir, MAX_AGE, 0, COMPRESS_AFTER,
+				Collections::emptySet).run();
+
+		// 期限切れと一時ファイルは削除し、ローリングされたファイルは圧縮する
+		Set<String> names = listNames(logDir);
+		assertEquals(names.toString(), 2, names.size());
+		assertTrue(names.contains("app.log"));
+		assertTrue(names.toString(), hasCompressed(names, "app-1-"));
+	}
+
+	@Test
+	public void testMissingLogDir() throws IOException {
+		new LogRetentionService(logDir.resolve("missing"), MAX_AGE, 1024, COMPRESS_AFTER,
+				Collections::emptySet).run();
+	}
+}
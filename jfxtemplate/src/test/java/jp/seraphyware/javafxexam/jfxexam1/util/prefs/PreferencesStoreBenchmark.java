@@ -0,0 +1,111 @@
+package jp.seraphyware.javafxexam.jfxexam1.util.prefs;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PriorityPropertiesManager.PrioritySource;
+import jp.seraphyware.javafxexam.jfxexam1.util.prefs.PriorityPropertiesManager.SimplePrioritySource;
+
+/**
+ * 設定ファイルの保存形式ごとに、読み込みと保存の時間を比較するベンチマーク.<br>
+ * テーブルのカラムごとの設定を模した10,000キーの設定を用いる.<br>
+ * 単体テストとしては実行されない. mainメソッドから起動すること.<br>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=jp.seraphyware.javafxexam.jfxexam1.util.prefs.PreferencesStoreBenchmark
+ * </pre>
+ */
+public class PreferencesStoreBenchmark {
+
+	/**
+	 * キーの数
+	 */
+	private static final int NUM_OF_KEYS = 10000;
+
+	/**
+	 * 計測回数
+	 */
+	private static final int ITERATIONS = 30;
+
+	/**
+	 * 計測前のウォームアップ回数
+	 */
+	private static final int WARMUP = 10;
+
+	/**
+	 * ソースを作成する
+	 */
+	@FunctionalInterface
+	private interface SourceFactory {
+
+		PrioritySource create(Path file);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path dir = Files.createTempDirectory("prefsBench");
+		try {
+			run("xml", dir.resolve("xml/WindowSizePreferences.xml"),
+					file -> new SimplePrioritySource(null, file));
+			run("binary", dir.resolve("binary/WindowSizePreferences.xml"),
+					file -> new BinaryPrioritySource(null, file));
+
+		} finally {
+			try (Stream<Path> files = Files.walk(dir)) {
+				files.sorted((a, b) -> b.compareTo(a)).forEach(file -> file.toFile().delete());
+			}
+		}
+	}
+
+	private static void run(String name, Path file, SourceFactory factory) throws IOException {
+		PriorityPropertiesManager mgr = new PriorityPropertiesManager(factory.create(file));
+		Properties props = mgr.getProperties();
+		for (int idx = 0; idx < NUM_OF_KEYS; idx++) {
+			props.setProperty("mainWindow.table" + (idx / 100) + ".column" + (idx % 100) + ".width",
+					Double.toString(80 + idx % 37));
+		}
+
+		long[] saveNanos = new long[ITERATIONS];
+		long[] loadNanos = new long[ITERATIONS];
+		for (int idx = -WARMUP; idx < ITERATIONS; idx++) {
+			// 保存は内容が変わらなければ省略されるため、毎回1つの値を変える
+			props.setProperty("mainWindow.counter", Integer.toString(idx));
+			long st = System.nanoTime();
+			mgr.save();
+			long saveElapsed = System.nanoTime() - st;
+
+			st = System.nanoTime();
+			PriorityPropertiesManager loader = new PriorityPropertiesManager(factory.create(file));
+			int size = loader.getProperties().size();
+			long loadElapsed = System.nanoTime() - st;
+			if (size != NUM_OF_KEYS + 1) {
+				throw new IllegalStateException("unexpected size: " + size);
+			}
+
+			if (idx >= 0) {
+				saveNanos[idx] = saveElapsed;
+				loadNanos[idx] = loadElapsed;
+			}
+		}
+
+		PrioritySource source = factory.create(file);
+		Path storedFile = (source instanceof BinaryPrioritySource)
+				? ((BinaryPrioritySource) source).getBinaryFileName() : file;
+		long fileSize = Files.size(storedFile);
+		System.out.printf("%-6s keys=%d size=%,dbytes save(%s) load(%s)%n", name,
+				NUM_OF_KEYS, fileSize, summary(saveNanos), summary(loadNanos));
+	}
+
+	private static String summary(long[] nanos) {
+		Arrays.sort(nanos);
+		double sum = 0;
+		for (long nano : nanos) {
+			sum += nano;
+		}
+		return String.format("avg=%.2fms p50=%.2fms min=%.2fms", sum / nanos.length / 1e6,
+				nanos[nanos.length / 2] / 1e6, nanos[0] / 1e6);
+	}
+}
@@ -25,6 +25,7 @@ import javafx.application.Platform;
 import javafx.stage.Stage;
 import ${package}.ui.MainFrameController;
 import ${package}.util.concurrent.BackgroundTaskService;
+import ${package}.util.concurrent.TaskDurationHistoryStore;
 import ${package}.util.log.LogConfigurator;
 
 /**
@@ -54,6 +55,12 @@ public class ${mainClassName} extends Application {
 	@Inject
 	private BackgroundTaskService bgTaskService;
 
+	/**
+	 * 子タスクの所要時間の履歴の保存・復元.
+	 */
+	@Inject
+	private TaskDurationHistoryStore taskDurationHistoryStore;
+
 	/**
 	 * シングルトンを取得する.
 	 *
@@ -104,6 +111,9 @@ public class ${mainClassName} extends Application {
 			// このインスタンスにInjectする.
 			BeanProvider.injectFields(this);
 
+			// 前回までの子タスクの所要時間の履歴を復元する
+			taskDurationHistoryStore.load();
+
 		} catch (Exception ex) {
 			ex.printStackTrace(); // ログの設定に失敗している可能性があるためコンソールへ
 			throw ex;
@@ -171,6 +181,9 @@ public class ${mainClassName} extends Application {
 		logger.info("★bgJob shutdown");
 		bgTaskService.shutdown();
 
+		// 子タスクの所要時間の履歴を保存する
+		taskDurationHistoryStore.store();
+
 		// Taskの完了ハンドラでJavaFXの画面更新などを行う場合に
 		// 先にCDIがシャットダウンしないように後回しにする.
 		CompletableFuture<Void> waitForCDIShutdownTask = new CompletableFuture<>();
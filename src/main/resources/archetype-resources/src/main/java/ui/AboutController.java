@@ -68,6 +68,7 @@ public class AboutController extends AbstractWindowController implements Initial
 		Stage stg = getStage();
 		stg.initModality(Modality.WINDOW_MODAL);
 		windowSizePref.loadWindowSize(stg); // 前回ウィンドウサイズの復元
+		windowSizePref.startTracking(stg); // 以降のレイアウトの変更を随時保存する
 		stg.showAndWait();
 	}
 
@@ -138,6 +139,7 @@ public class AboutController extends AbstractWindowController implements Initial
 	protected void onClose() {
 		// 現在のウィンドウサイズの保存
 		windowSizePref.saveWindowSize(getStage());
+		windowSizePref.stopTracking();
 		closeWindow();
 	}
 
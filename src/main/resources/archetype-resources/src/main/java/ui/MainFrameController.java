@@ -39,6 +39,8 @@ import ${package}.ui.common.MainMenuCustomizer;
 import ${package}.ui.inner.Page1Controller;
 import ${package}.ui.inner.Page2Controller;
 import ${package}.ui.util.ErrorDialogUtils;
+import ${package}.ui.util.JobTrayService;
+import ${package}.ui.util.LogConsoleController;
 import ${package}.util.prefs.PreferencesService;
 import ${package}.util.prefs.PreferencesServiceParameter;
 import ${package}.util.prefs.WindowSizePersistent;
@@ -145,8 +147,7 @@ public class MainFrameController extends AbstractWindowController {
 				if (oldController instanceof MainMenuCustomizer) {
 					((MainMenuCustomizer) oldController).removeCustomizeMenu(menuBar);
 				}
-				windowSizePref.saveSplitPaneDividerPositions(old);
-				windowSizePref.saveTableColumnWidths(old);
+				windowSizePref.saveLayout(old);
 			}
 			if (value != null) {
 				Object newController = value.getUserData();
@@ -156,8 +157,7 @@ public class MainFrameController extends AbstractWindowController {
 				Platform.runLater(() -> {
 					// シーングラフのgetUnmodifiableChildren()の子要素を正しく
 					// 取るためには、一旦キューに入れて後回しにする必要があるようだ。
-					windowSizePref.loadSplitPaneDividerPositions(value);
-					windowSizePref.loadTableColumnWidths(value);
+					windowSizePref.loadLayout(value);
 				});
 			}
 		});
@@ -216,9 +216,12 @@ public class MainFrameController extends AbstractWindowController {
 		String title = resources.getString("application.title"); //${symbol_dollar}NON-NLS-1${symbol_dollar}
 		Stage stg = getStage();
 		stg.setTitle(title);
+
+		// 最初のフレームから前回の位置に表示するため、表示前に復元する
+		windowSizePref.loadWindowSize(stg);
 		super.openWindow();
 
-		windowSizePref.loadWindowSize(getStage());
+		windowSizePref.startTracking(stg); // 以降のレイアウトの変更を随時保存する
 	}
 
 	/**
@@ -228,6 +231,7 @@ public class MainFrameController extends AbstractWindowController {
 	public boolean performClose() {
 		// 現在のウィンドウサイズの保存
 		windowSizePref.saveWindowSize(getStage());
+		windowSizePref.stopTracking();
 
 		destroy();
 
@@ -266,6 +270,10 @@ public class MainFrameController extends AbstractWindowController {
 	 */
 	protected void destroy() {
 		disposeCenterPane();
+		if (logConsoleCtrl != null) {
+			logConsoleCtrlHolder.destroy(logConsoleCtrl);
+			logConsoleCtrl = null;
+		}
 		logger.info("☆destroy"); //${symbol_dollar}NON-NLS-1${symbol_dollar}
 	}
 
@@ -330,6 +338,38 @@ public class MainFrameController extends AbstractWindowController {
 		}
 	}
 
+	/**
+	 * ジョブトレイ
+	 */
+	@Inject
+	private JobTrayService jobTrayService;
+
+	@FXML
+	protected void onJobTray() {
+		jobTrayService.showTray(getStage());
+	}
+
+	/**
+	 * ログコンソール
+	 */
+	@Inject
+	private Instance<LogConsoleController> logConsoleCtrlHolder;
+
+	/**
+	 * 表示中のログコンソール(最初に開いたものを使い回す)
+	 */
+	private LogConsoleController logConsoleCtrl;
+
+	@FXML
+	protected void onLogConsole() {
+		if (logConsoleCtrl == null) {
+			LogConsoleController ctrl = logConsoleCtrlHolder.get();
+			ctrl.setOwner(getStage());
+			logConsoleCtrl = ctrl;
+		}
+		logConsoleCtrl.openWindow();
+	}
+
 	/**
 	 * 子画面1
 	 */
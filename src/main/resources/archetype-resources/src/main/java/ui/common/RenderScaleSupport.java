@@ -4,7 +4,14 @@
 package ${package}.ui.common;
 
 import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
+import javafx.beans.InvalidationListener;
+import javafx.collections.ObservableList;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.SnapshotParameters;
 import javafx.scene.image.WritableImage;
@@ -14,6 +21,26 @@ import javafx.stage.Screen;
 
 public final class RenderScaleSupport {
 
+	/**
+	 * スケールを取得するメソッド、未検索ならばnull
+	 */
+	private static volatile Method renderScaleMethod;
+
+	/**
+	 * スケールを取得するメソッドが見つからなかったか?
+	 */
+	private static volatile boolean renderScaleUnsupported;
+
+	/**
+	 * 現在のスクリーン構成の識別子、未作成またはスクリーン構成が変わった場合はnull
+	 */
+	private static volatile String screenConfigurationId;
+
+	/**
+	 * スクリーン構成の変化を監視しているか?
+	 */
+	private static boolean screensObserved;
+
 	/**
 	 * プライベートコンストラクタ
 	 */
@@ -35,7 +62,30 @@ public final class RenderScaleSupport {
 	 * @return スケール、不明な場合は1
 	 */
 	public static double getRenderScale(Screen screen) {
-		Method m;
+		Method m = getRenderScaleMethod();
+		if (m == null) {
+			return 1d; // 不明なので1倍
+		}
+		try {
+			if (screen == null) {
+				screen = Screen.getPrimary();
+			}
+			return ((Number) m.invoke(screen)).doubleValue();
+		} catch (Exception e) {
+			return 1;
+		}
+	}
+
+	/**
+	 * スケールを取得するメソッドを検索する.<br>
+	 * 検索結果は保持され、2回目以降は検索しない.
+	 * @return メソッド、見つからない場合はnull
+	 */
+	private static Method getRenderScaleMethod() {
+		Method m = renderScaleMethod;
+		if (m != null || renderScaleUnsupported) {
+			return m;
+		}
 		try {
 			m = Screen.class.getDeclaredMethod("getOutputScaleY"); // until Java9 (public api)
 		} catch (NoSuchMethodException e) {
@@ -47,18 +97,51 @@ public final class RenderScaleSupport {
 					m = Screen.class.getDeclaredMethod("getRenderScale"); // (private api)
 					m.setAccessible(true);
 				} catch (NoSuchMethodException e3) {
-					return 1d; // 不明なので1倍
+					renderScaleUnsupported = true;
+					return null;
 				}
 			}
 		}
-		try {
-			if (screen == null) {
-				screen = Screen.getPrimary();
+		renderScaleMethod = m;
+		return m;
+	}
+
+	/**
+	 * 現在のスクリーン構成を識別する文字列を取得する.<br>
+	 * すべてのスクリーンの領域とスケールから作成するため、
+	 * モニタの接続、配置、解像度、スケールのいずれかが変わると異なる値となる.<br>
+	 * 作成した値はスクリーン構成が変わるまで保持される.<br>
+	 * JavaFXアプリケーションスレッドから呼び出すこと.
+	 * @return 識別子(16進数8桁)
+	 */
+	public static String getScreenConfigurationId() {
+		String id = screenConfigurationId;
+		if (id == null) {
+			ObservableList<Screen> screens = Screen.getScreens();
+			if (!screensObserved) {
+				screensObserved = true;
+				screens.addListener(
+						(InvalidationListener) obs -> screenConfigurationId = null);
 			}
-			return ((Number) m.invoke(screen)).doubleValue();
-		} catch (Exception e) {
-			return 1;
+
+			// スクリーンの順序は環境によって変わりうるため、位置の順に並べる
+			String desc = screens.stream()
+					.sorted(Comparator.comparingDouble((Screen screen) -> screen.getBounds().getMinX())
+							.thenComparingDouble(screen -> screen.getBounds().getMinY()))
+					.map(screen -> {
+						Rectangle2D bounds = screen.getBounds();
+						return bounds.getMinX() + "," + bounds.getMinY() + ","
+								+ bounds.getWidth() + "," + bounds.getHeight()
+								+ "@" + getRenderScale(screen);
+					})
+					.collect(Collectors.joining(";"));
+
+			CRC32 crc = new CRC32();
+			crc.update(desc.getBytes(StandardCharsets.UTF_8));
+			id = String.format("%08x", crc.getValue());
+			screenConfigurationId = id;
 		}
+		return id;
 	}
 
 	/**
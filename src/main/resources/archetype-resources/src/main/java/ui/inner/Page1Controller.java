@@ -32,9 +32,13 @@ import ${package}.ui.common.CDIFXMLLoaderMark;
 import ${package}.ui.common.InnerDocumentControllerHelper;
 import ${package}.ui.common.MainMenuCustomizer;
 import ${package}.ui.util.ErrorDialogUtils;
+import ${package}.ui.util.JobTrayService;
 import ${package}.ui.util.ProgressController;
 import ${package}.util.concurrent.BackgroundTaskService;
 import ${package}.util.concurrent.ChainedJavaFXTask;
+import ${package}.util.concurrent.ThrottledTask;
+import ${package}.util.log.JobLogAppender;
+import ${package}.util.log.LogConfigurator;
 import ${package}.util.resources.MessageResourceParameter;
 
 @Dependent
@@ -44,6 +48,9 @@ public class Page1Controller extends AbstractDocumentController
 	@Inject
 	private BackgroundTaskService bgTaskService;
 
+	@Inject
+	private JobTrayService jobTrayService;
+
 	@Inject
 	@CDIFXMLLoaderMark
 	private Instance<FXMLLoader> ldrProvider;
@@ -86,10 +93,13 @@ public class Page1Controller extends AbstractDocumentController
 		MenuItem menuItemWork = new MenuItem(resources.getString("page1.menu.work"));
 		menuItemWork.setOnAction(evt -> onWork());
 
+		MenuItem menuItemWorkBackground = new MenuItem(resources.getString("page1.menu.workBackground"));
+		menuItemWorkBackground.setOnAction(evt -> onWorkBackground());
+
 		MenuItem menuItemClear = new MenuItem(resources.getString("page1.menu.clear"));
 		menuItemClear.setOnAction(evt -> onClear());
 
-		menuView.getItems().addAll(menuItemWork, menuItemClear);
+		menuView.getItems().addAll(menuItemWork, menuItemWorkBackground, menuItemClear);
 	}
 
 	@Override
@@ -108,7 +118,11 @@ public class Page1Controller extends AbstractDocumentController
 		textarea.setText("");
 	}
 
-	protected void onWork() {
+	/**
+	 * デモ用の連結されたタスクを作成する.
+	 * @return タスク
+	 */
+	private ChainedJavaFXTask createWorkTask() {
 		Runnable checkTestException = () -> {
 			PointerInfo pInfo = MouseInfo.getPointerInfo();
 			double x = pInfo.getLocation().getX();
@@ -117,7 +131,8 @@ public class Page1Controller extends AbstractDocumentController
 			}
 		};
 
-		Task<Void> task1 = new Task<Void>() {
+		// 進捗やメッセージはループの毎回で更新しても、UIへはパルスごとに間引いて反映される
+		Task<Void> task1 = new ThrottledTask<Void>() {
 			@Override
 			protected Void call() throws Exception {
 				updateTitle("Phase 1/2");
@@ -132,26 +147,37 @@ public class Page1Controller extends AbstractDocumentController
 			}
 		};
 
-		Task<Void> task2 = new Task<Void>() {
+		Task<Void> task2 = new ThrottledTask<Void>() {
 			@Override
+			@SuppressWarnings("try")
 			protected Void call() throws Exception {
 				updateTitle("Phase 2/2");
 				int max = 50;
-				for (int idx = 0; idx < max; idx++) {
-					updateProgress(idx, max);
-					updateMessage("finishing... " + idx);
-					System.out.println("finishing... " + idx + "/" + max); // コンソールへの出力はログにブリッジされる
-					checkTestException.run();
-					Thread.sleep(40);
-				}
+				// このスレッドのログはジョブのログファイル(logs/jobs/job-page1Work.log)にも出力される
+				String jobId = "page1Work";
+				try (JobLogAppender.Scope scope = LogConfigurator.beginJobLog(jobId)) {
+					for (int idx = 0; idx < max; idx++) {
+						updateProgress(idx, max);
+						updateMessage("finishing... ", idx); // 文字列の連結はUIへの反映時に行う
+						System.out.println("finishing... " + idx + "/" + max); // コンソールへの出力はログにブリッジされる
+						checkTestException.run();
+						Thread.sleep(40);
+					}
+				} // スコープを閉じるとジョブのログファイルも閉じる
 				return null;
 			}
 		};
 
 		// 複数のTASKを連結して1つのプログレスダイアログで扱う
 		ChainedJavaFXTask tasks = new ChainedJavaFXTask();
+		tasks.setChainKey("page1.work"); // 子タスクの所要時間は、このキーと追加順ごとに学習される
 		tasks.addTask(task1);
 		tasks.addTask(task2);
+		return tasks;
+	}
+
+	protected void onWork() {
+		ChainedJavaFXTask tasks = createWorkTask();
 
 		// プログレスダイアログの表示と完了待ち
 		CompletableFuture<?> cf = ProgressController.doProgressAndWait(getStage(), bgTaskService, tasks);
@@ -170,4 +196,13 @@ public class Page1Controller extends AbstractDocumentController
 			}
 		}, Platform::runLater);
 	}
+
+	/**
+	 * プログレスダイアログを表示せずにバックグラウンドで実行する.<br>
+	 * 進捗はジョブトレイで確認でき、実行中も操作を続けられる.
+	 */
+	protected void onWorkBackground() {
+		jobTrayService.submit(bgTaskService, createWorkTask());
+		jobTrayService.showTray(getStage());
+	}
 }
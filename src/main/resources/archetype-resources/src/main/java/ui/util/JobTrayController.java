@@ -0,0 +1,244 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.ui.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ResourceBundle;
+
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
+import javafx.beans.binding.StringBinding;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.fxml.Initializable;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import javafx.util.Duration;
+import ${package}.ui.common.AbstractWindowController;
+import ${package}.ui.common.CDIFXMLLoaderMark;
+import ${package}.ui.util.TrackedJob.JobState;
+import ${package}.util.prefs.WindowSizePersistent;
+import ${package}.util.prefs.WindowSizePersistentPrefix;
+import ${package}.util.resources.MessageResourceParameter;
+
+/**
+ * {@link JobTrayService}で追跡しているジョブを一覧表示するモードレスウィンドウ.<br>
+ * 一覧はListViewで表示するため、セルは表示されている行の分しか作成されない.
+ * セルは表示する行が変わるたびにジョブのプロパティとのバインドを付け替える.<br>
+ */
+@Dependent
+public class JobTrayController extends AbstractWindowController implements Initializable {
+
+	@Inject
+	@CDIFXMLLoaderMark
+	private Instance<FXMLLoader> ldrProvider;
+
+	@Inject
+	@MessageResourceParameter
+	private ResourceBundle resources;
+
+	@Inject
+	@WindowSizePersistentPrefix("jobTrayWindow")
+	private WindowSizePersistent windowSizePref;
+
+	@Inject
+	private JobTrayService jobTrayService;
+
+	@FXML
+	private ListView<TrackedJob> listJobs;
+
+	@FXML
+	private Label txtSummary;
+
+	{
+		setSizeToScene(false); // ウィンドウサイズの自動フィットをしない
+	}
+
+	@Override
+	protected Stage createStage() {
+		Stage stg = super.createStage();
+		stg.setTitle(resources.getString("jobTray.title"));
+		windowSizePref.loadWindowSize(stg); // 前回ウィンドウサイズの復元
+		return stg;
+	}
+
+	@Override
+	public void openWindow() {
+		super.openWindow();
+		windowSizePref.startTracking(getStage()); // 以降のレイアウトの変更を随時保存する
+	}
+
+	@Override
+	public void onCloseRequest(WindowEvent event) {
+		onClose();
+	}
+
+	@Override
+	protected void makeRoot() {
+		FXMLLoader ldr = ldrProvider.get();
+		try {
+			URL url = getClass().getResource("/ui/util/JobTray.fxml"); //${symbol_dollar}NON-NLS-1${symbol_dollar}
+			assert url != null;
+
+			ldr.setLocation(url);
+			ldr.setController(this);
+
+			try {
+				setRoot(ldr.load());
+
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+
+		} finally {
+			ldrProvider.destroy(ldr);
+		}
+	}
+
+	@Override
+	public void initialize(URL location, ResourceBundle resources) {
+		listJobs.setItems(jobTrayService.getJobs());
+		listJobs.setCellFactory(lv -> new JobCell());
+
+		// 実行中の件数と一覧の件数の変化で要約を更新する
+		txtSummary.textProperty().bind(Bindings.createStringBinding(
+				() -> String.format(resources.getString("jobTray.summary"),
+						jobTrayService.runningCountProperty().get(),
+						jobTrayService.getJobs().size()),
+				jobTrayService.runningCountProperty(), jobTrayService.getJobs()));
+	}
+
+	@FXML
+	protected void onClearFinished() {
+		jobTrayService.clearFinished();
+	}
+
+	@FXML
+	protected void onCancelAll() {
+		jobTrayService.cancelAll();
+	}
+
+	@FXML
+	protected void onClose() {
+		// 現在のウィンドウサイズの保存
+		windowSizePref.saveWindowSize(getStage());
+		windowSizePref.stopTracking();
+		closeWindow();
+	}
+
+	/**
+	 * ジョブの残り時間とスループットを表示用の文字列にする.
+	 * @param job ジョブ
+	 * @return 表示用の文字列
+	 */
+	private String formatRate(TrackedJob job) {
+		JobState state = job.getState();
+		if (state != JobState.RUNNING) {
+			return resources.getString("jobTray.state." + state.name());
+		}
+		double throughput = job.throughputProperty().get();
+		Duration remaining = job.remainingTimeProperty().get();
+		if (throughput < 0 || remaining.isUnknown()) {
+			return resources.getString("jobTray.state." + state.name());
+		}
+		return String.format(resources.getString("jobTray.rate"),
+				throughput * 100, (long) Math.ceil(remaining.toSeconds()));
+	}
+
+	/**
+	 * ジョブを表示するセル
+	 */
+	private final class JobCell extends ListCell<TrackedJob> {
+
+		private final Label lblTitle = new Label();
+
+		private final Label lblMessage = new Label();
+
+		private final Label lblRate = new Label();
+
+		private final ProgressBar progressBar = new ProgressBar();
+
+		private final Button btnCancel = new Button(resources.getString("jobTray.cancel"));
+
+		private final BorderPane pane = new BorderPane();
+
+		/**
+		 * 現在バインドしている残り時間とスループットの表示
+		 */
+		private StringBinding rateBinding;
+
+		/**
+		 * 現在バインドしているキャンセルボタンの無効状態
+		 */
+		private BooleanBinding finishedBinding;
+
+		JobCell() {
+			progressBar.setMaxWidth(Double.MAX_VALUE);
+			HBox.setHgrow(progressBar, Priority.ALWAYS);
+			HBox progressRow = new HBox(5, progressBar, lblRate);
+			progressRow.setAlignment(Pos.CENTER_LEFT);
+			pane.setCenter(new VBox(2, lblTitle, progressRow, lblMessage));
+			pane.setRight(btnCancel);
+			BorderPane.setAlignment(btnCancel, Pos.CENTER);
+			btnCancel.setOnAction(evt -> {
+				TrackedJob job = getItem();
+				if (job != null) {
+					job.cancel();
+				}
+			});
+		}
+
+		@Override
+		protected void updateItem(TrackedJob job, boolean empty) {
+			super.updateItem(job, empty);
+			unbindAll();
+			if (empty || job == null) {
+				setGraphic(null);
+				return;
+			}
+			lblTitle.textProperty().bind(job.titleProperty());
+			lblMessage.textProperty().bind(job.messageProperty());
+			progressBar.progressProperty().bind(job.progressProperty());
+			finishedBinding = Bindings.createBooleanBinding(
+					() -> job.getState().isFinished(), job.stateProperty());
+			btnCancel.disableProperty().bind(finishedBinding);
+			rateBinding = Bindings.createStringBinding(() -> formatRate(job),
+					job.stateProperty(), job.remainingTimeProperty());
+			lblRate.textProperty().bind(rateBinding);
+			setGraphic(pane);
+		}
+
+		private void unbindAll() {
+			lblTitle.textProperty().unbind();
+			lblMessage.textProperty().unbind();
+			progressBar.progressProperty().unbind();
+			btnCancel.disableProperty().unbind();
+			lblRate.textProperty().unbind();
+			if (rateBinding != null) {
+				rateBinding.dispose();
+				rateBinding = null;
+			}
+			if (finishedBinding != null) {
+				finishedBinding.dispose();
+				finishedBinding = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.ui.util;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import javafx.stage.Window;
+import javafx.util.Duration;
+import ${package}.util.sys.ApplicationSettings;
+
+/**
+ * 複数のバックグラウンドジョブの進捗を、モーダルにせずに追跡するサービス.<br>
+ * {@link ProgressController}とは異なり、ジョブの実行中もアプリケーションを操作でき、
+ * 同時に複数のジョブを追跡できる.<br>
+ * 追跡中のジョブは{@link ${symbol_pound}showTray(Window)}で表示するジョブトレイに一覧表示される.
+ * 一覧は仮想化されたリストで表示するため、ジョブごとにステージは作成しない.<br>
+ * 終了したジョブは、app.propertiesまたはシステムプロパティの
+ * jobTray.retainFinishedSeconds秒後(既定は10秒)に一覧から取り除かれる.
+ * (0以下ならば自動では取り除かない.)<br>
+ */
+@ApplicationScoped
+public class JobTrayService {
+
+	private static final Logger log = LoggerFactory.getLogger(JobTrayService.class);
+
+	/**
+	 * 追跡中のジョブ(FXスレッドでのみ操作する)
+	 */
+	private final ObservableList<TrackedJob> jobs = FXCollections.observableArrayList();
+
+	/**
+	 * 読み取り専用の追跡中のジョブ
+	 */
+	private final ObservableList<TrackedJob> unmodifiableJobs = FXCollections
+			.unmodifiableObservableList(jobs);
+
+	/**
+	 * 終了したジョブを一覧に残しておく時間
+	 */
+	private final Duration retainFinished = Duration.seconds(
+			ApplicationSettings.getLong("jobTray.retainFinishedSeconds", 10));
+
+	/**
+	 * 終了していないジョブの数
+	 */
+	private final ReadOnlyIntegerWrapper runningCount = new ReadOnlyIntegerWrapper(
+			this, "runningCount");
+
+	@Inject
+	private Instance<JobTrayController> trayCtrlProvider;
+
+	/**
+	 * ジョブトレイ、まだ作成していなければnull
+	 */
+	private JobTrayController trayCtrl;
+
+	/**
+	 * 追跡中のジョブの一覧を取得する.
+	 * @return 読み取り専用の一覧
+	 */
+	public ObservableList<TrackedJob> getJobs() {
+		return unmodifiableJobs;
+	}
+
+	/**
+	 * 終了していないジョブの数
+	 * @return 終了していないジョブの数のプロパティ
+	 */
+	public ReadOnlyIntegerProperty runningCountProperty() {
+		return runningCount.getReadOnlyProperty();
+	}
+
+	/**
+	 * ジョブの追跡を開始する.<br>
+	 * ジョブの開始や実行は呼び出し側で行う.<br>
+	 * @param progressInfo ジョブのUI情報
+	 * @param completion ジョブの完了を通知するCompletionStage
+	 * @return 追跡中のジョブ
+	 */
+	public TrackedJob track(ProgressInfo progressInfo, CompletionStage<?> completion) {
+		Objects.requireNonNull(progressInfo);
+		Objects.requireNonNull(completion);
+		assert Platform.isFxApplicationThread();
+
+		TrackedJob job = new TrackedJob(progressInfo);
+		jobs.add(job);
+		runningCount.set(runningCount.get() + 1);
+		progressInfo.init(job::started);
+
+		completion.whenComplete((ret, ex) -> Platform.runLater(() -> {
+			job.started(); // 開始通知の前に終了した場合
+			job.finished(ex);
+			runningCount.set(runningCount.get() - 1);
+			if (ex != null) {
+				log.info("job finished. title={}, state={}", job.titleProperty().get(),
+						job.getState());
+			}
+			scheduleRemove(job);
+		}));
+		return job;
+	}
+
+	/**
+	 * タスクを指定したエグゼキュータで実行し、その追跡を開始する.<br>
+	 * {@link ProgressController${symbol_pound}doProgressAndWait(Window, Executor, Task)}と異なり、
+	 * 完了を待たずに戻る.<br>
+	 * @param jobExecutor ジョブを実行するエグゼキュータ
+	 * @param bgTask タスク
+	 * @return タスクの完了を待ち合わせることのできるCompletableFuture
+	 */
+	public <T> CompletableFuture<T> submit(Executor jobExecutor, Task<T> bgTask) {
+		Objects.requireNonNull(jobExecutor);
+		Objects.requireNonNull(bgTask);
+
+		CompletableFuture<T> cf = new CompletableFuture<>();
+		track(ProgressInfo.adapt(bgTask), cf);
+
+		Runnable uiTaskWrap = () -> {
+			try {
+				bgTask.run();
+				cf.complete(bgTask.get());
+
+			} catch (Throwable ex) {
+				cf.completeExceptionally(ex);
+			}
+		};
+		jobExecutor.execute(uiTaskWrap);
+		return cf;
+	}
+
+	/**
+	 * 終了したジョブを一定時間後に一覧から取り除く.
+	 * @param job
+	 */
+	private void scheduleRemove(TrackedJob job) {
+		if (retainFinished.greaterThan(Duration.ZERO)) {
+			PauseTransition pause = new PauseTransition(retainFinished);
+			pause.setOnFinished(evt -> jobs.remove(job));
+			pause.play();
+		}
+	}
+
+	/**
+	 * 終了したジョブを一覧から取り除く.
+	 */
+	public void clearFinished() {
+		assert Platform.isFxApplicationThread();
+		jobs.removeIf(job -> job.getState().isFinished());
+	}
+
+	/**
+	 * 実行中のジョブをすべてキャンセルする.
+	 */
+	public void cancelAll() {
+		assert Platform.isFxApplicationThread();
+		jobs.forEach(TrackedJob::cancel);
+	}
+
+	/**
+	 * ジョブトレイを表示する.<br>
+	 * すでに表示されていれば前面に出す.
+	 * @param owner 親ウィンドウ、null可
+	 */
+	public void showTray(Window owner) {
+		assert Platform.isFxApplicationThread();
+		if (trayCtrl == null) {
+			trayCtrl = trayCtrlProvider.get();
+			trayCtrl.setOwner(owner);
+		}
+		trayCtrl.openWindow();
+	}
+
+	/**
+	 * 破棄処理
+	 */
+	@PreDestroy
+	public void dispose() {
+		if (trayCtrl != null) {
+			trayCtrlProvider.destroy(trayCtrl);
+			trayCtrl = null;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.ui.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ResourceBundle;
+
+import javax.enterprise.context.Dependent;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.Level;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.fxml.FXML;
+import javafx.fxml.FXMLLoader;
+import javafx.fxml.Initializable;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import javafx.util.Duration;
+import ${package}.ui.common.AbstractWindowController;
+import ${package}.ui.common.CDIFXMLLoaderMark;
+import ${package}.util.log.LogRingBuffer;
+import ${package}.util.prefs.WindowSizePersistent;
+import ${package}.util.prefs.WindowSizePersistentPrefix;
+import ${package}.util.resources.MessageResourceParameter;
+import ${package}.util.sys.ApplicationSettings;
+
+/**
+ * Snifferアペンダが{@link LogRingBuffer}に書き込んだログを表示するモードレスウィンドウ.<br>
+ * 一覧はListViewで表示するため、セルは表示されている行の分しか作成されず、
+ * 行の文字列もセルに表示するときにリングバッファから取り出す.<br>
+ * 表示中はapp.propertiesまたはシステムプロパティのlog.console.refreshMillisミリ秒ごと(既定は200ミリ秒)に
+ * {@link LogLineIndex}を更新し、追加された行だけをフィルタにかける.<br>
+ */
+@Dependent
+public class LogConsoleController extends AbstractWindowController implements Initializable {
+
+	@Inject
+	@CDIFXMLLoaderMark
+	private Instance<FXMLLoader> ldrProvider;
+
+	@Inject
+	@MessageResourceParameter
+	private ResourceBundle resources;
+
+	@Inject
+	@WindowSizePersistentPrefix("logConsoleWindow")
+	private WindowSizePersistent windowSizePref;
+
+	@FXML
+	private ChoiceBox<Level> choiceLevel;
+
+	@FXML
+	private TextField txtLogger;
+
+	@FXML
+	private CheckBox chkFollow;
+
+	@FXML
+	private ListView<Long> listLines;
+
+	@FXML
+	private TextArea txtDetail;
+
+	@FXML
+	private Label txtSummary;
+
+	/**
+	 * 表示するログ
+	 */
+	private final LogRingBuffer buffer = LogRingBuffer.getDefault();
+
+	/**
+	 * フィルタに一致する行
+	 */
+	private final LogLineIndex index = new LogLineIndex(buffer);
+
+	/**
+	 * 表示中に一覧を更新するタイマー
+	 */
+	private final Timeline refreshTimer = new Timeline(new KeyFrame(
+			Duration.millis(ApplicationSettings.getLong("log.console.refreshMillis", 200)),
+			evt -> refresh()));
+
+	{
+		setSizeToScene(false); // ウィンドウサイズの自動フィットをしない
+		refreshTimer.setCycleCount(Animation.INDEFINITE);
+	}
+
+	@Override
+	protected Stage createStage() {
+		Stage stg = super.createStage();
+		stg.setTitle(resources.getString("logConsole.title"));
+		windowSizePref.loadWindowSize(stg); // 前回ウィンドウサイズの復元
+		return stg;
+	}
+
+	@Override
+	public void openWindow() {
+		super.openWindow();
+		windowSizePref.startTracking(getStage()); // 以降のレイアウトの変更を随時保存する
+		refresh();
+		refreshTimer.play();
+	}
+
+	@Override
+	public void onCloseRequest(WindowEvent event) {
+		onClose();
+	}
+
+	@Override
+	protected void makeRoot() {
+		FXMLLoader ldr = ldrProvider.get();
+		try {
+			URL url = getClass().getResource("/ui/util/LogConsole.fxml"); //${symbol_dollar}NON-NLS-1${symbol_dollar}
+			assert url != null;
+
+			ldr.setLocation(url);
+			ldr.setController(this);
+
+			try {
+				setRoot(ldr.load());
+
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+
+		} finally {
+			ldrProvider.destroy(ldr);
+		}
+	}
+
+	@Override
+	public void initialize(URL location, ResourceBundle resources) {
+		choiceLevel.getItems().addAll(Level.TRACE, Level.DEBUG, Level.INFO,
+				Level.WARN, Level.ERROR, Level.FATAL);
+		choiceLevel.setValue(Level.TRACE);
+		choiceLevel.valueProperty().addListener((self, old, value) -> applyFilter());
+		txtLogger.textProperty().addListener((self, old, value) -> applyFilter());
+
+		listLines.setItems(index);
+		listLines.setCellFactory(lv -> new LogLineCell());
+		listLines.getSelectionModel().selectedItemProperty().addListener((self, old, seq) -> {
+			String text = (seq != null) ? buffer.getText(seq) : null;
+			txtDetail.setText(text != null ? text : "");
+		});
+	}
+
+	/**
+	 * フィルタを変更して一覧を作り直す.
+	 */
+	private void applyFilter() {
+		index.setFilter(choiceLevel.getValue(), txtLogger.getText());
+		scrollToTail();
+		updateSummary();
+	}
+
+	/**
+	 * リングバッファに追加された行を一覧に反映する.
+	 */
+	private void refresh() {
+		int oldSize = index.size();
+		index.update();
+		if (index.size() != oldSize) {
+			scrollToTail();
+		}
+		updateSummary();
+	}
+
+	private void scrollToTail() {
+		if (chkFollow.isSelected() && !index.isEmpty()) {
+			listLines.scrollTo(index.size() - 1);
+		}
+	}
+
+	private void updateSummary() {
+		txtSummary.setText(String.format(resources.getString("logConsole.summary"),
+				index.size(), buffer.getNextSeq() - buffer.getFirstSeq()));
+	}
+
+	@FXML
+	protected void onClear() {
+		buffer.clear();
+		txtDetail.clear();
+		refresh();
+	}
+
+	@FXML
+	protected void onClose() {
+		refreshTimer.stop();
+		// 現在のウィンドウサイズの保存
+		windowSizePref.saveWindowSize(getStage());
+		windowSizePref.stopTracking();
+		closeWindow();
+	}
+
+	/**
+	 * ログの行を表示するセル.<br>
+	 * 複数行のログ(例外のスタックトレースなど)は先頭行だけを表示する.
+	 */
+	private final class LogLineCell extends ListCell<Long> {
+
+		@Override
+		protected void updateItem(Long seq, boolean empty) {
+			super.updateItem(seq, empty);
+			if (empty || seq == null) {
+				setText(null);
+				return;
+			}
+			String text = buffer.getText(seq);
+			if (text == null) {
+				setText(""); // すでに上書きされている
+				return;
+			}
+			int eol = text.indexOf('${symbol_escape}n');
+			setText(eol >= 0 ? text.substring(0, eol).trim() + " ..." : text);
+		}
+	}
+}
@@ -3,14 +3,25 @@
 #set( $symbol_escape = '\' )
 package ${package}.util.concurrent;
 
+import java.lang.reflect.Method;
 import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -21,9 +32,164 @@ import javax.enterprise.context.ApplicationScoped;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.application.Platform;
+import ${package}.util.concurrent.InstrumentedThreadPoolExecutor.NamedThreadFactory;
+import ${package}.util.sys.ApplicationSettings;
+
+/**
+ * バックグラウンドジョブを実行するサービス.<br>
+ * スレッドプールの大きさは、app.propertiesまたはシステムプロパティの以下のキーで設定できる.<br>
+ * <ul>
+ * <li>backgroundTask.corePoolSize コアスレッド数(既定はCPU数)</li>
+ * <li>backgroundTask.maxPoolSize 最大スレッド数(既定はCPU数の2倍)</li>
+ * <li>backgroundTask.queueCapacity 待ち行列の上限、0なら待ち行列なし、負ならば無制限(既定は256)</li>
+ * <li>backgroundTask.keepAliveSeconds アイドルスレッドの生存秒数(既定は60秒)</li>
+ * <li>backgroundTask.rejectionPolicy 待ち行列とスレッドがあふれた場合の方針(ABORT, CALLER_RUNS, DISCARD, DISCARD_OLDEST、既定はCALLER_RUNS)</li>
+ * <li>backgroundTask.virtualThreads I/O待ちの多いジョブを仮想スレッドで実行するか(既定はfalse)</li>
+ * <li>backgroundTask.computeParallelism CPU負荷の高いジョブ用のForkJoinPoolの並列度(既定はCPU数)</li>
+ * <li>backgroundTask.bulkMaxConcurrency BULKレーンのジョブの最大同時実行数(既定はコアスレッド数-1、最低1)</li>
+ * <li>backgroundTask.priorityAgingMillis この時間以上待たされたジョブは優先レーンにかかわらず先に実行する(既定は5000ms、0以下で無効)</li>
+ * </ul>
+ * スレッドはコアスレッド数までは投入ごとに増え、それ以降は待ち行列に積まれる.
+ * 待ち行列が満杯になると最大スレッド数まで増え、それでもあふれた場合に拒否時の方針が使われる.
+ * (待ち行列を無制限にした場合、スレッド数はコアスレッド数までとなり、拒否されることもない.)<br>
+ * 既定の方針(CALLER_RUNS)は投入したスレッドで実行するが、
+ * JavaFXのスレッドから投入された場合は画面を止めないように、予備のスレッドで順に実行する.<br>
+ * 待ち行列は優先レーン({@link TaskPriority})ごとに分かれており、
+ * INTERACTIVE, NORMAL, BULKの順に取り出される.<br>
+ * 優先レーンは投入時に引数で指定するか、タスク自身に{@link PrioritizedTask}を実装するか、
+ * {@link BackgroundTaskPriority}アノテーションを付与することで指定できる.
+ * (指定がなければNORMALとなる.)<br>
+ * {@link ${symbol_pound}execute(Callable)}, {@link ${symbol_pound}createSupplyAsyncCompletableFuture(Supplier)},
+ * {@link ${symbol_pound}createAsyncCompletableFuture(Runnable)}はファイルやDBなどのI/O待ちを伴うジョブを想定しており、
+ * 仮想スレッドが有効であれば仮想スレッド上で実行される.
+ * (仮想スレッドをサポートしないJDKの場合はスレッドプールで実行される.)<br>
+ * CPU負荷の高いジョブは{@link ${symbol_pound}executeCompute(Callable)}などにより、
+ * 別のForkJoinPoolで実行することができる.<br>
+ */
 @ApplicationScoped
 public class BackgroundTaskService implements Executor {
 
+	/**
+	 * 待ち行列があふれた場合の方針
+	 */
+	public enum RejectionPolicy {
+
+		/**
+		 * RejectedExecutionExceptionを送出する.
+		 */
+		ABORT {
+			@Override
+			RejectedExecutionHandler createHandler(Executor fallback) {
+				return new ThreadPoolExecutor.AbortPolicy();
+			}
+		},
+
+		/**
+		 * 投入したスレッドで実行する.<br>
+		 * ただし、JavaFXのスレッドから投入された場合は予備のスレッドで実行する.
+		 */
+		CALLER_RUNS {
+			@Override
+			RejectedExecutionHandler createHandler(Executor fallback) {
+				RejectedExecutionHandler callerRuns = new ThreadPoolExecutor.CallerRunsPolicy();
+				return (r, executor) -> {
+					if (!Platform.isFxApplicationThread()) {
+						callerRuns.rejectedExecution(r, executor);
+					} else if (!executor.isShutdown()) {
+						fallback.execute(r);
+					}
+				};
+			}
+		},
+
+		/**
+		 * 投入したタスクを破棄する.<br>
+		 * タスクがFutureであれば取り消す.
+		 */
+		DISCARD {
+			@Override
+			RejectedExecutionHandler createHandler(Executor fallback) {
+				return (r, executor) -> cancelDiscarded(r);
+			}
+		},
+
+		/**
+		 * もっとも優先度の低いレーンの、もっとも古い待ちタスクを破棄する.<br>
+		 * 待ちタスクがすべて投入したタスクより優先度が高ければ、投入したタスクを破棄する.<br>
+		 * 破棄したタスクがFutureであれば取り消す.
+		 */
+		DISCARD_OLDEST {
+			@Override
+			RejectedExecutionHandler createHandler(Executor fallback) {
+				return (r, executor) -> {
+					if (executor.isShutdown()) {
+						cancelDiscarded(r);
+						return;
+					}
+					BlockingQueue<Runnable> queue = executor.getQueue();
+					Runnable victim = (queue instanceof PriorityLaneBlockingQueue)
+							? ((PriorityLaneBlockingQueue) queue).pollDiscardVictim(r)
+							: queue.poll();
+					cancelDiscarded(victim);
+					if (victim != r) {
+						executor.execute(r);
+					}
+				};
+			}
+		};
+
+		/**
+		 * 拒否時のハンドラを作成する.
+		 * @param fallback 投入したスレッドで実行できない場合の予備のエグゼキュータ
+		 * @return ハンドラ
+		 */
+		abstract RejectedExecutionHandler createHandler(Executor fallback);
+	}
+
+	/**
+	 * 完了時に{@link CompletableFuture}を完了させるFutureTask.<br>
+	 * 待ち行列からあふれて取り消された場合はCompletableFutureも取り消すため、
+	 * 完了を待っている呼び出し元が待ち続けることはない.<br>
+	 * また、タスクの例外はFutureTaskの結果として残るため、スレッドプールの失敗件数として数えられる.
+	 */
+	private static final class CompletingFutureTask<V> extends FutureTask<V> {
+
+		private final CompletableFuture<V> cf;
+
+		CompletingFutureTask(Callable<V> callable, CompletableFuture<V> cf) {
+			super(callable);
+			this.cf = cf;
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				cf.cancel(false);
+				return;
+			}
+			try {
+				cf.complete(get());
+
+			} catch (ExecutionException ex) {
+				// CompletableFuture${symbol_pound}supplyAsyncと同じくCompletionExceptionで包む
+				Throwable cause = ex.getCause();
+				cf.completeExceptionally((cause instanceof CompletionException)
+						? cause : new CompletionException(cause));
+
+			} catch (InterruptedException ex) {
+				// 完了済みのため待つことはない
+				Thread.currentThread().interrupt();
+				cf.completeExceptionally(ex);
+			}
+		}
+	}
+
+	/**
+	 * 設定キーの接頭語
+	 */
+	private static final String SETTINGS_PREFIX = "backgroundTask.";
+
 	/**
 	 * ロガー.
 	 */
@@ -32,7 +198,23 @@ public class BackgroundTaskService implements Executor {
 	/**
 	 * スレッドサービス.
 	 */
-	private ExecutorService executor;
+	private InstrumentedThreadPoolExecutor executor;
+
+	/**
+	 * 拒否されたタスクをJavaFXのスレッドの代わりに実行する予備のスレッド.
+	 */
+	private ThreadPoolExecutor fallbackExecutor;
+
+	/**
+	 * I/O待ちの多いジョブを実行するサービス.<br>
+	 * 仮想スレッドが使えない場合はスレッドサービスと同一.<br>
+	 */
+	private ExecutorService ioExecutor;
+
+	/**
+	 * CPU負荷の高いジョブを実行するプール.
+	 */
+	private ForkJoinPool computePool;
 
 	/**
 	 * 初期化.
@@ -40,7 +222,140 @@ public class BackgroundTaskService implements Executor {
 	@PostConstruct
 	public void init() {
 		log.info("★BackgroundTaskService${symbol_pound}init");
-		executor = Executors.newCachedThreadPool();
+		int numOfProcessors = Runtime.getRuntime().availableProcessors();
+		int corePoolSize = Math.max(1, ApplicationSettings.getInt(
+				SETTINGS_PREFIX + "corePoolSize", numOfProcessors));
+		int maxPoolSize = Math.max(corePoolSize, ApplicationSettings.getInt(
+				SETTINGS_PREFIX + "maxPoolSize", numOfProcessors * 2));
+		int queueCapacity = ApplicationSettings.getInt(
+				SETTINGS_PREFIX + "queueCapacity", 256);
+		long keepAliveSeconds = Math.max(0, ApplicationSettings.getLong(
+				SETTINGS_PREFIX + "keepAliveSeconds", 60));
+		RejectionPolicy rejectionPolicy = ApplicationSettings.getEnum(
+				SETTINGS_PREFIX + "rejectionPolicy", RejectionPolicy.CALLER_RUNS);
+
+		int bulkMaxConcurrency = Math.max(1, ApplicationSettings.getInt(
+				SETTINGS_PREFIX + "bulkMaxConcurrency", corePoolSize - 1));
+		long priorityAgingMillis = ApplicationSettings.getLong(
+				SETTINGS_PREFIX + "priorityAgingMillis", 5000);
+
+		BlockingQueue<Runnable> workQueue;
+		if (queueCapacity == 0) {
+			// 待ち行列がないため優先レーンは機能しない
+			workQueue = new SynchronousQueue<>();
+		} else {
+			workQueue = new PriorityLaneBlockingQueue(
+					(queueCapacity < 0) ? Integer.MAX_VALUE : queueCapacity,
+					bulkMaxConcurrency, priorityAgingMillis);
+		}
+
+		fallbackExecutor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), new NamedThreadFactory("bgTaskFallback", false));
+
+		executor = new InstrumentedThreadPoolExecutor(corePoolSize,
+				maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, workQueue,
+				new NamedThreadFactory("bgTask", false),
+				rejectionPolicy.createHandler(fallbackExecutor));
+		// アイドル時にはコアスレッドも解放する
+		executor.allowCoreThreadTimeOut(keepAliveSeconds > 0);
+
+		log.info("core={}, max={}, queueCapacity={}, keepAlive={}s, policy={}",
+				corePoolSize, maxPoolSize, queueCapacity, keepAliveSeconds,
+				rejectionPolicy);
+		log.info("bulkMaxConcurrency={}, priorityAgingMillis={}",
+				bulkMaxConcurrency, priorityAgingMillis);
+
+		// I/Oジョブ用のサービス (仮想スレッドはオプトイン)
+		ioExecutor = null;
+		if (ApplicationSettings.getBoolean(SETTINGS_PREFIX + "virtualThreads", false)) {
+			ioExecutor = createVirtualThreadExecutor();
+		}
+		if (ioExecutor == null) {
+			ioExecutor = executor;
+		}
+		log.info("virtualThreads={}", isVirtualThreadEnabled());
+
+		// CPUバウンドなジョブ用のプール
+		int computeParallelism = Math.max(1, ApplicationSettings.getInt(
+				SETTINGS_PREFIX + "computeParallelism", numOfProcessors));
+		computePool = new ForkJoinPool(computeParallelism, pool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+					.newThread(pool);
+			thread.setName("bgCompute-" + thread.getPoolIndex());
+			return thread;
+		}, null, false);
+		log.info("computeParallelism={}", computeParallelism);
+	}
+
+	/**
+	 * 待ち行列からあふれて破棄したタスクがFutureであれば取り消す.<br>
+	 * 取り消さないと、Futureの完了を待っている呼び出し元が待ち続けることになる.
+	 * @param r 破棄したタスク、nullの場合は何もしない
+	 */
+	static void cancelDiscarded(Runnable r) {
+		Runnable task = InstrumentedThreadPoolExecutor.unwrap(r);
+		if (task instanceof Future) {
+			((Future<?>) task).cancel(false);
+		}
+	}
+
+	/**
+	 * タスクの完了時に完了する非同期完了可能フューチャを作成し、タスクを投入する.<br>
+	 * {@link CompletableFuture${symbol_pound}supplyAsync(Supplier, Executor)}とは異なり、
+	 * タスクが待ち行列からあふれて取り消された場合はフューチャも取り消される.
+	 * @param callable タスク
+	 * @param executor 投入先
+	 * @return 非同期完了可能フューチャ
+	 */
+	private static <U> CompletableFuture<U> supplyAsync(Callable<U> callable,
+			Executor executor) {
+		CompletableFuture<U> cf = new CompletableFuture<>();
+		executor.execute(new CompletingFutureTask<>(callable, cf));
+		return cf;
+	}
+
+	/**
+	 * 仮想スレッドでタスクを実行するサービスを作成する.<br>
+	 * Java8でもコンパイル・実行できるようにリフレクションで取得する.<br>
+	 * @return サービス、仮想スレッドをサポートしないJDKであればnull
+	 */
+	private ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor"); // Java21+
+			return (ExecutorService) m.invoke(null);
+
+		} catch (NoSuchMethodException ex) {
+			log.info("virtual threads are not supported. java.version={}",
+					System.getProperty("java.version"));
+
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			log.warn("failed to create virtual thread executor. " + ex, ex);
+		}
+		return null;
+	}
+
+	/**
+	 * I/Oジョブが仮想スレッドで実行されるか?
+	 * @return 仮想スレッドで実行される場合はtrue
+	 */
+	public boolean isVirtualThreadEnabled() {
+		return ioExecutor != null && ioExecutor != executor;
+	}
+
+	/**
+	 * CPU負荷の高いジョブを実行するエグゼキュータを取得する.
+	 * @return エグゼキュータ
+	 */
+	public Executor getComputeExecutor() {
+		return computePool;
+	}
+
+	/**
+	 * スレッドプールの現在の統計情報を取得する.
+	 * @return 統計情報
+	 */
+	public BackgroundTaskStatistics getStatistics() {
+		return executor.getStatistics();
 	}
 
 	/**
@@ -63,7 +378,42 @@ public class BackgroundTaskService implements Executor {
 	 */
 	public <V> Future<V> execute(final Callable<V> task) {
 		Objects.requireNonNull(task);
-		return executor.submit(task);
+		return ioExecutor.submit(task);
+	}
+
+	/**
+	 * 優先レーンを指定してバックグラウンドジョブのキューに入れFutureを返す.<br>
+	 * 仮想スレッドが有効な場合はスレッドの取り合いがないため、優先レーンは使われない.<br>
+	 *
+	 * @param <V>
+	 *            データ型
+	 * @param task
+	 *            タスク
+	 * @param priority
+	 *            優先レーン
+	 * @return Future
+	 */
+	public <V> Future<V> execute(final Callable<V> task, TaskPriority priority) {
+		Objects.requireNonNull(task);
+		Objects.requireNonNull(priority);
+		if (isVirtualThreadEnabled()) {
+			return ioExecutor.submit(task);
+		}
+		return executor.submit(task, priority);
+	}
+
+	/**
+	 * CPU負荷の高いジョブをForkJoinPoolのキューに入れFutureを返す.
+	 *
+	 * @param <V>
+	 *            データ型
+	 * @param task
+	 *            タスク
+	 * @return Future
+	 */
+	public <V> Future<V> executeCompute(final Callable<V> task) {
+		Objects.requireNonNull(task);
+		return computePool.submit(task);
 	}
 
 	/**
@@ -78,6 +428,31 @@ public class BackgroundTaskService implements Executor {
 		executor.execute(task);
 	}
 
+	/**
+	 * 優先レーンを指定してバックグラウンドジョブのキューに入れる.
+	 *
+	 * @param task
+	 *            タスク
+	 * @param priority
+	 *            優先レーン
+	 */
+	public void execute(final Runnable task, TaskPriority priority) {
+		Objects.requireNonNull(task);
+		executor.execute(task, priority);
+	}
+
+	/**
+	 * 指定した優先レーンでジョブを実行するエグゼキュータを取得する.<br>
+	 * CompletableFutureの非同期メソッドや、
+	 * ProgressControllerなどのExecutorを受け取るメソッドに渡すことができる.<br>
+	 * @param priority 優先レーン
+	 * @return エグゼキュータ
+	 */
+	public Executor withPriority(TaskPriority priority) {
+		Objects.requireNonNull(priority);
+		return task -> execute(task, priority);
+	}
+
 	/**
 	 * 非同期完了可能フューチャを作成して返す.
 	 * @param supplier
@@ -86,7 +461,30 @@ public class BackgroundTaskService implements Executor {
 	public <U> CompletableFuture<U> createSupplyAsyncCompletableFuture(
 			Supplier<U> supplier) {
 		Objects.requireNonNull(supplier);
-		return CompletableFuture.supplyAsync(supplier, executor);
+		return supplyAsync(supplier::get, ioExecutor);
+	}
+
+	/**
+	 * 優先レーンを指定して非同期完了可能フューチャを作成して返す.
+	 * @param supplier
+	 * @param priority 優先レーン
+	 * @return
+	 */
+	public <U> CompletableFuture<U> createSupplyAsyncCompletableFuture(
+			Supplier<U> supplier, TaskPriority priority) {
+		Objects.requireNonNull(supplier);
+		return supplyAsync(supplier::get, getIoExecutor(priority));
+	}
+
+	/**
+	 * CPU負荷の高いジョブをForkJoinPoolで実行する非同期完了可能フューチャを作成して返す.
+	 * @param supplier
+	 * @return
+	 */
+	public <U> CompletableFuture<U> createSupplyComputeCompletableFuture(
+			Supplier<U> supplier) {
+		Objects.requireNonNull(supplier);
+		return CompletableFuture.supplyAsync(supplier, computePool);
 	}
 
 	/**
@@ -97,26 +495,77 @@ public class BackgroundTaskService implements Executor {
 	public CompletableFuture<Void> createAsyncCompletableFuture(
 			Runnable task) {
 		Objects.requireNonNull(task);
-		return CompletableFuture.runAsync(task, executor);
+		return supplyAsync(Executors.callable(task, null), ioExecutor);
+	}
+
+	/**
+	 * 優先レーンを指定して非同期完了可能フューチャを作成して返す.
+	 * @param task
+	 * @param priority 優先レーン
+	 * @return
+	 */
+	public CompletableFuture<Void> createAsyncCompletableFuture(
+			Runnable task, TaskPriority priority) {
+		Objects.requireNonNull(task);
+		return supplyAsync(Executors.callable(task, null), getIoExecutor(priority));
+	}
+
+	/**
+	 * 優先レーンを指定したI/Oジョブ用のエグゼキュータを取得する.<br>
+	 * 仮想スレッドが有効な場合は優先レーンは使われない.
+	 * @param priority 優先レーン
+	 * @return エグゼキュータ
+	 */
+	private Executor getIoExecutor(TaskPriority priority) {
+		return isVirtualThreadEnabled() ? ioExecutor : withPriority(priority);
 	}
 
 	/**
 	 * タスクを受け取り、そのタスクを開始して、完了可能フューチャーとして返す.<br>
+	 * タスクが失敗した場合はその原因の例外で、取り消された場合は取り消しで完了する.
+	 * 待ち行列からあふれて破棄された場合は、タスクとフューチャーの両方を取り消す.
 	 * @param task 開始するタスク
 	 * @return 完了可能なタスク.
 	 */
 	public <T> CompletableFuture<T> wrapCompletableFuture(FutureTask<T> task) {
+		Objects.requireNonNull(task);
 		CompletableFuture<T> cf = new CompletableFuture<>();
-		Runnable job = () -> {
+		executor.execute(new FutureTask<T>(() -> {
+			task.run();
 			try {
-				task.run();
-				cf.complete(task.get());
+				return task.get();
 
-			} catch (Throwable ex) {
-				cf.completeExceptionally(ex);
+			} catch (CancellationException ex) {
+				cf.cancel(false);
+				return null;
 			}
-		};
-		executor.submit(job);
+		}) {
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					task.cancel(false);
+					cf.cancel(false);
+					return;
+				}
+				try {
+					cf.complete(get());
+
+				} catch (ExecutionException ex) {
+					// タスクの失敗はtask.get()のExecutionExceptionとして届くため、その原因で完了する
+					// (スレッドプールの失敗件数として数えるため、ここまで例外のまま伝える)
+					Throwable cause = ex.getCause();
+					if (cause instanceof ExecutionException && cause.getCause() != null) {
+						cause = cause.getCause();
+					}
+					cf.completeExceptionally(cause);
+
+				} catch (InterruptedException ex) {
+					// 完了済みのため待つことはない
+					Thread.currentThread().interrupt();
+					cf.completeExceptionally(ex);
+				}
+			}
+		});
 		return cf;
 	}
 
@@ -125,10 +574,18 @@ public class BackgroundTaskService implements Executor {
 	 */
 	public void shutdown() {
 		if (!executor.isShutdown()) {
-			log.info("shutdownNow");
+			log.info("shutdownNow: {}", executor.getStatistics());
 			executor.shutdownNow();
+			fallbackExecutor.shutdownNow();
+			if (ioExecutor != executor) {
+				ioExecutor.shutdownNow();
+			}
+			computePool.shutdownNow();
 			try {
 				executor.awaitTermination(10, TimeUnit.SECONDS);
+				fallbackExecutor.awaitTermination(10, TimeUnit.SECONDS);
+				ioExecutor.awaitTermination(10, TimeUnit.SECONDS);
+				computePool.awaitTermination(10, TimeUnit.SECONDS);
 				log.info("shutdown complete");
 
 			} catch (InterruptedException ex) {
@@ -0,0 +1,239 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * バックグラウンドジョブのスレッドプールの統計情報のスナップショット.<br>
+ * 取得した時点の値であり、以降の変化は反映されない.<br>
+ */
+public final class BackgroundTaskStatistics {
+
+	private final int poolSize;
+
+	private final int activeCount;
+
+	private final int largestPoolSize;
+
+	private final int queueSize;
+
+	private final int queueRemainingCapacity;
+
+	private final long startedCount;
+
+	private final long completedCount;
+
+	private final long failedCount;
+
+	private final long rejectedCount;
+
+	private final long totalWaitNanos;
+
+	private final long totalRunNanos;
+
+	private final long maxWaitNanos;
+
+	private final long maxRunNanos;
+
+	private final int[] laneQueueSizes;
+
+	private final long[] laneStartedCounts;
+
+	private final long[] laneWaitNanos;
+
+	public BackgroundTaskStatistics(int poolSize, int activeCount,
+			int largestPoolSize, int queueSize, int queueRemainingCapacity,
+			long startedCount, long completedCount, long failedCount,
+			long rejectedCount, long totalWaitNanos, long totalRunNanos,
+			long maxWaitNanos, long maxRunNanos, int[] laneQueueSizes,
+			long[] laneStartedCounts, long[] laneWaitNanos) {
+		this.poolSize = poolSize;
+		this.activeCount = activeCount;
+		this.largestPoolSize = largestPoolSize;
+		this.queueSize = queueSize;
+		this.queueRemainingCapacity = queueRemainingCapacity;
+		this.startedCount = startedCount;
+		this.completedCount = completedCount;
+		this.failedCount = failedCount;
+		this.rejectedCount = rejectedCount;
+		this.totalWaitNanos = totalWaitNanos;
+		this.totalRunNanos = totalRunNanos;
+		this.maxWaitNanos = maxWaitNanos;
+		this.maxRunNanos = maxRunNanos;
+		this.laneQueueSizes = laneQueueSizes.clone();
+		this.laneStartedCounts = laneStartedCounts.clone();
+		this.laneWaitNanos = laneWaitNanos.clone();
+	}
+
+	/**
+	 * 現在のスレッド数
+	 * @return
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * タスクを実行中のスレッド数
+	 * @return
+	 */
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	/**
+	 * これまでの最大スレッド数
+	 * @return
+	 */
+	public int getLargestPoolSize() {
+		return largestPoolSize;
+	}
+
+	/**
+	 * 待ち行列に入っているタスク数
+	 * @return
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * 待ち行列の残り容量
+	 * @return
+	 */
+	public int getQueueRemainingCapacity() {
+		return queueRemainingCapacity;
+	}
+
+	/**
+	 * 開始されたタスク数
+	 * @return
+	 */
+	public long getStartedCount() {
+		return startedCount;
+	}
+
+	/**
+	 * 完了したタスク数(例外終了を含む)
+	 * @return
+	 */
+	public long getCompletedCount() {
+		return completedCount;
+	}
+
+	/**
+	 * 例外で終了したタスク数
+	 * @return
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * 拒否されたタスク数
+	 * @return
+	 */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * キューに入ってから開始されるまでの待ち時間の合計
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getTotalWaitTime(TimeUnit unit) {
+		return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 実行時間の合計
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getTotalRunTime(TimeUnit unit) {
+		return unit.convert(totalRunNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 最大の待ち時間
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxWaitTime(TimeUnit unit) {
+		return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 最大の実行時間
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxRunTime(TimeUnit unit) {
+		return unit.convert(maxRunNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 平均の待ち時間(ミリ秒)
+	 * @return 開始されたタスクがなければ0
+	 */
+	public double getAverageWaitMillis() {
+		return (startedCount > 0) ? totalWaitNanos / 1e6 / startedCount : 0d;
+	}
+
+	/**
+	 * 平均の実行時間(ミリ秒)
+	 * @return 完了したタスクがなければ0
+	 */
+	public double getAverageRunMillis() {
+		return (completedCount > 0) ? totalRunNanos / 1e6 / completedCount : 0d;
+	}
+
+	/**
+	 * 優先レーンごとの待ち行列に入っているタスク数
+	 * @param priority 優先レーン
+	 * @return
+	 */
+	public int getQueueSize(TaskPriority priority) {
+		return laneQueueSizes[priority.ordinal()];
+	}
+
+	/**
+	 * 優先レーンごとの開始されたタスク数
+	 * @param priority 優先レーン
+	 * @return
+	 */
+	public long getStartedCount(TaskPriority priority) {
+		return laneStartedCounts[priority.ordinal()];
+	}
+
+	/**
+	 * 優先レーンごとの平均の待ち時間(ミリ秒)
+	 * @param priority 優先レーン
+	 * @return 開始されたタスクがなければ0
+	 */
+	public double getAverageWaitMillis(TaskPriority priority) {
+		int idx = priority.ordinal();
+		long started = laneStartedCounts[idx];
+		return (started > 0) ? laneWaitNanos[idx] / 1e6 / started : 0d;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder lanes = new StringBuilder();
+		for (TaskPriority lane : TaskPriority.values()) {
+			lanes.append(String.format(", %s(queued=%d, avgWait=%.2fms)",
+					lane, getQueueSize(lane), getAverageWaitMillis(lane)));
+		}
+		return String.format("pool=%d, active=%d, largest=%d, queued=%d(remain=%d), "
+				+ "started=%d, completed=%d, failed=%d, rejected=%d, "
+				+ "avgWait=%.2fms, maxWait=%dms, avgRun=%.2fms, maxRun=%dms",
+				poolSize, activeCount, largestPoolSize, queueSize,
+				queueRemainingCapacity, startedCount, completedCount,
+				failedCount, rejectedCount, getAverageWaitMillis(),
+				getMaxWaitTime(TimeUnit.MILLISECONDS), getAverageRunMillis(),
+				getMaxRunTime(TimeUnit.MILLISECONDS)) + lanes;
+	}
+}
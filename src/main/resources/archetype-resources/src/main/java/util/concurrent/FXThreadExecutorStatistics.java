@@ -0,0 +1,198 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FXThreadExecutorの合体モードと、FXスレッドでの実行待機の統計情報のスナップショット.<br>
+ * 取得した時点の値であり、以降の変化は反映されない.<br>
+ */
+public final class FXThreadExecutorStatistics {
+
+	private final int queueDepth;
+
+	private final long drainCount;
+
+	private final long executedCount;
+
+	private final long coalescedCount;
+
+	private final int lastQueueDepth;
+
+	private final int maxQueueDepth;
+
+	private final long lastDrainNanos;
+
+	private final long maxDrainNanos;
+
+	private final long totalDrainNanos;
+
+	private final long waitCount;
+
+	private final long totalWaitNanos;
+
+	private final long maxWaitNanos;
+
+	private final long timeoutCount;
+
+	private final long deadlockCount;
+
+	public FXThreadExecutorStatistics(int queueDepth, long drainCount,
+			long executedCount, long coalescedCount, int lastQueueDepth,
+			int maxQueueDepth, long lastDrainNanos, long maxDrainNanos,
+			long totalDrainNanos, long waitCount, long totalWaitNanos,
+			long maxWaitNanos, long timeoutCount, long deadlockCount) {
+		this.queueDepth = queueDepth;
+		this.drainCount = drainCount;
+		this.executedCount = executedCount;
+		this.coalescedCount = coalescedCount;
+		this.lastQueueDepth = lastQueueDepth;
+		this.maxQueueDepth = maxQueueDepth;
+		this.lastDrainNanos = lastDrainNanos;
+		this.maxDrainNanos = maxDrainNanos;
+		this.totalDrainNanos = totalDrainNanos;
+		this.waitCount = waitCount;
+		this.totalWaitNanos = totalWaitNanos;
+		this.maxWaitNanos = maxWaitNanos;
+		this.timeoutCount = timeoutCount;
+		this.deadlockCount = deadlockCount;
+	}
+
+	/**
+	 * 現在のキューの深さ
+	 * @return
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * キューを処理したパルス数
+	 * @return
+	 */
+	public long getDrainCount() {
+		return drainCount;
+	}
+
+	/**
+	 * 実行したタスク数
+	 * @return
+	 */
+	public long getExecutedCount() {
+		return executedCount;
+	}
+
+	/**
+	 * 同じキーの後続のタスクに置き換えられて実行されなかったタスク数
+	 * @return
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * 直近のパルスの処理開始時のキューの深さ
+	 * @return
+	 */
+	public int getLastQueueDepth() {
+		return lastQueueDepth;
+	}
+
+	/**
+	 * パルスの処理開始時のキューの深さの最大
+	 * @return
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * 直近のパルスの処理時間
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getLastDrainTime(TimeUnit unit) {
+		return unit.convert(lastDrainNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * パルスの処理時間の最大
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxDrainTime(TimeUnit unit) {
+		return unit.convert(maxDrainNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * パルスあたりの平均の処理時間(ミリ秒)
+	 * @return 処理したパルスがなければ0
+	 */
+	public double getAverageDrainMillis() {
+		return (drainCount > 0) ? totalDrainNanos / 1e6 / drainCount : 0d;
+	}
+
+	/**
+	 * runAndWaitなどでFXスレッドでの実行を待機した回数
+	 * @return
+	 */
+	public long getWaitCount() {
+		return waitCount;
+	}
+
+	/**
+	 * FXスレッドでの実行を待機した時間の合計
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getTotalWaitTime(TimeUnit unit) {
+		return unit.convert(totalWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * FXスレッドでの実行を待機した時間の最大
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxWaitTime(TimeUnit unit) {
+		return unit.convert(maxWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * FXスレッドでの実行を待機した平均の時間(ミリ秒)
+	 * @return 待機したことがなければ0
+	 */
+	public double getAverageWaitMillis() {
+		return (waitCount > 0) ? totalWaitNanos / 1e6 / waitCount : 0d;
+	}
+
+	/**
+	 * 待機がタイムアウトした回数
+	 * @return
+	 */
+	public long getTimeoutCount() {
+		return timeoutCount;
+	}
+
+	/**
+	 * 待機中にデッドロックを検出した回数
+	 * @return
+	 */
+	public long getDeadlockCount() {
+		return deadlockCount;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("queued=%d, drains=%d, executed=%d, coalesced=%d, "
+				+ "lastDepth=%d, maxDepth=%d, avgDrain=%.3fms, maxDrain=%dms, "
+				+ "waits=%d, avgWait=%.2fms, maxWait=%dms, timeouts=%d, deadlocks=%d",
+				queueDepth, drainCount, executedCount, coalescedCount,
+				lastQueueDepth, maxQueueDepth, getAverageDrainMillis(),
+				getMaxDrainTime(TimeUnit.MILLISECONDS), waitCount,
+				getAverageWaitMillis(), getMaxWaitTime(TimeUnit.MILLISECONDS),
+				timeoutCount, deadlockCount);
+	}
+}
@@ -0,0 +1,357 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 実行統計を収集するスレッドプール.<br>
+ * タスクがキューに入ってから開始されるまでの待ち時間と、
+ * 実際に実行されていた時間を計測する.<br>
+ * 待ち行列に{@link PriorityLaneBlockingQueue}を用いた場合は、
+ * タスクの優先レーンにしたがって実行順序が制御される.<br>
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+	/**
+	 * キュー投入時刻を保持するラッパー
+	 */
+	private static final class TimedRunnable implements Runnable, PrioritizedTask {
+
+		private final Runnable task;
+
+		private final TaskPriority priority;
+
+		private final long enqueuedAt = System.nanoTime();
+
+		private long startedAt;
+
+		TimedRunnable(Runnable task, TaskPriority priority) {
+			this.task = task;
+			this.priority = priority;
+		}
+
+		@Override
+		public void run() {
+			task.run();
+		}
+
+		@Override
+		public TaskPriority getTaskPriority() {
+			return priority;
+		}
+
+		@Override
+		public String toString() {
+			return task.toString();
+		}
+	}
+
+	/**
+	 * 優先レーンを保持するFutureTask
+	 */
+	private static final class PrioritizedFutureTask<V> extends FutureTask<V>
+			implements PrioritizedTask {
+
+		private final TaskPriority priority;
+
+		PrioritizedFutureTask(Callable<V> callable, TaskPriority priority) {
+			super(callable);
+			this.priority = priority;
+		}
+
+		PrioritizedFutureTask(Runnable runnable, V result, TaskPriority priority) {
+			super(runnable, result);
+			this.priority = priority;
+		}
+
+		@Override
+		public TaskPriority getTaskPriority() {
+			return priority;
+		}
+	}
+
+	/**
+	 * 名前つきスレッドを作成するスレッドファクトリ
+	 */
+	public static class NamedThreadFactory implements ThreadFactory {
+
+		private final String namePrefix;
+
+		private final boolean daemon;
+
+		private final AtomicInteger seq = new AtomicInteger();
+
+		public NamedThreadFactory(String namePrefix, boolean daemon) {
+			this.namePrefix = Objects.requireNonNull(namePrefix);
+			this.daemon = daemon;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, namePrefix + "-" + seq.incrementAndGet());
+			thread.setDaemon(daemon);
+			return thread;
+		}
+	}
+
+	/**
+	 * ワーカースレッドが実行中のタスク
+	 */
+	private static final ThreadLocal<Runnable> currentTask = new ThreadLocal<>();
+
+	/**
+	 * 開始されたタスク数
+	 */
+	private final LongAdder startedCount = new LongAdder();
+
+	/**
+	 * 完了したタスク数
+	 */
+	private final LongAdder finishedCount = new LongAdder();
+
+	/**
+	 * 例外で終了したタスク数
+	 */
+	private final LongAdder failedCount = new LongAdder();
+
+	/**
+	 * 拒否されたタスク数
+	 */
+	private final LongAdder rejectedCount = new LongAdder();
+
+	/**
+	 * 待ち時間の合計(ナノ秒)
+	 */
+	private final LongAdder totalWaitNanos = new LongAdder();
+
+	/**
+	 * 実行時間の合計(ナノ秒)
+	 */
+	private final LongAdder totalRunNanos = new LongAdder();
+
+	/**
+	 * 最大待ち時間(ナノ秒)
+	 */
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * 最大実行時間(ナノ秒)
+	 */
+	private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * 優先レーンごとの開始されたタスク数
+	 */
+	private final LongAdder[] laneStartedCounts = createAdders();
+
+	/**
+	 * 優先レーンごとの待ち時間の合計(ナノ秒)
+	 */
+	private final LongAdder[] laneWaitNanos = createAdders();
+
+	private static LongAdder[] createAdders() {
+		LongAdder[] adders = new LongAdder[TaskPriority.values().length];
+		for (int idx = 0; idx < adders.length; idx++) {
+			adders[idx] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * コンストラクタ
+	 * @param corePoolSize コアスレッド数
+	 * @param maximumPoolSize 最大スレッド数
+	 * @param keepAliveTime アイドルスレッドの生存時間
+	 * @param unit 生存時間の単位
+	 * @param workQueue 待ち行列
+	 * @param threadFactory スレッドファクトリ
+	 * @param handler 拒否時のハンドラ
+	 */
+	public InstrumentedThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
+			long keepAliveTime, TimeUnit unit,
+			BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+			RejectedExecutionHandler handler) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
+				threadFactory, handler);
+		setRejectedExecutionHandler((r, executor) -> {
+			rejectedCount.increment();
+			handler.rejectedExecution(r, executor);
+		});
+	}
+
+	/**
+	 * タスクを実行する.<br>
+	 * 優先レーンはタスク自身の指定にしたがう.
+	 * @see TaskPriority${symbol_pound}of(Object)
+	 */
+	@Override
+	public void execute(Runnable command) {
+		Objects.requireNonNull(command);
+		execute(command, TaskPriority.of(command));
+	}
+
+	/**
+	 * 優先レーンを指定してタスクを実行する.
+	 * @param command タスク
+	 * @param priority 優先レーン
+	 */
+	public void execute(Runnable command, TaskPriority priority) {
+		Objects.requireNonNull(command);
+		Objects.requireNonNull(priority);
+		if (priority == TaskPriority.BULK
+				&& getQueue() instanceof PriorityLaneBlockingQueue) {
+			// コアスレッドが揃っていないとタスクは待ち行列を経由せずに
+			// 新しいスレッドで開始されてしまい、同時実行数が制御できないため
+			// 先にコアスレッドを揃えておく.
+			prestartAllCoreThreads();
+		}
+		super.execute(new TimedRunnable(command, priority));
+	}
+
+	/**
+	 * 優先レーンを指定してタスクを投入する.
+	 * @param task タスク
+	 * @param priority 優先レーン
+	 * @return Future
+	 */
+	public <T> FutureTask<T> submit(Callable<T> task, TaskPriority priority) {
+		Objects.requireNonNull(task);
+		PrioritizedFutureTask<T> ftask = new PrioritizedFutureTask<>(task, priority);
+		execute(ftask, priority);
+		return ftask;
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new PrioritizedFutureTask<>(callable, TaskPriority.of(callable));
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new PrioritizedFutureTask<>(runnable, value, TaskPriority.of(runnable));
+	}
+
+	/**
+	 * 現在のスレッドで実行中のタスクを取得する.<br>
+	 * {@link ${symbol_pound}submit(Callable)}などで投入された場合はFutureTask、
+	 * {@link ${symbol_pound}execute(Runnable)}の場合は投入されたRunnable(javafxのTaskなど)となる.<br>
+	 * @return タスク、このクラスのワーカースレッドでなければnull
+	 */
+	public static Runnable getCurrentTask() {
+		return currentTask.get();
+	}
+
+	/**
+	 * 待ち行列に入れるために包んだタスクから、投入されたタスクを取り出す.
+	 * @param r 待ち行列のタスク
+	 * @return 投入されたタスク
+	 */
+	static Runnable unwrap(Runnable r) {
+		return (r instanceof TimedRunnable) ? ((TimedRunnable) r).task : r;
+	}
+
+	@Override
+	protected void beforeExecute(Thread t, Runnable r) {
+		super.beforeExecute(t, r);
+		currentTask.set(unwrap(r));
+		if (getQueue() instanceof PriorityLaneBlockingQueue) {
+			((PriorityLaneBlockingQueue) getQueue()).beforeExecute(r);
+		}
+		if (r instanceof TimedRunnable) {
+			TimedRunnable tr = (TimedRunnable) r;
+			tr.startedAt = System.nanoTime();
+			long wait = tr.startedAt - tr.enqueuedAt;
+			totalWaitNanos.add(wait);
+			maxWaitNanos.accumulate(wait);
+			laneStartedCounts[tr.priority.ordinal()].increment();
+			laneWaitNanos[tr.priority.ordinal()].add(wait);
+		}
+		startedCount.increment();
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		super.afterExecute(r, t);
+		currentTask.remove();
+		if (getQueue() instanceof PriorityLaneBlockingQueue) {
+			((PriorityLaneBlockingQueue) getQueue()).afterExecute(r);
+		}
+		if (r instanceof TimedRunnable) {
+			long run = System.nanoTime() - ((TimedRunnable) r).startedAt;
+			totalRunNanos.add(run);
+			maxRunNanos.accumulate(run);
+		}
+		finishedCount.increment();
+		Runnable task = unwrap(r);
+		if (t == null && task instanceof Future && ((Future<?>) task).isDone()) {
+			// submitやjavafxのTaskなどのFutureは例外を結果として保持するため、結果から判定する
+			try {
+				((Future<?>) task).get();
+
+			} catch (CancellationException ex) {
+				// 取り消しは失敗としない
+
+			} catch (ExecutionException ex) {
+				t = ex.getCause();
+
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (t != null) {
+			failedCount.increment();
+		}
+	}
+
+	/**
+	 * 現時点の統計情報を取得する.
+	 * @return 統計情報
+	 */
+	public BackgroundTaskStatistics getStatistics() {
+		TaskPriority[] lanes = TaskPriority.values();
+		int[] laneQueueSizes = new int[lanes.length];
+		long[] laneStarted = new long[lanes.length];
+		long[] laneWaits = new long[lanes.length];
+		for (TaskPriority lane : lanes) {
+			int idx = lane.ordinal();
+			if (getQueue() instanceof PriorityLaneBlockingQueue) {
+				laneQueueSizes[idx] = ((PriorityLaneBlockingQueue) getQueue()).size(lane);
+			}
+			laneStarted[idx] = laneStartedCounts[idx].sum();
+			laneWaits[idx] = laneWaitNanos[idx].sum();
+		}
+		return new BackgroundTaskStatistics(
+				getPoolSize(),
+				getActiveCount(),
+				getLargestPoolSize(),
+				getQueue().size(),
+				getQueue().remainingCapacity(),
+				startedCount.sum(),
+				finishedCount.sum(),
+				failedCount.sum(),
+				rejectedCount.sum(),
+				totalWaitNanos.sum(),
+				totalRunNanos.sum(),
+				maxWaitNanos.get(),
+				maxRunNanos.get(),
+				laneQueueSizes,
+				laneStarted,
+				laneWaits);
+	}
+}
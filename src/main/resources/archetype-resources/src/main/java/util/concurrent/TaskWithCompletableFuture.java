@@ -6,203 +6,357 @@ package ${package}.util.concurrent;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import javafx.application.Platform;
 import javafx.concurrent.Task;
 
+/**
+ * CompletionStageとしても扱えるjavafx.concurrent.Task.<br>
+ * 内部のCompletableFutureは、最初に後続処理が登録された時点で作成される.
+ * (後続処理を登録しないタスクでは作成されない.)<br>
+ * 完了のタイミングは{@link CompletionMode}で選択する.
+ * 既定の{@link CompletionMode${symbol_pound}FX_THREAD}では、FXスレッドでTaskの状態が更新された後に完了するため、
+ * 非同期でない後続処理はFXスレッドで実行される.
+ * {@link CompletionMode${symbol_pound}WORKER_THREAD}では、ワーカースレッドでタスクが終了した時点で完了するため、
+ * バックグラウンドの後続処理がFXのパルスを待たずに実行される.
+ * この場合、FXスレッドで実行する必要のある後続処理は{@link ${symbol_pound}onFxThread()}に登録する.<br>
+ * @param <T> 戻り値の型
+ */
 public abstract class TaskWithCompletableFuture<T> extends Task<T> implements CompletionStage<T> {
 
-	private CompletableFuture<T> cf = new CompletableFuture<>();
+	/**
+	 * CompletionStageの完了のタイミング
+	 */
+	public enum CompletionMode {
+
+		/**
+		 * FXスレッドでsucceeded, cancelled, failedが呼び出された時点で完了する.
+		 */
+		FX_THREAD,
+
+		/**
+		 * ワーカースレッドでタスクが終了した時点で完了する.
+		 */
+		WORKER_THREAD
+	}
+
+	/**
+	 * 後続処理の起点となるCompletableFuture、まだ作成されていなければnull
+	 */
+	private final AtomicReference<CompletableFuture<T>> cfRef = new AtomicReference<>();
+
+	/**
+	 * 完了のタイミング
+	 */
+	private volatile CompletionMode completionMode = CompletionMode.FX_THREAD;
+
+	/**
+	 * FXスレッドでの完了通知が済んだか?
+	 */
+	private volatile boolean fxCompleted;
+
+	/**
+	 * CompletionStageの完了のタイミングを設定する.<br>
+	 * タスクの開始前に設定すること.
+	 * @param completionMode 完了のタイミング
+	 */
+	public void setCompletionMode(CompletionMode completionMode) {
+		this.completionMode = completionMode;
+	}
+
+	public CompletionMode getCompletionMode() {
+		return completionMode;
+	}
+
+	/**
+	 * 後続処理の起点となるCompletableFutureを取得する.<br>
+	 * まだ作成されていなければ作成し、タスクがすでに終了していれば完了させる.
+	 * @return CompletableFuture
+	 */
+	private CompletableFuture<T> stage() {
+		CompletableFuture<T> cf = cfRef.get();
+		if (cf == null) {
+			CompletableFuture<T> newCf = new CompletableFuture<>();
+			if (cfRef.compareAndSet(null, newCf)) {
+				cf = newCf;
+				if (completionMode == CompletionMode.WORKER_THREAD ? isDone() : fxCompleted) {
+					completeStage(cf);
+				}
+			} else {
+				cf = cfRef.get();
+			}
+		}
+		return cf;
+	}
 
-	@Override
-	protected void succeeded() {
-		super.succeeded();
+	/**
+	 * タスクの結果でCompletableFutureを完了させる.<br>
+	 * タスクは終了済みであること.
+	 * @param cf
+	 */
+	private void completeStage(CompletableFuture<T> cf) {
+		if (isCancelled()) {
+			cf.completeExceptionally(new CancellationException());
+			return;
+		}
 		try {
 			cf.complete(get());
-		} catch (Exception ex) {
-			// success時にgetが失敗することはないはず
+
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			cf.completeExceptionally(
+					(cause == null)
+							? new RuntimeException("failed for unknown reason")
+							: cause);
+
+		} catch (CancellationException ex) {
+			cf.completeExceptionally(ex);
+
+		} catch (InterruptedException ex) {
+			// 終了済みのため待機することはない
+			Thread.currentThread().interrupt();
 			cf.completeExceptionally(ex);
 		}
 	}
 
+	/**
+	 * タスクの終了時に呼び出される.(タスクを実行したスレッド、またはキャンセルしたスレッド)
+	 */
+	@Override
+	protected void done() {
+		super.done();
+		if (completionMode == CompletionMode.WORKER_THREAD) {
+			CompletableFuture<T> cf = cfRef.get();
+			if (cf != null) {
+				completeStage(cf);
+			}
+		}
+	}
+
+	/**
+	 * FXスレッドでの完了通知
+	 */
+	private void fxDone() {
+		fxCompleted = true;
+		if (completionMode == CompletionMode.FX_THREAD) {
+			CompletableFuture<T> cf = cfRef.get();
+			if (cf != null) {
+				completeStage(cf);
+			}
+		}
+	}
+
+	@Override
+	protected void succeeded() {
+		super.succeeded();
+		fxDone();
+	}
+
 	@Override
 	protected void cancelled() {
 		super.cancelled();
-		cf.completeExceptionally(new CancellationException());
+		fxDone();
 	}
 
 	@Override
 	protected void failed() {
 		super.failed();
-		Throwable ex = getException();
-		cf.completeExceptionally(
-				(ex == null)
-						? new RuntimeException("failed for unknown reason")
-						: ex);
+		fxDone();
+	}
+
+	/**
+	 * FXスレッドで完了するCompletableFutureを取得する.<br>
+	 * 完了のタイミングにかかわらず、これに登録した非同期でない後続処理はFXスレッドで実行される.<br>
+	 * @return FXスレッドで完了するCompletableFuture
+	 */
+	public CompletableFuture<T> onFxThread() {
+		CompletableFuture<T> cf = stage();
+		if (completionMode == CompletionMode.FX_THREAD) {
+			return cf;
+		}
+		CompletableFuture<T> fxCf = new CompletableFuture<>();
+		cf.whenComplete((ret, ex) -> {
+			Runnable r = () -> {
+				if (ex != null) {
+					fxCf.completeExceptionally(ex);
+				} else {
+					fxCf.complete(ret);
+				}
+			};
+			if (Platform.isFxApplicationThread()) {
+				r.run();
+			} else {
+				Platform.runLater(r);
+			}
+		});
+		return fxCf;
 	}
 
 	public <U> CompletableFuture<U> thenApply(Function<? super T, ? extends U> fn) {
-		return cf.thenApply(fn);
+		return stage().thenApply(fn);
 	}
 
 	public <U> CompletableFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
-		return cf.thenApplyAsync(fn);
+		return stage().thenApplyAsync(fn);
 	}
 
 	public <U> CompletableFuture<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
-		return cf.thenApplyAsync(fn, executor);
+		return stage().thenApplyAsync(fn, executor);
 	}
 
 	public CompletableFuture<Void> thenAccept(Consumer<? super T> action) {
-		return cf.thenAccept(action);
+		return stage().thenAccept(action);
 	}
 
 	public CompletableFuture<Void> thenAcceptAsync(Consumer<? super T> action) {
-		return cf.thenAcceptAsync(action);
+		return stage().thenAcceptAsync(action);
 	}
 
 	public CompletableFuture<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
-		return cf.thenAcceptAsync(action, executor);
+		return stage().thenAcceptAsync(action, executor);
 	}
 
 	public CompletableFuture<Void> thenRun(Runnable action) {
-		return cf.thenRun(action);
+		return stage().thenRun(action);
 	}
 
 	public CompletableFuture<Void> thenRunAsync(Runnable action) {
-		return cf.thenRunAsync(action);
+		return stage().thenRunAsync(action);
 	}
 
 	public CompletableFuture<Void> thenRunAsync(Runnable action, Executor executor) {
-		return cf.thenRunAsync(action, executor);
+		return stage().thenRunAsync(action, executor);
 	}
 
 	public <U, V> CompletableFuture<V> thenCombine(CompletionStage<? extends U> other,
 			BiFunction<? super T, ? super U, ? extends V> fn) {
-		return cf.thenCombine(other, fn);
+		return stage().thenCombine(other, fn);
 	}
 
 	public <U, V> CompletableFuture<V> thenCombineAsync(CompletionStage<? extends U> other,
 			BiFunction<? super T, ? super U, ? extends V> fn) {
-		return cf.thenCombineAsync(other, fn);
+		return stage().thenCombineAsync(other, fn);
 	}
 
 	public <U, V> CompletableFuture<V> thenCombineAsync(CompletionStage<? extends U> other,
 			BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
-		return cf.thenCombineAsync(other, fn, executor);
+		return stage().thenCombineAsync(other, fn, executor);
 	}
 
 	public <U> CompletableFuture<Void> thenAcceptBoth(CompletionStage<? extends U> other,
 			BiConsumer<? super T, ? super U> action) {
-		return cf.thenAcceptBoth(other, action);
+		return stage().thenAcceptBoth(other, action);
 	}
 
 	public <U> CompletableFuture<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
 			BiConsumer<? super T, ? super U> action) {
-		return cf.thenAcceptBothAsync(other, action);
+		return stage().thenAcceptBothAsync(other, action);
 	}
 
 	public <U> CompletableFuture<Void> thenAcceptBothAsync(CompletionStage<? extends U> other,
 			BiConsumer<? super T, ? super U> action, Executor executor) {
-		return cf.thenAcceptBothAsync(other, action, executor);
+		return stage().thenAcceptBothAsync(other, action, executor);
 	}
 
 	public CompletableFuture<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
-		return cf.runAfterBoth(other, action);
+		return stage().runAfterBoth(other, action);
 	}
 
 	public CompletableFuture<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
-		return cf.runAfterBothAsync(other, action);
+		return stage().runAfterBothAsync(other, action);
 	}
 
 	public CompletableFuture<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
-		return cf.runAfterBothAsync(other, action, executor);
+		return stage().runAfterBothAsync(other, action, executor);
 	}
 
 	public <U> CompletableFuture<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
-		return cf.applyToEither(other, fn);
+		return stage().applyToEither(other, fn);
 	}
 
 	public <U> CompletableFuture<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
-		return cf.applyToEitherAsync(other, fn);
+		return stage().applyToEitherAsync(other, fn);
 	}
 
 	public <U> CompletableFuture<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn,
 			Executor executor) {
-		return cf.applyToEitherAsync(other, fn, executor);
+		return stage().applyToEitherAsync(other, fn, executor);
 	}
 
 	public CompletableFuture<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
-		return cf.acceptEither(other, action);
+		return stage().acceptEither(other, action);
 	}
 
 	public CompletableFuture<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
-		return cf.acceptEitherAsync(other, action);
+		return stage().acceptEitherAsync(other, action);
 	}
 
 	public CompletableFuture<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action,
 			Executor executor) {
-		return cf.acceptEitherAsync(other, action, executor);
+		return stage().acceptEitherAsync(other, action, executor);
 	}
 
 	public CompletableFuture<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
-		return cf.runAfterEither(other, action);
+		return stage().runAfterEither(other, action);
 	}
 
 	public CompletableFuture<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
-		return cf.runAfterEitherAsync(other, action);
+		return stage().runAfterEitherAsync(other, action);
 	}
 
 	public CompletableFuture<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
-		return cf.runAfterEitherAsync(other, action, executor);
+		return stage().runAfterEitherAsync(other, action, executor);
 	}
 
 	public <U> CompletableFuture<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
-		return cf.thenCompose(fn);
+		return stage().thenCompose(fn);
 	}
 
 	public <U> CompletableFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
-		return cf.thenComposeAsync(fn);
+		return stage().thenComposeAsync(fn);
 	}
 
 	public <U> CompletableFuture<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn,
 			Executor executor) {
-		return cf.thenComposeAsync(fn, executor);
+		return stage().thenComposeAsync(fn, executor);
 	}
 
 	public CompletableFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
-		return cf.whenComplete(action);
+		return stage().whenComplete(action);
 	}
 
 	public CompletableFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
-		return cf.whenCompleteAsync(action);
+		return stage().whenCompleteAsync(action);
 	}
 
 	public CompletableFuture<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
-		return cf.whenCompleteAsync(action, executor);
+		return stage().whenCompleteAsync(action, executor);
 	}
 
 	public <U> CompletableFuture<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
-		return cf.handle(fn);
+		return stage().handle(fn);
 	}
 
 	public <U> CompletableFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
-		return cf.handleAsync(fn);
+		return stage().handleAsync(fn);
 	}
 
 	public <U> CompletableFuture<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
-		return cf.handleAsync(fn, executor);
+		return stage().handleAsync(fn, executor);
 	}
 
 	public CompletableFuture<T> toCompletableFuture() {
-		return cf;
+		return stage();
 	}
 
 	public CompletableFuture<T> exceptionally(Function<Throwable, ? extends T> fn) {
-		return cf.exceptionally(fn);
+		return stage().exceptionally(fn);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.animation.AnimationTimer;
+import ${package}.util.sys.ApplicationSettings;
+
+/**
+ * プログレスとメッセージの更新を間引いてUIに反映するタスク.<br>
+ * ワーカースレッドからの{@link ${symbol_pound}updateProgress(double, double)}, {@link ${symbol_pound}updateMessage(String)}は
+ * 値をフィールドに記録するだけで、FXスレッドへの通知は行わない.
+ * FXスレッドではパルスごとに、前回の反映から一定時間以上経過していれば最新の値を反映する.<br>
+ * ワーカー側ではオブジェクトの生成を伴わないため、ループの毎回で更新しても負荷にならない.
+ * メッセージの文字列の組み立ても避けたい場合は{@link ${symbol_pound}updateMessage(String, long)}を用いる.<br>
+ * 反映の間隔はコンストラクタで指定するか、app.propertiesまたはシステムプロパティの
+ * throttledTask.intervalMillisで設定する.(既定は0で、パルスごとに反映する)<br>
+ * プログレスとメッセージは個別に記録されるため、同じパルスで反映される組み合わせは
+ * 厳密には同時点のものとは限らない.<br>
+ * @param <T> 戻り値の型
+ */
+public abstract class ThrottledTask<T> extends TaskWithCompletableFuture<T> {
+
+	/**
+	 * 反映の間隔(ナノ秒)
+	 */
+	private final long intervalNanos;
+
+	/**
+	 * ワーカーによる更新のたびに増える番号
+	 */
+	private final AtomicLong version = new AtomicLong();
+
+	private volatile double workDone = -1;
+
+	private volatile double max = -1;
+
+	private volatile String message;
+
+	/**
+	 * メッセージに続ける数値を使う場合はtrue
+	 */
+	private volatile boolean hasMessageValue;
+
+	private volatile long messageValue;
+
+	/**
+	 * 最後にUIに反映した番号(FXスレッドでのみ使用)
+	 */
+	private long publishedVersion;
+
+	/**
+	 * 最後にUIに反映した時刻(FXスレッドでのみ使用)
+	 */
+	private long publishedAt;
+
+	/**
+	 * パルスごとに値を反映するタイマー(FXスレッドでのみ使用)
+	 */
+	private AnimationTimer timer;
+
+	/**
+	 * 設定ファイルの間隔で反映するタスクを構築する.
+	 */
+	protected ThrottledTask() {
+		this(ApplicationSettings.getLong("throttledTask.intervalMillis", 0),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 反映の間隔を指定してタスクを構築する.
+	 * @param interval 反映の間隔、0ならばパルスごと
+	 * @param unit 間隔の単位
+	 */
+	protected ThrottledTask(long interval, TimeUnit unit) {
+		this.intervalNanos = Math.max(0, unit.toNanos(interval));
+	}
+
+	@Override
+	protected void updateProgress(long workDone, long max) {
+		updateProgress((double) workDone, (double) max);
+	}
+
+	/**
+	 * プログレスを記録する.<br>
+	 * UIへの反映はパルスの時点で行われる.
+	 */
+	@Override
+	protected void updateProgress(double workDone, double max) {
+		this.workDone = workDone;
+		this.max = max;
+		version.incrementAndGet();
+	}
+
+	/**
+	 * メッセージを記録する.<br>
+	 * UIへの反映はパルスの時点で行われる.
+	 */
+	@Override
+	protected void updateMessage(String message) {
+		this.message = message;
+		this.hasMessageValue = false;
+		version.incrementAndGet();
+	}
+
+	/**
+	 * 接頭語と数値からなるメッセージを記録する.<br>
+	 * 文字列の連結はUIに反映する時点で行われるため、ワーカー側では文字列を生成しない.<br>
+	 * @param prefix 接頭語
+	 * @param value 接頭語に続ける数値
+	 */
+	protected void updateMessage(String prefix, long value) {
+		this.message = prefix;
+		this.messageValue = value;
+		this.hasMessageValue = true;
+		version.incrementAndGet();
+	}
+
+	/**
+	 * 記録された最新の値をUIに反映する.(FXスレッドから呼び出される)
+	 */
+	private void publish() {
+		long current = version.get();
+		if (current == publishedVersion) {
+			return;
+		}
+		publishedVersion = current;
+		super.updateProgress(workDone, max);
+		String msg = message;
+		if (msg != null) {
+			super.updateMessage(hasMessageValue ? msg + messageValue : msg);
+		}
+	}
+
+	@Override
+	protected void running() {
+		super.running();
+		if (timer == null) {
+			timer = new AnimationTimer() {
+				@Override
+				public void handle(long now) {
+					if (now - publishedAt >= intervalNanos) {
+						publishedAt = now;
+						publish();
+					}
+				}
+			};
+		}
+		timer.start();
+	}
+
+	/**
+	 * タイマーを停止し、最後の値を反映する.
+	 */
+	private void finish() {
+		if (timer != null) {
+			timer.stop();
+		}
+		publish();
+	}
+
+	@Override
+	protected void succeeded() {
+		finish();
+		super.succeeded();
+	}
+
+	@Override
+	protected void cancelled() {
+		finish();
+		super.cancelled();
+	}
+
+	@Override
+	protected void failed() {
+		finish();
+		super.failed();
+	}
+}
@@ -0,0 +1,287 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+
+/**
+ * ログイベントを有界のリングバッファに積み、専用のスレッドから対象のアペンダに書き込むアペンダ.<br>
+ * ログを出力するスレッドはディスクへの書き込みを待たない.<br>
+ * バッファが満杯の場合の動作は{@link OverflowPolicy}で指定する.
+ * 指定したレベルより重要なイベント(WARN, ERRORなど)は、満杯でも捨てずに空くのを待つ.<br>
+ * 書き込みスレッドはバッファにたまったイベントをまとめて取り出し、
+ * 最後のイベントをバッチの終わりとするため、対象のアペンダはバッチごとにフラッシュできる.<br>
+ * 停止すると、バッファに残っているイベントを書き込んでから対象のアペンダも停止する.<br>
+ */
+public final class AsyncLogAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * 書き込みスレッドが停止の要求を確認する間隔(ミリ秒)
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * バッファが満杯の場合の動作
+	 */
+	public enum OverflowPolicy {
+
+		/**
+		 * 空くまで待つ
+		 */
+		BLOCK,
+
+		/**
+		 * 指定したレベル以下のイベントを捨てる
+		 */
+		DROP,
+
+		/**
+		 * 指定したレベル以下のイベントは、一定の間隔で1件だけ残し、それ以外を捨てる
+		 */
+		SAMPLE
+	}
+
+	/**
+	 * 書き込み先のアペンダ
+	 */
+	private final Appender target;
+
+	/**
+	 * リングバッファ
+	 */
+	private final ArrayBlockingQueue<Serializable> buffer;
+
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * 満杯のときに捨てる対象とするレベル(このレベル以下)
+	 */
+	private final Level overflowLevel;
+
+	/**
+	 * SAMPLEの場合に残す間隔(n件に1件)
+	 */
+	private final int sampleRate;
+
+	/**
+	 * 位置情報(呼び出し元のクラスや行番号)を引き継ぐか?
+	 */
+	private final boolean includeLocation;
+
+	private final Thread dispatcher;
+
+	private volatile boolean running;
+
+	private final AtomicLong enqueuedCount = new AtomicLong();
+
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	private final AtomicLong blockedCount = new AtomicLong();
+
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	private final AtomicLong batchCount = new AtomicLong();
+
+	private final AtomicLong overflowCounter = new AtomicLong();
+
+	private final LongAccumulator maxQueued = new LongAccumulator(Math::max, 0);
+
+	private final LongAccumulator maxBlockedNanos = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * 書き込み先のアペンダを指定して作成する.<br>
+	 * レイアウトは書き込み先のアペンダのものを返す.
+	 * @param name アペンダ名
+	 * @param target 書き込み先のアペンダ
+	 * @param bufferSize バッファのサイズ
+	 * @param overflowPolicy 満杯の場合の動作
+	 * @param overflowLevel 満杯のときに捨てる対象とするレベル(このレベル以下)
+	 * @param sampleRate SAMPLEの場合に残す間隔(n件に1件)
+	 * @param includeLocation 位置情報を引き継ぐか?
+	 */
+	public AsyncLogAppender(String name, Appender target, int bufferSize,
+			OverflowPolicy overflowPolicy, Level overflowLevel, int sampleRate,
+			boolean includeLocation) {
+		super(name, null, target.getLayout(), true);
+		this.target = Objects.requireNonNull(target);
+		this.buffer = new ArrayBlockingQueue<>(Math.max(bufferSize, 1));
+		this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+		this.overflowLevel = Objects.requireNonNull(overflowLevel);
+		this.sampleRate = Math.max(sampleRate, 1);
+		this.includeLocation = includeLocation;
+
+		dispatcher = new Thread(this::dispatch, "logWriter-" + name);
+		dispatcher.setDaemon(true);
+	}
+
+	public Appender getTarget() {
+		return target;
+	}
+
+	@Override
+	public void start() {
+		if (!target.isStarted()) {
+			target.start();
+		}
+		running = true;
+		dispatcher.start();
+		super.start();
+	}
+
+	/**
+	 * バッファに残っているイベントを書き込んでから停止する.<br>
+	 * 書き込み先のアペンダも停止する.
+	 */
+	@Override
+	public void stop() {
+		super.stop();
+		running = false;
+		try {
+			dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		drain(new ArrayList<>()); // 書き込みスレッドが時間内に終わらなかった場合の残り
+		target.stop();
+	}
+
+	@Override
+	public void append(LogEvent event) {
+		if (!isStarted()) {
+			return;
+		}
+		if (Thread.currentThread() == dispatcher) {
+			// 書き込み中の出力はバッファを待つとデッドロックするため直接書き込む
+			target.append(event);
+			return;
+		}
+
+		Serializable item = Log4jLogEvent.serialize(toLog4jLogEvent(event),
+				includeLocation);
+		if (!buffer.offer(item) && !overflow(event, item)) {
+			droppedCount.incrementAndGet();
+			return;
+		}
+		enqueuedCount.incrementAndGet();
+		maxQueued.accumulate(buffer.size());
+	}
+
+	private static Log4jLogEvent toLog4jLogEvent(LogEvent event) {
+		if (event instanceof Log4jLogEvent) {
+			return (Log4jLogEvent) event;
+		}
+		return new Log4jLogEvent.Builder(event).build();
+	}
+
+	/**
+	 * バッファが満杯の場合の処理.
+	 * @return バッファに積んだ場合はtrue、捨てた場合はfalse
+	 */
+	private boolean overflow(LogEvent event, Serializable item) {
+		boolean droppable = event.getLevel().isLessSpecificThan(overflowLevel);
+		if (droppable) {
+			if (overflowPolicy == OverflowPolicy.DROP) {
+				return false;
+			}
+			if (overflowPolicy == OverflowPolicy.SAMPLE
+					&& overflowCounter.getAndIncrement() % sampleRate != 0) {
+				return false;
+			}
+		}
+
+		// 空くまで待つ
+		blockedCount.incrementAndGet();
+		long st = System.nanoTime();
+		try {
+			buffer.put(item);
+
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+
+		} finally {
+			maxBlockedNanos.accumulate(System.nanoTime() - st);
+		}
+		return true;
+	}
+
+	/**
+	 * 書き込みスレッドの処理.<br>
+	 * バッファにたまったイベントをまとめて書き込む.
+	 */
+	private void dispatch() {
+		List<Serializable> batch = new ArrayList<>();
+		while (running) {
+			try {
+				// 書き込み先が割り込みで閉じられないように、割り込みではなくタイムアウトで停止を確認する
+				Serializable first = buffer.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+				}
+
+			} catch (InterruptedException ex) {
+				break;
+			}
+			drain(batch);
+		}
+		drain(batch);
+	}
+
+	/**
+	 * バッファにあるイベントを書き込む.
+	 * @param batch 作業用のリスト(先に取り出したイベントがあれば含む)
+	 */
+	private void drain(List<Serializable> batch) {
+		buffer.drainTo(batch);
+		int size = batch.size();
+		if (size == 0) {
+			return;
+		}
+		for (int idx = 0; idx < size; idx++) {
+			Log4jLogEvent event = Log4jLogEvent.deserialize(batch.get(idx));
+			event.setEndOfBatch(idx == size - 1);
+			try {
+				target.append(event);
+
+			} catch (RuntimeException ex) {
+				error("failed to append log event to " + target.getName(), event, ex);
+			}
+		}
+		batch.clear();
+		writtenCount.addAndGet(size);
+		batchCount.incrementAndGet();
+	}
+
+	/**
+	 * 統計情報のスナップショットを取得する.
+	 * @return 統計情報
+	 */
+	public AsyncLogStatistics getStatistics() {
+		return new AsyncLogStatistics(getName(), buffer.size(),
+				buffer.size() + buffer.remainingCapacity(), enqueuedCount.get(),
+				droppedCount.get(), blockedCount.get(), writtenCount.get(), batchCount.get(),
+				(int) maxQueued.get(), maxBlockedNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return getName() + "(" + overflowPolicy + ", " + target.getName() + ")";
+	}
+}
@@ -0,0 +1,148 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AsyncLogAppenderのバッファと書き込みの統計情報のスナップショット.<br>
+ * 取得した時点の値であり、以降の変化は反映されない.<br>
+ */
+public final class AsyncLogStatistics {
+
+	private final String appenderName;
+
+	private final int queued;
+
+	private final int capacity;
+
+	private final long enqueuedCount;
+
+	private final long droppedCount;
+
+	private final long blockedCount;
+
+	private final long writtenCount;
+
+	private final long batchCount;
+
+	private final int maxQueued;
+
+	private final long maxBlockedNanos;
+
+	public AsyncLogStatistics(String appenderName, int queued, int capacity,
+			long enqueuedCount, long droppedCount, long blockedCount,
+			long writtenCount, long batchCount, int maxQueued,
+			long maxBlockedNanos) {
+		this.appenderName = appenderName;
+		this.queued = queued;
+		this.capacity = capacity;
+		this.enqueuedCount = enqueuedCount;
+		this.droppedCount = droppedCount;
+		this.blockedCount = blockedCount;
+		this.writtenCount = writtenCount;
+		this.batchCount = batchCount;
+		this.maxQueued = maxQueued;
+		this.maxBlockedNanos = maxBlockedNanos;
+	}
+
+	/**
+	 * アペンダ名
+	 * @return
+	 */
+	public String getAppenderName() {
+		return appenderName;
+	}
+
+	/**
+	 * 現在バッファにあるイベント数
+	 * @return
+	 */
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * バッファのサイズ
+	 * @return
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * バッファに積んだイベント数
+	 * @return
+	 */
+	public long getEnqueuedCount() {
+		return enqueuedCount;
+	}
+
+	/**
+	 * バッファが満杯のために捨てたイベント数
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * バッファが満杯のために空くのを待った回数
+	 * @return
+	 */
+	public long getBlockedCount() {
+		return blockedCount;
+	}
+
+	/**
+	 * 書き込んだイベント数
+	 * @return
+	 */
+	public long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * まとめて書き込んだ回数
+	 * @return
+	 */
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * バッファにあったイベント数の最大
+	 * @return
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * バッファが空くのを待った時間の最大
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxBlockedTime(TimeUnit unit) {
+		return unit.convert(maxBlockedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 1回あたりにまとめて書き込んだ平均のイベント数
+	 * @return 書き込んでいなければ0
+	 */
+	public double getAverageBatchSize() {
+		return (batchCount > 0) ? (double) writtenCount / batchCount : 0d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: queued=%d/%d, enqueued=%d, dropped=%d, "
+				+ "blocked=%d, maxBlocked=%dms, written=%d, batches=%d, "
+				+ "avgBatch=%.1f, maxQueued=%d",
+				appenderName, queued, capacity, enqueuedCount, droppedCount,
+				blockedCount, getMaxBlockedTime(TimeUnit.MILLISECONDS),
+				writtenCount, batchCount, getAverageBatchSize(), maxQueued);
+	}
+}
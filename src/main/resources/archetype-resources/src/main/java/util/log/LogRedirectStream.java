@@ -0,0 +1,238 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * 書き込まれたバイト列を行ごとの文字列にしてコンシューマに渡す出力ストリーム.<br>
+ * 標準出力・標準エラー出力をログに転送するために使う.<br>
+ * 改行(CR, LF)の検索は書き込まれたバイト列に対してまとめて行い、
+ * 復号用のバッファはスレッドごとに保持して再利用する.<br>
+ * 復号はスレッドごとのデコーダで行うため、マルチバイト文字が複数の書き込みに
+ * 分割されていても正しく復号できる.(CR, LFを含まないASCII互換の文字コードであること.)<br>
+ * 空の行は渡さない.<br>
+ */
+public final class LogRedirectStream extends OutputStream {
+
+	/**
+	 * 入力バッファのサイズ
+	 */
+	private static final int INPUT_BUFFER_SIZE = 1024;
+
+	/**
+	 * 文字バッファの初期サイズ
+	 */
+	private static final int INITIAL_LINE_SIZE = 256;
+
+	/**
+	 * 行を渡した後も保持する文字バッファの最大サイズ.<br>
+	 * 長い行のために拡張したバッファは、これを超える場合は初期サイズに戻す.
+	 */
+	private static final int MAX_RETAINED_LINE_SIZE = 8192;
+
+	/**
+	 * スレッドごとの行の状態
+	 */
+	private final class LineBuffer {
+
+		private final CharsetDecoder decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		/**
+		 * 復号待ちのバイト列(書き込みモード).<br>
+		 * 前回の書き込みで文字の途中までだったバイトが残る.
+		 */
+		private final ByteBuffer input = ByteBuffer.allocate(INPUT_BUFFER_SIZE);
+
+		/**
+		 * 復号した行の文字列(書き込みモード)
+		 */
+		private CharBuffer line = CharBuffer.allocate(INITIAL_LINE_SIZE);
+
+		/**
+		 * 1バイトの書き込み用
+		 */
+		private final byte[] single = new byte[1];
+
+		/**
+		 * 1バイトを復号して行に追加する.
+		 */
+		void append(int b) {
+			single[0] = (byte) b;
+			append(single, 0, 1);
+		}
+
+		/**
+		 * バイト列を復号して行に追加する.
+		 */
+		void append(byte[] b, int off, int len) {
+			while (len > 0) {
+				int n = Math.min(input.remaining(), len);
+				input.put(b, off, n);
+				off += n;
+				len -= n;
+				decode(false);
+			}
+		}
+
+		/**
+		 * 行を終端して、空でなければコンシューマに渡す.
+		 */
+		void terminate() {
+			if (input.position() == 0 && line.position() == 0) {
+				return;
+			}
+			decode(true);
+			while (decoder.flush(line).isOverflow()) {
+				expand();
+			}
+			decoder.reset();
+
+			line.flip();
+			String msg = line.toString();
+			if (line.capacity() > MAX_RETAINED_LINE_SIZE) {
+				line = CharBuffer.allocate(INITIAL_LINE_SIZE);
+			} else {
+				line.clear();
+			}
+
+			if (!msg.isEmpty()) {
+				logReceiver.accept(msg);
+			}
+		}
+
+		private void decode(boolean endOfInput) {
+			input.flip();
+			for (;;) {
+				CoderResult result = decoder.decode(input, line, endOfInput);
+				if (!result.isOverflow()) {
+					break;
+				}
+				expand();
+			}
+			input.compact(); // 文字の途中までのバイトは次回に持ち越す
+		}
+
+		private void expand() {
+			CharBuffer newLine = CharBuffer.allocate(line.capacity() * 2);
+			line.flip();
+			newLine.put(line);
+			line = newLine;
+		}
+	}
+
+	private final Consumer<String> logReceiver;
+
+	private final Charset charset;
+
+	private final ThreadLocal<LineBuffer> lineTls = new ThreadLocal<LineBuffer>() {
+		@Override
+		protected LineBuffer initialValue() {
+			return new LineBuffer();
+		}
+	};
+
+	/**
+	 * 行を受け取るコンシューマと、文字コードを指定して構築する.
+	 * @param logReceiver 行を受け取るコンシューマ
+	 * @param charset 書き込まれるバイト列の文字コード
+	 */
+	public LogRedirectStream(Consumer<String> logReceiver, Charset charset) {
+		this.logReceiver = Objects.requireNonNull(logReceiver);
+		this.charset = Objects.requireNonNull(charset);
+	}
+
+	@Override
+	public void write(int b) {
+		LineBuffer buf = lineTls.get();
+		if (b == 0x0a || b == 0x0d) {
+			buf.terminate();
+		} else {
+			buf.append(b);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		LineBuffer buf = lineTls.get();
+		int end = off + len;
+		int st = off;
+		for (int idx = off; idx < end; idx++) {
+			byte c = b[idx];
+			if (c == 0x0a || c == 0x0d) {
+				buf.append(b, st, idx - st);
+				buf.terminate();
+				st = idx + 1;
+			}
+		}
+		buf.append(b, st, end - st);
+	}
+
+	/**
+	 * 改行されていない出力があれば、行として渡す.
+	 */
+	@Override
+	public void flush() {
+		lineTls.get().terminate();
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+
+	/**
+	 * 行を専用のスレッドからコンシューマに渡すコンシューマを作成する.<br>
+	 * 出力する側は行をキューに積むだけで、ログへの書き込みを待たない.
+	 * キューが満杯の場合は空くまで待つため、行の順序は保たれる.<br>
+	 * ただし、ログに記録されるスレッド名は専用のスレッドのものとなる.<br>
+	 * 専用のスレッドはデーモンスレッドであり、終了時にキューに残っている行は失われることがある.
+	 * @param logReceiver 行を受け取るコンシューマ
+	 * @param threadName 専用のスレッドの名前
+	 * @param capacity キューのサイズ
+	 * @return 非同期に渡すコンシューマ
+	 */
+	public static Consumer<String> async(Consumer<String> logReceiver,
+			String threadName, int capacity) {
+		Objects.requireNonNull(logReceiver);
+		BlockingQueue<String> queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+		Thread thread = new Thread(() -> {
+			for (;;) {
+				try {
+					logReceiver.accept(queue.take());
+
+				} catch (InterruptedException ex) {
+					return;
+
+				} catch (RuntimeException ex) {
+					// 標準エラー出力も転送されているため、ここでは出力せずに次の行を続ける
+				}
+			}
+		}, threadName);
+		thread.setDaemon(true);
+		thread.start();
+
+		return msg -> {
+			try {
+				queue.put(msg);
+
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				logReceiver.accept(msg); // 待てない場合は直接渡す
+			}
+		};
+	}
+}
@@ -0,0 +1,272 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ${package}.util.sys.ApplicationSettings;
+
+/**
+ * ログの行を固定サイズのプリミティブ配列に保持するリングバッファ.<br>
+ * 行の文字列は1つのchar配列に連続して格納し、行ごとのメタ情報(文字列の位置と長さ、レベル、ロガー)は
+ * 行数分のプリミティブ配列に格納するため、行ごとのオブジェクトは作成されない.<br>
+ * 行数または文字数が上限を超えた場合は、古い行から上書きされる.<br>
+ * 行には追加された順に通し番号(シーケンス)が振られ、
+ * 上書きされていない範囲は{@link ${symbol_pound}getFirstSeq()}から{@link ${symbol_pound}getNextSeq()}の手前までとなる.<br>
+ * 書き込みと読み込みは、配列へのコピーの間だけ短くロックする.<br>
+ */
+public final class LogRingBuffer {
+
+	/**
+	 * 1行の最大文字数、これを超える部分は切り捨てる
+	 */
+	private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+	/**
+	 * 既定のインスタンス
+	 */
+	private static volatile LogRingBuffer defaultBuffer;
+
+	/**
+	 * 行数の上限
+	 */
+	private final int lineCapacity;
+
+	/**
+	 * 文字数の上限
+	 */
+	private final int textCapacity;
+
+	/**
+	 * 行の文字列
+	 */
+	private final char[] text;
+
+	/**
+	 * 行の文字列の開始位置(書き込んだ文字数の通算)
+	 */
+	private final long[] textOffsets;
+
+	/**
+	 * 行の文字数
+	 */
+	private final int[] textLengths;
+
+	/**
+	 * 行のレベル({@link org.apache.logging.log4j.Level${symbol_pound}intLevel()})
+	 */
+	private final int[] levels;
+
+	/**
+	 * 行のロガーのID
+	 */
+	private final int[] loggerIds;
+
+	/**
+	 * ロガー名からIDへのマップ
+	 */
+	private final Map<String, Integer> loggerIdMap = new HashMap<>();
+
+	/**
+	 * IDごとのロガー名
+	 */
+	private final List<String> loggerNames = new ArrayList<>();
+
+	/**
+	 * 保持している最も古い行のシーケンス
+	 */
+	private long firstSeq;
+
+	/**
+	 * 次に追加する行のシーケンス
+	 */
+	private long nextSeq;
+
+	/**
+	 * 書き込んだ文字数の通算
+	 */
+	private long textEnd;
+
+	/**
+	 * 行数と文字数の上限を指定して構築する.
+	 * @param lineCapacity 行数の上限
+	 * @param textCapacity 文字数の上限
+	 */
+	public LogRingBuffer(int lineCapacity, int textCapacity) {
+		this.lineCapacity = Math.max(lineCapacity, 1);
+		this.textCapacity = Math.max(textCapacity, MAX_LINE_LENGTH);
+		this.text = new char[this.textCapacity];
+		this.textOffsets = new long[this.lineCapacity];
+		this.textLengths = new int[this.lineCapacity];
+		this.levels = new int[this.lineCapacity];
+		this.loggerIds = new int[this.lineCapacity];
+	}
+
+	/**
+	 * 既定のインスタンスを取得する.<br>
+	 * 初回に設定"log.console.maxLines"(既定は20万行)と
+	 * "log.console.maxChars"(既定は800万文字)の大きさで作成する.
+	 * @return 既定のインスタンス
+	 */
+	public static LogRingBuffer getDefault() {
+		LogRingBuffer buffer = defaultBuffer;
+		if (buffer == null) {
+			synchronized (LogRingBuffer.class) {
+				buffer = defaultBuffer;
+				if (buffer == null) {
+					buffer = new LogRingBuffer(
+							ApplicationSettings.getInt("log.console.maxLines", 200000),
+							ApplicationSettings.getInt("log.console.maxChars", 8 * 1024 * 1024));
+					defaultBuffer = buffer;
+				}
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * 行を追加する.<br>
+	 * 末尾の改行は除去される.
+	 * @param level レベル({@link org.apache.logging.log4j.Level${symbol_pound}intLevel()})
+	 * @param loggerName ロガー名
+	 * @param line 行の文字列
+	 */
+	public void add(int level, String loggerName, CharSequence line) {
+		int len = line.length();
+		while (len > 0 && (line.charAt(len - 1) == '${symbol_escape}n' || line.charAt(len - 1) == '${symbol_escape}r')) {
+			len--;
+		}
+		len = Math.min(len, MAX_LINE_LENGTH);
+
+		synchronized (this) {
+			// 上書きされる行を捨てる
+			long newTextEnd = textEnd + len;
+			while (firstSeq < nextSeq && (nextSeq - firstSeq >= lineCapacity
+					|| textOffsets[slot(firstSeq)] < newTextEnd - textCapacity)) {
+				firstSeq++;
+			}
+
+			int slot = slot(nextSeq);
+			textOffsets[slot] = textEnd;
+			textLengths[slot] = len;
+			levels[slot] = level;
+			loggerIds[slot] = getLoggerId(loggerName);
+
+			int pos = (int) (textEnd % textCapacity);
+			for (int idx = 0; idx < len; idx++) {
+				text[pos++] = line.charAt(idx);
+				if (pos == textCapacity) {
+					pos = 0;
+				}
+			}
+			textEnd = newTextEnd;
+			nextSeq++;
+		}
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % lineCapacity);
+	}
+
+	private int getLoggerId(String loggerName) {
+		String name = (loggerName != null) ? loggerName : "";
+		Integer id = loggerIdMap.get(name);
+		if (id == null) {
+			id = loggerNames.size();
+			loggerIdMap.put(name, id);
+			loggerNames.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * 保持している最も古い行のシーケンス
+	 * @return
+	 */
+	public synchronized long getFirstSeq() {
+		return firstSeq;
+	}
+
+	/**
+	 * 次に追加される行のシーケンス
+	 * @return
+	 */
+	public synchronized long getNextSeq() {
+		return nextSeq;
+	}
+
+	/**
+	 * これまでに現れたロガーの数.<br>
+	 * ロガーのIDは0から、この数の手前までとなる.
+	 * @return
+	 */
+	public synchronized int getLoggerCount() {
+		return loggerNames.size();
+	}
+
+	/**
+	 * ロガーのIDからロガー名を取得する.
+	 * @param loggerId ロガーのID
+	 * @return ロガー名
+	 */
+	public synchronized String getLoggerName(int loggerId) {
+		return loggerNames.get(loggerId);
+	}
+
+	/**
+	 * 行の文字列を取得する.
+	 * @param seq シーケンス
+	 * @return 文字列、すでに上書きされている場合はnull
+	 */
+	public synchronized String getText(long seq) {
+		if (seq < firstSeq || seq >= nextSeq) {
+			return null;
+		}
+		int slot = slot(seq);
+		int len = textLengths[slot];
+		int pos = (int) (textOffsets[slot] % textCapacity);
+		if (pos + len <= textCapacity) {
+			return new String(text, pos, len);
+		}
+		int head = textCapacity - pos;
+		StringBuilder buf = new StringBuilder(len);
+		buf.append(text, pos, head);
+		buf.append(text, 0, len - head);
+		return buf.toString();
+	}
+
+	/**
+	 * 行のレベルとロガーのIDを配列にコピーする.<br>
+	 * 上書きされている範囲は除かれる.
+	 * @param fromSeq 開始するシーケンス
+	 * @param toSeq 終了するシーケンス(含まない)
+	 * @param levelsOut レベルを受け取る配列、(toSeq - fromSeq)以上の長さであること
+	 * @param loggerIdsOut ロガーのIDを受け取る配列、(toSeq - fromSeq)以上の長さであること
+	 * @return コピーした最初のシーケンス、(これ以降がtoSeqの手前まで、配列の先頭からコピーされる)
+	 */
+	public synchronized long copyAttributes(long fromSeq, long toSeq,
+			int[] levelsOut, int[] loggerIdsOut) {
+		long st = Math.max(fromSeq, firstSeq);
+		long end = Math.min(toSeq, nextSeq);
+		int idx = 0;
+		for (long seq = st; seq < end; seq++) {
+			int slot = slot(seq);
+			levelsOut[idx] = levels[slot];
+			loggerIdsOut[idx] = loggerIds[slot];
+			idx++;
+		}
+		return st;
+	}
+
+	/**
+	 * すべての行を捨てる.<br>
+	 * シーケンスは継続する.
+	 */
+	public synchronized void clear() {
+		firstSeq = nextSeq;
+	}
+}
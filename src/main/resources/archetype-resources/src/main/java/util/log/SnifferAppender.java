@@ -0,0 +1,83 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import java.io.Serializable;
+
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Layout;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginElement;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+
+/**
+ * ログイベントをレイアウトで文字列にして、{@link LogRingBuffer}に書き込むアペンダ.<br>
+ * アプリケーション内のログコンソールで表示するために使う.<br>
+ * log4j2.xmlでは以下のように定義する.
+ * <pre>
+ * &lt;Sniffer name="Sniffer"&gt;
+ *     &lt;PatternLayout pattern="..." /&gt;
+ * &lt;/Sniffer&gt;
+ * </pre>
+ * 書き込みはリングバッファへのコピーだけであり、満杯の場合は古い行を上書きするため待つことはない.<br>
+ */
+@Plugin(name = "Sniffer", category = "Core", elementType = "appender", printObject = true)
+public final class SnifferAppender extends AbstractAppender {
+
+	private static final long serialVersionUID = 1L;
+
+	private final LogRingBuffer buffer;
+
+	/**
+	 * 書き込み先のリングバッファを指定して構築する.
+	 * @param name アペンダ名
+	 * @param filter フィルタ、null可
+	 * @param layout レイアウト
+	 * @param buffer 書き込み先のリングバッファ
+	 */
+	public SnifferAppender(String name, Filter filter,
+			Layout<? extends Serializable> layout, LogRingBuffer buffer) {
+		super(name, filter, layout, true);
+		this.buffer = buffer;
+	}
+
+	/**
+	 * log4j2.xmlの定義からアペンダを作成する.<br>
+	 * 書き込み先は{@link LogRingBuffer${symbol_pound}getDefault()}となる.
+	 * @param name アペンダ名
+	 * @param layout レイアウト、省略時は既定のパターン
+	 * @param filter フィルタ
+	 * @return アペンダ
+	 */
+	@PluginFactory
+	public static SnifferAppender createAppender(
+			@PluginAttribute("name") String name,
+			@PluginElement("Layout") Layout<? extends Serializable> layout,
+			@PluginElement("Filter") Filter filter) {
+		if (name == null) {
+			LOGGER.error("No name provided for SnifferAppender");
+			return null;
+		}
+		if (layout == null) {
+			layout = PatternLayout.createDefaultLayout();
+		}
+		return new SnifferAppender(name, filter, layout, LogRingBuffer.getDefault());
+	}
+
+	@Override
+	public void append(LogEvent event) {
+		Serializable formatted = getLayout().toSerializable(event);
+		CharSequence line = (formatted instanceof CharSequence)
+				? (CharSequence) formatted : String.valueOf(formatted);
+		buffer.add(event.getLevel().intLevel(), event.getLoggerName(), line);
+	}
+
+	public LogRingBuffer getBuffer() {
+		return buffer;
+	}
+}
@@ -0,0 +1,170 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * 型付きの設定のキー.<br>
+ * キー名、値の型、既定値と、文字列との変換方法をまとめたもの.<br>
+ * {@link AbstractPreferences${symbol_pound}get(PreferenceKey)}で取得した値は、
+ * 設定の文字列が変わるまで解析済みの値がキャッシュされる.<br>
+ * キー名、型、既定値が等しいキーは等価として扱われる.<br>
+ * @param <T> 値の型
+ */
+public final class PreferenceKey<T> {
+
+	private final String name;
+
+	private final Class<T> type;
+
+	private final T defaultValue;
+
+	/**
+	 * 文字列から値への変換、解釈できない場合は例外またはnullを返す
+	 */
+	private final Function<String, T> parser;
+
+	/**
+	 * 値から文字列への変換
+	 */
+	private final Function<T, String> formatter;
+
+	private PreferenceKey(String name, Class<T> type, T defaultValue,
+			Function<String, T> parser, Function<T, String> formatter) {
+		this.name = Objects.requireNonNull(name);
+		this.type = Objects.requireNonNull(type);
+		this.defaultValue = defaultValue;
+		this.parser = Objects.requireNonNull(parser);
+		this.formatter = Objects.requireNonNull(formatter);
+	}
+
+	/**
+	 * 変換方法を指定してキーを作成する.
+	 * @param name キー名
+	 * @param type 値の型
+	 * @param defaultValue 既定値、null可
+	 * @param parser 文字列から値への変換、解釈できない場合は例外またはnullを返す
+	 * @param formatter 値から文字列への変換
+	 * @return キー
+	 */
+	public static <T> PreferenceKey<T> of(String name, Class<T> type, T defaultValue,
+			Function<String, T> parser, Function<T, String> formatter) {
+		return new PreferenceKey<>(name, type, defaultValue, parser, formatter);
+	}
+
+	public static PreferenceKey<String> ofString(String name, String defaultValue) {
+		return of(name, String.class, defaultValue, Function.identity(), Function.identity());
+	}
+
+	public static PreferenceKey<Integer> ofInt(String name, int defaultValue) {
+		return of(name, Integer.class, defaultValue, str -> Integer.valueOf(str.trim()),
+				Object::toString);
+	}
+
+	public static PreferenceKey<Long> ofLong(String name, long defaultValue) {
+		return of(name, Long.class, defaultValue, str -> Long.valueOf(str.trim()),
+				Object::toString);
+	}
+
+	public static PreferenceKey<Double> ofDouble(String name, double defaultValue) {
+		return of(name, Double.class, defaultValue, Double::valueOf, Object::toString);
+	}
+
+	public static PreferenceKey<Boolean> ofBoolean(String name, boolean defaultValue) {
+		return of(name, Boolean.class, defaultValue, Boolean::valueOf, Object::toString);
+	}
+
+	/**
+	 * パスのキーを作成する.<br>
+	 * 空文字の場合は既定値となる.
+	 * @param name キー名
+	 * @param defaultValue 既定値、null可
+	 * @return キー
+	 */
+	public static PreferenceKey<Path> ofPath(String name, Path defaultValue) {
+		return of(name, Path.class, defaultValue,
+				str -> str.trim().isEmpty() ? null : Paths.get(str.trim()),
+				Object::toString);
+	}
+
+	/**
+	 * 列挙型のキーを作成する.<br>
+	 * 値は列挙子の名前として保存する.
+	 * @param name キー名
+	 * @param defaultValue 既定値
+	 * @return キー
+	 */
+	public static <E extends Enum<E>> PreferenceKey<E> ofEnum(String name, E defaultValue) {
+		Class<E> type = defaultValue.getDeclaringClass();
+		return of(name, type, defaultValue, str -> Enum.valueOf(type, str.trim()), Enum::name);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<T> getType() {
+		return type;
+	}
+
+	public T getDefaultValue() {
+		return defaultValue;
+	}
+
+	/**
+	 * 文字列を値に変換する.
+	 * @param str 文字列、null可
+	 * @return 値、nullまたは解釈できない場合は既定値
+	 */
+	public T parse(String str) {
+		if (str != null) {
+			try {
+				T value = parser.apply(str);
+				if (value != null) {
+					return value;
+				}
+
+			} catch (RuntimeException ex) {
+				// 既定値とする
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * 値を文字列に変換する.
+	 * @param value 値、nullの場合は空文字
+	 * @return 文字列
+	 */
+	public String format(T value) {
+		return (value == null) ? "" : formatter.apply(value);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, type, defaultValue);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof PreferenceKey) {
+			PreferenceKey<?> o = (PreferenceKey<?>) obj;
+			return name.equals(o.name) && type.equals(o.type)
+					&& Objects.equals(defaultValue, o.defaultValue);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "PreferenceKey(" + name + ":" + type.getSimpleName() + "=" + defaultValue + ")";
+	}
+}
@@ -0,0 +1,115 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 設定の保存の統計情報のスナップショット.<br>
+ * 取得した時点の値であり、以降の変化は反映されない.<br>
+ */
+public final class PreferencesSaveStatistics {
+
+	private final long modifiedCount;
+
+	private final long saveCount;
+
+	private final long failedCount;
+
+	private final long lastSaveNanos;
+
+	private final long maxSaveNanos;
+
+	private final long totalSaveNanos;
+
+	private final boolean pending;
+
+	public PreferencesSaveStatistics(long modifiedCount, long saveCount,
+			long failedCount, long lastSaveNanos, long maxSaveNanos,
+			long totalSaveNanos, boolean pending) {
+		this.modifiedCount = modifiedCount;
+		this.saveCount = saveCount;
+		this.failedCount = failedCount;
+		this.lastSaveNanos = lastSaveNanos;
+		this.maxSaveNanos = maxSaveNanos;
+		this.totalSaveNanos = totalSaveNanos;
+		this.pending = pending;
+	}
+
+	/**
+	 * 値を変更した回数
+	 * @return
+	 */
+	public long getModifiedCount() {
+		return modifiedCount;
+	}
+
+	/**
+	 * 保存した回数(失敗を含む)
+	 * @return
+	 */
+	public long getSaveCount() {
+		return saveCount;
+	}
+
+	/**
+	 * 保存に失敗した回数
+	 * @return
+	 */
+	public long getFailedCount() {
+		return failedCount;
+	}
+
+	/**
+	 * 変更をまとめて保存したことにより省略された保存の回数.<br>
+	 * 変更ごとに保存した場合の回数と、実際の保存の回数の差である.
+	 * @return
+	 */
+	public long getSavesAvoided() {
+		return Math.max(0, modifiedCount - saveCount);
+	}
+
+	/**
+	 * 直近の保存の所要時間
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getLastSaveTime(TimeUnit unit) {
+		return unit.convert(lastSaveNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 保存の所要時間の最大
+	 * @param unit 単位
+	 * @return
+	 */
+	public long getMaxSaveTime(TimeUnit unit) {
+		return unit.convert(maxSaveNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * 保存の平均の所要時間(ミリ秒)
+	 * @return 保存したことがなければ0
+	 */
+	public double getAverageSaveMillis() {
+		return (saveCount > 0) ? totalSaveNanos / 1e6 / saveCount : 0d;
+	}
+
+	/**
+	 * 未保存の変更があるか?
+	 * @return
+	 */
+	public boolean isPending() {
+		return pending;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("modified=%d, saves=%d, failed=%d, avoided=%d, "
+				+ "lastSave=%.3fms, avgSave=%.3fms, maxSave=%.3fms, pending=%b",
+				modifiedCount, saveCount, failedCount, getSavesAvoided(),
+				lastSaveNanos / 1e6, getAverageSaveMillis(), maxSaveNanos / 1e6,
+				pending);
+	}
+}
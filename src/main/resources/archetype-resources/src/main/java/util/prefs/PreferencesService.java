@@ -8,6 +8,7 @@ import java.nio.file.Path;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PreDestroy;
@@ -15,19 +16,49 @@ import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 
 import ${package}.util.prefs.PriorityPropertiesManager.SimplePrioritySource;
+import ${package}.util.sys.ApplicationSettings;
 import ${package}.util.sys.DataFolderService;
 
 @Dependent
 public class PreferencesService extends AbstractPreferences {
 
+	/**
+	 * ユーザーごとの設定ファイルの保存形式
+	 */
+	public enum StoreFormat {
+
+		/**
+		 * XML({@link Properties${symbol_pound}storeToXML(java.io.OutputStream, String)})
+		 */
+		XML,
+
+		/**
+		 * バイナリ({@link BinaryPrioritySource})、XMLのファイルからは自動的に移行する
+		 */
+		BINARY
+	}
+
 	private static final Map<SimplePrioritySource, PriorityPropertiesManager> sharedProperties = new ConcurrentHashMap<>();
 
-	private PriorityPropertiesManager priorityPropertiesMgr;
+	private volatile PriorityPropertiesManager priorityPropertiesMgr;
 
 	private String fileNameForUser = "preferences.xml";
 
 	private String resourceNameForAllUser = null;
 
+	/**
+	 * 保存形式、app.propertiesまたはシステムプロパティのpreferences.storeFormatで設定する
+	 */
+	private StoreFormat storeFormat = ApplicationSettings.getEnum("preferences.storeFormat",
+			StoreFormat.XML);
+
+	/**
+	 * 他のプロセスによる設定ファイルの変更を監視して読み直すか?
+	 * app.propertiesまたはシステムプロパティのpreferences.watchChangesで設定する
+	 */
+	private boolean watchChanges = ApplicationSettings.getBoolean("preferences.watchChanges",
+			true);
+
 	@Inject
 	private DataFolderService dataFolderService;
 
@@ -48,6 +79,32 @@ public class PreferencesService extends AbstractPreferences {
 		this.resourceNameForAllUser = resourceNameForAllUser;
 	}
 
+	public StoreFormat getStoreFormat() {
+		return storeFormat;
+	}
+
+	public void setStoreFormat(StoreFormat storeFormat) {
+		Objects.requireNonNull(storeFormat);
+		this.storeFormat = storeFormat;
+	}
+
+	public boolean isWatchChanges() {
+		return watchChanges;
+	}
+
+	/**
+	 * 他のプロセスによる設定ファイルの変更を監視して読み直すか設定する.<br>
+	 * 設定ファイルを共有するマネージャが作成される前に設定すること.
+	 * @param watchChanges 監視する場合はtrue
+	 */
+	public void setWatchChanges(boolean watchChanges) {
+		this.watchChanges = watchChanges;
+	}
+
+	/**
+	 * 破棄処理.<br>
+	 * 遅延書き込みを待っている変更があれば、この時点で保存する.
+	 */
 	@PreDestroy
 	public void destroy() {
 		if (isModified()) {
@@ -58,21 +115,77 @@ public class PreferencesService extends AbstractPreferences {
 	protected SimplePrioritySource createPreferenceSource() {
 		Path path = dataFolderService.getApplicationDataFolder()
 				.resolve(fileNameForUser);
+		if (storeFormat == StoreFormat.BINARY) {
+			return new BinaryPrioritySource(resourceNameForAllUser, path);
+		}
 		return new SimplePrioritySource(resourceNameForAllUser, path);
 	}
 
-	protected synchronized void init() {
-		if (priorityPropertiesMgr == null) {
-			SimplePrioritySource source = createPreferenceSource();
-			priorityPropertiesMgr = sharedProperties.computeIfAbsent(source,
-					k -> new PriorityPropertiesManager(source));
+	/**
+	 * 設定を共有するマネージャを取得する.<br>
+	 * 初期化済みであればロックを取らない.<br>
+	 * マネージャを作成したときに、設定ファイルの監視を開始する.
+	 * @return マネージャ
+	 */
+	protected PriorityPropertiesManager init() {
+		PriorityPropertiesManager mgr = priorityPropertiesMgr;
+		if (mgr == null) {
+			synchronized (this) {
+				mgr = priorityPropertiesMgr;
+				if (mgr == null) {
+					SimplePrioritySource source = createPreferenceSource();
+					mgr = sharedProperties.computeIfAbsent(source, k -> {
+						PriorityPropertiesManager created = new PriorityPropertiesManager(source);
+						if (watchChanges) {
+							PreferencesFileWatcher.watch(created);
+						}
+						return created;
+					});
+					priorityPropertiesMgr = mgr;
+				}
+			}
 		}
+		return mgr;
 	}
 
 	@Override
 	public Properties getProperties() {
-		init();
-		return priorityPropertiesMgr.getProperties();
+		return init().getProperties();
+	}
+
+	/**
+	 * スナップショットからロックを取らずに取得する.
+	 */
+	@Override
+	protected String lookupProperty(String key) {
+		return init().getSnapshot().getProperty(key);
+	}
+
+	/**
+	 * スナップショットのソート済みのキーから取得する.
+	 */
+	@Override
+	protected Set<String> lookupPropertyNames(String prefix) {
+		return init().getSnapshot().getPropertyNamesStartsWith(prefix);
+	}
+
+	@Override
+	protected boolean storeProperty(String key, String value) {
+		return init().setProperty(key, value);
+	}
+
+	/**
+	 * 値の変更を受け取るリスナを登録する.<br>
+	 * 同じファイルを共有する、ほかの設定サービスからの変更も通知される.
+	 */
+	@Override
+	public void addPreferenceChangeListener(PreferenceChangeListener listener) {
+		init().addPreferenceChangeListener(listener);
+	}
+
+	@Override
+	public void removePreferenceChangeListener(PreferenceChangeListener listener) {
+		init().removePreferenceChangeListener(listener);
 	}
 
 	@Override
@@ -0,0 +1,98 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ${package}.util.concurrent.InstrumentedThreadPoolExecutor.NamedThreadFactory;
+
+/**
+ * {@link AbstractPreferences}の遅延書き込みを行うスレッドと、
+ * JVM終了時に未保存の設定を書き込むシャットダウンフックを管理する.<br>
+ * すべての設定で1つのデーモンスレッドを共有する.<br>
+ */
+final class PreferencesWriteBehind {
+
+	private static final Logger logger = LoggerFactory.getLogger(PreferencesWriteBehind.class);
+
+	/**
+	 * 遅延書き込みを行うスレッド
+	 */
+	private static final ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * 未保存の変更がある設定
+	 */
+	private static final Set<AbstractPreferences> pendings = ConcurrentHashMap.newKeySet();
+
+	static {
+		scheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("prefsWriter", true));
+		scheduler.setRemoveOnCancelPolicy(true);
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+		Runtime.getRuntime().addShutdownHook(
+				new Thread(PreferencesWriteBehind::flushAll, "prefsShutdownFlush"));
+	}
+
+	/**
+	 * プライベートコンストラクタ
+	 */
+	private PreferencesWriteBehind() {
+		super();
+	}
+
+	/**
+	 * 遅延書き込みを予約する.
+	 * @param task 書き込み処理
+	 * @param delayNanos 遅延時間(ナノ秒)
+	 */
+	static void schedule(Runnable task, long delayNanos) {
+		try {
+			scheduler.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+
+		} catch (RejectedExecutionException ex) {
+			// JVMの終了処理中であれば、呼び出し元で保存する
+			logger.warn("write-behind scheduler is already shutdown.");
+		}
+	}
+
+	/**
+	 * 未保存の変更がある設定として、JVM終了時の書き込み対象とする.
+	 * @param prefs 設定
+	 */
+	static void pending(AbstractPreferences prefs) {
+		pendings.add(prefs);
+	}
+
+	/**
+	 * 書き込みが完了した設定をJVM終了時の書き込み対象から外す.
+	 * @param prefs 設定
+	 */
+	static void done(AbstractPreferences prefs) {
+		pendings.remove(prefs);
+	}
+
+	/**
+	 * 未保存の変更のある、すべての設定を書き込む.<br>
+	 * JVMのシャットダウンフックから呼び出される.
+	 */
+	private static void flushAll() {
+		scheduler.shutdownNow();
+		for (AbstractPreferences prefs : pendings) {
+			try {
+				prefs.flush();
+
+			} catch (RuntimeException ex) {
+				logger.error("failed to flush preferences at shutdown. " + prefs, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,176 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 優先順位ごとのプロパティを平坦化した、変更不可のスナップショット.<br>
+ * 読み込みはロックを取らずに複数のスレッドから行える.<br>
+ * 値の変更は、変更を反映した新しいスナップショットを作成して置き換える(コピーオンライト).
+ * 変更のたびに全体を複製しないように、直近の変更は小さな差分として保持し、
+ * 差分が一定の件数を超えたときに全体に統合する.<br>
+ * キーの前方一致による検索は、ソート済みのキーの配列を二分探索して求める.
+ * ソート済みの配列は全体に統合されるまで共有される.<br>
+ */
+public final class PropertiesSnapshot {
+
+	/**
+	 * 全体に統合するまでの差分の最大件数
+	 */
+	private static final int MAX_OVERLAY = 64;
+
+	private static final String[] EMPTY = new String[0];
+
+	/**
+	 * 全体(変更不可)
+	 */
+	private static final class Base {
+
+		final Map<String, String> values;
+
+		/**
+		 * ソート済みのキー、未作成ならばnull
+		 */
+		volatile String[] sortedKeys;
+
+		Base(Map<String, String> values) {
+			this.values = values;
+		}
+
+		String[] getSortedKeys() {
+			String[] keys = sortedKeys;
+			if (keys == null) {
+				// 競合した場合は複数回作成されるが、結果は同じであるため問題ない
+				keys = values.keySet().toArray(EMPTY);
+				Arrays.sort(keys);
+				sortedKeys = keys;
+			}
+			return keys;
+		}
+	}
+
+	private final Base base;
+
+	/**
+	 * 全体に統合されていない変更(変更不可)
+	 */
+	private final Map<String, String> overlay;
+
+	/**
+	 * 差分のうち全体にないキー(ソート済み)
+	 */
+	private final String[] addedKeys;
+
+	private PropertiesSnapshot(Base base, Map<String, String> overlay) {
+		this.base = base;
+		this.overlay = overlay;
+		this.addedKeys = overlay.keySet().stream()
+				.filter(key -> !base.values.containsKey(key))
+				.sorted()
+				.toArray(String[]::new);
+	}
+
+	/**
+	 * プロパティを平坦化したスナップショットを作成する.<br>
+	 * 既定値として連結されたプロパティも含める.
+	 * @param props プロパティ
+	 * @return スナップショット
+	 */
+	public static PropertiesSnapshot of(Properties props) {
+		Set<String> names = props.stringPropertyNames();
+		Map<String, String> values = new HashMap<>(names.size() * 4 / 3 + 1);
+		for (String name : names) {
+			values.put(name, props.getProperty(name));
+		}
+		return new PropertiesSnapshot(new Base(values), Collections.emptyMap());
+	}
+
+	/**
+	 * 値を変更したスナップショットを作成する.<br>
+	 * このスナップショット自身は変更されない.
+	 * @param key キー
+	 * @param value 値
+	 * @return 新しいスナップショット
+	 */
+	public PropertiesSnapshot with(String key, String value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		if (overlay.size() >= MAX_OVERLAY) {
+			Map<String, String> values = new HashMap<>(base.values);
+			values.putAll(overlay);
+			values.put(key, value);
+			return new PropertiesSnapshot(new Base(values), Collections.emptyMap());
+		}
+		Map<String, String> values = new HashMap<>(overlay);
+		values.put(key, value);
+		return new PropertiesSnapshot(base, values);
+	}
+
+	/**
+	 * 値を取得する.
+	 * @param key キー
+	 * @return 値、なければnull
+	 */
+	public String getProperty(String key) {
+		String value = overlay.get(key);
+		if (value == null) {
+			value = base.values.get(key);
+		}
+		return value;
+	}
+
+	/**
+	 * キーの数
+	 * @return
+	 */
+	public int size() {
+		return base.values.size() + addedKeys.length;
+	}
+
+	/**
+	 * 指定した接頭語で始まるキーを昇順で取得する.
+	 * @param prefix 接頭語、nullまたは空ならばすべて
+	 * @return キーの集合(昇順)
+	 */
+	public Set<String> getPropertyNamesStartsWith(String prefix) {
+		String[] baseKeys = base.getSortedKeys();
+		String pf = (prefix == null) ? "" : prefix;
+
+		int i = lowerBound(baseKeys, pf);
+		int j = lowerBound(addedKeys, pf);
+
+		Set<String> names = new LinkedHashSet<>();
+		for (;;) {
+			String a = (i < baseKeys.length && baseKeys[i].startsWith(pf)) ? baseKeys[i] : null;
+			String b = (j < addedKeys.length && addedKeys[j].startsWith(pf)) ? addedKeys[j] : null;
+			if (a == null && b == null) {
+				break;
+			}
+			if (b == null || (a != null && a.compareTo(b) < 0)) {
+				names.add(a);
+				i++;
+			} else {
+				names.add(b);
+				j++;
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * ソート済みの配列で、指定した値以上となる最初の位置を求める.
+	 */
+	private static int lowerBound(String[] keys, String key) {
+		int pos = Arrays.binarySearch(keys, key);
+		return (pos >= 0) ? pos : -(pos + 1);
+	}
+}
@@ -0,0 +1,482 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableColumnBase;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeTableColumn;
+import javafx.scene.control.TreeTableView;
+
+/**
+ * テーブルのカラムの幅、並び順、表示・非表示、ソート順をまとめて、1つの文字列として保存・復元する.<br>
+ * 形式は以下のとおり.(カラムは表示順に並び、子カラムは親カラムの後ろの[]内に並ぶ.)
+ * <pre>
+ * 1|+id,-id|id:幅:v,id:幅:h[id:幅:v,id:幅:v]
+ * </pre>
+ * 先頭はバージョン、次はソート順(+は昇順、-は降順)、最後がカラムである.
+ * フラグのvは表示、hは非表示を表す.
+ * idに区切り文字(<code>%|,:[]</code>)が含まれる場合は%XXの形式でエスケープする.<br>
+ * 解析は1文字ずつ読み進めて行い、正規表現や文字列の分割は用いない.<br>
+ * idのないカラムは、兄弟のidのないカラムの中での順序で対応付ける.<br>
+ */
+public final class TableColumnLayout {
+
+	/**
+	 * 形式のバージョン
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * カラムの状態
+	 */
+	private static final class ColumnState {
+
+		final String id;
+
+		final double width;
+
+		final boolean visible;
+
+		final List<ColumnState> children;
+
+		ColumnState(String id, double width, boolean visible, List<ColumnState> children) {
+			this.id = id;
+			this.width = width;
+			this.visible = visible;
+			this.children = children;
+		}
+	}
+
+	/**
+	 * ソートのキー
+	 */
+	private static final class SortKey {
+
+		final String id;
+
+		final boolean ascending;
+
+		SortKey(String id, boolean ascending) {
+			this.id = id;
+			this.ascending = ascending;
+		}
+	}
+
+	private final List<ColumnState> columns;
+
+	private final List<SortKey> sortKeys;
+
+	private TableColumnLayout(List<ColumnState> columns, List<SortKey> sortKeys) {
+		this.columns = columns;
+		this.sortKeys = sortKeys;
+	}
+
+	/**
+	 * テーブルビューの現在のカラムの状態を取得する.
+	 * @param tableView テーブルビュー
+	 * @return カラムの状態
+	 */
+	public static TableColumnLayout of(TableView<?> tableView) {
+		Objects.requireNonNull(tableView);
+		List<SortKey> sortKeys = new ArrayList<>();
+		for (TableColumn<?, ?> column : tableView.getSortOrder()) {
+			if (isNamed(column)) {
+				sortKeys.add(new SortKey(column.getId(),
+						column.getSortType() == TableColumn.SortType.ASCENDING));
+			}
+		}
+		return new TableColumnLayout(captureColumns(tableView.getColumns()), sortKeys);
+	}
+
+	/**
+	 * ツリーテーブルビューの現在のカラムの状態を取得する.
+	 * @param treeTableView ツリーテーブルビュー
+	 * @return カラムの状態
+	 */
+	public static TableColumnLayout of(TreeTableView<?> treeTableView) {
+		Objects.requireNonNull(treeTableView);
+		List<SortKey> sortKeys = new ArrayList<>();
+		for (TreeTableColumn<?, ?> column : treeTableView.getSortOrder()) {
+			if (isNamed(column)) {
+				sortKeys.add(new SortKey(column.getId(),
+						column.getSortType() == TreeTableColumn.SortType.ASCENDING));
+			}
+		}
+		return new TableColumnLayout(captureColumns(treeTableView.getColumns()), sortKeys);
+	}
+
+	private static List<ColumnState> captureColumns(List<? extends TableColumnBase<?, ?>> cols) {
+		List<ColumnState> states = new ArrayList<>(cols.size());
+		for (TableColumnBase<?, ?> col : cols) {
+			String id = isNamed(col) ? col.getId() : "";
+			List<ColumnState> children = col.getColumns().isEmpty()
+					? Collections.emptyList() : captureColumns(col.getColumns());
+			states.add(new ColumnState(id, col.getWidth(), col.isVisible(), children));
+		}
+		return states;
+	}
+
+	private static boolean isNamed(TableColumnBase<?, ?> col) {
+		String id = col.getId();
+		return id != null && !id.trim().isEmpty();
+	}
+
+	/**
+	 * テーブルビューにカラムの状態を復元する.<br>
+	 * カラムの並び順、幅、表示・非表示、ソート順を1回の走査で適用する.
+	 * 保存されていないカラムは、既存の並び順のまま後ろに置かれる.
+	 * @param tableView テーブルビュー
+	 */
+	public <S> void applyTo(TableView<S> tableView) {
+		Objects.requireNonNull(tableView);
+		Map<String, TableColumn<S, ?>> named = new HashMap<>();
+		applyColumns(tableView.getColumns(), columns, named);
+
+		List<TableColumn<S, ?>> sortOrder = new ArrayList<>();
+		for (SortKey sortKey : sortKeys) {
+			TableColumn<S, ?> column = named.get(sortKey.id);
+			if (column != null) {
+				column.setSortType(sortKey.ascending
+						? TableColumn.SortType.ASCENDING : TableColumn.SortType.DESCENDING);
+				sortOrder.add(column);
+			}
+		}
+		tableView.getSortOrder().setAll(sortOrder);
+	}
+
+	/**
+	 * ツリーテーブルビューにカラムの状態を復元する.<br>
+	 * カラムの並び順、幅、表示・非表示、ソート順を1回の走査で適用する.
+	 * 保存されていないカラムは、既存の並び順のまま後ろに置かれる.
+	 * @param treeTableView ツリーテーブルビュー
+	 */
+	public <S> void applyTo(TreeTableView<S> treeTableView) {
+		Objects.requireNonNull(treeTableView);
+		Map<String, TreeTableColumn<S, ?>> named = new HashMap<>();
+		applyColumns(treeTableView.getColumns(), columns, named);
+
+		List<TreeTableColumn<S, ?>> sortOrder = new ArrayList<>();
+		for (SortKey sortKey : sortKeys) {
+			TreeTableColumn<S, ?> column = named.get(sortKey.id);
+			if (column != null) {
+				column.setSortType(sortKey.ascending
+						? TreeTableColumn.SortType.ASCENDING
+						: TreeTableColumn.SortType.DESCENDING);
+				sortOrder.add(column);
+			}
+		}
+		treeTableView.getSortOrder().setAll(sortOrder);
+	}
+
+	/**
+	 * 兄弟のカラムに状態を適用し、子カラムに再帰する.
+	 * @param cols 兄弟のカラム
+	 * @param states 兄弟のカラムの状態
+	 * @param named idのあるカラムの登録先(ソート順の復元に用いる)
+	 */
+	@SuppressWarnings("unchecked")
+	private static <C extends TableColumnBase<?, ?>, N> void applyColumns(ObservableList<C> cols,
+			List<ColumnState> states, Map<String, N> named) {
+		Map<String, C> byId = new HashMap<>();
+		ArrayDeque<C> unnamed = new ArrayDeque<>();
+		for (C col : cols) {
+			if (isNamed(col)) {
+				byId.put(col.getId(), col);
+				named.put(col.getId(), (N) col);
+			} else {
+				unnamed.add(col);
+			}
+		}
+
+		List<C> ordered = new ArrayList<>(cols.size());
+		Set<C> applied = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (ColumnState state : states) {
+			C col = state.id.isEmpty() ? unnamed.poll() : byId.remove(state.id);
+			if (col == null) {
+				continue; // 現在は存在しないカラム
+			}
+			ordered.add(col);
+			applied.add(col);
+			if (state.width > 0) {
+				col.setPrefWidth(state.width);
+			}
+			col.setVisible(state.visible);
+			if (!col.getColumns().isEmpty()) {
+				applyColumns(col.getColumns(), state.children, named);
+			}
+		}
+
+		// 保存されていないカラムは後ろに置き、子カラムのidは登録しておく
+		for (C col : cols) {
+			if (!applied.contains(col)) {
+				ordered.add(col);
+				if (!col.getColumns().isEmpty()) {
+					applyColumns(col.getColumns(), Collections.emptyList(), named);
+				}
+			}
+		}
+
+		if (!ordered.equals(cols)) {
+			cols.setAll(ordered);
+		}
+	}
+
+	/**
+	 * 以前の形式({@link WindowSizePersistent}のカラム幅のリスト)に変換する.<br>
+	 * 子をもつカラムは子の後に並び、idのない親カラムは含まれない.
+	 * @return カラム名とカラム幅のリスト
+	 */
+	public List<Map.Entry<String, Double>> getColumnWidths() {
+		List<Map.Entry<String, Double>> widths = new ArrayList<>();
+		collectWidths(columns, widths);
+		return widths;
+	}
+
+	private static void collectWidths(List<ColumnState> states,
+			List<Map.Entry<String, Double>> widths) {
+		for (ColumnState state : states) {
+			if (!state.children.isEmpty()) {
+				collectWidths(state.children, widths);
+				if (state.id.isEmpty()) {
+					continue;
+				}
+			}
+			widths.add(new AbstractMap.SimpleEntry<>(state.id, state.width));
+		}
+	}
+
+	/**
+	 * 文字列に変換する.
+	 * @return 文字列
+	 */
+	public String encode() {
+		StringBuilder buf = new StringBuilder(16 + columns.size() * 16);
+		buf.append(VERSION).append('|');
+		for (int idx = 0; idx < sortKeys.size(); idx++) {
+			if (idx > 0) {
+				buf.append(',');
+			}
+			SortKey sortKey = sortKeys.get(idx);
+			buf.append(sortKey.ascending ? '+' : '-');
+			escape(sortKey.id, buf);
+		}
+		buf.append('|');
+		encodeColumns(columns, buf);
+		return buf.toString();
+	}
+
+	private static void encodeColumns(List<ColumnState> states, StringBuilder buf) {
+		for (int idx = 0; idx < states.size(); idx++) {
+			if (idx > 0) {
+				buf.append(',');
+			}
+			ColumnState state = states.get(idx);
+			escape(state.id, buf);
+			buf.append(':');
+			double width = state.width;
+			if (width == Math.rint(width) && Math.abs(width) < 1e9) {
+				buf.append((long) width); // 整数であれば小数部を省く
+			} else {
+				buf.append(width);
+			}
+			buf.append(':').append(state.visible ? 'v' : 'h');
+			if (!state.children.isEmpty()) {
+				buf.append('[');
+				encodeColumns(state.children, buf);
+				buf.append(']');
+			}
+		}
+	}
+
+	private static void escape(String id, StringBuilder buf) {
+		for (int idx = 0; idx < id.length(); idx++) {
+			char ch = id.charAt(idx);
+			if (ch == '%' || ch == '|' || ch == ',' || ch == ':' || ch == '[' || ch == ']') {
+				buf.append('%').append(Character.toUpperCase(Character.forDigit(ch >> 4, 16)))
+						.append(Character.toUpperCase(Character.forDigit(ch & 0xf, 16)));
+			} else {
+				buf.append(ch);
+			}
+		}
+	}
+
+	/**
+	 * 保存された値がこの形式であるか判定する.<br>
+	 * 以前の形式(id:幅のカンマ区切り)は先頭が数字と|にはならない.
+	 * @param str 保存された値
+	 * @return この形式であればtrue
+	 */
+	public static boolean isLayoutRecord(String str) {
+		int pos = 0;
+		while (pos < str.length() && Character.isDigit(str.charAt(pos))) {
+			pos++;
+		}
+		return pos > 0 && pos < str.length() && str.charAt(pos) == '|';
+	}
+
+	/**
+	 * 文字列から復元する.
+	 * @param str 文字列
+	 * @return カラムの状態
+	 * @throws IllegalArgumentException 形式が不正か、未対応のバージョンの場合
+	 */
+	public static TableColumnLayout parse(String str) {
+		Objects.requireNonNull(str);
+		return new Parser(str).parse();
+	}
+
+	/**
+	 * 1文字ずつ読み進める解析器
+	 */
+	private static final class Parser {
+
+		private final String str;
+
+		private int pos;
+
+		Parser(String str) {
+			this.str = str;
+		}
+
+		TableColumnLayout parse() {
+			int version = 0;
+			int st = pos;
+			while (pos < str.length() && Character.isDigit(str.charAt(pos))) {
+				version = version * 10 + (str.charAt(pos++) - '0');
+			}
+			if (pos == st || version != VERSION) {
+				throw error("unsupported version");
+			}
+			expect('|');
+
+			List<SortKey> sortKeys = new ArrayList<>();
+			while (peek() != '|') {
+				if (!sortKeys.isEmpty()) {
+					expect(',');
+				}
+				char dir = next();
+				if (dir != '+' && dir != '-') {
+					throw error("invalid sort direction");
+				}
+				sortKeys.add(new SortKey(readId(), dir == '+'));
+			}
+			expect('|');
+
+			List<ColumnState> columns = parseColumns();
+			if (pos != str.length()) {
+				throw error("unexpected character");
+			}
+			return new TableColumnLayout(columns, sortKeys);
+		}
+
+		private List<ColumnState> parseColumns() {
+			List<ColumnState> states = new ArrayList<>();
+			while (pos < str.length() && peek() != ']') {
+				if (!states.isEmpty()) {
+					expect(',');
+				}
+				String id = readId();
+				expect(':');
+				double width = readWidth();
+				expect(':');
+				char flag = next();
+				if (flag != 'v' && flag != 'h') {
+					throw error("invalid visible flag");
+				}
+				List<ColumnState> children = Collections.emptyList();
+				if (pos < str.length() && peek() == '[') {
+					pos++;
+					children = parseColumns();
+					expect(']');
+				}
+				states.add(new ColumnState(id, width, flag == 'v', children));
+			}
+			return states;
+		}
+
+		private String readId() {
+			StringBuilder buf = null;
+			int st = pos;
+			while (pos < str.length()) {
+				char ch = str.charAt(pos);
+				if (ch == '|' || ch == ',' || ch == ':' || ch == '[' || ch == ']') {
+					break;
+				}
+				if (ch == '%') {
+					if (buf == null) {
+						buf = new StringBuilder().append(str, st, pos);
+					}
+					int hi = pos + 2 < str.length() ? Character.digit(str.charAt(pos + 1), 16) : -1;
+					int lo = hi >= 0 ? Character.digit(str.charAt(pos + 2), 16) : -1;
+					if (lo < 0) {
+						throw error("invalid escape");
+					}
+					buf.append((char) (hi << 4 | lo));
+					pos += 3;
+				} else {
+					if (buf != null) {
+						buf.append(ch);
+					}
+					pos++;
+				}
+			}
+			return buf != null ? buf.toString() : str.substring(st, pos);
+		}
+
+		private double readWidth() {
+			int st = pos;
+			while (pos < str.length() && str.charAt(pos) != ':') {
+				pos++;
+			}
+			try {
+				return Double.parseDouble(str.substring(st, pos));
+
+			} catch (NumberFormatException ex) {
+				throw error("invalid width");
+			}
+		}
+
+		private char peek() {
+			if (pos >= str.length()) {
+				throw error("unexpected end");
+			}
+			return str.charAt(pos);
+		}
+
+		private char next() {
+			char ch = peek();
+			pos++;
+			return ch;
+		}
+
+		private void expect(char expected) {
+			if (next() != expected) {
+				pos--;
+				throw error("'" + expected + "' expected");
+			}
+		}
+
+		private IllegalArgumentException error(String msg) {
+			return new IllegalArgumentException(msg + " at " + pos + ": " + str);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return encode();
+	}
+}
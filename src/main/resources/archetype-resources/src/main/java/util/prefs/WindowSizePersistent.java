@@ -6,14 +6,18 @@ package ${package}.util.prefs;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Properties;
-import java.util.function.BiPredicate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.enterprise.context.Dependent;
@@ -23,21 +27,35 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.collections.ObservableList;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.SplitPane;
+import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableColumnBase;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TreeTableColumn;
 import javafx.scene.control.TreeTableView;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
-import javafx.util.Pair;
+import javafx.util.Duration;
+import ${package}.ui.common.RenderScaleSupport;
+import ${package}.util.sys.ApplicationSettings;
 
 /**
  * ウィンドウサイズ、および分割ペインの分割サイズを保存・復元する.<br>
+ * {@link ${symbol_pound}startTracking(Stage)}により、ウィンドウの位置やサイズ、分割サイズ、カラム幅の変更を監視して、
+ * 変更が落ち着いた時点で随時保存することもできる.
+ * 設定ファイルへの書き込みは設定の遅延書き込みによりバックグラウンドで行われるため、
+ * 異常終了してもレイアウトは失われず、ウィンドウを閉じるときの保存もほとんど変更がない.<br>
+ * ウィンドウの位置とサイズは、スクリーン構成(モニタの配置、解像度、スケール)ごとに保存される.<br>
  */
 @Dependent
 public class WindowSizePersistent {
@@ -51,50 +69,534 @@ public class WindowSizePersistent {
 
 	private String prefix = "default";
 
+	/**
+	 * レイアウトの最後の変更から保存するまでの待ち時間.<br>
+	 * app.propertiesまたはシステムプロパティのwindowSize.trackDelayMillisで設定する.
+	 * 0以下ならば変更を監視しない.
+	 */
+	private final Duration trackDelay = Duration.millis(
+			ApplicationSettings.getLong("windowSize.trackDelayMillis", 500));
+
+	/**
+	 * 変更が続いている場合でも、最初の変更から保存するまでの最大の待ち時間(ナノ秒).<br>
+	 * app.propertiesまたはシステムプロパティのwindowSize.trackMaxDelayMillisで設定する.
+	 */
+	private final long trackMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+			ApplicationSettings.getLong("windowSize.trackMaxDelayMillis", 3000));
+
+	/**
+	 * 変更を監視しているステージ、監視していなければnull
+	 */
+	private Stage trackingStage;
+
+	/**
+	 * 変更を監視しているノードツリーの索引
+	 */
+	private PersistableNodeIndex trackingIndex;
+
+	/**
+	 * 監視のためにシーンに登録したリスナを解除する処理
+	 */
+	private final List<Runnable> trackingDisposers = new ArrayList<>();
+
+	/**
+	 * 監視しているノード(分割ペイン、テーブル)ごとの、登録したリスナを解除する処理
+	 */
+	private final Map<Node, List<Runnable>> trackedNodes = new IdentityHashMap<>();
+
+	/**
+	 * 保存を遅延させるタイマー
+	 */
+	private PauseTransition trackTimer;
+
+	/**
+	 * 未保存の最初の変更の時刻、未保存の変更がなければ0
+	 */
+	private long firstChangeNanos;
+
+	/**
+	 * ノードツリーの構成の変更により、リスナの登録し直しを予約済みか?
+	 */
+	private boolean updatePending;
+
+	/**
+	 * シーンまたはルートが変わったため、すべてのリスナの登録し直しが必要か?
+	 */
+	private boolean reattachAll;
+
+	/**
+	 * 索引が無効になったため、監視するノードの追加・削除が必要か?
+	 */
+	private boolean indexChanged;
+
+	/**
+	 * 分割数やカラムの構成が変わったため、リスナの登録し直しが必要なノード
+	 */
+	private final Set<Node> changedNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * 位置、サイズ、分割サイズ、カラム幅の変更
+	 */
+	private final InvalidationListener layoutListener = obs -> onLayoutChanged();
+
+	/**
+	 * シーン、ルートの変更
+	 */
+	private final InvalidationListener structureListener = obs -> onStructureChanged();
+
+	/**
+	 * ノードツリーの索引の無効化
+	 */
+	private final Runnable indexListener = this::onIndexInvalidated;
+
+	/**
+	 * タイトルバーとみなす、ウィンドウの上端からの高さ.<br>
+	 * 復元する位置でこの範囲がいずれかのスクリーンに表示されていなければ、プライマリスクリーンの中央に配置する.
+	 */
+	private static final double TITLE_BAR_HEIGHT = 32;
+
+	/**
+	 * ウィンドウの最大化、位置、サイズのキー
+	 */
+	private static final class GeometryKeys {
+
+		final PreferenceKey<Boolean> maximized;
+
+		final PreferenceKey<Double> x;
+
+		final PreferenceKey<Double> y;
+
+		final PreferenceKey<Double> width;
+
+		final PreferenceKey<Double> height;
+
+		GeometryKeys(String keyPrefix) {
+			maximized = PreferenceKey.ofBoolean(keyPrefix + ".maximized", false);
+			x = PreferenceKey.ofDouble(keyPrefix + ".x", 0);
+			y = PreferenceKey.ofDouble(keyPrefix + ".y", 0);
+			width = PreferenceKey.ofDouble(keyPrefix + ".width", 0);
+			height = PreferenceKey.ofDouble(keyPrefix + ".height", 0);
+		}
+	}
+
+	/**
+	 * スクリーン構成によらない、最後に保存したウィンドウの位置とサイズのキー.<br>
+	 * 現在のスクリーン構成での位置とサイズが保存されていない場合に用いる.
+	 */
+	private GeometryKeys defaultKeys;
+
+	/**
+	 * スクリーン構成の識別子ごとのウィンドウの位置とサイズのキー
+	 */
+	private final Map<String, GeometryKeys> screenKeys = new HashMap<>();
+
+	{
+		initKeys();
+	}
+
 	public String getPrefix() {
 		return prefix;
 	}
 
 	public void setPrefix(String prefix) {
 		this.prefix = prefix;
+		initKeys();
+	}
+
+	private void initKeys() {
+		defaultKeys = new GeometryKeys(prefix);
+		screenKeys.clear();
+	}
+
+	/**
+	 * 現在のスクリーン構成(スクリーンの配置、解像度、スケール)でのウィンドウの位置とサイズのキー.<br>
+	 * スクリーン構成の識別子ごとに一度だけ作成する.
+	 * @return キー
+	 */
+	private GeometryKeys getScreenKeys() {
+		String configId = RenderScaleSupport.getScreenConfigurationId();
+		return screenKeys.computeIfAbsent(configId,
+				id -> new GeometryKeys(prefix + ".screen." + id));
+	}
+
+	/**
+	 * 復元に用いるキー.<br>
+	 * 現在のスクリーン構成で保存されていれば、そのキーとする.
+	 * @return キー
+	 */
+	private GeometryKeys getRestoreKeys() {
+		GeometryKeys keys = getScreenKeys();
+		if (preferencesService.get(keys.width) > 10) {
+			return keys;
+		}
+		return defaultKeys;
 	}
 
 	/**
-	 * ウィンドウサイズを復元します.
+	 * 保存されているウィンドウの位置とサイズを、現在のスクリーンに収まるように補正して取得する.
+	 * @param keys キー
+	 * @return 位置とサイズ、保存されていなければnull
+	 */
+	private Rectangle2D loadBounds(GeometryKeys keys) {
+		double x = preferencesService.get(keys.x);
+		double y = preferencesService.get(keys.y);
+		double width = preferencesService.get(keys.width);
+		double height = preferencesService.get(keys.height);
+		if (width > 10 && height > 10) {
+			return fitToScreens(x, y, width, height);
+		}
+		return null;
+	}
+
+	/**
+	 * ウィンドウの位置とサイズを、表示可能なスクリーンに収まるように補正する.<br>
+	 * タイトルバーが表示されるスクリーンがあれば、そのスクリーンの作業領域に収まるようにサイズと上端を補正する.
+	 * (左右のモニタにまたがる位置や、負の座標にあるモニタへの配置はそのまま復元される.)
+	 * タイトルバーが表示されるスクリーンがなければ(モニタが外された場合など)、
+	 * プライマリスクリーンの中央に配置する.
+	 */
+	private static Rectangle2D fitToScreens(double x, double y, double width, double height) {
+		List<Screen> screens = Screen.getScreensForRectangle(x, y, width, TITLE_BAR_HEIGHT);
+		if (screens.isEmpty()) {
+			Rectangle2D vb = Screen.getPrimary().getVisualBounds();
+			double w = Math.min(width, vb.getWidth());
+			double h = Math.min(height, vb.getHeight());
+			return new Rectangle2D(vb.getMinX() + (vb.getWidth() - w) / 2,
+					vb.getMinY() + (vb.getHeight() - h) / 2, w, h);
+		}
+		Rectangle2D vb = screens.get(0).getVisualBounds();
+		double w = Math.min(width, vb.getWidth());
+		double h = Math.min(height, vb.getHeight());
+		return new Rectangle2D(x, Math.max(y, vb.getMinY()), w, h);
+	}
+
+	/**
+	 * ウィンドウの位置とサイズを、現在のスクリーン構成のキーと、スクリーン構成によらないキーの双方に保存する.
+	 */
+	private void storeGeometry(boolean maximized, double x, double y, double width,
+			double height) {
+		for (GeometryKeys keys : Arrays.asList(getScreenKeys(), defaultKeys)) {
+			preferencesService.set(keys.maximized, maximized);
+			if (!maximized) {
+				// 最大化中は、最大化を解除したときの位置とサイズを残す
+				preferencesService.set(keys.x, x);
+				preferencesService.set(keys.y, y);
+				preferencesService.set(keys.width, width);
+				preferencesService.set(keys.height, height);
+			}
+		}
+	}
+
+	/**
+	 * ステージの位置とサイズ、ノードツリー内の分割サイズとカラム幅の変更の監視を開始します.<br>
+	 * 変更が落ち着くか最大の待ち時間が経過した時点で{@link ${symbol_pound}saveWindowSize(Stage)}を行います.<br>
+	 * ノードツリーの構成が変わった場合は、監視するノードを登録し直します.<br>
+	 * すでに別のステージを監視している場合は、その監視を終了します.<br>
+	 * 待ち時間が0以下に設定されている場合は何もしません.
+	 * @param stg ステージ
+	 */
+	public void startTracking(Stage stg) {
+		Objects.requireNonNull(stg);
+		assert Platform.isFxApplicationThread();
+
+		stopTracking();
+		if (trackDelay.lessThanOrEqualTo(Duration.ZERO)) {
+			return;
+		}
+
+		trackingStage = stg;
+		trackTimer = new PauseTransition(trackDelay);
+		trackTimer.setOnFinished(evt -> captureLayout());
+
+		stg.xProperty().addListener(layoutListener);
+		stg.yProperty().addListener(layoutListener);
+		stg.widthProperty().addListener(layoutListener);
+		stg.heightProperty().addListener(layoutListener);
+		stg.maximizedProperty().addListener(layoutListener);
+		stg.sceneProperty().addListener(structureListener);
+
+		attachLayout();
+	}
+
+	/**
+	 * 変更の監視を終了します.<br>
+	 * 未保存の変更は保存されないため、必要であれば{@link ${symbol_pound}saveWindowSize(Stage)}を呼び出してください.
+	 */
+	public void stopTracking() {
+		assert Platform.isFxApplicationThread();
+
+		Stage stg = trackingStage;
+		if (stg == null) {
+			return;
+		}
+		detachLayout();
+		stg.xProperty().removeListener(layoutListener);
+		stg.yProperty().removeListener(layoutListener);
+		stg.widthProperty().removeListener(layoutListener);
+		stg.heightProperty().removeListener(layoutListener);
+		stg.maximizedProperty().removeListener(layoutListener);
+		stg.sceneProperty().removeListener(structureListener);
+
+		trackTimer.stop();
+		trackTimer = null;
+		trackingStage = null;
+		firstChangeNanos = 0;
+	}
+
+	/**
+	 * 現在のシーンのノードツリーの分割サイズとカラム幅にリスナを登録する.
+	 */
+	private void attachLayout() {
+		detachLayout();
+
+		Scene scene = trackingStage.getScene();
+		if (scene == null) {
+			return;
+		}
+		track(trackingDisposers, scene.rootProperty(), structureListener);
+
+		Parent root = scene.getRoot();
+		if (root == null) {
+			return;
+		}
+		trackingIndex = PersistableNodeIndex.of(root);
+		trackingIndex.addInvalidationListener(indexListener);
+		syncTrackedNodes();
+	}
+
+	/**
+	 * 索引にあるノードと監視しているノードを突き合わせ、
+	 * 索引からなくなったノードのリスナを解除し、新たに現れたノードにリスナを登録する.<br>
+	 * 引き続き索引にあるノードのリスナはそのままとする.
+	 */
+	private void syncTrackedNodes() {
+		Set<Node> current = Collections.newSetFromMap(new IdentityHashMap<>());
+		trackingIndex.getSplitPanes().forEach(entry -> current.add(entry.node));
+		trackingIndex.getTableViews().forEach(entry -> current.add(entry.node));
+		trackingIndex.getTreeTableViews().forEach(entry -> current.add(entry.node));
+
+		Iterator<Map.Entry<Node, List<Runnable>>> ite = trackedNodes.entrySet().iterator();
+		while (ite.hasNext()) {
+			Map.Entry<Node, List<Runnable>> tracked = ite.next();
+			if (!current.contains(tracked.getKey())) {
+				tracked.getValue().forEach(Runnable::run);
+				ite.remove();
+			}
+		}
+		for (Node node : current) {
+			if (!trackedNodes.containsKey(node)) {
+				attachNode(node);
+			}
+		}
+	}
+
+	/**
+	 * 分割ペインの分割サイズ、またはテーブルのカラム幅などにリスナを登録する.
+	 * @param node 分割ペイン、またはテーブル
+	 */
+	private void attachNode(Node node) {
+		List<Runnable> disposers = new ArrayList<>();
+		trackedNodes.put(node, disposers);
+		InvalidationListener nodeStructureListener = obs -> onNodeStructureChanged(node);
+
+		if (node instanceof SplitPane) {
+			SplitPane splitPane = (SplitPane) node;
+			track(disposers, splitPane.getDividers(), nodeStructureListener);
+			for (SplitPane.Divider divider : splitPane.getDividers()) {
+				track(disposers, divider.positionProperty(), layoutListener);
+			}
+
+		} else if (node instanceof TableView) {
+			TableView<?> tableView = (TableView<?>) node;
+			track(disposers, tableView.getSortOrder(), layoutListener);
+			trackColumns(disposers, tableView.getColumns(), nodeStructureListener);
+
+		} else if (node instanceof TreeTableView) {
+			TreeTableView<?> treeTableView = (TreeTableView<?>) node;
+			track(disposers, treeTableView.getSortOrder(), layoutListener);
+			trackColumns(disposers, treeTableView.getColumns(), nodeStructureListener);
+		}
+	}
+
+	/**
+	 * ノードに登録したリスナを解除する.
+	 * @param node 分割ペイン、またはテーブル
+	 */
+	private void detachNode(Node node) {
+		List<Runnable> disposers = trackedNodes.remove(node);
+		if (disposers != null) {
+			disposers.forEach(Runnable::run);
+		}
+	}
+
+	private void trackColumns(List<Runnable> disposers,
+			ObservableList<? extends TableColumnBase<?, ?>> columns,
+			InvalidationListener nodeStructureListener) {
+		// カラムの並べ替えはレイアウトの変更でもある
+		track(disposers, columns, nodeStructureListener);
+		track(disposers, columns, layoutListener);
+		for (TableColumnBase<?, ?> column : columns) {
+			track(disposers, column.widthProperty(), layoutListener);
+			track(disposers, column.visibleProperty(), layoutListener);
+			if (column instanceof TableColumn) {
+				track(disposers, ((TableColumn<?, ?>) column).sortTypeProperty(), layoutListener);
+			} else if (column instanceof TreeTableColumn) {
+				track(disposers, ((TreeTableColumn<?, ?>) column).sortTypeProperty(), layoutListener);
+			}
+			trackColumns(disposers, column.getColumns(), nodeStructureListener);
+		}
+	}
+
+	private static void track(List<Runnable> disposers, Observable observable,
+			InvalidationListener listener) {
+		observable.addListener(listener);
+		disposers.add(() -> observable.removeListener(listener));
+	}
+
+	/**
+	 * ノードツリーに登録したリスナを解除する.
+	 */
+	private void detachLayout() {
+		trackingDisposers.forEach(Runnable::run);
+		trackingDisposers.clear();
+		trackedNodes.values().forEach(disposers -> disposers.forEach(Runnable::run));
+		trackedNodes.clear();
+		changedNodes.clear();
+		reattachAll = false;
+		indexChanged = false;
+		if (trackingIndex != null) {
+			trackingIndex.removeInvalidationListener(indexListener);
+			trackingIndex = null;
+		}
+	}
+
+	/**
+	 * シーンまたはルートが変わったので、すべてのリスナを登録し直す.
+	 */
+	private void onStructureChanged() {
+		reattachAll = true;
+		scheduleUpdate();
+	}
+
+	/**
+	 * ノードツリーの索引が無効になったので、監視するノードを追加・削除する.
+	 */
+	private void onIndexInvalidated() {
+		indexChanged = true;
+		scheduleUpdate();
+	}
+
+	/**
+	 * 分割数やカラムの構成が変わったので、そのノードのリスナだけを登録し直す.
+	 * @param node 分割ペイン、またはテーブル
+	 */
+	private void onNodeStructureChanged(Node node) {
+		changedNodes.add(node);
+		scheduleUpdate();
+	}
+
+	/**
+	 * 構成が落ち着いてからリスナを登録し直すように予約する.
+	 */
+	private void scheduleUpdate() {
+		if (!updatePending) {
+			updatePending = true;
+			Platform.runLater(this::updateTracking);
+		}
+	}
+
+	/**
+	 * 予約された登録し直しを行う.
+	 */
+	private void updateTracking() {
+		updatePending = false;
+		if (trackingStage == null) {
+			return;
+		}
+		if (reattachAll || trackingIndex == null) {
+			attachLayout();
+			return;
+		}
+		if (indexChanged) {
+			indexChanged = false;
+			Scene scene = trackingStage.getScene();
+			Parent root = (scene != null) ? scene.getRoot() : null;
+			if (root == null) {
+				attachLayout();
+				return;
+			}
+			trackingIndex = PersistableNodeIndex.of(root); // 索引を作り直す
+			syncTrackedNodes();
+		}
+		List<Node> nodes = new ArrayList<>(changedNodes);
+		changedNodes.clear();
+		for (Node node : nodes) {
+			if (trackedNodes.containsKey(node)) {
+				detachNode(node);
+				attachNode(node);
+			}
+		}
+	}
+
+	/**
+	 * レイアウトが変更されたので保存を予約する.<br>
+	 * 変更が続く場合は保存を先送りするが、最初の変更から最大の待ち時間が経過していれば保存する.
+	 */
+	private void onLayoutChanged() {
+		if (trackingStage == null || trackingStage.isIconified()) {
+			// 最小化中の位置は保存しない
+			return;
+		}
+		long now = System.nanoTime();
+		if (firstChangeNanos == 0) {
+			firstChangeNanos = now;
+		}
+		if (now - firstChangeNanos >= trackMaxDelayNanos) {
+			captureLayout();
+		} else {
+			trackTimer.playFromStart();
+		}
+	}
+
+	/**
+	 * 監視しているステージのレイアウトを保存する.
+	 */
+	private void captureLayout() {
+		trackTimer.stop();
+		firstChangeNanos = 0;
+		try {
+			saveWindowSize(trackingStage);
+
+		} catch (RuntimeException ex) {
+			// レイアウトの保存に失敗しても処理は継続する.
+			logger.warn("failed to save window layout. " + ex, ex);
+		}
+	}
+
+	/**
+	 * ウィンドウサイズを復元します.<br>
+	 * 現在のスクリーン構成で保存された位置とサイズがあれば、それを復元します.<br>
+	 * 最初のフレームから正しい位置に表示されるように、ステージを表示する前に呼び出してください.
+	 * (最大化する場合も、最大化を解除したときの位置を先に設定することで、保存時と同じスクリーンで最大化されます.)<br>
 	 * @param stg
 	 */
 	public void loadWindowSize(Stage stg) {
 		Objects.requireNonNull(stg);
 		try {
-			boolean maximized = preferencesService
-					.getPropertyBoolean(prefix + ".maximized", false);
-
-			stg.setMaximized(maximized);
-			if (!maximized) {
-				double x = preferencesService.getPropertyDouble(prefix + ".x",
-						0);
-				double y = preferencesService.getPropertyDouble(prefix + ".y",
-						0);
-				double width = preferencesService
-						.getPropertyDouble(prefix + ".width", 0);
-				double height = preferencesService
-						.getPropertyDouble(prefix + ".height", 0);
-
-				if (x >= 0 && y >= 0 && width > 10 && height > 10) {
-					stg.setX(x);
-					stg.setY(y);
-					stg.setWidth(width);
-					stg.setHeight(height);
-				}
+			GeometryKeys keys = getRestoreKeys();
+			Rectangle2D bounds = loadBounds(keys);
+			if (bounds != null) {
+				stg.setX(bounds.getMinX());
+				stg.setY(bounds.getMinY());
+				stg.setWidth(bounds.getWidth());
+				stg.setHeight(bounds.getHeight());
 			}
+			stg.setMaximized(preferencesService.get(keys.maximized));
 
 			// rootが設定済みであればSplitPaneの復元を試行する.
 			Optional.ofNullable(stg.getScene())
 					.map(Scene::getRoot)
-					.ifPresent(root -> {
-						loadSplitPaneDividerPositions(root);
-						loadTableColumnWidths(root);
-					});
+					.ifPresent(this::loadLayout);
 
 		} catch (RuntimeException ex) {
 			// ウィンドウサイズの復元中に例外が発生しても処理は継続する.
@@ -109,29 +611,13 @@ public class WindowSizePersistent {
 	public void saveWindowSize(Stage stg) {
 		Objects.requireNonNull(stg);
 
-		boolean maximized = stg.isMaximized();
-		Properties props = new Properties();
-		if (maximized) {
-			props.put(prefix + ".maximized", "true");
-
-		} else {
-			props.put(prefix + ".maximized", "false");
-
-			props.put(prefix + ".x", Double.toString(stg.getX()));
-			props.put(prefix + ".y", Double.toString(stg.getY()));
-			props.put(prefix + ".width", Double.toString(stg.getWidth()));
-			props.put(prefix + ".height", Double.toString(stg.getHeight()));
-		}
-
-		preferencesService.setProperties(props);
+		storeGeometry(stg.isMaximized(), stg.getX(), stg.getY(), stg.getWidth(),
+				stg.getHeight());
 
 		// rootが設定済みであればSplitPane、テーブルカラム幅の保存を試行する.
 		Optional.ofNullable(stg.getScene())
 				.map(Scene::getRoot)
-				.ifPresent(root -> {
-					saveSplitPaneDividerPositions(root);
-					saveTableColumnWidths(root);
-				});
+				.ifPresent(this::saveLayout);
 	}
 
 	/**
@@ -142,20 +628,12 @@ public class WindowSizePersistent {
 	public void loadWindowSize(Alert alert) {
 		Objects.requireNonNull(alert);
 
-		double x = preferencesService.getPropertyDouble(prefix + ".x",
-				0);
-		double y = preferencesService.getPropertyDouble(prefix + ".y",
-				0);
-		double width = preferencesService
-				.getPropertyDouble(prefix + ".width", 0);
-		double height = preferencesService
-				.getPropertyDouble(prefix + ".height", 0);
-
-		if (x >= 0 && y >= 0 && width > 10 && height > 10) {
-			alert.setX(x);
-			alert.setY(y);
-			alert.setWidth(width);
-			alert.setHeight(height);
+		Rectangle2D bounds = loadBounds(getRestoreKeys());
+		if (bounds != null) {
+			alert.setX(bounds.getMinX());
+			alert.setY(bounds.getMinY());
+			alert.setWidth(bounds.getWidth());
+			alert.setHeight(bounds.getHeight());
 		}
 	}
 
@@ -179,15 +657,38 @@ public class WindowSizePersistent {
 	 * @param height
 	 */
 	public void saveWindowSize(double x, double y, double width, double height) {
+		storeGeometry(false, x, y, width, height);
+	}
+
+	/**
+	 * ノードツリー内にある、すべての分割ペインの分割サイズとテーブルビューのカラム幅を保存します.<br>
+	 * ノードツリーの索引は一度だけ取得します.<br>
+	 * @param root
+	 */
+	public void saveLayout(Node root) {
+		assert Platform.isFxApplicationThread();
+
+		if (root == null) {
+			return;
+		}
+
+		PersistableNodeIndex index = PersistableNodeIndex.of(root);
 		Properties props = new Properties();
-		props.put(prefix + ".maximized", "false");
-		props.put(prefix + ".x", Double.toString(x));
-		props.put(prefix + ".y", Double.toString(y));
-		props.put(prefix + ".width", Double.toString(width));
-		props.put(prefix + ".height", Double.toString(height));
+		putSplitPaneDividerPositions(index, props);
+		putTableColumnWidths(index, props);
 		preferencesService.setProperties(props);
 	}
 
+	/**
+	 * ノードツリー内にある、すべての分割ペインの分割サイズとテーブルビューのカラム幅を復元します.<br>
+	 * 現在のノードツリーをトラバースするためには、ノードがシーングラフにアタッチ済みでなければなりません.<br>
+	 * @param root
+	 */
+	public void loadLayout(Node root) {
+		loadSplitPaneDividerPositions(root);
+		loadTableColumnWidths(root);
+	}
+
 	/**
 	 * ノードツリー内にある、すべての分割ペインの現在の分割サイズを保存します.<br>
 	 * 各SplitPaneには、それぞれFXML上でidが振られている必要があります.<br>
@@ -202,25 +703,21 @@ public class WindowSizePersistent {
 		}
 
 		Properties props = new Properties();
-		traverse(root, (prefix, node) -> {
-			if (node instanceof SplitPane) {
-				SplitPane splitPane = (SplitPane) node;
-				String styleId = splitPane.getId();
-				if (styleId != null && styleId.trim().length() > 0) {
-					String divs = Arrays.stream(splitPane.getDividerPositions())
-							.mapToObj(Double::toString)
-							.collect(Collectors.joining(","));
-					String key = ".splitpane" + prefix + "." + styleId;
-					props.put(key, divs);
-					logger.info("save split dividers:{}={}", styleId, divs);
-				}
-			}
-			return true;
-		});
-
+		putSplitPaneDividerPositions(PersistableNodeIndex.of(root), props);
 		preferencesService.setProperties(props);
 	}
 
+	private void putSplitPaneDividerPositions(PersistableNodeIndex index, Properties props) {
+		for (PersistableNodeIndex.Entry<SplitPane> entry : index.getSplitPanes()) {
+			String divs = Arrays.stream(entry.node.getDividerPositions())
+					.mapToObj(Double::toString)
+					.collect(Collectors.joining(","));
+			String key = ".splitpane" + entry.path;
+			props.put(key, divs);
+			logger.info("save split dividers:{}={}", key, divs);
+		}
+	}
+
 	/**
 	 * ノードツリー内にある、すべての分割ペインの現在の分割サイズを復元します.<br>
 	 * 各SplitPaneには、それぞれFXML上でidが振られている必要があります.<br>
@@ -236,25 +733,19 @@ public class WindowSizePersistent {
 		}
 
 		try {
-			traverse(root, (prefix, node) -> {
-				if (node instanceof SplitPane) {
-					SplitPane splitPane = (SplitPane) node;
-					String styleId = splitPane.getId();
-					if (styleId != null && styleId.trim().length() > 0) {
-						String key = ".splitpane" + prefix + "." + styleId;
-						String args = preferencesService.getProperty(key, null);
-						if (args != null && args.trim().length() > 0) {
-							double[] divs = Arrays.stream(args.split(","))
-									.mapToDouble(Double::parseDouble)
-									.toArray();
-							splitPane.setDividerPositions(divs);
-							logger.info("restore split dividers:{}={}", key,
-									Arrays.toString(divs));
-						}
-					}
+			for (PersistableNodeIndex.Entry<SplitPane> entry : PersistableNodeIndex.of(root)
+					.getSplitPanes()) {
+				String key = ".splitpane" + entry.path;
+				String args = preferencesService.getProperty(key, null);
+				if (args != null && args.trim().length() > 0) {
+					double[] divs = Arrays.stream(args.split(","))
+							.mapToDouble(Double::parseDouble)
+							.toArray();
+					entry.node.setDividerPositions(divs);
+					logger.info("restore split dividers:{}={}", key,
+							Arrays.toString(divs));
 				}
-				return true;
-			});
+			}
 
 		} catch (RuntimeException ex) {
 			// DivierPositionの復元に失敗しても処理は継続する.
@@ -264,6 +755,7 @@ public class WindowSizePersistent {
 
 	/**
 	 * ノードツリー内にある、すべてのテーブルビューの現在のカラム幅を保存します.<br>
+	 * カラムの並び順、表示・非表示、ソート順も、テーブルごとに1つの値としてまとめて保存されます.<br>
 	 * 各テーブルビューには、それぞれFXML上でidが振られている必要があります.<br>
 	 * また、テーブルビューが別のidをもつコンテナの子である場合にはネストしたidとして保存されます.<br>
 	 * @param root
@@ -276,62 +768,45 @@ public class WindowSizePersistent {
 		}
 
 		Properties props = new Properties();
-		traverse(root, (prefix, node) -> {
-			if (node instanceof TreeTableView) {
-				TreeTableView<?> treeTableView = (TreeTableView<?>) node;
-				String styleId = treeTableView.getId();
-				if (styleId != null && styleId.trim().length() > 0) {
-					String widths = String.join(",", walkTableColumn(treeTableView.getColumns()));
-					String key = ".treeTableView" + prefix + "." + styleId;
-					props.put(this.prefix + key, widths);
-					logger.info("save treeTableColumn widths:{}={}", key,
-							widths);
-				}
-
-			} else if (node instanceof TableView) {
-				TableView<?> tableView = (TableView<?>) node;
-				String styleId = tableView.getId();
-				if (styleId != null && styleId.trim().length() > 0) {
-					String widths = String.join(",", walkTableColumn(tableView.getColumns()));
-					String key = ".tableView" + prefix + "." + styleId;
-					props.put(this.prefix + key, widths);
-					logger.info("save tableColumn widths:{}={}", styleId, widths);
-				}
-			}
-			return true;
-		});
-
+		putTableColumnWidths(PersistableNodeIndex.of(root), props);
 		preferencesService.setProperties(props);
 	}
 
+	/**
+	 * テーブルごとに、カラムの幅、並び順、表示・非表示、ソート順を1つのレコード({@link TableColumnLayout})として保存する.
+	 */
+	private void putTableColumnWidths(PersistableNodeIndex index, Properties props) {
+		for (PersistableNodeIndex.Entry<TreeTableView<?>> entry : index.getTreeTableViews()) {
+			String layout = TableColumnLayout.of(entry.node).encode();
+			String key = ".treeTableView" + entry.path;
+			props.put(this.prefix + key, layout);
+			logger.info("save treeTableColumn layout:{}={}", key, layout);
+		}
+		for (PersistableNodeIndex.Entry<TableView<?>> entry : index.getTableViews()) {
+			String layout = TableColumnLayout.of(entry.node).encode();
+			String key = ".tableView" + entry.path;
+			props.put(this.prefix + key, layout);
+			logger.info("save tableColumn layout:{}={}", key, layout);
+		}
+	}
+
 	public <E> void saveTableColumnWidths(TableView<E> tableView, String styleId) {
 		Objects.requireNonNull(tableView);
-		String widths = String.join(",", walkTableColumn(tableView.getColumns()));
 		String key = prefix + ".treeTableView." + styleId;
-		preferencesService.setProperty(key, widths);
+		preferencesService.setProperty(key, TableColumnLayout.of(tableView).encode());
 	}
 
-	private static <E> List<String> walkTableColumn(ObservableList<? extends TableColumnBase<E, ?>> cols) {
-		List<String> tokens = new ArrayList<>();
-		for (TableColumnBase<E, ?> col : cols) {
-			if (!col.getColumns().isEmpty()) {
-				tokens.addAll(walkTableColumn(col.getColumns()));
-
-				String id = col.getId();
-				if (StringUtils.isBlank(id)) {
-					// 親カラムは無名カラムとしては幅を記録しない.
-					continue;
-				}
-			}
-
-			String colName = col.getId();
-			if (colName == null) {
-				colName = "";
-			}
-			String token = colName + ":" + Double.toString(col.getWidth());
-			tokens.add(token);
+	/**
+	 * 保存された値をカラム幅のリストにする.<br>
+	 * {@link TableColumnLayout}の形式と、以前の形式のいずれも受け付ける.
+	 * @param args 保存された値
+	 * @return カラム名とカラム幅のリスト
+	 */
+	private static List<Map.Entry<String, Double>> toColumnWidths(String args) {
+		if (TableColumnLayout.isLayoutRecord(args)) {
+			return TableColumnLayout.parse(args).getColumnWidths();
 		}
-		return tokens;
+		return parseColWidths(args);
 	}
 
 	private static List<Map.Entry<String, Double>> parseColWidths(String args) {
@@ -371,22 +846,77 @@ public class WindowSizePersistent {
 
 	/**
 	 * ノードツリー内にある、すべてのTableView/TreeTableViewの現在のカラムサイズを復元します.<br>
+	 * カラムの並び順、表示・非表示、ソート順が保存されていれば、それらも復元します.<br>
 	 * 各TableViewには、それぞれFXML上でidが振られている必要があります.<br>
 	 * また、TableViewが別のidをもつコンテナの子である場合にはネストしたidとして判別されます.<br>
 	 * 現在のノードツリーをトラバースするためには、ノードがシーングラフにアタッチ済みでなければなりません.<br>
 	 * @param root
 	 */
 	public void loadTableColumnWidths(Node root) {
-		loadTableColumnWidths(root, this::applyTableColumnWidth);
-		loadTreeTableColumnWidths(root, this::applyTreeTableColumnWidth);
+		assert Platform.isFxApplicationThread();
+
+		if (root == null) {
+			return;
+		}
+
+		PersistableNodeIndex index = PersistableNodeIndex.of(root);
+		for (PersistableNodeIndex.Entry<TableView<?>> entry : index.getTableViews()) {
+			loadTableLayout(entry.node, this.prefix + ".tableView" + entry.path);
+		}
+		for (PersistableNodeIndex.Entry<TreeTableView<?>> entry : index.getTreeTableViews()) {
+			loadTreeTableLayout(entry.node, this.prefix + ".treeTableView" + entry.path);
+		}
 	}
 
 	public <E> void loadTableColumnWidths(TableView<E> tableView, String styleId) {
-		String key = prefix + ".treeTableView." + styleId;
-		String args = preferencesService.getProperty(key);
-		if (StringUtils.isNotBlank(args)) {
-			List<Map.Entry<String, Double>> colWidths = parseColWidths(args);
-			applyTableColumnWidth(tableView, colWidths);
+		loadTableLayout(tableView, prefix + ".treeTableView." + styleId);
+	}
+
+	/**
+	 * TableViewのカラムの幅、並び順、表示・非表示、ソート順を復元する.<br>
+	 * 以前の形式で保存されている場合はカラム幅のみ復元する.
+	 * @param tableView
+	 * @param key 設定のキー
+	 */
+	private <E> void loadTableLayout(TableView<E> tableView, String key) {
+		try {
+			String args = preferencesService.getProperty(key);
+			if (StringUtils.isNotBlank(args)) {
+				logger.info("load tableView layout:{}={}", key, args);
+				if (TableColumnLayout.isLayoutRecord(args)) {
+					TableColumnLayout.parse(args).applyTo(tableView);
+				} else {
+					applyTableColumnWidth(tableView, parseColWidths(args));
+				}
+			}
+
+		} catch (RuntimeException ex) {
+			// カラムの復元に失敗しても処理は継続する.
+			logger.warn("failed to resotre tableView columns. " + ex, ex);
+		}
+	}
+
+	/**
+	 * TreeTableViewのカラムの幅、並び順、表示・非表示、ソート順を復元する.<br>
+	 * 以前の形式で保存されている場合はカラム幅のみ復元する.
+	 * @param treeTableView
+	 * @param key 設定のキー
+	 */
+	private <E> void loadTreeTableLayout(TreeTableView<E> treeTableView, String key) {
+		try {
+			String args = preferencesService.getProperty(key);
+			if (StringUtils.isNotBlank(args)) {
+				logger.info("load treeTableView layout:{}={}", key, args);
+				if (TableColumnLayout.isLayoutRecord(args)) {
+					TableColumnLayout.parse(args).applyTo(treeTableView);
+				} else {
+					applyTreeTableColumnWidth(treeTableView, parseColWidths(args));
+				}
+			}
+
+		} catch (RuntimeException ex) {
+			// カラムの復元に失敗しても処理は継続する.
+			logger.warn("failed to resotre treeTableView columns. " + ex, ex);
 		}
 	}
 
@@ -497,33 +1027,18 @@ public class WindowSizePersistent {
 		}
 
 		try {
-			traverse(root, (prefix, node) -> {
-				if (node instanceof TableView) {
-					@SuppressWarnings("unchecked")
-					TableView<E> tableView = (TableView<E>) node;
-					String styleId = tableView.getId();
-					if (styleId != null && styleId.trim().length() > 0) {
-						String key = ".tableView" + prefix + "." + styleId;
-						String args = preferencesService.getProperty(this.prefix + key, null);
-						if (args != null && args.trim().length() > 0) {
-							String[] cols = args.split(",");
-							logger.info("load tableView widths:{}={}", styleId,
-									Arrays.toString(cols));
-
-							List<Map.Entry<String, Double>> colWidths = new ArrayList<>();
-							for (String col : cols) {
-								String[] tokens = col.split(":");
-								String name = tokens[0];
-								double width = Double.parseDouble(tokens[1]);
-								colWidths.add(new AbstractMap.SimpleEntry<>(
-										name, width));
-							}
-							callback.setWidth(tableView, colWidths);
-						}
-					}
+			for (PersistableNodeIndex.Entry<TableView<?>> entry : PersistableNodeIndex.of(root)
+					.getTableViews()) {
+				@SuppressWarnings("unchecked")
+				TableView<E> tableView = (TableView<E>) entry.node;
+				String key = ".tableView" + entry.path;
+				String args = preferencesService.getProperty(this.prefix + key, null);
+				if (args != null && args.trim().length() > 0) {
+					List<Map.Entry<String, Double>> colWidths = toColumnWidths(args);
+					logger.info("load tableView widths:{}={}", key, colWidths);
+					callback.setWidth(tableView, colWidths);
 				}
-				return true;
-			});
+			}
 
 		} catch (RuntimeException ex) {
 			// DivierPositionの復元に失敗しても処理は継続する.
@@ -548,23 +1063,18 @@ public class WindowSizePersistent {
 		}
 
 		try {
-			traverse(root, (prefix, node) -> {
-				if (node instanceof TreeTableView) {
-					@SuppressWarnings("unchecked")
-					TreeTableView<E> tableView = (TreeTableView<E>) node;
-					String styleId = tableView.getId();
-					if (styleId != null && styleId.trim().length() > 0) {
-						String key = ".treeTableView" + prefix + "." + styleId;
-						String args = preferencesService.getProperty(this.prefix + key, null);
-						if (args != null && args.trim().length() > 0) {
-							List<Map.Entry<String, Double>> colWidths = parseColWidths(args);
-							logger.info("load tableView widths:{}={}", styleId, colWidths);
-							callback.setWidth(tableView, colWidths);
-						}
-					}
+			for (PersistableNodeIndex.Entry<TreeTableView<?>> entry : PersistableNodeIndex.of(root)
+					.getTreeTableViews()) {
+				@SuppressWarnings("unchecked")
+				TreeTableView<E> tableView = (TreeTableView<E>) entry.node;
+				String key = ".treeTableView" + entry.path;
+				String args = preferencesService.getProperty(this.prefix + key, null);
+				if (args != null && args.trim().length() > 0) {
+					List<Map.Entry<String, Double>> colWidths = toColumnWidths(args);
+					logger.info("load treeTableView widths:{}={}", key, colWidths);
+					callback.setWidth(tableView, colWidths);
 				}
-				return true;
-			});
+			}
 
 		} catch (RuntimeException ex) {
 			// DivierPositionの復元に失敗しても処理は継続する.
@@ -573,56 +1083,12 @@ public class WindowSizePersistent {
 	}
 
 	/**
-	 * シーングラフをトラバースし、各ノードと、そのノードが出現した位置を表すID文字列をコールバックします.<br>
-	 * Parentがある場合は、その子を掘り下げて解析します.<br>
-	 * Parentの子ノードはシーングラフに追加されていない場合は探索できません.<br>
-	 * ParentまたはNodeにidがある場合は、先行するidに.を付与して連結されたものがIDとなります.<br>
-	 * @param root 解析する親ノード. nullの場合は何もしない.
-	 * @param func 親のキー名と現在ノードを渡されるPredicator。処理を中止する場合はfalseを返す。
+	 * カラムごとの表示・非表示を、カラムごとのキーとして保存します.<br>
+	 * カラムの表示・非表示はテーブルのカラム幅とともに保存されるため、通常は不要です.
+	 * @param visibleMap カラム名と表示するか否か
+	 * @deprecated {@link ${symbol_pound}saveTableColumnWidths(Node)}で保存される{@link TableColumnLayout}を用いること
 	 */
-	private static void traverse(Node root, BiPredicate<String, Node> func) {
-		if (root == null) {
-			return;
-		}
-
-		// 自分自身を検査する.
-		String rootId = root.getId();
-		if (StringUtils.isBlank(rootId)) {
-			rootId = "";
-		}
-		if (!func.test(rootId, root)) {
-			return;
-		}
-
-		// 検出された親リスト
-		LinkedList<Pair<String, Parent>> parents = new LinkedList<>();
-		if (root instanceof Parent) {
-			parents.add(new Pair<>(rootId, (Parent) root));
-		}
-
-		while (!parents.isEmpty()) {
-			Pair<String, Parent> entry = parents.pop();
-			String prefix = entry.getKey();
-			Parent parent = entry.getValue();
-			for (Node child : parent.getChildrenUnmodifiable()) {
-				// 親のキーと自分のNodeを検査する.
-				if (!func.test(prefix, child)) {
-					return;
-				}
-
-				if (child instanceof Parent) {
-					String id = child.getId();
-					String suffix = "";
-					// idをもつ場合は親のidの末尾に追加する.
-					if (id != null && id.trim().length() > 0) {
-						suffix = "." + id;
-					}
-					parents.add(new Pair<>(prefix + suffix, (Parent) child));
-				}
-			}
-		}
-	}
-
+	@Deprecated
 	public void saveColumnVisibleMap(Map<String, Boolean> visibleMap) {
 		visibleMap.forEach((name, visible) -> {
 			String key = prefix + ".columnVisible." + name;
@@ -630,6 +1096,12 @@ public class WindowSizePersistent {
 		});
 	}
 
+	/**
+	 * {@link ${symbol_pound}saveColumnVisibleMap(Map)}で保存したカラムごとの表示・非表示を復元します.
+	 * @return カラム名と表示するか否か
+	 * @deprecated {@link ${symbol_pound}loadTableColumnWidths(Node)}で復元される{@link TableColumnLayout}を用いること
+	 */
+	@Deprecated
 	public Map<String, Boolean> loadColumnVisibleMap() {
 		HashMap< String, Boolean> visibleMap = new HashMap<>();
 		String keyPrefix = prefix + ".columnVisible.";
@@ -0,0 +1,132 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.sys;
+
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * アプリケーションの動作設定を取得する.<br>
+ * システムプロパティに同名のキーがあれば、それを優先し、
+ * なければリソース上のapp.propertiesの値を用いる.<br>
+ * いずれにもない場合、もしくは値が解釈できない場合はデフォルト値を返す.<br>
+ * ログの初期化前やCDIコンテナの起動前からでも利用できるようにstaticメソッドとしている.<br>
+ */
+public final class ApplicationSettings {
+
+	/**
+	 * 設定ファイルのリソースバンドル名
+	 */
+	private static final String BUNDLE_NAME = "app";
+
+	/**
+	 * app.propertiesのリソースバンドル、なければnull
+	 */
+	private static final ResourceBundle resourceBundle;
+
+	static {
+		ResourceBundle rb;
+		try {
+			rb = ResourceBundle.getBundle(BUNDLE_NAME);
+		} catch (MissingResourceException ex) {
+			rb = null;
+		}
+		resourceBundle = rb;
+	}
+
+	/**
+	 * プライベートコンストラクタ
+	 */
+	private ApplicationSettings() {
+		super();
+	}
+
+	/**
+	 * 設定値を文字列として取得する.
+	 * @param key キー
+	 * @param defaultValue 設定がない場合の値
+	 * @return 設定値(前後の空白は除去される)
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (StringUtils.isBlank(value) && resourceBundle != null
+				&& resourceBundle.containsKey(key)) {
+			value = resourceBundle.getString(key);
+		}
+		if (StringUtils.isBlank(value)) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	/**
+	 * 設定値をintとして取得する.
+	 * @param key キー
+	 * @param defaultValue 設定がない、もしくは解釈できない場合の値
+	 * @return 設定値
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = getString(key, null);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (NumberFormatException ex) {
+				// デフォルト値を用いる
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * 設定値をlongとして取得する.
+	 * @param key キー
+	 * @param defaultValue 設定がない、もしくは解釈できない場合の値
+	 * @return 設定値
+	 */
+	public static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		if (value != null) {
+			try {
+				return Long.parseLong(value);
+			} catch (NumberFormatException ex) {
+				// デフォルト値を用いる
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * 設定値をbooleanとして取得する.
+	 * @param key キー
+	 * @param defaultValue 設定がない場合の値
+	 * @return 設定値
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		if (value != null) {
+			return Boolean.parseBoolean(value);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * 設定値を列挙子として取得する.(大文字・小文字は区別しない)
+	 * @param key キー
+	 * @param defaultValue 設定がない、もしくは解釈できない場合の値
+	 * @return 設定値
+	 */
+	public static <E extends Enum<E>> E getEnum(String key, E defaultValue) {
+		String value = getString(key, null);
+		if (value != null) {
+			for (E e : defaultValue.getDeclaringClass().getEnumConstants()) {
+				if (e.name().equalsIgnoreCase(value)) {
+					return e;
+				}
+			}
+		}
+		return defaultValue;
+	}
+}
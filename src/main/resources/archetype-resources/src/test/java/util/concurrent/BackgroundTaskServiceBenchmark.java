@@ -0,0 +1,85 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BackgroundTaskServiceのI/Oジョブのスループットを
+ * スレッドプールと仮想スレッドとで比較するベンチマーク.<br>
+ * 単体テストとしては実行されない. mainメソッドから起動すること.<br>
+ * (仮想スレッドの計測にはJava21以降が必要.)<br>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test ${symbol_escape}
+ *   -Dexec.mainClass=${package}.util.concurrent.BackgroundTaskServiceBenchmark
+ * </pre>
+ */
+public class BackgroundTaskServiceBenchmark {
+
+	/**
+	 * 同時に投入するタスク数
+	 */
+	private static final int NUM_OF_TASKS = 10000;
+
+	/**
+	 * 1タスクあたりのブロッキング時間(ミリ秒)
+	 */
+	private static final long BLOCKING_MILLIS = 20;
+
+	public static void main(String[] args) throws Exception {
+		// ログはコンソールのみ(警告以上)とする
+		System.setProperty("AppLogFilePath", "target/logs");
+		System.setProperty("ConsoleLogLevel", "WARN");
+		System.setProperty("FileLogLevel", "WARN");
+
+		// 比較対象のスレッドプールはI/O向けに多めのスレッドを用意し、
+		// 待ち行列があふれないように無制限にする
+		System.setProperty("backgroundTask.corePoolSize", "64");
+		System.setProperty("backgroundTask.maxPoolSize", "64");
+		System.setProperty("backgroundTask.queueCapacity", "-1");
+
+		for (int round = 0; round < 3; round++) {
+			run(false);
+			run(true);
+		}
+	}
+
+	private static void run(boolean virtualThreads) throws Exception {
+		System.setProperty("backgroundTask.virtualThreads",
+				Boolean.toString(virtualThreads));
+
+		BackgroundTaskService service = new BackgroundTaskService();
+		service.init();
+		try {
+			long st = System.nanoTime();
+			List<Future<Integer>> futures = new ArrayList<>(NUM_OF_TASKS);
+			for (int idx = 0; idx < NUM_OF_TASKS; idx++) {
+				final int value = idx;
+				futures.add(service.execute(() -> {
+					// ファイルやDBの待ちを模したブロッキング
+					Thread.sleep(BLOCKING_MILLIS);
+					return value;
+				}));
+			}
+			long sum = 0;
+			for (Future<Integer> future : futures) {
+				sum += future.get();
+			}
+			long elapsed = System.nanoTime() - st;
+
+			double seconds = elapsed / 1e9;
+			System.out.printf("virtualThreads=%s(enabled=%s): tasks=%d, elapsed=%dms, "
+					+ "throughput=%.0f tasks/s, checksum=%d%n",
+					virtualThreads, service.isVirtualThreadEnabled(),
+					NUM_OF_TASKS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+					NUM_OF_TASKS / seconds, sum);
+
+		} finally {
+			service.shutdown();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import ${package}.util.concurrent.TaskWithCompletableFuture.CompletionMode;
+
+/**
+ * TaskWithCompletableFutureの完了モードごとに、
+ * タスクの処理の終了から後続処理が開始されるまでの遅延を比較するベンチマーク.<br>
+ * FXスレッドが暇な場合と、描画などで忙しい場合とを計測する.<br>
+ * 単体テストとしては実行されない. mainメソッドから起動すること.
+ * (JavaFXのツールキットを起動するためディスプレイが必要である.)<br>
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test ${symbol_escape}
+ *   -Dexec.mainClass=${package}.util.concurrent.TaskCompletionLatencyBenchmark
+ * </pre>
+ */
+public class TaskCompletionLatencyBenchmark {
+
+	/**
+	 * 計測回数
+	 */
+	private static final int ITERATIONS = 2000;
+
+	/**
+	 * 計測前のウォームアップ回数
+	 */
+	private static final int WARMUP = 500;
+
+	/**
+	 * 処理の終了時刻を返すだけのタスク
+	 */
+	private static final class TimestampTask extends TaskWithCompletableFuture<Long> {
+
+		@Override
+		protected Long call() throws Exception {
+			return System.nanoTime();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		Platform.startup(started::countDown);
+		started.await();
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			for (boolean busy : new boolean[] { false, true }) {
+				AtomicBoolean loading = new AtomicBoolean(busy);
+				Thread loader = startFxLoad(loading);
+				try {
+					for (CompletionMode mode : CompletionMode.values()) {
+						run(executor, mode, WARMUP);
+						long[] latencies = run(executor, mode, ITERATIONS);
+						report(busy, mode, latencies);
+					}
+				} finally {
+					loading.set(false);
+					loader.join();
+				}
+			}
+
+		} finally {
+			executor.shutdown();
+			Platform.exit();
+		}
+	}
+
+	/**
+	 * FXスレッドに定期的に負荷をかけるスレッドを開始する.
+	 * @param loading 負荷をかけている間はtrue
+	 * @return スレッド
+	 */
+	private static Thread startFxLoad(AtomicBoolean loading) {
+		Thread thread = new Thread(() -> {
+			while (loading.get()) {
+				// 1フレームの描画に相当する処理を模す
+				Platform.runLater(() -> busyWait(TimeUnit.MILLISECONDS.toNanos(8)));
+				try {
+					Thread.sleep(16);
+				} catch (InterruptedException ex) {
+					return;
+				}
+			}
+		}, "fxLoad");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	private static void busyWait(long nanos) {
+		long st = System.nanoTime();
+		while (System.nanoTime() - st < nanos) {
+			// 何もしない
+		}
+	}
+
+	/**
+	 * タスクを1つずつ実行し、後続処理までの遅延(ナノ秒)を計測する.
+	 */
+	private static long[] run(ExecutorService executor, CompletionMode mode,
+			int iterations) throws Exception {
+		long[] latencies = new long[iterations];
+		for (int idx = 0; idx < iterations; idx++) {
+			TimestampTask task = new TimestampTask();
+			task.setCompletionMode(mode);
+			// 非同期でない後続処理で、処理の終了からの経過時間を求める
+			CompletableFuture<Long> latency = task
+					.thenApply(endAt -> System.nanoTime() - endAt);
+			executor.execute(task);
+			latencies[idx] = latency.get();
+		}
+		return latencies;
+	}
+
+	private static void report(boolean busy, CompletionMode mode, long[] latencies) {
+		Arrays.sort(latencies);
+		double sum = 0;
+		for (long latency : latencies) {
+			sum += latency;
+		}
+		System.out.printf("fxBusy=%-5s mode=%-13s avg=%8.1fus p50=%8.1fus p99=%8.1fus max=%8.1fus%n",
+				busy, mode, sum / latencies.length / 1e3,
+				latencies[latencies.length / 2] / 1e3,
+				latencies[(int) (latencies.length * 0.99)] / 1e3,
+				latencies[latencies.length - 1] / 1e3);
+	}
+}
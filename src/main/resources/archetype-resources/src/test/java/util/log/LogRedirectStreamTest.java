@@ -0,0 +1,175 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.log;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class LogRedirectStreamTest {
+
+	private final List<String> lines = Collections.synchronizedList(new ArrayList<>());
+
+	private final LogRedirectStream stream = new LogRedirectStream(lines::add,
+			StandardCharsets.UTF_8);
+
+	private static byte[] utf8(String str) {
+		return str.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String repeat(String str, int count) {
+		StringBuilder buf = new StringBuilder(str.length() * count);
+		for (int idx = 0; idx < count; idx++) {
+			buf.append(str);
+		}
+		return buf.toString();
+	}
+
+	@Test
+	public void testMultiByteSplitAcrossWrites() {
+		String text = "日本語😀テキスト";
+		byte[] data = utf8(text + "${symbol_escape}n");
+
+		// すべての位置で2回の書き込みに分割する
+		for (int split = 0; split <= data.length; split++) {
+			stream.write(data, 0, split);
+			stream.write(data, split, data.length - split);
+		}
+		assertEquals(Collections.nCopies(data.length + 1, text), lines);
+	}
+
+	@Test
+	public void testMultiByteSingleByteWrites() {
+		String text = "あいう😀えお";
+		for (byte b : utf8(text + "${symbol_escape}n")) {
+			stream.write(b);
+		}
+		assertEquals(Arrays.asList(text), lines);
+	}
+
+	@Test
+	public void testMultiByteAcrossInputBuffer() {
+		// 入力バッファ(1024バイト)の境界で3バイトの文字が分割される
+		String text = "a" + repeat("あ", 1000);
+		byte[] data = utf8(text + "${symbol_escape}n");
+		stream.write(data, 0, data.length);
+		assertEquals(Arrays.asList(text), lines);
+	}
+
+	@Test
+	public void testLineSeparators() {
+		byte[] data = utf8("cr${symbol_escape}rlf${symbol_escape}ncrlf${symbol_escape}r${symbol_escape}nlast${symbol_escape}n");
+		stream.write(data, 0, data.length);
+
+		// CRLFや連続する改行による空の行は渡さない
+		assertEquals(Arrays.asList("cr", "lf", "crlf", "last"), lines);
+	}
+
+	@Test
+	public void testLineSeparatorsSingleByteWrites() {
+		for (byte b : utf8("cr${symbol_escape}rlf${symbol_escape}ncrlf${symbol_escape}r${symbol_escape}n${symbol_escape}n${symbol_escape}nlast${symbol_escape}r")) {
+			stream.write(b);
+		}
+		assertEquals(Arrays.asList("cr", "lf", "crlf", "last"), lines);
+	}
+
+	@Test
+	public void testFlushWithoutNewline() {
+		byte[] data = utf8("partial");
+		stream.write(data, 0, data.length);
+		assertTrue(lines.isEmpty());
+
+		// 改行されていない出力はflushで渡され、空であれば何もしない
+		stream.flush();
+		assertEquals(Arrays.asList("partial"), lines);
+		stream.flush();
+		assertEquals(1, lines.size());
+
+		data = utf8("next${symbol_escape}nclosed");
+		stream.write(data, 0, data.length);
+		stream.close();
+		assertEquals(Arrays.asList("partial", "next", "closed"), lines);
+	}
+
+	@Test
+	public void testFlushIncompleteMultiByte() {
+		byte[] data = utf8("abcあ");
+
+		// 文字の途中で終端された場合は置換文字になる
+		stream.write(data, 0, data.length - 1);
+		stream.flush();
+		assertEquals(Arrays.asList("abc${symbol_escape}uFFFD"), lines);
+
+		// 残りのバイトは次の行に持ち越されない
+		data = utf8("def${symbol_escape}n");
+		stream.write(data, 0, data.length);
+		assertEquals(Arrays.asList("abc${symbol_escape}uFFFD", "def"), lines);
+	}
+
+	@Test
+	public void testLongLine() {
+		// 文字バッファの初期サイズと保持する上限を超える行
+		String longLine = repeat("長い行0123456789", 5000);
+		byte[] data = utf8(longLine + "${symbol_escape}nshort${symbol_escape}n" + longLine + "${symbol_escape}n");
+		stream.write(data, 0, data.length);
+		assertEquals(Arrays.asList(longLine, "short", longLine), lines);
+
+		// 少しずつ書き込んでも同じ
+		lines.clear();
+		data = utf8(longLine + "${symbol_escape}n");
+		for (int off = 0; off < data.length; off += 100) {
+			stream.write(data, off, Math.min(100, data.length - off));
+		}
+		assertEquals(Arrays.asList(longLine), lines);
+	}
+
+	@Test
+	public void testPerThreadLines() throws Exception {
+		byte[] data = utf8("main-");
+		stream.write(data, 0, data.length);
+
+		// 他のスレッドの書きかけの行とは混ざらない
+		Thread thread = new Thread(() -> {
+			byte[] other = utf8("other${symbol_escape}n");
+			stream.write(other, 0, other.length);
+		});
+		thread.start();
+		thread.join();
+
+		data = utf8("line${symbol_escape}n");
+		stream.write(data, 0, data.length);
+		assertEquals(Arrays.asList("other", "main-line"), lines);
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		int count = 100;
+		CountDownLatch done = new CountDownLatch(count);
+		Consumer<String> receiver = LogRedirectStream.async(line -> {
+			lines.add(line);
+			done.countDown();
+		}, "testAsync", 4);
+		LogRedirectStream asyncStream = new LogRedirectStream(receiver, StandardCharsets.UTF_8);
+
+		List<String> expected = new ArrayList<>();
+		for (int idx = 0; idx < count; idx++) {
+			byte[] data = utf8("行" + idx + "${symbol_escape}n");
+			asyncStream.write(data, 0, data.length);
+			expected.add("行" + idx);
+		}
+
+		// キューが小さくても行の順序は保たれる
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(expected, lines);
+	}
+}
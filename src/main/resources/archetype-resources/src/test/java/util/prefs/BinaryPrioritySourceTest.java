@@ -0,0 +1,139 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryPrioritySourceTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private static Properties sampleProperties() {
+		Properties props = new Properties();
+		props.setProperty("window.width", "800");
+		props.setProperty("日本語のキー", "値には絵文字😀も含む");
+		props.setProperty("empty", "");
+		props.setProperty("multi${symbol_escape}nline", "改行${symbol_escape}r${symbol_escape}nを含む${symbol_escape}t値");
+		StringBuilder buf = new StringBuilder();
+		for (int idx = 0; idx < 1000; idx++) {
+			buf.append("長い値");
+		}
+		props.setProperty("long", buf.toString());
+		return props;
+	}
+
+	private BinaryPrioritySource createSource() throws IOException {
+		Path xmlFile = tempFolder.getRoot().toPath().resolve("prefs.xml");
+		return new BinaryPrioritySource(null, xmlFile);
+	}
+
+	@Test
+	public void testBinaryFileName() throws IOException {
+		BinaryPrioritySource source = createSource();
+		assertEquals("prefs.bin", source.getBinaryFileName().getFileName().toString());
+		assertNull(new BinaryPrioritySource("/dummy.xml", null).getBinaryFileName());
+	}
+
+	@Test
+	public void testEncodeDecodeRoundTrip() throws IOException {
+		BinaryPrioritySource source = createSource();
+		Properties props = sampleProperties();
+		byte[] data = source.encode(props);
+
+		Properties decoded = new Properties();
+		BinaryPrioritySource.decode(data, decoded);
+		assertEquals(props, decoded);
+	}
+
+	@Test
+	public void testEncodeIsStable() throws IOException {
+		BinaryPrioritySource source = createSource();
+		Properties props1 = new Properties();
+		props1.setProperty("b", "2");
+		props1.setProperty("あ", "い");
+		props1.setProperty("a", "1");
+		Properties props2 = new Properties();
+		props2.setProperty("a", "1");
+		props2.setProperty("b", "2");
+		props2.setProperty("あ", "い");
+
+		// 同じ内容であれば、追加順によらず同じバイト列になる
+		assertArrayEquals(source.encode(props1), source.encode(props2));
+	}
+
+	@Test
+	public void testEmptyRoundTrip() throws IOException {
+		byte[] data = createSource().encode(new Properties());
+		Properties decoded = new Properties();
+		BinaryPrioritySource.decode(data, decoded);
+		assertTrue(decoded.isEmpty());
+	}
+
+	@Test
+	public void testCrcMismatch() throws IOException {
+		byte[] data = createSource().encode(sampleProperties());
+		data[data.length / 2] ^= 0x01;
+		try {
+			BinaryPrioritySource.decode(data, new Properties());
+			fail();
+
+		} catch (StreamCorruptedException ex) {
+			assertEquals("crc mismatch", ex.getMessage());
+		}
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void testTooShort() throws IOException {
+		BinaryPrioritySource.decode(new byte[10], new Properties());
+	}
+
+	@Test
+	public void testMigrateFromXml() throws IOException {
+		BinaryPrioritySource source = createSource();
+		Properties props = sampleProperties();
+		props.remove("multi${symbol_escape}nline"); // XMLでは改行などが正規化されるため除く
+		Path xmlFile = source.getFileName();
+		try (OutputStream os = Files.newOutputStream(xmlFile)) {
+			props.storeToXML(os, null);
+		}
+		Path binFile = source.getBinaryFileName();
+		assertFalse(Files.exists(binFile));
+
+		// バイナリのファイルがなければXMLから読み込む
+		Properties loaded = new Properties();
+		assertTrue(source.load(0, loaded));
+		assertEquals(props, loaded);
+
+		// 保存するとバイナリのファイルに移行し、XMLのファイルはそのまま残す
+		loaded.setProperty("window.width", "1024");
+		assertTrue(source.write(source.encode(loaded)));
+		assertTrue(Files.exists(binFile));
+		assertTrue(Files.exists(xmlFile));
+
+		// 以降はバイナリのファイルから読み込む
+		Properties reloaded = new Properties();
+		assertTrue(source.load(0, reloaded));
+		assertEquals("1024", reloaded.getProperty("window.width"));
+		assertEquals(loaded, reloaded);
+	}
+
+	@Test
+	public void testLoadWithoutFiles() throws IOException {
+		Properties loaded = new Properties();
+		assertFalse(createSource().load(0, loaded));
+		assertTrue(loaded.isEmpty());
+	}
+}
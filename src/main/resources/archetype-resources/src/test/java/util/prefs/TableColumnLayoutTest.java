@@ -0,0 +1,125 @@
+#set( $symbol_pound = '#' )
+#set( $symbol_dollar = '$' )
+#set( $symbol_escape = '\' )
+package ${package}.util.prefs;
+
+import static org.junit.Assert.*;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TableColumnLayoutTest {
+
+	private static Map.Entry<String, Double> entry(String id, double width) {
+		return new AbstractMap.SimpleEntry<>(id, width);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		String[] records = {
+				"1||",
+				"1||colA:100:v",
+				"1|+colA|colA:100:v,colB:80.5:h",
+				"1|-colB,+colA|colB:80:v,colA:120:v",
+				"1|+name|group:200:v[name:120:v,age:80:h],:60:v",
+				"1||outer:300:v[inner:200:v[a:100:v,b:100:v]],:50:h[:25:v,:25:v]",
+		};
+		for (String record : records) {
+			TableColumnLayout layout = TableColumnLayout.parse(record);
+			assertEquals(record, layout.encode());
+			assertEquals(record, TableColumnLayout.parse(layout.encode()).encode());
+		}
+	}
+
+	@Test
+	public void testEscapedId() {
+		String record = "1|+a%7Cb|a%7Cb:100:v,c%3Ad%2Ce:50:v[%5Bx%5D:10:v,100%25:20:h]";
+		TableColumnLayout layout = TableColumnLayout.parse(record);
+		assertEquals(record, layout.encode());
+
+		// 区切り文字を含むidは元の文字に戻る
+		assertEquals(Arrays.asList(entry("a|b", 100d), entry("[x]", 10d),
+				entry("100%", 20d), entry("c:d,e", 50d)), layout.getColumnWidths());
+
+		// 非ASCIIの文字はエスケープせずにそのまま扱う
+		String unicode = "1|-名前|名前:120:v,年齢:80:h";
+		assertEquals(unicode, TableColumnLayout.parse(unicode).encode());
+	}
+
+	@Test
+	public void testLowerCaseEscape() {
+		// 小文字の16進数も受け付け、書き出しは大文字で行う
+		assertEquals("1||a%7Cb:100:v", TableColumnLayout.parse("1||a%7cb:100:v").encode());
+	}
+
+	@Test
+	public void testColumnWidths() {
+		TableColumnLayout layout = TableColumnLayout.parse(
+				"1||group:200:v[name:120:v,age:80:h],:60:v[sub:60:v],last:40.25:v");
+
+		// 子をもつカラムは子の後に並び、idのない親カラムは含まれない
+		List<Map.Entry<String, Double>> widths = layout.getColumnWidths();
+		assertEquals(Arrays.asList(entry("name", 120d), entry("age", 80d),
+				entry("group", 200d), entry("sub", 60d), entry("last", 40.25d)), widths);
+	}
+
+	@Test
+	public void testMalformed() {
+		String[] records = {
+				"",
+				"|",
+				"x||",
+				"2||", // 未対応のバージョン
+				"1",
+				"1|",
+				"1||colA",
+				"1||colA:",
+				"1||colA:100",
+				"1||colA:100:",
+				"1||colA:wide:v",
+				"1||colA:100:x",
+				"1||colA:100:v,",
+				"1||colA:100:vv",
+				"1||colA:100:v]",
+				"1||group:100:v[colA:100:v",
+				"1|*colA|colA:100:v",
+				"1|+colA,colB|colA:100:v",
+				"1||col%:100:v",
+				"1||col%4:100:v",
+				"1||col%ZZ:100:v",
+		};
+		for (String record : records) {
+			try {
+				TableColumnLayout.parse(record);
+				fail("should be rejected: " + record);
+
+			} catch (IllegalArgumentException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().endsWith(": " + record));
+			}
+		}
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void testParseNull() {
+		TableColumnLayout.parse(null);
+	}
+
+	@Test
+	public void testIsLayoutRecord() {
+		assertTrue(TableColumnLayout.isLayoutRecord("1||"));
+		assertTrue(TableColumnLayout.isLayoutRecord("1|+colA|colA:100:v"));
+		assertTrue(TableColumnLayout.isLayoutRecord("12|"));
+
+		// 以前の形式(id:幅のカンマ区切り)
+		assertFalse(TableColumnLayout.isLayoutRecord(""));
+		assertFalse(TableColumnLayout.isLayoutRecord("colA:100,colB:80"));
+		assertFalse(TableColumnLayout.isLayoutRecord("colA:100"));
+		assertFalse(TableColumnLayout.isLayoutRecord("1:100,2:80"));
+		assertFalse(TableColumnLayout.isLayoutRecord("100"));
+		assertFalse(TableColumnLayout.isLayoutRecord("|1"));
+	}
+}